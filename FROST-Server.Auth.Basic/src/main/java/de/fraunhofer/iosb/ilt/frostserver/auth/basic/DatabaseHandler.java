@@ -255,7 +255,7 @@ public class DatabaseHandler {
 
     public String checkForUpgrades(Map<String, Object> params) {
         Settings customSettings = coreSettings.getAuthSettings();
-        try (Connection connection = ConnectionUtils.getConnection(connectionUrl, customSettings)) {
+        try (Connection connection = ConnectionUtils.getConnection(connectionUrl, customSettings, coreSettings.getMetrics())) {
             return LiquibaseHelper.checkForUpgrades(connection, LIQUIBASE_CHANGELOG_FILENAME, params);
         } catch (SQLException ex) {
             LOGGER.error("Could not initialise database.", ex);
@@ -271,7 +271,7 @@ public class DatabaseHandler {
 
     public boolean doUpgrades(Writer out, Map<String, Object> params) throws UpgradeFailedException, IOException {
         Settings customSettings = coreSettings.getAuthSettings();
-        try (Connection connection = ConnectionUtils.getConnection(connectionUrl, customSettings)) {
+        try (Connection connection = ConnectionUtils.getConnection(connectionUrl, customSettings, coreSettings.getMetrics())) {
             return LiquibaseHelper.doUpgrades(connection, LIQUIBASE_CHANGELOG_FILENAME, params, out);
         } catch (SQLException ex) {
             LOGGER.error("Could not initialise database.", ex);
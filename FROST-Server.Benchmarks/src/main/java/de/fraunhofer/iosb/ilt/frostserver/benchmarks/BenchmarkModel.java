@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.CollectionsHelper;
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySetImpl;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeValue;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.path.Version;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.PluginCoreModel;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.math.BigDecimal;
+import net.time4j.Moment;
+import net.time4j.scale.TimeScale;
+
+/**
+ * The CoreModel, initialised without a database, with helpers to create the
+ * paths, queries and entities used by the benchmarks.
+ */
+public class BenchmarkModel {
+
+    public static final String SERVICE_ROOT_URL = "http://localhost:8080/FROST-Server";
+
+    /**
+     * The start of the synthetic time series, 2024-01-01T00:00:00Z.
+     */
+    public static final long START_SECONDS = 1_704_067_200L;
+
+    public final CoreSettings coreSettings;
+    public final ModelRegistry modelRegistry;
+    public final PluginCoreModel pluginCoreModel;
+    public final OfflinePersistenceManager persistenceManager;
+
+    public BenchmarkModel() {
+        coreSettings = new CoreSettings();
+        modelRegistry = coreSettings.getModelRegistry();
+        pluginCoreModel = new PluginCoreModel();
+        pluginCoreModel.init(coreSettings);
+        persistenceManager = new OfflinePersistenceManager();
+        persistenceManager.init(coreSettings);
+        coreSettings.getPluginManager().initPlugins(persistenceManager);
+        persistenceManager.getTableCollection().init(persistenceManager);
+    }
+
+    public ResourcePath parsePath(String path) {
+        return PathParser.parsePath(modelRegistry, SERVICE_ROOT_URL, Version.V_1_1, path);
+    }
+
+    public Query parseQuery(ResourcePath path, String query) {
+        return QueryParser.parseQuery(query, coreSettings.getQueryDefaults(), modelRegistry, path)
+                .validate();
+    }
+
+    /**
+     * Creates an Observation like it would be loaded from the database, with
+     * its Datastream and FeatureOfInterest as id-only entities.
+     *
+     * @param query The query that the Observation is the result of.
+     * @param id The id of the Observation.
+     * @return The Observation.
+     */
+    public Entity createObservation(Query query, long id) {
+        final TimeInstant time = new TimeInstant(Moment.of(START_SECONDS + id * 60, TimeScale.POSIX));
+        return new DefaultEntity(pluginCoreModel.etObservation)
+                .setQuery(query)
+                .setPrimaryKeyValues(PkValue.of(id))
+                .setProperty(pluginCoreModel.epPhenomenonTime, new TimeValue(time))
+                .setProperty(pluginCoreModel.epResultTime, time)
+                .setProperty(pluginCoreModel.epResult, BigDecimal.valueOf(2000 + id % 100, 2))
+                .setProperty(pluginCoreModel.epParameters, CollectionsHelper.propertiesBuilder()
+                        .addProperty("sensorMode", "normal")
+                        .build())
+                .setProperty(pluginCoreModel.npDatastreamObservation, new DefaultEntity(pluginCoreModel.etDatastream, PkValue.of(1L + id / 500)))
+                .setProperty(pluginCoreModel.npFeatureOfInterestObservation, new DefaultEntity(pluginCoreModel.etFeatureOfInterest, PkValue.of(1L)));
+    }
+
+    /**
+     * Creates a set of Observations, as the result of the given query.
+     *
+     * @param query The query that the Observations are the result of.
+     * @param count The number of Observations to create.
+     * @return The set of Observations.
+     */
+    public EntitySet createObservations(Query query, int count) {
+        EntitySet observations = new EntitySetImpl(pluginCoreModel.etObservation);
+        for (long id = 1; id <= count; id++) {
+            observations.add(createObservation(query, id));
+        }
+        observations.setCount(count);
+        return observations;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.QueryBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.bindings.JsonValue;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.DataSize;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.QueryState;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ResultType;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.TableImpObservations;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.time4j.Moment;
+import net.time4j.scale.TimeScale;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning a database record into an Entity, using a synthetic record that has
+ * a value for each of the selected fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityFromRecordBenchmark {
+
+    @Param({"none", "expand"})
+    public String queryCase;
+
+    private Query query;
+    private QueryState<?> queryState;
+    private Record tuple;
+
+    @Setup
+    public void setup() {
+        BenchmarkModel model = new BenchmarkModel();
+        ResourcePath path = model.parsePath(Queries.PATH_OBSERVATIONS);
+        query = model.parseQuery(path, Queries.forCase(queryCase));
+        QueryBuilder queryBuilder = new QueryBuilder(model.persistenceManager)
+                .forPath(path)
+                .usingQuery(query);
+        queryBuilder.buildSelect();
+        queryState = queryBuilder.getQueryState();
+        Set<Field> fields = queryState.getSqlSelectFields();
+        tuple = model.persistenceManager.getDslContext().newRecord(fields.toArray(Field[]::new));
+        for (Field field : fields) {
+            tuple.set(field, valueFor(field));
+        }
+    }
+
+    private static Object valueFor(Field<?> field) {
+        if (TableImpObservations.NAME_COL_RESULTSTRING.equals(field.getName())) {
+            return "21.5";
+        }
+        final Class<?> type = field.getType();
+        if (type == Long.class) {
+            return 42L;
+        }
+        if (type == Short.class) {
+            return ResultType.NUMBER.sqlValue();
+        }
+        if (type == Double.class) {
+            return 21.5;
+        }
+        if (type == BigDecimal.class) {
+            return new BigDecimal("21.5");
+        }
+        if (type == Boolean.class) {
+            return Boolean.FALSE;
+        }
+        if (type == Moment.class) {
+            return Moment.of(BenchmarkModel.START_SECONDS, TimeScale.POSIX);
+        }
+        if (type == JsonValue.class) {
+            return new JsonValue("{\"sensorMode\":\"normal\",\"calibrated\":true}");
+        }
+        if (type == String.class) {
+            return "A synthetic text value";
+        }
+        return null;
+    }
+
+    @Benchmark
+    public Entity entityFromRecord() {
+        return queryState.entityFromRecord(tuple, new DataSize(Long.MAX_VALUE), query);
+    }
+
+}
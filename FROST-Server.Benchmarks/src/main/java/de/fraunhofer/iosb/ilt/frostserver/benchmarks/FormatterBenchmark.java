@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.format.csv.ResultFormatterCsv;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.format.dataarray.PluginResultFormatDataArray;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.format.dataarray.ResultFormatterDataArray;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.output.NullWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Formatting a set of Observations with the CSV and DataArray result
+ * formatters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatterBenchmark {
+
+    @Param({"100", "1000"})
+    public int count;
+
+    private ResourcePath path;
+    private Query query;
+    private EntitySet observations;
+    private ResultFormatterCsv formatterCsv;
+    private ResultFormatterDataArray formatterDataArray;
+
+    @Setup
+    public void setup() {
+        BenchmarkModel model = new BenchmarkModel();
+        PluginResultFormatDataArray.modifyEntityFormatter();
+        path = model.parsePath(Queries.PATH_OBSERVATIONS);
+        query = model.parseQuery(path, Queries.QUERY_SIMPLE);
+        observations = model.createObservations(query, count);
+        formatterCsv = new ResultFormatterCsv();
+        formatterDataArray = new ResultFormatterDataArray(model.coreSettings);
+    }
+
+    @Benchmark
+    public void formatCsv() throws IOException {
+        formatterCsv.format(path, query, observations, false)
+                .writeFormatted(NullWriter.INSTANCE);
+    }
+
+    @Benchmark
+    public void formatDataArray() throws IOException {
+        formatterDataArray.format(path, query, observations, false)
+                .writeFormatted(NullWriter.INSTANCE);
+    }
+
+}
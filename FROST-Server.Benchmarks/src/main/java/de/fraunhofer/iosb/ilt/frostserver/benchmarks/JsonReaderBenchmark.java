@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.JsonReaderDefault;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.PluginCoreModel;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing the JSON of create requests into Entities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonReaderBenchmark {
+
+    private static final String JSON_OBSERVATION = "{\n"
+            + "  \"phenomenonTime\": \"2024-01-01T12:00:00Z\",\n"
+            + "  \"resultTime\": \"2024-01-01T12:00:05Z\",\n"
+            + "  \"result\": 21.5,\n"
+            + "  \"parameters\": {\"sensorMode\": \"normal\", \"calibrated\": true},\n"
+            + "  \"Datastream\": {\"@iot.id\": 1},\n"
+            + "  \"FeatureOfInterest\": {\"@iot.id\": 1}\n"
+            + "}";
+
+    private static final String JSON_THING_DEEP = "{\n"
+            + "  \"name\": \"Kitchen\",\n"
+            + "  \"description\": \"The kitchen of the house\",\n"
+            + "  \"properties\": {\"floor\": 0, \"tags\": [\"indoor\", \"heated\"]},\n"
+            + "  \"Locations\": [{\n"
+            + "    \"name\": \"Kitchen location\",\n"
+            + "    \"description\": \"The location of the kitchen\",\n"
+            + "    \"encodingType\": \"application/geo+json\",\n"
+            + "    \"location\": {\"type\": \"Point\", \"coordinates\": [8.4259727, 49.0140680]}\n"
+            + "  }],\n"
+            + "  \"Datastreams\": [{\n"
+            + "    \"name\": \"Temperature\",\n"
+            + "    \"description\": \"The temperature in the kitchen\",\n"
+            + "    \"observationType\": \"http://www.opengis.net/def/observationType/OGC-OM/2.0/OM_Measurement\",\n"
+            + "    \"unitOfMeasurement\": {\"name\": \"Degree Celsius\", \"symbol\": \"degC\", \"definition\": \"http://www.qudt.org/qudt/owl/1.0.0/unit/Instances.html#DegreeCelsius\"},\n"
+            + "    \"ObservedProperty\": {\"@iot.id\": 1},\n"
+            + "    \"Sensor\": {\"@iot.id\": 1},\n"
+            + "    \"Observations\": [\n"
+            + "      {\"phenomenonTime\": \"2024-01-01T12:00:00Z\", \"result\": 21.5},\n"
+            + "      {\"phenomenonTime\": \"2024-01-01T12:01:00Z\", \"result\": 21.6},\n"
+            + "      {\"phenomenonTime\": \"2024-01-01T12:02:00Z\", \"result\": 21.4}\n"
+            + "    ]\n"
+            + "  }]\n"
+            + "}";
+
+    private PluginCoreModel pluginCoreModel;
+    private JsonReaderDefault reader;
+
+    @Setup
+    public void setup() {
+        BenchmarkModel model = new BenchmarkModel();
+        pluginCoreModel = model.pluginCoreModel;
+        reader = new JsonReaderDefault(model.modelRegistry);
+    }
+
+    @Benchmark
+    public Entity parseObservation() throws IOException {
+        return reader.parseEntity(pluginCoreModel.etObservation, JSON_OBSERVATION);
+    }
+
+    @Benchmark
+    public Entity parseThingDeep() throws IOException {
+        return reader.parseEntity(pluginCoreModel.etThing, JSON_THING_DEEP);
+    }
+
+}
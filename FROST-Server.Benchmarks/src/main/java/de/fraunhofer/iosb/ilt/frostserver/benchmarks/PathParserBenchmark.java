@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.path.Version;
+import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of resource paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathParserBenchmark {
+
+    /**
+     * The number of syntax trees the parser remembers, 0 disables the cache.
+     */
+    @Param({"0", "1000"})
+    public int parseCacheSize;
+
+    @Param({"short", "deep"})
+    public String pathCase;
+
+    private BenchmarkModel model;
+    private String path;
+
+    @Setup
+    public void setup() {
+        model = new BenchmarkModel();
+        model.coreSettings.getPathParseCache().setMaxSize(parseCacheSize);
+        path = "deep".equals(pathCase) ? Queries.PATH_DEEP : Queries.PATH_OBSERVATIONS;
+    }
+
+    @Benchmark
+    public ResourcePath parsePath() {
+        return PathParser.parsePath(model.coreSettings, BenchmarkModel.SERVICE_ROOT_URL, Version.V_1_1, path, PrincipalExtended.ANONYMOUS_PRINCIPAL);
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+/**
+ * The paths and queries used by the benchmarks.
+ */
+public class Queries {
+
+    public static final String PATH_OBSERVATIONS = "/Datastreams(1)/Observations";
+    public static final String PATH_DEEP = "/Things(1)/Datastreams(2)/Sensor/Datastreams(3)/Observations";
+
+    /**
+     * A sorted page, as used by most clients.
+     */
+    public static final String QUERY_SIMPLE = "$top=100&$orderby=phenomenonTime desc&$count=true";
+
+    /**
+     * A filter with comparisons, a function and a navigation.
+     */
+    public static final String QUERY_FILTER = "$top=100&$filter=result gt 5 and phenomenonTime ge 2024-01-01T00:00:00Z"
+            + " and (substringof('Temperature', Datastream/name) or FeatureOfInterest/properties/type eq 'room')";
+
+    /**
+     * Nested expands with select.
+     */
+    public static final String QUERY_EXPAND = "$top=100&$select=id,result,phenomenonTime"
+            + "&$expand=Datastream($select=name,unitOfMeasurement;$expand=Thing($select=name)),FeatureOfInterest($select=name,feature)";
+
+    private Queries() {
+        // Utility class.
+    }
+
+    /**
+     * Returns the query for the given case name.
+     *
+     * @param queryCase The case name, one of "none", "simple", "filter" or
+     * "expand".
+     * @return The query string for the case.
+     */
+    public static String forCase(String queryCase) {
+        switch (queryCase) {
+            case "none":
+                return "";
+
+            case "simple":
+                return QUERY_SIMPLE;
+
+            case "filter":
+                return QUERY_FILTER;
+
+            case "expand":
+                return QUERY_EXPAND;
+
+            default:
+                throw new IllegalArgumentException("Unknown query case: " + queryCase);
+        }
+    }
+}
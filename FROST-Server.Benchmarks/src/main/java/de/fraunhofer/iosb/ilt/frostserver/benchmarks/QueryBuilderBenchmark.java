@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.benchmarks;
+
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.QueryBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import java.util.concurrent.TimeUnit;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+import org.jooq.conf.ParamType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the SQL select for a parsed path and query on the CoreModel
+ * tables, and rendering it to a SQL String, as happens before each query is
+ * sent to the database. The cached variant re-uses the SQL rendered for an
+ * earlier request with the same path and query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBuilderBenchmark {
+
+    @Param({"none", "simple", "filter", "expand"})
+    public String queryCase;
+
+    private BenchmarkModel model;
+    private ResourcePath path;
+    private Query query;
+
+    @Setup
+    public void setup() {
+        model = new BenchmarkModel();
+        path = model.parsePath(Queries.PATH_OBSERVATIONS);
+        query = model.parseQuery(path, Queries.forCase(queryCase));
+    }
+
+    @Benchmark
+    public ResultQuery<Record> buildSelect() {
+        return new QueryBuilder(model.persistenceManager)
+                .forPath(path)
+                .usingQuery(query)
+                .buildSelect();
+    }
+
+    @Benchmark
+    public String buildAndRenderSelect() {
+        return buildSelect().getSQL(ParamType.INDEXED);
+    }
+
+    @Benchmark
+    public String buildCachedAndRenderSelect() {
+        return new QueryBuilder(model.persistenceManager)
+                .forPath(path)
+                .usingQuery(query)
+                .buildCachedSelect()
+                .getSQL(ParamType.INDEXED);
+    }
+
+}
@@ -76,6 +76,12 @@ public class ModelRegistry {
 
     private CustomLinksHelper customLinksHelper;
 
+    /**
+     * Counts the changes to the model, so that documents generated from the
+     * model can be regenerated when it changes.
+     */
+    private volatile int modelVersion;
+
     /**
      * Entities need queries, even when sent through messages.
      */
@@ -106,6 +112,7 @@ public class ModelRegistry {
             entityTypesNonAdmin.add(type);
         }
         type.setModelRegistry(this);
+        modelChanged();
         return this;
     }
 
@@ -151,7 +158,9 @@ public class ModelRegistry {
     }
 
     public ModelRegistry registerPropertyType(PropertyType type) {
-        propertyTypes.put(type.getName(), type);
+        if (propertyTypes.put(type.getName(), type) != type) {
+            modelChanged();
+        }
         return this;
     }
 
@@ -192,6 +201,24 @@ public class ModelRegistry {
         for (EntityType type : entityTypesAll) {
             type.init();
         }
+        modelChanged();
+    }
+
+    /**
+     * Signal that the model changed. Must be called by code that changes
+     * registered types in place.
+     */
+    public synchronized void modelChanged() {
+        modelVersion++;
+    }
+
+    /**
+     * The version of the model, that changes each time the model changes.
+     *
+     * @return The version of the model.
+     */
+    public int getModelVersion() {
+        return modelVersion;
     }
 
     public CustomLinksHelper getCustomLinksHelper() {
@@ -224,7 +224,7 @@ public abstract class Function implements Expression {
 
     @Override
     public int hashCode() {
-        return Objects.hash(parameters, allowedTypeBindings);
+        return Objects.hash(parameters, getAllowedTypeBindings());
     }
 
     @Override
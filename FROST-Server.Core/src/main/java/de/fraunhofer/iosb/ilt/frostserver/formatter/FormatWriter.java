@@ -18,8 +18,11 @@
 package de.fraunhofer.iosb.ilt.frostserver.formatter;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author hylke
@@ -53,4 +56,21 @@ public interface FormatWriter {
      */
     public void writeFormatted(Writer target) throws IOException;
 
+    /**
+     * Write the formatted data to the target OutputStream, encoded as UTF-8.
+     * Either this, {@link #writeFormatted(java.io.Writer)} or
+     * {@link #getFormatted()} can be called, but only one of them. The default
+     * implementation wraps the stream in a Writer, implementations that can
+     * generate bytes directly should override this.
+     *
+     * @param target the OutputStream to write the formatted data to.
+     *
+     * @throws java.io.IOException when Writing fails.
+     */
+    public default void writeFormatted(OutputStream target) throws IOException {
+        Writer writer = new OutputStreamWriter(target, StandardCharsets.UTF_8);
+        writeFormatted(writer);
+        writer.flush();
+    }
+
 }
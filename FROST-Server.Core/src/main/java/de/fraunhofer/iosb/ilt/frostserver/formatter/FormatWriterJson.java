@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.formatter;
+
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A FormatWriter that serialises an object to JSON with the default
+ * ObjectMapper. When written to an OutputStream, the UTF-8 bytes are generated
+ * directly, without an intermediate Writer.
+ */
+public class FormatWriterJson implements FormatWriter {
+
+    private final Object data;
+
+    public FormatWriterJson(Object data) {
+        this.data = data;
+    }
+
+    @Override
+    public void writeFormatted(Writer target) throws IOException {
+        JsonWriter.writeObject(target, data);
+    }
+
+    @Override
+    public void writeFormatted(OutputStream target) throws IOException {
+        JsonWriter.writeObject(target, data);
+    }
+}
@@ -19,9 +19,9 @@ package de.fraunhofer.iosb.ilt.frostserver.formatter;
 
 import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.CONTENT_TYPE_APPLICATION_JSON;
 
-import de.fraunhofer.iosb.ilt.frostserver.json.serialize.JsonWriter;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.EntitySetResult;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import java.util.Map;
@@ -48,23 +48,23 @@ public class ResultFormatterDefault implements ResultFormatter {
     public FormatWriter format(ResourcePath path, Query query, Object result, boolean useAbsoluteNavigationLinks) {
         if (result instanceof Entity entity) {
             LOGGER.trace("Formatting as Entity.");
-            return target -> JsonWriter.writeEntity(target, entity);
+            return new FormatWriterJson(entity);
         }
         if (result instanceof EntitySet entitySet) {
             LOGGER.trace("Formatting as EntitySet.");
-            return target -> JsonWriter.writeEntityCollection(target, entitySet, query);
+            return new FormatWriterJson(new EntitySetResult(entitySet, query));
         }
         // Not an Entity nor an EntitySet.
         if (path != null && path.isValue()) {
             LOGGER.trace("Formatting as $Value.");
             if (result instanceof Map || result instanceof GeoJsonObject) {
-                return target -> JsonWriter.writeObject(target, result);
+                return new FormatWriterJson(result);
             } else {
                 return target -> target.append(Objects.toString(result));
             }
         } else {
             LOGGER.trace("Formatting as Object.");
-            return target -> JsonWriter.writeObject(target, result);
+            return new FormatWriterJson(result);
         }
     }
 
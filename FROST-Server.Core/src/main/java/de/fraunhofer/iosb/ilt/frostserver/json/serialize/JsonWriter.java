@@ -18,6 +18,8 @@
 package de.fraunhofer.iosb.ilt.frostserver.json.serialize;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
@@ -31,6 +33,7 @@ import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeObject;
 import de.fraunhofer.iosb.ilt.frostserver.property.Property;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.time.OffsetDateTime;
 import java.util.Date;
@@ -104,6 +107,24 @@ public class JsonWriter {
         getObjectMapper().writeValue(writer, object);
     }
 
+    /**
+     * Writes the given object as UTF-8 encoded JSON directly to the given
+     * stream. Data is passed on to the stream whenever the (recycled) buffer of
+     * the generator is full, so the full result is never held in memory. The
+     * stream is not closed.
+     *
+     * @param out The stream to write to.
+     * @param object The object to write.
+     * @throws IOException If writing to the stream fails.
+     */
+    public static void writeObject(OutputStream out, Object object) throws IOException {
+        final ObjectMapper mapper = getObjectMapper();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            mapper.writeValue(generator, object);
+        }
+    }
+
     public static String writeObject(Object object) throws IOException {
         return getObjectMapper().writeValueAsString(object);
     }
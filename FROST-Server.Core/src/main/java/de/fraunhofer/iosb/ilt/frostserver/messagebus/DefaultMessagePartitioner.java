@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The default MessagePartitioner. Depending on the configuration, messages are
+ * not partitioned, partitioned by entity type, partitioned by entity, or
+ * partitioned by parent entity. When partitioning by entity, the key is made
+ * from the entity type and primary key only, so that all messages for one
+ * entity, of any event type, get the same key. When partitioning by parent,
+ * entities with a configured parent, like the Datastream of an Observation,
+ * get the key of that parent.
+ */
+public class DefaultMessagePartitioner implements MessagePartitioner, ConfigDefaults {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultMessagePartitioner.class);
+
+    @DefaultValue("NONE")
+    public static final String TAG_PARTITION_KEY = "partitionKey";
+    @DefaultValue("Observation.Datastream,Observation.MultiDatastream")
+    public static final String TAG_PARTITION_PARENTS = "partitionParents";
+
+    /**
+     * The possible ways to partition messages.
+     */
+    public enum PartitionKey {
+        /**
+         * Messages have no key, and can be processed in any order.
+         */
+        NONE,
+        /**
+         * Messages are ordered per entity type.
+         */
+        ENTITY_TYPE,
+        /**
+         * Messages are ordered per entity.
+         */
+        ENTITY,
+        /**
+         * Messages are ordered per parent entity, or per entity for entities
+         * without a configured parent.
+         */
+        PARENT;
+
+        public static PartitionKey fromValue(String value) {
+            try {
+                return PartitionKey.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException exc) {
+                LOGGER.error("No PartitionKey named {}, should be one of {}", value, PartitionKey.values());
+                return NONE;
+            }
+        }
+    }
+
+    private PartitionKey partitionKey;
+    private PartitionParents partitionParents;
+
+    @Override
+    public void init(CoreSettings settings) {
+        final Settings customSettings = settings.getBusSettings().getCustomSettings();
+        partitionKey = PartitionKey.fromValue(customSettings.get(TAG_PARTITION_KEY, getClass()));
+        partitionParents = createPartitionParents(settings);
+    }
+
+    /**
+     * Create the PartitionParents configured in the bus settings.
+     *
+     * @param settings The settings to read the parents from.
+     * @return The configured PartitionParents.
+     */
+    public static PartitionParents createPartitionParents(CoreSettings settings) {
+        final Settings customSettings = settings.getBusSettings().getCustomSettings();
+        return new PartitionParents(customSettings.get(TAG_PARTITION_PARENTS, DefaultMessagePartitioner.class));
+    }
+
+    @Override
+    public boolean isPartitioning() {
+        return partitionKey != PartitionKey.NONE;
+    }
+
+    @Override
+    public String partitionKey(EntityChangedMessage message) {
+        switch (partitionKey) {
+            case ENTITY_TYPE:
+                return message.getEntity().getEntityType().entityName;
+
+            case ENTITY:
+                return MessagePartitioner.entityKey(message);
+
+            case PARENT:
+                return partitionParents.key(message.getEntity());
+
+            default:
+                return null;
+        }
+    }
+}
@@ -19,18 +19,16 @@ package de.fraunhofer.iosb.ilt.frostserver.messagebus;
 
 import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.PREFIX_BUS;
 
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.frostserver.settings.BusSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
-import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,9 +49,11 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(InternalMessageBus.class);
+    private static final String QUEUE_NAME = "bus_internal";
 
-    private BlockingQueue<EntityChangedMessage> entityChangedMessageQueue;
-    private ExecutorService entityChangedExecutorService;
+    private PartitionedProcessors<EntityChangedMessage> processors;
+    private MessagePartitioner partitioner;
+    private ServerMetrics metrics;
     private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
     private int poolSize;
     private int queueSize;
@@ -65,27 +65,23 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
         poolSize = customSettings.getInt(TAG_WORKER_COUNT, defaultValueInt(TAG_WORKER_COUNT));
         queueSize = customSettings.getInt(TAG_QUEUE_SIZE, defaultValueInt(TAG_QUEUE_SIZE));
 
-        entityChangedMessageQueue = new ArrayBlockingQueue<>(queueSize);
-        entityChangedExecutorService = ProcessorHelper.createProcessors(
+        partitioner = MessageBusFactory.createPartitioner(settings);
+        metrics = settings.getMetrics();
+        // When partitioning, each worker gets its own queue, so that messages
+        // with the same key are handled in order.
+        processors = new PartitionedProcessors<>(
+                partitioner.isPartitioning(),
                 poolSize,
-                entityChangedMessageQueue,
-                this::handleMessage,
-                "IntBusPrc");
+                queueSize,
+                (queue, message) -> handleMessage(message),
+                "IntBusPrc",
+                new ArrayList<>());
+        processors.exportMetrics(metrics, QUEUE_NAME);
     }
 
     @Override
     public void stop() {
-        entityChangedExecutorService.shutdown();
-        try {
-            if (entityChangedExecutorService.awaitTermination(2, TimeUnit.SECONDS)) {
-                return;
-            }
-        } catch (InterruptedException ex) {
-            LOGGER.error("Interrupted while waiting for shutdown.", ex);
-            Thread.currentThread().interrupt();
-        }
-        List<Runnable> list = entityChangedExecutorService.shutdownNow();
-        LOGGER.warn("There were {} messages left on the queue.", list.size());
+        processors.shutdown(2, TimeUnit.SECONDS);
     }
 
     @Override
@@ -94,12 +90,20 @@ public class InternalMessageBus implements MessageBus, ConfigDefaults {
             // No listeners, no point in doing anything.
             return;
         }
-        if (!entityChangedMessageQueue.offer(message)) {
+        if (!processors.offer(partitioner.partition(message, processors.getPartitionCount()), message)) {
+            metrics.queueDropped(QUEUE_NAME).increment();
             LOGGER.error("Failed to add message to message bus. Increase {}{} (currently {}) to allow a bigger buffer, or increase {}{} (currently {}) to empty the buffer quicker.",
                     PREFIX_BUS, TAG_QUEUE_SIZE, queueSize, PREFIX_BUS, TAG_WORKER_COUNT, poolSize);
         }
     }
 
+    @Override
+    public boolean deliverMessages(List<EntityChangedMessage> messages) {
+        // Delivered directly, on the thread of the caller.
+        messages.forEach(this::handleMessage);
+        return true;
+    }
+
     @Override
     public void addMessageListener(MessageListener listener) {
         listeners.add(listener);
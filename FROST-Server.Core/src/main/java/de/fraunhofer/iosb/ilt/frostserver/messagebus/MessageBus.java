@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.frostserver.messagebus;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.List;
 
 /**
  *
@@ -41,6 +42,23 @@ public interface MessageBus {
      */
     public void sendMessage(EntityChangedMessage message);
 
+    /**
+     * Hand a batch of messages to the bus, blocking until they are delivered
+     * or handed over to the underlying transport. Unlike
+     * {@link #sendMessage(EntityChangedMessage)} this must not silently drop
+     * messages. The default implementation uses
+     * {@link #sendMessage(EntityChangedMessage)} and thus gives no such
+     * guarantee.
+     *
+     * @param messages the messages to deliver.
+     * @return true if all messages were delivered, false if the caller should
+     * try again later.
+     */
+    public default boolean deliverMessages(List<EntityChangedMessage> messages) {
+        messages.forEach(this::sendMessage);
+        return true;
+    }
+
     public void addMessageListener(MessageListener listener);
 
     public void removeMessageListener(MessageListener listener);
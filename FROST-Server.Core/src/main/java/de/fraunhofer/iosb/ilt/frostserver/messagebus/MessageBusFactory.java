@@ -66,6 +66,25 @@ public class MessageBusFactory {
         }
     }
 
+    /**
+     * Create and initialise the MessagePartitioner configured in the bus
+     * settings.
+     *
+     * @param settings The settings to use.
+     * @return The initialised MessagePartitioner.
+     */
+    public static MessagePartitioner createPartitioner(CoreSettings settings) {
+        String clsName = settings.getBusSettings().getPartitionerClass();
+        try {
+            Class<?> partitionerClass = Class.forName(clsName);
+            MessagePartitioner instance = (MessagePartitioner) partitionerClass.getDeclaredConstructor().newInstance();
+            instance.init(settings);
+            return instance;
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException | SecurityException | IllegalArgumentException | InvocationTargetException ex) {
+            throw new IllegalArgumentException("Could not generate MessagePartitioner instance: Class '" + clsName + "' could not be started", ex);
+        }
+    }
+
     private MessageBusFactory() {
         // should not be instantiated.
     }
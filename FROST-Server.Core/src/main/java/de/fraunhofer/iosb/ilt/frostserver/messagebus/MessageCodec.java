@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.JsonReaderDefault;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.JsonWriter;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Encodes and decodes the messages sent between FROST instances.
+ *
+ * Messages are encoded in the configured format, a single message as an
+ * object, multiple messages as an array. When decoding, the format is detected
+ * from the content: Smile data starts with the Smile header, anything else is
+ * JSON. Thus any instance can decode the messages of any other instance, and
+ * an instance that sends JSON with one message at a time can be decoded by
+ * older versions too.
+ */
+public class MessageCodec {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageCodec.class);
+
+    /**
+     * The formats in which messages can be encoded.
+     */
+    public enum Format {
+        /**
+         * Plain JSON, understood by all versions.
+         */
+        JSON,
+        /**
+         * The binary Smile encoding of JSON.
+         */
+        SMILE;
+
+        public static Format fromValue(String value) {
+            try {
+                return Format.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException exc) {
+                LOGGER.error("No Format named {}, should be one of {}", value, Format.values());
+                return JSON;
+            }
+        }
+    }
+
+    private final ObjectMapper formatter;
+    private final ObjectMapper parserJson;
+    private final ObjectMapper parserSmile;
+
+    public MessageCodec(ModelRegistry modelRegistry, Format format) {
+        final ObjectMapper jsonFormatter = JsonWriter.getObjectMapper();
+        formatter = format == Format.SMILE
+                ? jsonFormatter.copyWith(new SmileFactory())
+                : jsonFormatter;
+        parserJson = new JsonReaderDefault(modelRegistry, true).getMapper();
+        parserSmile = parserJson.copyWith(new SmileFactory());
+    }
+
+    /**
+     * Encode the given messages. A single message is encoded as an object,
+     * multiple messages as an array.
+     *
+     * @param messages The messages to encode.
+     * @return The encoded messages.
+     * @throws JsonProcessingException If the messages can not be encoded.
+     */
+    public byte[] encode(List<EntityChangedMessage> messages) throws JsonProcessingException {
+        if (messages.size() == 1) {
+            return formatter.writeValueAsBytes(messages.get(0));
+        }
+        return formatter.writeValueAsBytes(messages);
+    }
+
+    /**
+     * Decode the given data, in any of the supported formats, holding either a
+     * single message or an array of messages.
+     *
+     * @param data The data to decode.
+     * @return The decoded messages.
+     * @throws IOException If the data could not be decoded.
+     */
+    public List<EntityChangedMessage> decode(byte[] data) throws IOException {
+        final ObjectMapper parser = isSmile(data) ? parserSmile : parserJson;
+        final List<EntityChangedMessage> result = new ArrayList<>();
+        try (JsonParser jsonParser = parser.createParser(data)) {
+            if (jsonParser.nextToken() == JsonToken.START_ARRAY) {
+                while (jsonParser.nextToken() == JsonToken.START_OBJECT) {
+                    result.add(parser.readValue(jsonParser, EntityChangedMessage.class));
+                }
+            } else {
+                result.add(parser.readValue(jsonParser, EntityChangedMessage.class));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSmile(byte[] data) {
+        return data.length >= 3
+                && data[0] == SmileConstants.HEADER_BYTE_1
+                && data[1] == SmileConstants.HEADER_BYTE_2
+                && data[2] == SmileConstants.HEADER_BYTE_3;
+    }
+}
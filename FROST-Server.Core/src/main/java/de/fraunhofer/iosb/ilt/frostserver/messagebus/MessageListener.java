@@ -32,4 +32,15 @@ public interface MessageListener {
      * @param message The message that was received.
      */
     public void messageReceived(EntityChangedMessage message);
+
+    /**
+     * Whether this listener needs all messages, also those of partitions that
+     * are handled by other instances. Listeners that keep caches in sync with
+     * the data need all messages.
+     *
+     * @return true if this listener needs the messages of all partitions.
+     */
+    public default boolean needsAllPartitions() {
+        return false;
+    }
 }
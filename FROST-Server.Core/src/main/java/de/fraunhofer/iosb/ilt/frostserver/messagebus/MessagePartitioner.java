@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+
+/**
+ * Decides which messages must be delivered in order, by giving them a
+ * partition key. Message buses that process messages in parallel keep the
+ * order of messages that have the same key, by handling them in the same
+ * partition.
+ */
+public interface MessagePartitioner {
+
+    public void init(CoreSettings settings);
+
+    /**
+     * Get the key of the given message. Messages with the same key are
+     * delivered in the order they were sent. The key must be the same on all
+     * instances for the same message.
+     *
+     * @param message The message to get the key for.
+     * @return The key of the message, or null if the message does not need to
+     * be delivered in any particular order.
+     */
+    public String partitionKey(EntityChangedMessage message);
+
+    /**
+     * Whether this partitioner gives keys to messages at all. If not, buses
+     * can process all messages in parallel.
+     *
+     * @return true if messages have partition keys.
+     */
+    public boolean isPartitioning();
+
+    /**
+     * Get the partition of the given message. Messages without a key are
+     * partitioned by their entity key, so that the partition of a message
+     * never depends on chance.
+     *
+     * @param message The message to get the partition for.
+     * @param partitionCount The number of partitions.
+     * @return The partition, between 0 (inclusive) and partitionCount
+     * (exclusive).
+     */
+    public default int partition(EntityChangedMessage message, int partitionCount) {
+        if (partitionCount <= 1) {
+            return 0;
+        }
+        final String key = partitionKey(message);
+        if (key == null) {
+            return partitionOf(entityKey(message), partitionCount);
+        }
+        return partitionOf(key, partitionCount);
+    }
+
+    /**
+     * Get the key of the entity of the given message, made from the entity
+     * type and the primary key of the entity. All messages for one entity get
+     * the same key, regardless of the event type.
+     *
+     * @param message The message to get the entity key for.
+     * @return The key of the entity of the message.
+     */
+    public static String entityKey(EntityChangedMessage message) {
+        final Entity entity = message.getEntity();
+        return PartitionParents.key(entity.getEntityType(), entity.getPrimaryKeyValues());
+    }
+
+    /**
+     * Get the partition for the given key.
+     *
+     * @param key The key to get the partition for.
+     * @param partitionCount The number of partitions.
+     * @return The partition, between 0 (inclusive) and partitionCount
+     * (exclusive).
+     */
+    public static int partitionOf(String key, int partitionCount) {
+        if (partitionCount <= 1) {
+            return 0;
+        }
+        return Math.floorMod(key.hashCode(), partitionCount);
+    }
+}
@@ -20,11 +20,8 @@ package de.fraunhofer.iosb.ilt.frostserver.messagebus;
 import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.PREFIX_BUS;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.JsonReaderDefault;
-import de.fraunhofer.iosb.ilt.frostserver.json.serialize.JsonWriter;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
-import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
 import de.fraunhofer.iosb.ilt.frostserver.settings.BusSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
@@ -41,12 +38,16 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -66,6 +67,18 @@ import org.slf4j.LoggerFactory;
 /**
  * A message bus implementation for out-of-JVM use.
  *
+ * Messages are sent in the configured format, with up to the configured
+ * number of messages per MQTT message. Received messages may be in any format
+ * the {@link MessageCodec} understands.
+ *
+ * With a partition count larger than 0, messages are published to one
+ * sub-topic per partition, as assigned by the {@link MessagePartitioner}, and
+ * only the configured partitions are handled by all listeners. Listeners that
+ * need all messages, like caches that are invalidated by messages, also get
+ * the messages of the other partitions. When the partitioner gives
+ * messages a key, each worker has its own queue, so that messages with the
+ * same key are sent and handled in order.
+ *
  * @author scf
  */
 public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults {
@@ -86,27 +99,54 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     public static final String TAG_QOS_LEVEL = "qosLevel";
     @DefaultValueInt(50)
     public static final String TAG_MAX_IN_FLIGHT = "maxInFlight";
+    @DefaultValue("JSON")
+    public static final String TAG_MESSAGE_FORMAT = "messageFormat";
+    @DefaultValueInt(1)
+    public static final String TAG_SEND_BATCH_SIZE = "sendBatchSize";
+    @DefaultValueInt(0)
+    public static final String TAG_SEND_LINGER_MS = "sendLingerMs";
+    @DefaultValueInt(0)
+    public static final String TAG_PARTITION_COUNT = "partitionCount";
+    @DefaultValue("")
+    public static final String TAG_PARTITIONS = "partitions";
 
     /**
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(MqttMessageBus.class);
+    private static final String QUEUE_SEND = "bus_mqtt_send";
+    private static final String QUEUE_RECV = "bus_mqtt_receive";
 
     private int sendPoolSize;
     private int sendQueueSize;
     private int recvPoolSize;
     private int recvQueueSize;
+    private int sendBatchSize;
+    private long sendLingerMs;
 
-    private BlockingQueue<EntityChangedMessage> sendQueue;
-    private ExecutorService sendService;
-    private List<Processor<EntityChangedMessage>> sendProcessors = new ArrayList<>();
+    private PartitionedProcessors<EntityChangedMessage> sendProcessors;
+    private List<Processor<EntityChangedMessage>> sendProcessorList = new ArrayList<>();
 
-    private BlockingQueue<EntityChangedMessage> recvQueue;
-    private ExecutorService recvService;
-    private List<Processor<EntityChangedMessage>> recvProcessors = new ArrayList<>();
+    private PartitionedProcessors<EntityChangedMessage> recvProcessors;
+    private List<Processor<EntityChangedMessage>> recvProcessorList = new ArrayList<>();
+
+    private MessagePartitioner partitioner;
+    private int partitionCount;
+    private ServerMetrics metrics;
+    /**
+     * The topics of the partitions this instance handles.
+     */
+    private String[] ownTopics;
+    /**
+     * The topics of the partitions this instance does not handle. These are
+     * only subscribed to when a listener needs all partitions.
+     */
+    private Set<String> otherTopics;
+    private boolean allPartitions = false;
 
     private ScheduledExecutorService maintenanceTimer;
     private final List<MessageListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<MessageListener> allPartitionListeners = new CopyOnWriteArrayList<>();
 
     private final ChangingStatusLogger statusLogger = new ChangingStatusLogger(LOGGER);
     private final AtomicInteger sendQueueCount = new AtomicInteger();
@@ -120,8 +160,7 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     private int maxInFlight;
     private boolean listening = false;
 
-    private ObjectMapper formatter;
-    private JsonReaderDefault parser;
+    private MessageCodec codec;
 
     @Override
     public void init(CoreSettings settings) {
@@ -131,32 +170,40 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
         sendQueueSize = customSettings.getInt(TAG_SEND_QUEUE_SIZE, getClass());
         recvPoolSize = customSettings.getInt(TAG_RECV_WORKER_COUNT, getClass());
         recvQueueSize = customSettings.getInt(TAG_RECV_QUEUE_SIZE, getClass());
+        sendBatchSize = Math.max(1, customSettings.getInt(TAG_SEND_BATCH_SIZE, getClass()));
+        sendLingerMs = customSettings.getInt(TAG_SEND_LINGER_MS, getClass());
 
-        sendQueue = new ArrayBlockingQueue<>(sendQueueSize);
-        sendService = ProcessorHelper.createProcessors(
+        partitioner = MessageBusFactory.createPartitioner(settings);
+        partitionCount = customSettings.getInt(TAG_PARTITION_COUNT, getClass());
+
+        sendProcessors = new PartitionedProcessors<>(
+                partitioner.isPartitioning(),
                 sendPoolSize,
-                sendQueue,
+                sendQueueSize,
                 this::handleMessageSent,
                 "mqtt-BusS",
-                sendProcessors);
+                sendProcessorList);
 
-        recvQueue = new ArrayBlockingQueue<>(recvQueueSize);
-        recvService = ProcessorHelper.createProcessors(
+        recvProcessors = new PartitionedProcessors<>(
+                partitioner.isPartitioning(),
                 recvPoolSize,
-                recvQueue,
-                this::handleMessageReceived,
+                recvQueueSize,
+                (queue, message) -> handleMessageReceived(message),
                 "mqtt-BusR",
-                recvProcessors);
+                recvProcessorList);
+        metrics = settings.getMetrics();
+        sendProcessors.exportMetrics(metrics, QUEUE_SEND);
+        recvProcessors.exportMetrics(metrics, QUEUE_RECV);
 
         broker = customSettings.get(TAG_MQTT_BROKER, getClass());
         topicName = customSettings.get(TAG_TOPIC_NAME, getClass());
         qosLevel = customSettings.getInt(TAG_QOS_LEVEL, getClass());
+        initSubscribeTopics(customSettings.get(TAG_PARTITIONS, getClass()));
         maxInFlight = customSettings.getInt(TAG_MAX_IN_FLIGHT, getClass());
         connect();
 
-        formatter = JsonWriter.getObjectMapper();
-        final ModelRegistry modelRegistry = settings.getModelRegistry();
-        parser = new JsonReaderDefault(modelRegistry, true);
+        final MessageCodec.Format format = MessageCodec.Format.fromValue(customSettings.get(TAG_MESSAGE_FORMAT, getClass()));
+        codec = new MessageCodec(settings.getModelRegistry(), format);
 
         long queueLoggingInterval = settings.getSettings().getInt(CoreSettings.TAG_QUEUE_LOGGING_INTERVAL, CoreSettings.class);
         if (queueLoggingInterval > 0) {
@@ -169,6 +216,80 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
         maintenanceTimer.scheduleWithFixedDelay(this::connect, 60, 20, TimeUnit.SECONDS);
     }
 
+    private void initSubscribeTopics(String partitions) {
+        otherTopics = new LinkedHashSet<>();
+        if (partitionCount <= 0) {
+            ownTopics = new String[]{topicName};
+            return;
+        }
+        final List<Integer> ownPartitions = parsePartitions(partitions, partitionCount);
+        ownTopics = ownPartitions.stream()
+                .map(this::topicForPartition)
+                .toArray(String[]::new);
+        for (int i = 0; i < partitionCount; i++) {
+            if (!ownPartitions.contains(i)) {
+                otherTopics.add(topicForPartition(i));
+            }
+        }
+    }
+
+    private String[] subscribeTopics() {
+        if (!allPartitions || otherTopics.isEmpty()) {
+            return ownTopics;
+        }
+        final List<String> topics = new ArrayList<>(Arrays.asList(ownTopics));
+        topics.addAll(otherTopics);
+        return topics.toArray(String[]::new);
+    }
+
+    private int[] qosFor(String[] topics) {
+        final int[] qos = new int[topics.length];
+        Arrays.fill(qos, qosLevel);
+        return qos;
+    }
+
+    /**
+     * Parses a list of partitions, like "0-3,7", into the list of partition
+     * numbers. An empty list means all partitions.
+     *
+     * @param partitions The partitions to parse.
+     * @param partitionCount The total number of partitions.
+     * @return The sorted list of partition numbers.
+     */
+    static List<Integer> parsePartitions(String partitions, int partitionCount) {
+        final SortedSet<Integer> result = new TreeSet<>();
+        if (StringHelper.isNullOrEmpty(partitions)) {
+            for (int i = 0; i < partitionCount; i++) {
+                result.add(i);
+            }
+            return new ArrayList<>(result);
+        }
+        for (String part : partitions.split(",")) {
+            final String[] range = part.trim().split("-");
+            try {
+                final int from = Integer.parseInt(range[0].trim());
+                final int to = range.length > 1 ? Integer.parseInt(range[1].trim()) : from;
+                for (int i = Math.max(0, from); i <= to && i < partitionCount; i++) {
+                    result.add(i);
+                }
+            } catch (NumberFormatException ex) {
+                LOGGER.error("Invalid partition {} in {}{}", part, PREFIX_BUS, TAG_PARTITIONS);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    private String topicForPartition(int partition) {
+        return topicName + "/" + partition;
+    }
+
+    private String topicFor(EntityChangedMessage message) {
+        if (partitionCount <= 0) {
+            return topicName;
+        }
+        return topicForPartition(partitioner.partition(message, partitionCount));
+    }
+
     private synchronized void connect() {
         if (client == null) {
             try {
@@ -228,12 +349,13 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
 
     private synchronized void startListening() {
         try {
-            LOGGER.info("paho-client subscribing to topic: {}", topicName);
+            final String[] subscribeTopics = subscribeTopics();
+            LOGGER.info("paho-client subscribing to topics: {}", (Object) subscribeTopics);
             if (client == null || !client.isConnected()) {
                 connect();
             }
             if (!listening) {
-                client.subscribeWithResponse(topicName, qosLevel).setActionCallback(new IMqttActionListener() {
+                client.subscribeWithResponse(subscribeTopics, qosFor(subscribeTopics)).setActionCallback(new IMqttActionListener() {
                     @Override
                     public void onSuccess(IMqttToken asyncActionToken) {
                         listening = true;
@@ -262,8 +384,9 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
             return;
         }
         try {
-            LOGGER.info("paho-client unsubscribing from topic: {}", topicName);
-            client.unsubscribe(topicName);
+            final String[] subscribeTopics = subscribeTopics();
+            LOGGER.info("paho-client unsubscribing from topics: {}", (Object) subscribeTopics);
+            client.unsubscribe(subscribeTopics);
             listening = false;
         } catch (MqttException ex) {
             LOGGER.error("Failed to stop listening.", ex);
@@ -278,17 +401,18 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
         if (maintenanceTimer != null) {
             maintenanceTimer.shutdownNow();
         }
-        ProcessorHelper.shutdownProcessors(sendService, sendQueue, 10, TimeUnit.SECONDS);
-        ProcessorHelper.shutdownProcessors(recvService, recvQueue, 10, TimeUnit.SECONDS);
+        sendProcessors.shutdown(10, TimeUnit.SECONDS);
+        recvProcessors.shutdown(10, TimeUnit.SECONDS);
         statusLogger.stop();
         LOGGER.info("Message bus closed.");
     }
 
     @Override
     public void sendMessage(EntityChangedMessage message) {
-        if (sendQueue.offer(message)) {
+        if (sendProcessors.offer(partitioner.partition(message, sendProcessors.getPartitionCount()), message)) {
             logStatus.setSendQueueCount(sendQueueCount.incrementAndGet());
         } else {
+            metrics.queueDropped(QUEUE_SEND).increment();
             LOGGER.error("Failed to add message to send-queue. Increase {}{} (currently {}) to allow a bigger buffer, or increase {}{} (currently {}) to empty the buffer quicker.",
                     PREFIX_BUS, TAG_SEND_QUEUE_SIZE, sendQueueSize, PREFIX_BUS, TAG_SEND_WORKER_COUNT, sendPoolSize);
         }
@@ -297,33 +421,118 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     @Override
     public synchronized void addMessageListener(MessageListener listener) {
         listeners.add(listener);
+        if (listener.needsAllPartitions()) {
+            allPartitionListeners.add(listener);
+            if (!allPartitions && !otherTopics.isEmpty()) {
+                allPartitions = true;
+                if (listening) {
+                    subscribeOtherTopics();
+                }
+            }
+        }
         if (!listening) {
             startListening();
         }
     }
 
+    private void subscribeOtherTopics() {
+        final String[] topics = otherTopics.toArray(String[]::new);
+        try {
+            LOGGER.info("paho-client subscribing to the other partitions for cache listeners: {}", (Object) topics);
+            client.subscribe(topics, qosFor(topics));
+        } catch (MqttException ex) {
+            LOGGER.error("Failed to subscribe to the other partitions, caches may miss changes.", ex);
+        }
+    }
+
     @Override
     public synchronized void removeMessageListener(MessageListener listener) {
         listeners.remove(listener);
+        allPartitionListeners.remove(listener);
         if (listeners.isEmpty()) {
             stopListening();
         }
     }
 
-    private void handleMessageSent(EntityChangedMessage message) {
-        logStatus.setSendQueueCount(sendQueueCount.decrementAndGet());
+    /**
+     * Publishes the messages directly, on the thread of the caller. Only with
+     * a {@value #TAG_QOS_LEVEL} of 1 or higher does the broker acknowledge the
+     * messages before this returns.
+     *
+     * @param messages the messages to publish.
+     * @return true if all messages were published.
+     */
+    @Override
+    public boolean deliverMessages(List<EntityChangedMessage> messages) {
         try {
-            String serialisedMessage = formatter.writeValueAsString(message);
-            byte[] bytes = serialisedMessage.getBytes(StringHelper.UTF8);
-            if (!client.isConnected()) {
-                connect();
+            final int count = messages.size();
+            for (int start = 0; start < count; start += sendBatchSize) {
+                publish(messages.subList(start, Math.min(count, start + sendBatchSize)));
             }
-            client.publish(topicName, bytes, qosLevel, false);
+            return true;
+        } catch (MqttException | JsonProcessingException | RuntimeException ex) {
+            LOGGER.error("Failed to publish messages to bus.", ex);
+            return false;
+        }
+    }
+
+    private void handleMessageSent(BlockingQueue<EntityChangedMessage> sendQueue, EntityChangedMessage message) {
+        final List<EntityChangedMessage> batch = collectBatch(sendQueue, message);
+        logStatus.setSendQueueCount(sendQueueCount.addAndGet(-batch.size()));
+        try {
+            publish(batch);
         } catch (MqttException | JsonProcessingException ex) {
             LOGGER.error("Failed to publish message to bus.", ex);
         }
     }
 
+    /**
+     * Adds messages from the send queue to the given first message, until the
+     * batch is full, or the linger time has passed.
+     */
+    private List<EntityChangedMessage> collectBatch(BlockingQueue<EntityChangedMessage> sendQueue, EntityChangedMessage first) {
+        final List<EntityChangedMessage> batch = new ArrayList<>(sendBatchSize);
+        batch.add(first);
+        if (sendBatchSize == 1) {
+            return batch;
+        }
+        sendQueue.drainTo(batch, sendBatchSize - 1);
+        final long end = System.currentTimeMillis() + sendLingerMs;
+        try {
+            long wait = end - System.currentTimeMillis();
+            while (batch.size() < sendBatchSize && wait > 0) {
+                EntityChangedMessage next = sendQueue.poll(wait, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                sendQueue.drainTo(batch, sendBatchSize - batch.size());
+                wait = end - System.currentTimeMillis();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return batch;
+    }
+
+    private void publish(List<EntityChangedMessage> messages) throws JsonProcessingException, MqttException {
+        if (!client.isConnected()) {
+            connect();
+        }
+        if (partitionCount <= 0) {
+            client.publish(topicName, codec.encode(messages), qosLevel, false);
+            return;
+        }
+        // Grouping keeps the order of the messages within each partition.
+        final Map<String, List<EntityChangedMessage>> byTopic = new LinkedHashMap<>();
+        for (EntityChangedMessage message : messages) {
+            byTopic.computeIfAbsent(topicFor(message), t -> new ArrayList<>()).add(message);
+        }
+        for (Map.Entry<String, List<EntityChangedMessage>> entry : byTopic.entrySet()) {
+            client.publish(entry.getKey(), codec.encode(entry.getValue()), qosLevel, false);
+        }
+    }
+
     @Override
     public void connectionLost(Throwable cause) {
         if (listening) {
@@ -335,19 +544,30 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
 
     @Override
     public void messageArrived(String topic, MqttMessage mqttMessage) throws IOException {
-        String serialisedEcMessage = new String(mqttMessage.getPayload(), StringHelper.UTF8);
-        LOGGER.trace("Received: {}", serialisedEcMessage);
-        EntityChangedMessage ecMessage;
+        final byte[] payload = mqttMessage.getPayload();
+        final List<EntityChangedMessage> ecMessages;
         try {
-            ecMessage = parser.parseObject(EntityChangedMessage.class, serialisedEcMessage);
-        } catch (IllegalArgumentException ex) {
+            ecMessages = codec.decode(payload);
+        } catch (IOException | IllegalArgumentException ex) {
             LOGGER.error("Failed to decode message from bus. Details in DEBUG.");
-            LOGGER.debug("Failed to decode message: {}", serialisedEcMessage, ex);
+            LOGGER.debug("Failed to decode message: {}", new String(payload, StringHelper.UTF8), ex);
+            return;
+        }
+        if (otherTopics.contains(topic)) {
+            // Another instance handles this partition, only the listeners
+            // that need all messages get it. These only invalidate caches, so
+            // they are called directly.
+            for (EntityChangedMessage ecMessage : ecMessages) {
+                deliver(allPartitionListeners, ecMessage);
+            }
             return;
         }
-        if (!recvQueue.offer(ecMessage)) {
-            LOGGER.error("Failed to add message to receive-queue. Increase {}{} (currently {}) to allow a bigger buffer, or increase {}{} (currently {}) to empty the buffer quicker.",
-                    PREFIX_BUS, TAG_RECV_QUEUE_SIZE, recvQueueSize, PREFIX_BUS, TAG_RECV_WORKER_COUNT, recvPoolSize);
+        for (EntityChangedMessage ecMessage : ecMessages) {
+            if (!recvProcessors.offer(partitioner.partition(ecMessage, recvProcessors.getPartitionCount()), ecMessage)) {
+                metrics.queueDropped(QUEUE_RECV).increment();
+                LOGGER.error("Failed to add message to receive-queue. Increase {}{} (currently {}) to allow a bigger buffer, or increase {}{} (currently {}) to empty the buffer quicker.",
+                        PREFIX_BUS, TAG_RECV_QUEUE_SIZE, recvQueueSize, PREFIX_BUS, TAG_RECV_WORKER_COUNT, recvPoolSize);
+            }
         }
     }
 
@@ -357,6 +577,10 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
     }
 
     private void handleMessageReceived(EntityChangedMessage message) {
+        deliver(listeners, message);
+    }
+
+    private static void deliver(List<MessageListener> listeners, EntityChangedMessage message) {
         for (MessageListener listener : listeners) {
             try {
                 listener.messageReceived(message);
@@ -368,8 +592,8 @@ public class MqttMessageBus implements MessageBus, MqttCallback, ConfigDefaults
 
     private void checkWorkers() {
         Instant threshold = Instant.now().minus(2, ChronoUnit.SECONDS);
-        ProcessorListStatus recvStatus = ProcessorHelper.checkStatus(recvProcessors, threshold);
-        ProcessorListStatus sendStatus = ProcessorHelper.checkStatus(sendProcessors, threshold);
+        ProcessorListStatus recvStatus = ProcessorHelper.checkStatus(recvProcessorList, threshold);
+        ProcessorListStatus sendStatus = ProcessorHelper.checkStatus(sendProcessorList, threshold);
         logStatus.setRecvWaiting(recvStatus.countWaiting())
                 .setRecvWorking(recvStatus.countWorking())
                 .setRecvBad(recvStatus.countBroken())
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain.NavigationPropertyEntity;
+import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The parents that order the messages about entities. Messages about an entity
+ * that has a configured parent get the key of that parent, so that, for
+ * example, all messages about the Observations of one Datastream are handled
+ * in order, together with the messages about the Datastream itself.
+ *
+ * The parent is read from the entity in the message. Messages for creates,
+ * updates and deletes carry the full entity, including the links to its
+ * parents.
+ *
+ * @author hylke
+ */
+public class PartitionParents {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionParents.class);
+
+    private final Map<String, List<String>> parentNamesByType = new HashMap<>();
+    private final Map<EntityType, List<NavigationPropertyEntity>> parentsByType = new ConcurrentHashMap<>();
+
+    /**
+     * Create a new PartitionParents from the given configuration.
+     *
+     * @param parents A comma separated list of EntityType.NavigationProperty
+     * pairs. For each type, the first parent that is set on the entity is
+     * used.
+     */
+    public PartitionParents(String parents) {
+        if (StringHelper.isNullOrEmpty(parents)) {
+            return;
+        }
+        for (String parent : parents.split(",")) {
+            final String[] parts = parent.trim().split("\\.");
+            if (parts.length != 2) {
+                LOGGER.error("Invalid partition parent {}, should be EntityType.NavigationProperty", parent);
+                continue;
+            }
+            parentNamesByType.computeIfAbsent(parts[0], t -> new ArrayList<>()).add(parts[1]);
+        }
+    }
+
+    /**
+     * Get the key of the given entity. This is the key of the first configured
+     * parent that is set on the entity, or the key of the entity itself if it
+     * has no parent.
+     *
+     * @param entity The entity to get the key for.
+     * @return The key of the parent of the entity, or of the entity.
+     */
+    public String key(Entity entity) {
+        for (NavigationPropertyEntity parentProperty : getParents(entity.getEntityType())) {
+            final Entity parent = entity.getProperty(parentProperty);
+            if (parent != null && parent.getPrimaryKeyValues() != null && parent.getPrimaryKeyValues().isFullySet()) {
+                return key(parentProperty.getEntityType(), parent.getPrimaryKeyValues());
+            }
+        }
+        return key(entity.getEntityType(), entity.getPrimaryKeyValues());
+    }
+
+    private List<NavigationPropertyEntity> getParents(EntityType entityType) {
+        return parentsByType.computeIfAbsent(entityType, t -> {
+            final List<String> names = parentNamesByType.get(t.entityName);
+            if (names == null) {
+                return Collections.emptyList();
+            }
+            final List<NavigationPropertyEntity> parents = new ArrayList<>();
+            for (String name : names) {
+                final NavigationPropertyEntity parent = t.getNavigationPropertyEntity(name);
+                if (parent == null) {
+                    // The default lists parents of plugins that may not be loaded.
+                    LOGGER.debug("Entity type {} has no navigation property {} to a single entity.", t, name);
+                } else {
+                    parents.add(parent);
+                }
+            }
+            return parents;
+        });
+    }
+
+    /**
+     * Get the key of the entity with the given type and primary key.
+     *
+     * @param entityType The type of the entity.
+     * @param pk The primary key of the entity.
+     * @return The key of the entity.
+     */
+    public static String key(EntityType entityType, PkValue pk) {
+        return entityType.entityName + pk;
+    }
+}
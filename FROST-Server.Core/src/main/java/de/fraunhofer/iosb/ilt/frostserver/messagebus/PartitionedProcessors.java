@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper;
+import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper.Processor;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A set of queues with processors. When partitioned, each queue has a single
+ * processor, so that items offered to the same partition are handled in
+ * order. When not partitioned, there is one queue, shared by all processors.
+ * The depth of each queue and the time spent handling its items can be
+ * exported as metrics.
+ *
+ * @param <T> The type of the items in the queues.
+ */
+public class PartitionedProcessors<T> {
+
+    private final List<BlockingQueue<T>> queues = new ArrayList<>();
+    private final List<ExecutorService> services = new ArrayList<>();
+    private final List<PartitionTiming> timings = new ArrayList<>();
+
+    /**
+     * Create a new set of queues and processors.
+     *
+     * @param partitioned Whether to create one queue per processor.
+     * @param processorCount The number of processors.
+     * @param queueSize The size of each queue.
+     * @param handler The handler for the items, is given the item and the
+     * queue the item came from.
+     * @param name The name to use for the processor threads.
+     * @param processorList The list to add the processors to.
+     */
+    public PartitionedProcessors(boolean partitioned, int processorCount, int queueSize, BiConsumer<BlockingQueue<T>, T> handler, String name, List<Processor<T>> processorList) {
+        if (partitioned) {
+            for (int i = 0; i < processorCount; i++) {
+                addQueue(1, queueSize, handler, name + "-" + i, processorList);
+            }
+        } else {
+            addQueue(processorCount, queueSize, handler, name, processorList);
+        }
+    }
+
+    private void addQueue(int processorCount, int queueSize, BiConsumer<BlockingQueue<T>, T> handler, String name, List<Processor<T>> processorList) {
+        final BlockingQueue<T> queue = new ArrayBlockingQueue<>(queueSize);
+        final PartitionTiming timing = new PartitionTiming();
+        queues.add(queue);
+        timings.add(timing);
+        services.add(ProcessorHelper.createProcessors(processorCount, queue, item -> {
+            final long start = System.nanoTime();
+            try {
+                handler.accept(queue, item);
+            } finally {
+                timing.handled(System.nanoTime() - start);
+            }
+        }, name, processorList));
+    }
+
+    /**
+     * The number of partitions.
+     *
+     * @return The number of partitions.
+     */
+    public int getPartitionCount() {
+        return queues.size();
+    }
+
+    /**
+     * Offer the given item to the queue of the given partition.
+     *
+     * @param partition The partition. The queue used is the partition modulo
+     * the number of queues.
+     * @param item The item to offer.
+     * @return true if the item was added.
+     */
+    public boolean offer(int partition, T item) {
+        return queues.get(Math.floorMod(partition, queues.size())).offer(item);
+    }
+
+    /**
+     * Add the given item to the queue of the given partition, waiting for
+     * space in the queue if needed.
+     *
+     * @param partition The partition. The queue used is the partition modulo
+     * the number of queues.
+     * @param item The item to add.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(int partition, T item) throws InterruptedException {
+        queues.get(Math.floorMod(partition, queues.size())).put(item);
+    }
+
+    /**
+     * The total number of items waiting in all queues.
+     *
+     * @return The total number of items waiting in all queues.
+     */
+    public int getQueuedCount() {
+        int total = 0;
+        for (BlockingQueue<T> queue : queues) {
+            total += queue.size();
+        }
+        return total;
+    }
+
+    /**
+     * Export the depth of the queues, in total and per partition, and the time
+     * spent handling items per partition, as metrics.
+     *
+     * @param metrics The metrics to export to.
+     * @param queueName The name of the queue to use in the metrics.
+     * @return this.
+     */
+    public PartitionedProcessors<T> exportMetrics(ServerMetrics metrics, String queueName) {
+        metrics.queueDepth(queueName, this::getQueuedCount);
+        for (int i = 0; i < queues.size(); i++) {
+            final String partition = Integer.toString(i);
+            metrics.partitionDepth(queueName, partition, queues.get(i)::size);
+            timings.get(i).duration = metrics.partitionHandlingDuration(queueName, partition);
+        }
+        return this;
+    }
+
+    public void shutdown(long timeout, TimeUnit timeUnit) {
+        for (int i = 0; i < queues.size(); i++) {
+            ProcessorHelper.shutdownProcessors(services.get(i), queues.get(i), timeout, timeUnit);
+        }
+    }
+
+    private static class PartitionTiming {
+
+        private volatile Timer duration;
+
+        private void handled(long nanos) {
+            final Timer metric = duration;
+            if (metric != null) {
+                metric.record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import java.util.List;
+
+/**
+ * A message bus that stores the messages of a transaction in the same
+ * transaction as the changes they describe, so that messages are neither lost
+ * when the bus can not keep up, nor sent for changes that were rolled back.
+ *
+ * When the configured bus implements this interface, the
+ * AbstractPersistenceManager hands the changed-entity messages to
+ * {@link #storeMessages(PersistenceManager, List)} before committing, instead
+ * of sending them with {@link #sendMessage(EntityChangedMessage)} after the
+ * commit.
+ */
+public interface TransactionalMessageBus extends MessageBus {
+
+    /**
+     * Store the given messages in the current transaction of the given
+     * PersistenceManager. If this fails, an exception must be thrown so the
+     * transaction is not committed.
+     *
+     * @param pm The PersistenceManager that is about to commit.
+     * @param messages The messages to store.
+     */
+    public void storeMessages(PersistenceManager pm, List<EntityChangedMessage> messages);
+
+    /**
+     * Notify the bus that the transaction in which messages were stored has
+     * been committed.
+     *
+     * @param count The number of messages that were committed.
+     */
+    public void messagesCommitted(int count);
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The metrics that the server itself records, in the Micrometer registry of
+ * one server instance. Each CoreSettings has its own ServerMetrics. When
+ * metrics are disabled, see {@code metrics.enable}, the registry has no
+ * backend, and recording values does nothing.
+ *
+ * @author hylke
+ */
+public class ServerMetrics {
+
+    /**
+     * The content type of the Prometheus text format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final String KIND_SELECT = "select";
+    public static final String KIND_COUNT = "count";
+    public static final String KIND_ESTIMATE = "estimate";
+    public static final String KIND_INSERT = "insert";
+    public static final String KIND_INSERT_BATCH = "insert_batch";
+
+    private static final Duration[] BUCKETS = {
+        Duration.ofMillis(1), Duration.ofMillis(5), Duration.ofMillis(10), Duration.ofMillis(25),
+        Duration.ofMillis(50), Duration.ofMillis(100), Duration.ofMillis(250), Duration.ofMillis(500),
+        Duration.ofSeconds(1), Duration.ofMillis(2500), Duration.ofSeconds(5), Duration.ofSeconds(10)
+    };
+
+    private static final String TAG_KIND = "kind";
+    private static final String TAG_POOL = "pool";
+    private static final String TAG_QUEUE = "queue";
+    private static final String TAG_PARTITION = "partition";
+    private static final String UNIT_SECONDS = "seconds";
+
+    private final MeterRegistry registry;
+    private final PrometheusMeterRegistry prometheusRegistry;
+    private final Map<String, Timer> persistenceTimers = new ConcurrentHashMap<>();
+
+    /**
+     * Create the metrics of a server instance.
+     *
+     * @param enabled If false, no values are recorded.
+     */
+    public ServerMetrics(boolean enabled) {
+        if (enabled) {
+            prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+            registry = prometheusRegistry;
+        } else {
+            prometheusRegistry = null;
+            registry = new CompositeMeterRegistry();
+        }
+    }
+
+    public boolean isEnabled() {
+        return prometheusRegistry != null;
+    }
+
+    /**
+     * The registry that holds the meters, for plugins that add their own.
+     *
+     * @return The registry of this server instance.
+     */
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Write all metrics in the Prometheus text format.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If writing fails.
+     */
+    public void write(OutputStream out) throws IOException {
+        if (prometheusRegistry != null) {
+            prometheusRegistry.scrape(out);
+        }
+    }
+
+    /**
+     * The duration of service requests, by request type and entity type.
+     *
+     * @param requestType The type of the request.
+     * @param entityType The name of the entity type of the request.
+     * @return The timer for the given request type and entity type.
+     */
+    public Timer requestDuration(String requestType, String entityType) {
+        return timer("frost.request.duration", "The time taken to execute service requests.",
+                "request_type", requestType, "entity_type", entityType);
+    }
+
+    /**
+     * The duration of database actions, by kind.
+     *
+     * @param kind The kind of database action, one of the KIND_ constants.
+     * @return The timer for the given kind.
+     */
+    public Timer persistenceDuration(String kind) {
+        return persistenceTimers.computeIfAbsent(kind, k -> timer("frost.persistence.duration", "The time taken by database queries and inserts.",
+                TAG_KIND, k));
+    }
+
+    /**
+     * The connections of a connection pool, by state.
+     *
+     * @param pool The label of the pool.
+     * @param state The state of the connections.
+     * @param value The supplier of the number of connections.
+     */
+    public void dbConnections(String pool, String state, Supplier<Number> value) {
+        gauge("frost.db.connections", "The number of connections of the database connection pools.", null, value,
+                TAG_POOL, pool, "state", state);
+    }
+
+    /**
+     * The time spent waiting for a connection from a pool.
+     *
+     * @param pool The label of the pool.
+     * @return The timer for the given pool.
+     */
+    public Timer dbConnectionWait(String pool) {
+        return timer("frost.db.connection.wait", "The time taken to get a connection from a database connection pool.",
+                TAG_POOL, pool);
+    }
+
+    /**
+     * The number of times getting a connection from a pool failed.
+     *
+     * @param pool The label of the pool.
+     * @return The counter for the given pool.
+     */
+    public Counter dbConnectionFailed(String pool) {
+        return counter("frost.db.connection.failed", "The number of times no connection could be taken from a database connection pool.",
+                TAG_POOL, pool);
+    }
+
+    /**
+     * The replication lag of a read pool, as last checked.
+     *
+     * @param pool The label of the read pool.
+     * @param value The supplier of the lag, in seconds.
+     */
+    public void dbReplicaLag(String pool, Supplier<Number> value) {
+        gauge("frost.db.replica.lag", "The replication lag of a read pool, as last checked.", UNIT_SECONDS, value,
+                TAG_POOL, pool);
+    }
+
+    /**
+     * The number of read requests for which no read pool could be used, and
+     * the primary database was used instead.
+     *
+     * @param pool The label of the primary pool.
+     * @return The counter for the given pool.
+     */
+    public Counter dbReadFallback(String pool) {
+        return counter("frost.db.read.fallback", "The number of read requests that fell back to the primary database.",
+                TAG_POOL, pool);
+    }
+
+    /**
+     * The number of messages waiting in a queue of a message bus or the MQTT
+     * server.
+     *
+     * @param queue The name of the queue.
+     * @param value The supplier of the number of waiting messages.
+     */
+    public void queueDepth(String queue, Supplier<Number> value) {
+        gauge("frost.queue.depth", "The number of messages waiting in a queue.", null, value,
+                TAG_QUEUE, queue);
+    }
+
+    /**
+     * The number of messages that were dropped because a queue was full.
+     *
+     * @param queue The name of the queue.
+     * @return The counter for the given queue.
+     */
+    public Counter queueDropped(String queue) {
+        return counter("frost.queue.dropped", "The number of messages dropped because a queue was full.",
+                TAG_QUEUE, queue);
+    }
+
+    /**
+     * The number of messages waiting in a partition of a partitioned queue.
+     *
+     * @param queue The name of the queue.
+     * @param partition The number of the partition.
+     * @param value The supplier of the number of waiting messages.
+     */
+    public void partitionDepth(String queue, String partition, Supplier<Number> value) {
+        gauge("frost.partition.queue.depth", "The number of messages waiting in a partition of a queue.", null, value,
+                TAG_QUEUE, queue, TAG_PARTITION, partition);
+    }
+
+    /**
+     * The time taken to handle the messages of a partition of a partitioned
+     * queue.
+     *
+     * @param queue The name of the queue.
+     * @param partition The number of the partition.
+     * @return The timer for the given partition.
+     */
+    public Timer partitionHandlingDuration(String queue, String partition) {
+        return timer("frost.partition.handling.duration", "The time taken to handle a message from a partition of a queue.",
+                TAG_QUEUE, queue, TAG_PARTITION, partition);
+    }
+
+    /**
+     * The number of messages waiting in the outbox table.
+     *
+     * @param value The supplier of the number of waiting messages.
+     */
+    public void outboxBacklog(Supplier<Number> value) {
+        gauge("frost.outbox.backlog", "The number of messages waiting in the outbox table.", null, value);
+    }
+
+    /**
+     * The age of the oldest message waiting in the outbox table.
+     *
+     * @param value The supplier of the age, in seconds.
+     */
+    public void outboxOldestAge(Supplier<Number> value) {
+        gauge("frost.outbox.oldest.age", "The age of the oldest message waiting in the outbox table.", UNIT_SECONDS, value);
+    }
+
+    /**
+     * The time between storing the oldest message of a delivered outbox batch
+     * and the delivery of the batch.
+     *
+     * @return The timer for the delivery lag.
+     */
+    public Timer outboxDeliveryLag() {
+        return timer("frost.outbox.delivery.lag", "The time between storing the oldest message of an outbox batch and delivering the batch.");
+    }
+
+    /**
+     * The number of messages delivered from the outbox.
+     *
+     * @return The counter of delivered messages.
+     */
+    public Counter outboxDelivered() {
+        return counter("frost.outbox.delivered", "The number of messages delivered from the outbox.");
+    }
+
+    /**
+     * The number of outbox batches that could not be delivered.
+     *
+     * @return The counter of failed batches.
+     */
+    public Counter outboxFailedBatches() {
+        return counter("frost.outbox.failed.batches", "The number of outbox batches that could not be delivered, and are retried.");
+    }
+
+    /**
+     * The number of distinct topics with subscriptions on the MQTT server.
+     *
+     * @param value The supplier of the number of topics.
+     */
+    public void mqttSubscribedTopics(Supplier<Number> value) {
+        gauge("frost.mqtt.subscribed.topics", "The number of distinct MQTT topics with subscribers.", null, value);
+    }
+
+    /**
+     * The number of messages published over MQTT.
+     *
+     * @return The counter of published messages.
+     */
+    public Counter mqttPublished() {
+        return counter("frost.mqtt.published", "The number of messages published to MQTT subscribers.");
+    }
+
+    private Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .serviceLevelObjectives(BUCKETS)
+                .register(registry);
+    }
+
+    private Counter counter(String name, String description, String... tags) {
+        return Counter.builder(name)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * Registers a gauge. A gauge that is registered again, for instance
+     * because the queue it measures was re-created, replaces the old one.
+     */
+    private void gauge(String name, String description, String baseUnit, Supplier<Number> value, String... tags) {
+        final Meter old = registry.find(name).tags(tags).gauge();
+        if (old != null) {
+            registry.remove(old);
+        }
+        Gauge.builder(name, value)
+                .description(description)
+                .baseUnit(baseUnit)
+                .tags(tags)
+                .strongReference(true)
+                .register(registry);
+    }
+
+}
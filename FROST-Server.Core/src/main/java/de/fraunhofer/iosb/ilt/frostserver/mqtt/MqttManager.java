@@ -18,6 +18,10 @@
 package de.fraunhofer.iosb.ilt.frostserver.mqtt;
 
 import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.DefaultMessagePartitioner;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessagePartitioner;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.PartitionParents;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.PartitionedProcessors;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
@@ -35,6 +39,7 @@ import de.fraunhofer.iosb.ilt.frostserver.property.Property;
 import de.fraunhofer.iosb.ilt.frostserver.service.RequestTypeUtils;
 import de.fraunhofer.iosb.ilt.frostserver.service.Service;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceRequest;
+import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponseDefault;
 import de.fraunhofer.iosb.ilt.frostserver.service.UpdateMode;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
@@ -44,12 +49,14 @@ import de.fraunhofer.iosb.ilt.frostserver.util.ChangingStatusLogger;
 import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper;
 import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper.Processor;
 import de.fraunhofer.iosb.ilt.frostserver.util.ProcessorHelper.ProcessorListStatus;
-import java.io.IOException;
+import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
+import io.micrometer.core.instrument.Counter;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -69,6 +76,8 @@ import org.slf4j.LoggerFactory;
 public class MqttManager implements SubscriptionListener, MessageListener, EntityCreateListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MqttManager.class);
+    private static final String QUEUE_CHANGED = "mqtt_entity_changed";
+    private static final String QUEUE_CREATE = "mqtt_entity_create";
 
     /**
      * Listeners for integration-test use only. Not thread safe.
@@ -77,11 +86,17 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
 
     private final Map<EntityType, SubscriptionManager> subscriptions = new HashMap<>();
     private final CoreSettings settings;
+    private final Counter published;
     private final SubscriptionFactory subscriptionFactory;
+    /**
+     * The parents that order the notifications, so that, for example, the
+     * notifications for the Observations of one Datastream are published in
+     * order.
+     */
+    private final PartitionParents partitionParents;
 
     private MqttServer server;
-    private BlockingQueue<EntityChangedMessage> entityChangedEventQueue;
-    private ExecutorService entityChangedExecutorService;
+    private PartitionedProcessors<EntityChangedMessage> entityChangedProcessing;
     private final List<Processor<EntityChangedMessage>> entityChangedProcessors = new ArrayList<>();
 
     private BlockingQueue<EntityCreateEvent> entityCreateEventQueue;
@@ -90,7 +105,6 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
 
     private final ChangingStatusLogger statusLogger = new ChangingStatusLogger(LOGGER);
     private final AtomicInteger topicCount = new AtomicInteger();
-    private final AtomicInteger entityChangedQueueSize = new AtomicInteger();
     private final AtomicInteger entityCreateQueueSize = new AtomicInteger();
     private final LoggingStatus logStatus = new LoggingStatus(this::checkWorkers);
 
@@ -102,7 +116,9 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
             throw new IllegalArgumentException("setting must be non-null");
         }
         this.settings = settings;
+        published = settings.getMetrics().mqttPublished();
         subscriptionFactory = new SubscriptionFactory(settings);
+        partitionParents = DefaultMessagePartitioner.createPartitionParents(settings);
 
         init();
     }
@@ -117,12 +133,15 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         if (mqttSettings.isEnableMqtt()) {
             enabledMqtt = true;
             shutdown = false;
-            entityChangedEventQueue = new ArrayBlockingQueue<>(mqttSettings.getSubscribeMessageQueueSize());
-            // start watching for EntityChangedEvents
-            entityChangedExecutorService = ProcessorHelper.createProcessors(
+            // start watching for EntityChangedEvents. Each worker has its own
+            // queue, and the messages of one entity, or of the entities of one
+            // parent, always go to the same worker, so that they are published
+            // in order.
+            entityChangedProcessing = new PartitionedProcessors<>(
+                    true,
                     mqttSettings.getSubscribeThreadPoolSize(),
-                    entityChangedEventQueue,
-                    this::handleEntityChangedEvent,
+                    mqttSettings.getSubscribeMessageQueueSize(),
+                    (queue, message) -> handleEntityChangedEvent(message),
                     "Mqtt-EntityChangedProcessor",
                     entityChangedProcessors);
             // start watching for EntityCreateEvents
@@ -133,6 +152,9 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
                     this::handleEntityCreateEvent,
                     "Mqtt-EntityCreateProcessor",
                     entityCreateProcessors);
+            entityChangedProcessing.exportMetrics(settings.getMetrics(), QUEUE_CHANGED);
+            settings.getMetrics().queueDepth(QUEUE_CREATE, entityCreateEventQueue::size);
+            settings.getMetrics().mqttSubscribedTopics(topicCount::get);
             // start MQTT server
             server = MqttServerFactory.get(settings);
             server.addSubscriptionListener(this);
@@ -147,8 +169,7 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
             }
         } else {
             enabledMqtt = false;
-            entityChangedExecutorService = null;
-            entityChangedEventQueue = new ArrayBlockingQueue<>(1);
+            entityChangedProcessing = null;
             entityCreateExecutorService = null;
             entityCreateEventQueue = new ArrayBlockingQueue<>(1);
             server = null;
@@ -158,7 +179,9 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
     public void shutdown() {
         shutdown = true;
         statusLogger.stop();
-        ProcessorHelper.shutdownProcessors(entityChangedExecutorService, entityChangedEventQueue, 10, TimeUnit.SECONDS);
+        if (entityChangedProcessing != null) {
+            entityChangedProcessing.shutdown(10, TimeUnit.SECONDS);
+        }
         ProcessorHelper.shutdownProcessors(entityCreateExecutorService, entityCreateEventQueue, 10, TimeUnit.SECONDS);
         if (server != null) {
             server.stop();
@@ -166,7 +189,6 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
     }
 
     private void handleEntityChangedEvent(EntityChangedMessage message) {
-        logStatus.setEntityChangedQueueSize(entityChangedQueueSize.decrementAndGet());
         final EntityChangedMessage.Type eventType = message.getEventType();
         EntityType entityType = message.getEntityType();
         LOGGER.trace("Received a {} message for a {}.", eventType, entityType);
@@ -188,45 +210,105 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         }
     }
 
-    public void notifySubscription(Subscription subscription, Entity entity) {
-        final String topic = subscription.getTopic();
+    /**
+     * Publish an already formatted message on the topic of the given
+     * subscription.
+     *
+     * @param subscription The subscription to publish the message for.
+     * @param payload The formatted message.
+     */
+    public void publish(Subscription subscription, String payload) {
+        server.publish(subscription.getTopic(), payload, settings.getMqttSettings().getQosLevel());
+        published.increment();
+    }
+
+    private void handleEntityCreateEvent(EntityCreateEvent first) {
+        final List<EntityCreateEvent> batch = collectCreateBatch(first);
+        logStatus.setEntityCreateQueueSize(entityCreateQueueSize.addAndGet(-batch.size()));
+        // Each transaction runs for one user.
+        final Map<PrincipalExtended, List<EntityCreateEvent>> eventsByUser = new LinkedHashMap<>();
+        final Map<EntityCreateEvent, ServiceRequest> requests = new HashMap<>();
+        for (EntityCreateEvent e : batch) {
+            final ServiceRequest request = createRequest(e);
+            if (request != null) {
+                requests.put(e, request);
+                eventsByUser.computeIfAbsent(e.getPrincipal(), t -> new ArrayList<>()).add(e);
+            }
+        }
+        for (List<EntityCreateEvent> events : eventsByUser.values()) {
+            try (Service service = new Service(settings)) {
+                if (events.size() == 1) {
+                    final EntityCreateEvent e = events.get(0);
+                    final ServiceRequest serviceRequest = requests.get(e);
+                    ServiceRequest.setLocalRequest(serviceRequest);
+                    checkResponse(e, service.execute(serviceRequest, new ServiceResponseDefault()));
+                    ServiceRequest.removeLocalRequest();
+                } else {
+                    final List<ServiceResponse> responses = service.executeCreateAll(events.stream().map(requests::get).toList());
+                    for (int idx = 0; idx < events.size(); idx++) {
+                        checkResponse(events.get(idx), responses.get(idx));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds events from the create queue to the given first event, until the
+     * batch is full, or the linger time has passed.
+     */
+    private List<EntityCreateEvent> collectCreateBatch(EntityCreateEvent first) {
+        final MqttSettings mqttSettings = settings.getMqttSettings();
+        final int batchSize = mqttSettings.getCreateBatchSize();
+        final List<EntityCreateEvent> batch = new ArrayList<>(batchSize);
+        batch.add(first);
+        if (batchSize == 1) {
+            return batch;
+        }
+        entityCreateEventQueue.drainTo(batch, batchSize - 1);
+        final long end = System.currentTimeMillis() + mqttSettings.getCreateLingerMs();
         try {
-            String payload = subscription.formatMessage(entity);
-            server.publish(topic, payload, settings.getMqttSettings().getQosLevel());
-        } catch (IOException ex) {
-            LOGGER.error("publishing to MQTT on topic '{}' failed", topic, ex);
+            long wait = end - System.currentTimeMillis();
+            while (batch.size() < batchSize && wait > 0) {
+                EntityCreateEvent next = entityCreateEventQueue.poll(wait, TimeUnit.MILLISECONDS);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+                entityCreateEventQueue.drainTo(batch, batchSize - batch.size());
+                wait = end - System.currentTimeMillis();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
+        return batch;
     }
 
-    private void handleEntityCreateEvent(EntityCreateEvent e) {
-        logStatus.setEntityCreateQueueSize(entityCreateQueueSize.decrementAndGet());
+    private ServiceRequest createRequest(EntityCreateEvent e) {
         final String topic = e.getTopic();
         final Version version;
         try {
             version = getVersionFromTopic(settings, topic);
         } catch (UnknownVersionException ex) {
             LOGGER.info("received message on topic '{}' which contains no version info.", topic);
-            return;
+            return null;
         }
 
         final String url = topic.replaceFirst(version.urlPart, "");
-        try (Service service = new Service(settings)) {
-            final ServiceResponseDefault serviceResponse = new ServiceResponseDefault();
-            final ServiceRequest serviceRequest = new ServiceRequest()
-                    .setCoreSettings(settings)
-                    .setVersion(version)
-                    .setRequestType(RequestTypeUtils.CREATE)
-                    .setUpdateMode(UpdateMode.INSERT_STA_11)
-                    .setContent(e.getPayload())
-                    .setUrlPath(url)
-                    .setUserPrincipal(e.getPrincipal());
-            ServiceRequest.setLocalRequest(serviceRequest);
-            service.execute(serviceRequest, serviceResponse);
-            ServiceRequest.removeLocalRequest();
-            if (!serviceResponse.isSuccessful()) {
-                LOGGER.error("Creating entity via MQTT failed (topic: {}, payload: {}, code: {}, message: {})",
-                        topic, e.getPayload(), serviceResponse.getCode(), serviceResponse.getMessage());
-            }
+        return new ServiceRequest()
+                .setCoreSettings(settings)
+                .setVersion(version)
+                .setRequestType(RequestTypeUtils.CREATE)
+                .setUpdateMode(UpdateMode.INSERT_STA_11)
+                .setContent(e.getPayload())
+                .setUrlPath(url)
+                .setUserPrincipal(e.getPrincipal());
+    }
+
+    private static void checkResponse(EntityCreateEvent e, ServiceResponse serviceResponse) {
+        if (!serviceResponse.isSuccessful()) {
+            LOGGER.error("Creating entity via MQTT failed (topic: {}, payload: {}, code: {}, message: {})",
+                    e.getTopic(), e.getPayload(), serviceResponse.getCode(), serviceResponse.getMessage());
         }
     }
 
@@ -234,10 +316,13 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         if (shutdown || !enabledMqtt) {
             return;
         }
-        if (entityChangedEventQueue.offer(e)) {
-            logStatus.setEntityChangedQueueSize(entityChangedQueueSize.incrementAndGet());
-        } else {
-            LOGGER.warn("EntityChangedevent discarded because message queue is full {}! Increase mqtt.SubscribeMessageQueueSize and/or mqtt.SubscribeThreadPoolSize.", entityChangedEventQueue.size());
+        // Block the bus thread when the queue is full, so the bus can apply
+        // back-pressure instead of the event being lost here.
+        try {
+            entityChangedProcessing.put(MessagePartitioner.partitionOf(partitionParents.key(e.getEntity()), entityChangedProcessing.getPartitionCount()), e);
+        } catch (InterruptedException ex) {
+            LOGGER.warn("EntityChangedEvent discarded because of interrupt while waiting for space in the queue.");
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -280,6 +365,7 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         if (entityCreateEventQueue.offer(e)) {
             logStatus.setEntityCreateQueueSize(entityCreateQueueSize.incrementAndGet());
         } else {
+            settings.getMetrics().queueDropped(QUEUE_CREATE).increment();
             LOGGER.warn("EntityCreateEvent discarded because message queue is full {}! Increase mqtt.SubscribeMessageQueueSize and/or mqtt.SubscribeThreadPoolSize", entityCreateEventQueue.size());
         }
     }
@@ -289,7 +375,8 @@ public class MqttManager implements SubscriptionListener, MessageListener, Entit
         ProcessorListStatus cngStatus = ProcessorHelper.checkStatus(entityChangedProcessors, threshold);
         ProcessorListStatus crtStatus = ProcessorHelper.checkStatus(entityCreateProcessors, threshold);
 
-        logStatus.setEntityChangedWaiting(cngStatus.countWaiting())
+        logStatus.setEntityChangedQueueSize(entityChangedProcessing.getQueuedCount())
+                .setEntityChangedWaiting(cngStatus.countWaiting())
                 .setEntityChangedWorking(cngStatus.countWorking())
                 .setEntityChangedBad(cngStatus.countBroken())
                 .setEntityCreateWaiting(crtStatus.countWaiting())
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.Subscription;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.property.Property;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the results for a single entity change event: which subscriptions
+ * match, and the formatted message for each distinct format. Subscriptions
+ * that share a match key are only matched once, and subscriptions that share
+ * a format key get the same message, which is only formatted once.
+ *
+ * Not thread safe, a new instance is used for each event.
+ */
+class NotificationCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationCache.class.getName());
+
+    private final MqttManager mqttManager;
+    private final PersistenceManager persistenceManager;
+    private final Entity entity;
+    private final Set<Property> fields;
+
+    private final Map<Object, Boolean> matches = new HashMap<>();
+    private final Map<Object, String> payloads = new HashMap<>();
+
+    public NotificationCache(MqttManager mqttManager, PersistenceManager persistenceManager, Entity entity, Set<Property> fields) {
+        this.mqttManager = mqttManager;
+        this.persistenceManager = persistenceManager;
+        this.entity = entity;
+        this.fields = fields;
+    }
+
+    /**
+     * Notify the given subscription, if it matches the entity of the event.
+     *
+     * @param subscription The subscription to notify.
+     */
+    public void notifyIfMatches(Subscription subscription) {
+        if (!matches(subscription)) {
+            return;
+        }
+        final Object formatKey = subscription.getFormatKey();
+        String payload = payloads.get(formatKey);
+        if (payload == null) {
+            try {
+                Entity newEntity = subscription.fetchExpand(persistenceManager, entity);
+                payload = subscription.formatMessage(newEntity);
+                payloads.put(formatKey, payload);
+            } catch (IOException ex) {
+                LOGGER.error("formatting MQTT message for topic '{}' failed", subscription.getTopic(), ex);
+                return;
+            }
+        }
+        mqttManager.publish(subscription, payload);
+    }
+
+    private boolean matches(Subscription subscription) {
+        final Object matchKey = subscription.getMatchKey();
+        Boolean result = matches.get(matchKey);
+        if (result == null) {
+            result = subscription.matches(persistenceManager, entity, fields);
+            matches.put(matchKey, result);
+        }
+        return result;
+    }
+
+    /**
+     * The number of distinct messages that were formatted.
+     *
+     * @return The number of distinct messages that were formatted.
+     */
+    public int getPayloadCount() {
+        return payloads.size();
+    }
+}
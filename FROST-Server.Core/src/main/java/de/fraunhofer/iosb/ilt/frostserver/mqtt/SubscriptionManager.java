@@ -23,9 +23,9 @@ import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.Subscription;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
 import de.fraunhofer.iosb.ilt.frostserver.property.Property;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -44,7 +44,7 @@ class SubscriptionManager {
      * supplied directly in the changeEvent. For example:
      * /Datastreams(1)/Observations
      */
-    private final Map<NavigationPropertyMain, SubscriptionSetDirectParent> parentedSubscriptions = new HashMap<>();
+    private final Map<NavigationPropertyMain, SubscriptionSetDirectParent> parentedSubscriptions = new ConcurrentHashMap<>();
     /**
      * All other subscriptions.
      */
@@ -64,21 +64,17 @@ class SubscriptionManager {
     }
 
     public void handleEntityChanged(PersistenceManager persistenceManager, Entity entity, Set<Property> fields) {
+        NotificationCache cache = new NotificationCache(mqttManager, persistenceManager, entity, fields);
         for (SubscriptionSetDirectParent subSet : parentedSubscriptions.values()) {
-            subSet.handleEntityChanged(persistenceManager, entity, fields);
-        }
-        for (Subscription subscription : complexSubscriptions.getSubscriptions().keySet()) {
-            if (subscription.matches(persistenceManager, entity, fields)) {
-                Entity newEntity = subscription.fetchExpand(persistenceManager, entity);
-                mqttManager.notifySubscription(subscription, newEntity);
-            }
+            subSet.handleEntityChanged(entity, cache);
         }
+        complexSubscriptions.handleEntityChanged(cache);
     }
 
-    public synchronized void addSubscription(Subscription subscription) {
+    public void addSubscription(Subscription subscription) {
         NavigationPropertyMain parentRelation = subscription.getParentRelation();
         if (parentRelation != null) {
-            SubscriptionSetDirectParent parentSet = parentedSubscriptions.computeIfAbsent(parentRelation, t -> new SubscriptionSetDirectParent(mqttManager, parentRelation, topicCount));
+            SubscriptionSetDirectParent parentSet = parentedSubscriptions.computeIfAbsent(parentRelation, t -> new SubscriptionSetDirectParent(parentRelation, topicCount));
             if (parentSet.addSubscription(subscription)) {
                 return;
             }
@@ -86,11 +82,13 @@ class SubscriptionManager {
         complexSubscriptions.addSubscription(subscription);
     }
 
-    public synchronized void removeSubscription(Subscription subscription) {
+    public void removeSubscription(Subscription subscription) {
         NavigationPropertyMain parentRelation = subscription.getParentRelation();
         if (parentRelation != null) {
             SubscriptionSetDirectParent parentSet = parentedSubscriptions.get(parentRelation);
-            parentSet.removeSubscription(subscription);
+            if (parentSet != null && parentSet.removeSubscription(subscription)) {
+                return;
+            }
         }
         complexSubscriptions.removeSubscription(subscription);
     }
@@ -46,31 +46,47 @@ class SubscriptionSet {
         return subscriptions;
     }
 
+    /**
+     * Notify all subscriptions in this set that match the entity of the event.
+     *
+     * @param cache The cache for the event to handle.
+     */
+    public void handleEntityChanged(NotificationCache cache) {
+        for (Subscription subscription : subscriptions.keySet()) {
+            cache.notifyIfMatches(subscription);
+        }
+    }
+
+    public boolean isEmpty() {
+        return subscriptions.isEmpty();
+    }
+
     public void addSubscription(Subscription subscription) {
-        AtomicInteger clientCount = subscriptions.get(subscription);
-        if (clientCount == null) {
-            clientCount = new AtomicInteger(1);
-            subscriptions.put(subscription, clientCount);
-            topicCount.incrementAndGet();
-            LOGGER.debug("Created new subscription for topic {}.", subscription.getTopic());
-        } else {
+        // compute runs atomically for the subscription, so concurrent adds and
+        // removes of the same topic can not lose counts.
+        subscriptions.compute(subscription, (s, clientCount) -> {
+            if (clientCount == null) {
+                topicCount.incrementAndGet();
+                LOGGER.debug("Created new subscription for topic {}.", subscription.getTopic());
+                return new AtomicInteger(1);
+            }
             int newCount = clientCount.incrementAndGet();
             LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
-        }
+            return clientCount;
+        });
     }
 
     public void removeSubscription(Subscription subscription) {
-        AtomicInteger clientCount = subscriptions.get(subscription);
-        if (clientCount == null) {
-            return;
-        }
-        int newCount = clientCount.decrementAndGet();
-        LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
-        if (newCount <= 0) {
-            subscriptions.remove(subscription);
-            topicCount.decrementAndGet();
-            LOGGER.debug("Removed last subscription for topic {}.", subscription.getTopic());
-        }
+        subscriptions.computeIfPresent(subscription, (s, clientCount) -> {
+            int newCount = clientCount.decrementAndGet();
+            LOGGER.debug("Now {} subscriptions for topic {}.", newCount, subscription.getTopic());
+            if (newCount <= 0) {
+                topicCount.decrementAndGet();
+                LOGGER.debug("Removed last subscription for topic {}.", subscription.getTopic());
+                return null;
+            }
+            return clientCount;
+        });
     }
 
 }
@@ -20,11 +20,8 @@ package de.fraunhofer.iosb.ilt.frostserver.mqtt;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.Subscription;
-import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
-import de.fraunhofer.iosb.ilt.frostserver.property.Property;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
@@ -39,18 +36,16 @@ class SubscriptionSetDirectParent {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionSetDirectParent.class.getName());
 
-    private final MqttManager mqttManager;
     private final NavigationPropertyMain relationToParent;
     private final Map<PkValue, SubscriptionSet> subscriptions = new ConcurrentHashMap<>();
     private final AtomicInteger topicCount;
 
-    public SubscriptionSetDirectParent(MqttManager mqttManager, NavigationPropertyMain relationToParent, AtomicInteger topicCount) {
-        this.mqttManager = mqttManager;
+    public SubscriptionSetDirectParent(NavigationPropertyMain relationToParent, AtomicInteger topicCount) {
         this.relationToParent = relationToParent;
         this.topicCount = topicCount;
     }
 
-    public void handleEntityChanged(PersistenceManager persistenceManager, Entity entity, Set<Property> fields) {
+    public void handleEntityChanged(Entity entity, NotificationCache cache) {
         Entity parent = (Entity) entity.getProperty(relationToParent);
         if (parent == null) {
             return;
@@ -60,43 +55,40 @@ class SubscriptionSetDirectParent {
         if (subsForParent == null) {
             return;
         }
-        // for each subscription on EntityType check match
-        for (Subscription subscription : subsForParent.getSubscriptions().keySet()) {
-            if (subscription.matches(persistenceManager, entity, fields)) {
-                Entity newEntity = subscription.fetchExpand(persistenceManager, entity);
-                mqttManager.notifySubscription(subscription, newEntity);
-            }
-        }
+        subsForParent.handleEntityChanged(cache);
     }
 
     public boolean addSubscription(Subscription subscription) {
-        synchronized (this) {
-            NavigationPropertyMain parentRelation = subscription.getParentRelation();
-            PkValue parentPk = subscription.getParentId();
-            if (parentRelation == null || parentPk == null) {
-                LOGGER.error("Parent Relation or ParentId is null! {} / {}", parentRelation, parentPk);
-                return false;
+        NavigationPropertyMain parentRelation = subscription.getParentRelation();
+        PkValue parentPk = subscription.getParentId();
+        if (parentRelation == null || parentPk == null) {
+            LOGGER.error("Parent Relation or ParentId is null! {} / {}", parentRelation, parentPk);
+            return false;
+        }
+        subscriptions.compute(parentPk, (pk, subsForParent) -> {
+            if (subsForParent == null) {
+                subsForParent = new SubscriptionSet(topicCount);
             }
-            SubscriptionSet subsForParent = subscriptions.computeIfAbsent(parentPk, t -> new SubscriptionSet(topicCount));
             subsForParent.addSubscription(subscription);
-            return true;
-        }
+            return subsForParent;
+        });
+        return true;
     }
 
-    public void removeSubscription(Subscription subscription) {
-        synchronized (this) {
-            NavigationPropertyMain parentRelation = subscription.getParentRelation();
-            PkValue parentPk = subscription.getParentId();
-            if (parentRelation == null || parentPk == null) {
-                LOGGER.error("Parent Relation or ParentId is null! {} / {}", parentRelation, parentPk);
-                return;
-            }
-            SubscriptionSet subsForParent = subscriptions.get(parentPk);
-            if (subsForParent == null) {
-                return;
-            }
-            subsForParent.removeSubscription(subscription);
+    public boolean removeSubscription(Subscription subscription) {
+        NavigationPropertyMain parentRelation = subscription.getParentRelation();
+        PkValue parentPk = subscription.getParentId();
+        if (parentRelation == null || parentPk == null) {
+            LOGGER.error("Parent Relation or ParentId is null! {} / {}", parentRelation, parentPk);
+            return false;
         }
+        // Sets for parents without subscriptions are removed, so they do not
+        // accumulate when clients come and go.
+        subscriptions.computeIfPresent(parentPk, (pk, subsForParent) -> {
+            subsForParent.removeSubscription(subscription);
+            return subsForParent.isEmpty() ? null : subsForParent;
+        });
+        return true;
     }
 
 }
@@ -30,9 +30,11 @@ import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntityType;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.path.UrlHelper;
+import de.fraunhofer.iosb.ilt.frostserver.path.Version;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
 import de.fraunhofer.iosb.ilt.frostserver.property.Property;
+import de.fraunhofer.iosb.ilt.frostserver.query.Expand;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.query.QueryDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
@@ -48,6 +50,8 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  *
@@ -56,6 +60,8 @@ import java.util.function.Predicate;
  */
 public abstract class AbstractSubscription implements Subscription {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractSubscription.class);
+
     protected final String topic;
     protected EntityType entityType;
 
@@ -63,6 +69,18 @@ public abstract class AbstractSubscription implements Subscription {
     private Query query;
     private Predicate<? super Entity> matcher;
 
+    /**
+     * Flag indicating the matchExpression should first be tried on the Entity
+     * itself, before asking the database. Null until it is known if security
+     * wrappers are installed.
+     */
+    private Boolean filterInMemory;
+
+    /**
+     * The key that determines which entities match this subscription.
+     */
+    private MatchKey matchKey;
+
     /**
      * If the subscription is over a one-to-many relation, this has a value.
      */
@@ -80,6 +98,14 @@ public abstract class AbstractSubscription implements Subscription {
         this.settings = settings;
         this.queryDefaults = settings.getQueryDefaults().setAlwaysOrder(false);
         this.modelRegistry = settings.getModelRegistry();
+        this.filterInMemory = switch (settings.getMqttSettings().getFilterInMemory()) {
+            case TRUE ->
+                true;
+            case FALSE ->
+                false;
+            case AUTO ->
+                null;
+        };
     }
 
     @Override
@@ -91,6 +117,20 @@ public abstract class AbstractSubscription implements Subscription {
             return false;
         }
         if (matchExpression != null) {
+            if (filterInMemory == null) {
+                // Security wrappers filter per user, which only the database can do.
+                filterInMemory = !persistenceManager.hasSecurityWrappers();
+            }
+            if (filterInMemory) {
+                try {
+                    return Boolean.TRUE.equals(new EntityFilterEvaluator(newEntity).evaluate(matchExpression));
+                } catch (EntityFilterEvaluator.NotEvaluableException exc) {
+                    LOGGER.trace("Falling back to database for filter on {}: {}", topic, exc.getMessage());
+                    if (exc.isPermanent()) {
+                        filterInMemory = false;
+                    }
+                }
+            }
             Object result = persistenceManager.get(newEntity.getPath(), query);
             return result != null;
         }
@@ -99,7 +139,7 @@ public abstract class AbstractSubscription implements Subscription {
 
     protected void generateFilter(int pathElementOffset, Expression extraFilter) {
         final List<Property> properties = new ArrayList<>();
-        boolean direct = extraFilter == null;
+        boolean direct = true;
         final int size = path.size();
         final int startIdx = size - 1 - pathElementOffset;
         if (startIdx < 0) {
@@ -129,6 +169,7 @@ public abstract class AbstractSubscription implements Subscription {
                 final PkValue id = epe.getPkValues();
                 if (direct && navProp != null && !navProp.isEntitySet() && id != null) {
                     createMatcher(navProp, id);
+                    createMatchExpression(extraFilter);
                     assert (i <= 1);
                     return;
                 }
@@ -212,6 +253,14 @@ public abstract class AbstractSubscription implements Subscription {
         return parentId;
     }
 
+    @Override
+    public Object getMatchKey() {
+        if (matchKey == null) {
+            matchKey = new MatchKey(getClass(), SubscriptionFactory.getPathFromTopic(topic), matchExpression);
+        }
+        return matchKey;
+    }
+
     public abstract String doFormatMessage(Entity entity) throws IOException;
 
     @Override
@@ -237,4 +286,17 @@ public abstract class AbstractSubscription implements Subscription {
         return this.entityType == other.entityType;
     }
 
+    /**
+     * The things that determine which entities match a subscription: the type
+     * of subscription, the path in the topic and the filter.
+     */
+    private static record MatchKey(Class<?> type, String path, Expression filter) {
+    }
+
+    /**
+     * The things that determine how an entity is formatted for a subscription.
+     */
+    protected static record FormatKey(Class<?> type, Version version, Set<Property> select, List<Expand> expand) {
+    }
+
 }
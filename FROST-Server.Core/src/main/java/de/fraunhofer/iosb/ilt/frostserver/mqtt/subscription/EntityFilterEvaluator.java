@@ -0,0 +1,906 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.MapValue;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeInstant;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeValue;
+import de.fraunhofer.iosb.ilt.frostserver.property.EntityPropertyCustom;
+import de.fraunhofer.iosb.ilt.frostserver.property.EntityPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.property.Property;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.ExpressionVisitor;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Path;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.BooleanConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.Constant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.ConstantList;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.DateConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.DateTimeConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.DoubleConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.DurationConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.IntegerConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.IntervalConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.LineStringConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.NullConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.PointConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.PolygonConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.StringConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.constant.TimeConstant;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.Function;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Add;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Divide;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Modulo;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Multiply;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.arithmetic.Subtract;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.Equal;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.GreaterEqual;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.GreaterThan;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.In;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.LessEqual;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.LessThan;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.comparison.NotEqual;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.context.ContextEntityProperty;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.context.PrincipalName;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Date;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Day;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.FractionalSeconds;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Hour;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.MaxDateTime;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.MinDateTime;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Minute;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Month;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Now;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Second;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Time;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.TotalOffsetMinutes;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.date.Year;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.logical.And;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.logical.Any;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.logical.Not;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.logical.Or;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.math.Ceiling;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.math.Floor;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.math.Round;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.GeoDistance;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.GeoIntersects;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.GeoLength;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STContains;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STCrosses;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STDisjoint;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STEquals;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STIntersects;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STOverlaps;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STRelate;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STTouches;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.spatialrelation.STWithin;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.Concat;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.EndsWith;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.IndexOf;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.Length;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.StartsWith;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.Substring;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.SubstringOf;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.ToLower;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.ToUpper;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.string.Trim;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.After;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Before;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.During;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Finishes;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Meets;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Overlaps;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.temporal.Starts;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.IntPredicate;
+import java.util.function.UnaryOperator;
+import net.time4j.Moment;
+import net.time4j.SystemClock;
+
+/**
+ * Evaluates a filter Expression directly on an Entity, as it was received in a
+ * change message, without querying the database.
+ *
+ * Only the subset of the filter language is evaluated for which the outcome is
+ * certain to be the same as the outcome of the query on the database. When an
+ * Expression (or the data in the Entity) is outside this subset, a
+ * {@link NotEvaluableException} is thrown, and the caller must fall back to
+ * querying the database. This is, among others, the case for:
+ * <ul>
+ * <li>paths that navigate into Entities or properties that are not present in
+ * the message,</li>
+ * <li>lambda functions, spatial functions and context functions,</li>
+ * <li>date functions that depend on the time zone of the database,</li>
+ * <li>time intervals and durations,</li>
+ * <li>comparisons of values of different types, or ordering of strings, since
+ * these depend on the type coercion and collation of the database.</li>
+ * </ul>
+ *
+ * The result of an evaluation follows the three-valued logic of SQL:
+ * {@link Boolean#TRUE}, {@link Boolean#FALSE} or null for unknown.
+ */
+public class EntityFilterEvaluator implements ExpressionVisitor<Object> {
+
+    private final Entity entity;
+
+    public EntityFilterEvaluator(Entity entity) {
+        this.entity = entity;
+    }
+
+    /**
+     * Evaluate the given (boolean) Expression on the Entity.
+     *
+     * @param expression The Expression to evaluate.
+     * @return TRUE, FALSE or null if the outcome is unknown.
+     * @throws NotEvaluableException If the Expression can not be reliably
+     * evaluated without the database.
+     */
+    public Boolean evaluate(Expression expression) {
+        return asBoolean(expression.accept(this));
+    }
+
+    private static Boolean asBoolean(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        throw new NotEvaluableException("Not a boolean: " + value, false);
+    }
+
+    private static NotEvaluableException unsupported(Expression node) {
+        return new NotEvaluableException("Not supported: " + node.getClass().getSimpleName(), true);
+    }
+
+    private static NotEvaluableException unsupportedValue(Object value) {
+        return new NotEvaluableException("Not supported value: " + value, false);
+    }
+
+    /**
+     * Brings values from the Entity and from constants into the canonical form
+     * used for comparing them: BigDecimal, String, Boolean or Moment.
+     */
+    private static Object normalise(Object value) {
+        if (value == null
+                || value instanceof BigDecimal
+                || value instanceof String
+                || value instanceof Boolean
+                || value instanceof Moment) {
+            return value;
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof BigInteger bigInteger) {
+            return new BigDecimal(bigInteger);
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double doubleValue = ((Number) value).doubleValue();
+            if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                throw unsupportedValue(value);
+            }
+            return BigDecimal.valueOf(doubleValue);
+        }
+        if (value instanceof TimeInstant timeInstant) {
+            return timeInstant.getDateTime();
+        }
+        if (value instanceof TimeValue timeValue && timeValue.isInstant()) {
+            return timeValue.getInstant().getDateTime();
+        }
+        throw unsupportedValue(value);
+    }
+
+    private Object getParam(Function node, int idx) {
+        return node.getParameters().get(idx).accept(this);
+    }
+
+    private static BigDecimal asNumber(Object value) {
+        if (value == null || value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        throw unsupportedValue(value);
+    }
+
+    private static BigDecimal asIntegral(Object value) {
+        BigDecimal number = asNumber(value);
+        if (number != null && number.stripTrailingZeros().scale() > 0) {
+            throw unsupportedValue(value);
+        }
+        return number;
+    }
+
+    private static int asInt(Object value) {
+        try {
+            return asIntegral(value).intValueExact();
+        } catch (ArithmeticException exc) {
+            throw unsupportedValue(value);
+        }
+    }
+
+    private static String asString(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        throw unsupportedValue(value);
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 127) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two normalised values.
+     *
+     * @param v1 The first value.
+     * @param v2 The second value.
+     * @param ordering Flag indicating the order of the values is needed, not
+     * just their equality.
+     * @return the comparison result, or null if one of the values is null.
+     */
+    private static Integer compare(Object v1, Object v2, boolean ordering) {
+        if (v1 == null || v2 == null) {
+            return null;
+        }
+        if (v1 instanceof BigDecimal n1 && v2 instanceof BigDecimal n2) {
+            return n1.compareTo(n2);
+        }
+        if (v1 instanceof Moment m1 && v2 instanceof Moment m2) {
+            return m1.compareTo(m2);
+        }
+        if (!ordering && (v1 instanceof String || v1 instanceof Boolean) && v1.getClass() == v2.getClass()) {
+            return v1.equals(v2) ? 0 : 1;
+        }
+        throw new NotEvaluableException("Can not compare " + v1 + " with " + v2, false);
+    }
+
+    private Boolean compare(Function node, boolean ordering, IntPredicate test) {
+        Integer result = compare(getParam(node, 0), getParam(node, 1), ordering);
+        if (result == null) {
+            return null;
+        }
+        return test.test(result);
+    }
+
+    private Object arithmetic(Function node, BinaryOperator<BigDecimal> operation) {
+        BigDecimal n1 = asIntegral(getParam(node, 0));
+        BigDecimal n2 = asIntegral(getParam(node, 1));
+        if (n1 == null || n2 == null) {
+            return null;
+        }
+        return operation.apply(n1, n2);
+    }
+
+    private Object stringFunction(Function node, UnaryOperator<String> operation) {
+        String value = asString(getParam(node, 0));
+        if (value == null) {
+            return null;
+        }
+        return operation.apply(value);
+    }
+
+    private Object stringPredicate(Function node, BiPredicate<String, String> test) {
+        String s1 = asString(getParam(node, 0));
+        String s2 = asString(getParam(node, 1));
+        if (s1 == null || s2 == null) {
+            return null;
+        }
+        return test.test(s1, s2);
+    }
+
+    @Override
+    public Object visit(Path node) {
+        Object current = entity;
+        for (Property element : node.getElements()) {
+            if (current instanceof Entity currentEntity) {
+                if (!(element instanceof EntityPropertyMain || element instanceof NavigationPropertyMain)
+                        || !currentEntity.isSetProperty(element)) {
+                    throw unsupportedValue(element);
+                }
+                current = currentEntity.getProperty(element);
+                if (current == null && element instanceof NavigationPropertyMain) {
+                    // The database may use an inner join for this relation.
+                    throw unsupportedValue(element);
+                }
+            } else if (current == null) {
+                return null;
+            } else if (!(element instanceof EntityPropertyCustom)) {
+                throw unsupportedValue(element);
+            } else if (current instanceof Map map) {
+                current = map.get(element.getName());
+            } else if (current instanceof MapValue mapValue) {
+                current = mapValue.get(element.getName());
+            } else if (current instanceof List list) {
+                current = getListItem(list, element.getName());
+            } else {
+                throw unsupportedValue(current);
+            }
+        }
+        return normalise(current);
+    }
+
+    private static Object getListItem(List<?> list, String name) {
+        try {
+            int idx = Integer.parseInt(name);
+            if (idx < 0 || idx >= list.size()) {
+                return null;
+            }
+            return list.get(idx);
+        } catch (NumberFormatException exc) {
+            return null;
+        }
+    }
+
+    @Override
+    public Object visit(Any node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(BooleanConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(DateConstant node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(DateTimeConstant node) {
+        return node.getValue().toMoment();
+    }
+
+    @Override
+    public Object visit(DoubleConstant node) {
+        return normalise(node.getValue());
+    }
+
+    @Override
+    public Object visit(DurationConstant node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(IntervalConstant node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(IntegerConstant node) {
+        return normalise(node.getValue());
+    }
+
+    @Override
+    public Object visit(LineStringConstant node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(NullConstant node) {
+        return null;
+    }
+
+    @Override
+    public Object visit(PointConstant node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(PolygonConstant node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(StringConstant node) {
+        return node.getValue();
+    }
+
+    @Override
+    public Object visit(TimeConstant node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(ConstantList node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Before node) {
+        return compare(node, true, c -> c < 0);
+    }
+
+    @Override
+    public Object visit(After node) {
+        return compare(node, true, c -> c > 0);
+    }
+
+    @Override
+    public Object visit(Meets node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(During node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Overlaps node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Starts node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Finishes node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Add node) {
+        return arithmetic(node, BigDecimal::add);
+    }
+
+    @Override
+    public Object visit(Divide node) {
+        // The database does integer or floating point division, depending on the column types.
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Modulo node) {
+        return arithmetic(node, (n1, n2) -> {
+            if (n2.signum() == 0) {
+                throw unsupportedValue(n2);
+            }
+            return n1.remainder(n2);
+        });
+    }
+
+    @Override
+    public Object visit(Multiply node) {
+        return arithmetic(node, BigDecimal::multiply);
+    }
+
+    @Override
+    public Object visit(Subtract node) {
+        return arithmetic(node, BigDecimal::subtract);
+    }
+
+    @Override
+    public Object visit(Equal node) {
+        List<Expression> params = node.getParameters();
+        if (params.get(0) instanceof NullConstant) {
+            return params.get(1).accept(this) == null;
+        }
+        if (params.get(1) instanceof NullConstant) {
+            return params.get(0).accept(this) == null;
+        }
+        return compare(node, false, c -> c == 0);
+    }
+
+    @Override
+    public Object visit(GreaterEqual node) {
+        return compare(node, true, c -> c >= 0);
+    }
+
+    @Override
+    public Object visit(GreaterThan node) {
+        return compare(node, true, c -> c > 0);
+    }
+
+    @Override
+    public Object visit(LessEqual node) {
+        return compare(node, true, c -> c <= 0);
+    }
+
+    @Override
+    public Object visit(LessThan node) {
+        return compare(node, true, c -> c < 0);
+    }
+
+    @Override
+    public Object visit(NotEqual node) {
+        List<Expression> params = node.getParameters();
+        if (params.get(0) instanceof NullConstant) {
+            return params.get(1).accept(this) != null;
+        }
+        if (params.get(1) instanceof NullConstant) {
+            return params.get(0).accept(this) != null;
+        }
+        return compare(node, false, c -> c != 0);
+    }
+
+    @Override
+    public Object visit(In node) {
+        List<Expression> params = node.getParameters();
+        if (!(params.get(1) instanceof ConstantList<?> list)) {
+            throw unsupported(node);
+        }
+        Object value = params.get(0).accept(this);
+        if (value == null) {
+            return null;
+        }
+        boolean unknown = false;
+        for (Constant<?> item : list.getValue()) {
+            Integer result = compare(value, item.accept(this), false);
+            if (result == null) {
+                unknown = true;
+            } else if (result == 0) {
+                return true;
+            }
+        }
+        return unknown ? null : Boolean.FALSE;
+    }
+
+    @Override
+    public Object visit(Date node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Day node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(FractionalSeconds node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Hour node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(MaxDateTime node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(MinDateTime node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Minute node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Month node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Now node) {
+        return SystemClock.currentMoment();
+    }
+
+    @Override
+    public Object visit(Second node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Time node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(TotalOffsetMinutes node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Year node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(GeoDistance node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(GeoIntersects node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(GeoLength node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(And node) {
+        Boolean p1 = asBoolean(getParam(node, 0));
+        if (Boolean.FALSE.equals(p1)) {
+            return false;
+        }
+        Boolean p2 = asBoolean(getParam(node, 1));
+        if (Boolean.FALSE.equals(p2)) {
+            return false;
+        }
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        return true;
+    }
+
+    @Override
+    public Object visit(Not node) {
+        Boolean p1 = asBoolean(getParam(node, 0));
+        if (p1 == null) {
+            return null;
+        }
+        return !p1;
+    }
+
+    @Override
+    public Object visit(Or node) {
+        Boolean p1 = asBoolean(getParam(node, 0));
+        if (Boolean.TRUE.equals(p1)) {
+            return true;
+        }
+        Boolean p2 = asBoolean(getParam(node, 1));
+        if (Boolean.TRUE.equals(p2)) {
+            return true;
+        }
+        if (p1 == null || p2 == null) {
+            return null;
+        }
+        return false;
+    }
+
+    @Override
+    public Object visit(Ceiling node) {
+        BigDecimal value = asNumber(getParam(node, 0));
+        return value == null ? null : value.setScale(0, RoundingMode.CEILING);
+    }
+
+    @Override
+    public Object visit(Floor node) {
+        BigDecimal value = asNumber(getParam(node, 0));
+        return value == null ? null : value.setScale(0, RoundingMode.FLOOR);
+    }
+
+    @Override
+    public Object visit(Round node) {
+        BigDecimal value = asNumber(getParam(node, 0));
+        if (value == null) {
+            return null;
+        }
+        if (value.remainder(BigDecimal.ONE).abs().compareTo(new BigDecimal("0.5")) == 0) {
+            // Ties are rounded differently for different column types.
+            throw unsupportedValue(value);
+        }
+        return value.setScale(0, RoundingMode.HALF_UP);
+    }
+
+    @Override
+    public Object visit(STContains node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(STCrosses node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(STDisjoint node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(STEquals node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(STIntersects node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(STOverlaps node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(STRelate node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(STTouches node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(STWithin node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(Concat node) {
+        String s1 = asString(getParam(node, 0));
+        String s2 = asString(getParam(node, 1));
+        if (s1 == null || s2 == null) {
+            return null;
+        }
+        return s1 + s2;
+    }
+
+    @Override
+    public Object visit(EndsWith node) {
+        return stringPredicate(node, String::endsWith);
+    }
+
+    @Override
+    public Object visit(IndexOf node) {
+        // Mirrors the SQL position function: 1-based, 0 when not found.
+        String s1 = asString(getParam(node, 0));
+        String s2 = asString(getParam(node, 1));
+        if (s1 == null || s2 == null) {
+            return null;
+        }
+        int idx = s1.indexOf(s2);
+        if (idx < 0) {
+            return BigDecimal.ZERO;
+        }
+        return BigDecimal.valueOf(s1.codePointCount(0, idx) + 1L);
+    }
+
+    @Override
+    public Object visit(Length node) {
+        String value = asString(getParam(node, 0));
+        if (value == null) {
+            return null;
+        }
+        return BigDecimal.valueOf(value.codePointCount(0, value.length()));
+    }
+
+    @Override
+    public Object visit(StartsWith node) {
+        return stringPredicate(node, String::startsWith);
+    }
+
+    @Override
+    public Object visit(Substring node) {
+        List<Expression> params = node.getParameters();
+        String value = asString(getParam(node, 0));
+        Object startValue = getParam(node, 1);
+        Object lengthValue = params.size() > 2 ? getParam(node, 2) : null;
+        if (value == null || startValue == null || (params.size() > 2 && lengthValue == null)) {
+            return null;
+        }
+        // The SQL substring function is 1-based, the expression is 0-based.
+        long length = value.codePointCount(0, value.length());
+        long start = asInt(startValue) + 1L;
+        long end = length + 1;
+        if (lengthValue != null) {
+            int count = asInt(lengthValue);
+            if (count < 0) {
+                throw unsupportedValue(lengthValue);
+            }
+            end = Math.min(end, start + count);
+        }
+        start = Math.max(start, 1);
+        if (end <= start) {
+            return "";
+        }
+        int from = value.offsetByCodePoints(0, (int) start - 1);
+        int to = value.offsetByCodePoints(0, (int) end - 1);
+        return value.substring(from, to);
+    }
+
+    @Override
+    public Object visit(SubstringOf node) {
+        return stringPredicate(node, (s1, s2) -> s2.contains(s1));
+    }
+
+    @Override
+    public Object visit(ToLower node) {
+        return stringFunction(node, s -> {
+            if (!isAscii(s)) {
+                // Case mapping of non-ASCII characters depends on the database locale.
+                throw unsupportedValue(s);
+            }
+            return s.toLowerCase(Locale.ROOT);
+        });
+    }
+
+    @Override
+    public Object visit(ToUpper node) {
+        return stringFunction(node, s -> {
+            if (!isAscii(s)) {
+                throw unsupportedValue(s);
+            }
+            return s.toUpperCase(Locale.ROOT);
+        });
+    }
+
+    @Override
+    public Object visit(Trim node) {
+        // SQL trim only removes spaces, not all whitespace.
+        return stringFunction(node, s -> {
+            int start = 0;
+            int end = s.length();
+            while (start < end && s.charAt(start) == ' ') {
+                start++;
+            }
+            while (end > start && s.charAt(end - 1) == ' ') {
+                end--;
+            }
+            return s.substring(start, end);
+        });
+    }
+
+    @Override
+    public Object visit(PrincipalName node) {
+        throw unsupported(node);
+    }
+
+    @Override
+    public Object visit(ContextEntityProperty node) {
+        throw unsupported(node);
+    }
+
+    /**
+     * Thrown when an Expression can not be reliably evaluated without the
+     * database.
+     */
+    public static class NotEvaluableException extends RuntimeException {
+
+        private final boolean permanent;
+
+        public NotEvaluableException(String message, boolean permanent) {
+            super(message, null, false, false);
+            this.permanent = permanent;
+        }
+
+        /**
+         * Flag indicating the Expression itself can not be evaluated, so that
+         * no further attempts need to be made. If false, it was the data in
+         * the Entity that could not be used.
+         *
+         * @return true if the Expression itself can not be evaluated.
+         */
+        public boolean isPermanent() {
+            return permanent;
+        }
+    }
+}
@@ -47,6 +47,7 @@ public class EntitySetSubscription extends AbstractSubscription {
     private static final Logger LOGGER = LoggerFactory.getLogger(EntitySetSubscription.class);
     private Query query;
     private Query expandQuery;
+    private FormatKey formatKey;
 
     public EntitySetSubscription(CoreSettings settings, String topic, ResourcePath path) {
         super(topic, path, settings);
@@ -90,7 +91,7 @@ public class EntitySetSubscription extends AbstractSubscription {
         String queryString;
         queryString = URLDecoder.decode(topic, StringHelper.UTF8);
         try {
-            return QueryParser.parseQuery(queryString, queryDefaults, modelRegistry, path).validate();
+            return QueryParser.parseQuery(queryString, settings, queryDefaults, path, ANONYMOUS_PRINCIPAL).validate();
         } catch (IllegalArgumentException e) {
             LOGGER.error("Invalid query: {} ERROR: {}", queryString, e.getMessage());
             return new Query(modelRegistry, queryDefaults, path, ANONYMOUS_PRINCIPAL).validate();
@@ -107,6 +108,14 @@ public class EntitySetSubscription extends AbstractSubscription {
         }
     }
 
+    @Override
+    public Object getFormatKey() {
+        if (formatKey == null) {
+            formatKey = new FormatKey(getClass(), query.getVersion(), query.getSelect(), query.getExpand());
+        }
+        return formatKey;
+    }
+
     @Override
     public Entity fetchExpand(PersistenceManager persistenceManager, Entity newEntity) {
         if (expandQuery != null) {
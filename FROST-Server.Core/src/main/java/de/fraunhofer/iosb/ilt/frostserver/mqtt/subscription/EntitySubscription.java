@@ -41,6 +41,7 @@ import java.util.function.Predicate;
 public class EntitySubscription extends AbstractSubscription {
 
     private Query emptyQuery;
+    private FormatKey formatKey;
 
     private Predicate<? super Entity> matcher;
 
@@ -71,6 +72,14 @@ public class EntitySubscription extends AbstractSubscription {
         return super.matches(persistenceManager, newEntity, fields);
     }
 
+    @Override
+    public Object getFormatKey() {
+        if (formatKey == null) {
+            formatKey = new FormatKey(getClass(), emptyQuery.getVersion(), emptyQuery.getSelect(), emptyQuery.getExpand());
+        }
+        return formatKey;
+    }
+
     @Override
     public String doFormatMessage(Entity entity) throws IOException {
         try {
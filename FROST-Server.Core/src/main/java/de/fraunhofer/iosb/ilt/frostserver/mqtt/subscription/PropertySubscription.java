@@ -43,6 +43,7 @@ public class PropertySubscription extends AbstractSubscription {
     private Property property;
     private Predicate<? super Entity> matcher;
     private Query query;
+    private FormatKey formatKey;
 
     public PropertySubscription(String topic, ResourcePath path, CoreSettings settings) {
         super(topic, path, settings);
@@ -77,6 +78,14 @@ public class PropertySubscription extends AbstractSubscription {
         return super.matches(persistenceManager, newEntity, fields);
     }
 
+    @Override
+    public Object getFormatKey() {
+        if (formatKey == null) {
+            formatKey = new FormatKey(getClass(), query.getVersion(), query.getSelect(), query.getExpand());
+        }
+        return formatKey;
+    }
+
     @Override
     public String doFormatMessage(Entity entity) throws IOException {
         entity.setQuery(query);
@@ -92,4 +92,27 @@ public interface Subscription {
      * @return The Primary Key of the determining parent.
      */
     public PkValue getParentId();
+
+    /**
+     * Get the key that determines which entities match this Subscription.
+     * Subscriptions with equal match keys match exactly the same entities, so
+     * the matching only has to be done once for all of them.
+     *
+     * @return The match key of this Subscription.
+     */
+    public default Object getMatchKey() {
+        return this;
+    }
+
+    /**
+     * Get the key that determines how entities are formatted for this
+     * Subscription. Subscriptions with equal format keys produce the same
+     * message for the same entity, so the (expanded) entity only has to be
+     * fetched and formatted once for all of them.
+     *
+     * @return The format key of this Subscription.
+     */
+    public default Object getFormatKey() {
+        return this;
+    }
 }
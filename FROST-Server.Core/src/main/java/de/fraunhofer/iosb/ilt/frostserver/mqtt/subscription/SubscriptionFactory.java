@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
 
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.MqttManager;
+import de.fraunhofer.iosb.ilt.frostserver.parser.ParseTreeCache;
 import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntity;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntitySet;
@@ -27,6 +28,7 @@ import de.fraunhofer.iosb.ilt.frostserver.path.Version;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.UnknownVersionException;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import org.slf4j.Logger;
@@ -42,6 +44,11 @@ public class SubscriptionFactory {
     private static final String URI_PATH_SEP = "/";
 
     private final CoreSettings settings;
+    /**
+     * The subscriptions of topics that were parsed before. Subscriptions for
+     * the same topic are equal, and can be shared by all clients.
+     */
+    private final ParseTreeCache<Subscription> subscriptionCache;
 
     public static String getPathFromTopic(String topic) {
         String pathString = topic.contains("?")
@@ -61,9 +68,17 @@ public class SubscriptionFactory {
 
     public SubscriptionFactory(CoreSettings settings) {
         this.settings = settings;
+        subscriptionCache = new ParseTreeCache<>(settings.getSettings().getInt(CoreSettings.TAG_PARSE_CACHE_SIZE, CoreSettings.class));
     }
 
     public Subscription get(String topic) {
+        if (topic == null) {
+            return create(topic);
+        }
+        return subscriptionCache.get(topic, this::create);
+    }
+
+    private Subscription create(String topic) {
         final String errorMsg = "Subscription to topic '" + topic + "' is invalid. Reason: ";
         if (topic == null || topic.isEmpty()) {
             throw new IllegalArgumentException(errorMsg + "topic must be non-empty.");
@@ -109,7 +124,7 @@ public class SubscriptionFactory {
         ResourcePath result = null;
         try {
             String pathString = URLDecoder.decode(topic, StringHelper.UTF8.name());
-            result = PathParser.parsePath(settings.getModelRegistry(), serviceRootUrl, version, pathString);
+            result = PathParser.parsePath(settings, serviceRootUrl, version, pathString, PrincipalExtended.ANONYMOUS_PRINCIPAL);
         } catch (UnsupportedEncodingException ex) {
             LOGGER.error("Encoding not supported.", ex);
         } catch (NumberFormatException e) {
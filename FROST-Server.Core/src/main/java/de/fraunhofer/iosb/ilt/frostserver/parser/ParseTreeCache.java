@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the syntax trees of parsed input strings, so that the same path or
+ * query does not need to be tokenised and parsed by the grammar again. The
+ * syntax trees are only read when they are turned into a ResourcePath or
+ * Query, so they can be shared between requests. Input that fails to parse is
+ * not cached.
+ *
+ * The cache can also hold other values that only depend on their input
+ * String, like the rendered SQL of a query.
+ *
+ * When the cache is full, the least recently used tree is evicted. Large
+ * caches are split into segments, each with its own lock and its own LRU
+ * order, so that threads using different inputs rarely wait for each other.
+ *
+ * @param <T> The type of the syntax tree.
+ */
+public class ParseTreeCache<T> {
+
+    /**
+     * The maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+    /**
+     * The minimum size of a segment, smaller caches use fewer segments.
+     */
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    /**
+     * Parses an input String into a syntax tree.
+     *
+     * @param <T> The type of the syntax tree.
+     * @param <E> The type of Exception thrown on invalid input.
+     */
+    @FunctionalInterface
+    public static interface Parser<T, E extends Exception> {
+
+        public T parse(String input) throws E;
+    }
+
+    private volatile List<Segment<T>> segments;
+
+    public ParseTreeCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Set the maximum number of syntax trees to keep. Clears the cache.
+     *
+     * @param maxSize The maximum number of syntax trees to keep, 0 to disable
+     * the cache.
+     */
+    public final void setMaxSize(int maxSize) {
+        if (maxSize <= 0) {
+            segments = Collections.emptyList();
+            return;
+        }
+        final int count = Math.max(1, Math.min(maxSize / MIN_SEGMENT_SIZE, MAX_SEGMENTS));
+        final List<Segment<T>> newSegments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            newSegments.add(new Segment<>(maxSize / count + (i < maxSize % count ? 1 : 0)));
+        }
+        segments = newSegments;
+    }
+
+    /**
+     * Get the syntax tree for the given input, parsing it if it is not cached.
+     *
+     * @param <E> The type of Exception thrown by the parser.
+     * @param input The input to get the syntax tree for.
+     * @param parser The parser to use if the input is not cached.
+     * @return The syntax tree for the input.
+     * @throws E If the input can not be parsed.
+     */
+    public <E extends Exception> T get(String input, Parser<T, E> parser) throws E {
+        final List<Segment<T>> current = segments;
+        if (current.isEmpty()) {
+            return parser.parse(input);
+        }
+        final int hash = input.hashCode();
+        final Segment<T> segment = current.get(Math.floorMod(hash ^ (hash >>> 16), current.size()));
+        T tree = segment.get(input);
+        if (tree != null) {
+            return tree;
+        }
+        tree = parser.parse(input);
+        segment.put(input, tree);
+        return tree;
+    }
+
+    /**
+     * The number of syntax trees in the cache.
+     *
+     * @return The number of syntax trees in the cache.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<T> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private static class Segment<T> {
+
+        private final Map<String, T> trees;
+
+        private Segment(int maxSize) {
+            trees = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        private synchronized T get(String input) {
+            return trees.get(input);
+        }
+
+        private synchronized void put(String input, T tree) {
+            trees.put(input, tree);
+        }
+
+        private synchronized int size() {
+            return trees.size();
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.frostserver.parser.path;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.parser.ParseTreeCache;
 import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementArrayIndex;
@@ -38,6 +39,7 @@ import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.query.QueryDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
+import de.fraunhofer.iosb.ilt.frostserver.util.pathparser.Node;
 import de.fraunhofer.iosb.ilt.frostserver.util.pathparser.Node.Visitor;
 import de.fraunhofer.iosb.ilt.frostserver.util.pathparser.PParser;
 import de.fraunhofer.iosb.ilt.frostserver.util.pathparser.ParseException;
@@ -272,6 +274,25 @@ public class PathParser extends Visitor {
      * @return The parsed ResourcePath.
      */
     public static ResourcePath parsePath(ModelRegistry modelRegistry, String serviceRootUrl, Version version, String path, PrincipalExtended user) {
+        return parsePath(modelRegistry, serviceRootUrl, version, path, user, null);
+    }
+
+    /**
+     * Parse the given path, using the parse cache of the given settings.
+     *
+     * @param settings The settings, with the Model Registry and parse cache to
+     * use.
+     * @param serviceRootUrl The root URL of the service.
+     * @param version The version of the service.
+     * @param path The path to parse.
+     * @param user The principal of the user.
+     * @return The parsed ResourcePath.
+     */
+    public static ResourcePath parsePath(CoreSettings settings, String serviceRootUrl, Version version, String path, PrincipalExtended user) {
+        return parsePath(settings.getModelRegistry(), serviceRootUrl, version, path, user, settings.getPathParseCache());
+    }
+
+    private static ResourcePath parsePath(ModelRegistry modelRegistry, String serviceRootUrl, Version version, String path, PrincipalExtended user, ParseTreeCache<Node> cache) {
         ResourcePath resourcePath = new ResourcePath();
         resourcePath.setServiceRootUrl(serviceRootUrl);
         resourcePath.setVersion(version);
@@ -281,23 +302,28 @@ public class PathParser extends Visitor {
         }
         resourcePath.setPath(path);
         LOGGER.debug("Parsing: {}", path);
-        PParser parser = new PParser(path);
         try {
-            parser.Start();
+            final Node rootNode = cache == null ? parseTree(path) : cache.get(path, PathParser::parseTree);
             PathParser pp = new PathParser(modelRegistry, resourcePath, user.isAdmin());
-            pp.visit(parser.rootNode());
+            pp.visit(rootNode);
         } catch (ParseException ex) {
             throw new IllegalArgumentException("Path is not valid: " + ex.getMessage());
         }
         return resourcePath;
     }
 
+    private static Node parseTree(String path) throws ParseException {
+        PParser parser = new PParser(path);
+        parser.Start();
+        return parser.rootNode();
+    }
+
     public static Query parsePathAndQuery(Version version, String pathAndQuery, CoreSettings settings, QueryDefaults queryDefaults) {
         int index = pathAndQuery.indexOf('?');
         String pathString = pathAndQuery.substring(0, index);
         String queryString = pathAndQuery.substring(index + 1);
-        ResourcePath path = PathParser.parsePath(settings.getModelRegistry(), queryDefaults.getServiceRootUrl(), version, pathString);
-        return QueryParser.parseQuery(queryString, queryDefaults, settings.getModelRegistry(), path).validate(null, path.getMainElementType());
+        ResourcePath path = PathParser.parsePath(settings, queryDefaults.getServiceRootUrl(), version, pathString, PrincipalExtended.ANONYMOUS_PRINCIPAL);
+        return QueryParser.parseQuery(queryString, settings, queryDefaults, path, PrincipalExtended.ANONYMOUS_PRINCIPAL).validate(null, path.getMainElementType());
     }
 
 }
@@ -20,6 +20,7 @@ package de.fraunhofer.iosb.ilt.frostserver.parser.query;
 import static de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended.ANONYMOUS_PRINCIPAL;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.parser.ParseTreeCache;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.query.Expand;
 import de.fraunhofer.iosb.ilt.frostserver.query.Metadata;
@@ -29,6 +30,7 @@ import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.query.QueryDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.DynamicContext;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import de.fraunhofer.iosb.ilt.frostserver.util.queryparser.Node;
 import de.fraunhofer.iosb.ilt.frostserver.util.queryparser.Node.Visitor;
@@ -307,13 +309,49 @@ public class QueryParser extends Visitor {
     }
 
     public static Query parseQuery(String query, Charset encoding, QueryDefaults queryDefaults, ModelRegistry modelRegistry, ResourcePath path, PrincipalExtended user, DynamicContext context) {
+        return parseQuery(query, queryDefaults, modelRegistry, path, user, context, null);
+    }
+
+    /**
+     * Parse the given query, using the Model Registry and parse cache of the
+     * given settings.
+     *
+     * @param query The query to parse.
+     * @param settings The settings, with the Model Registry and parse cache to
+     * use.
+     * @param queryDefaults The query defaults to use.
+     * @param path The path the query is for.
+     * @param user The principal of the user.
+     * @return The parsed Query.
+     */
+    public static Query parseQuery(String query, CoreSettings settings, QueryDefaults queryDefaults, ResourcePath path, PrincipalExtended user) {
+        return parseQuery(query, settings, queryDefaults, path, user, new DynamicContext());
+    }
+
+    /**
+     * Parse the given query, using the Model Registry and parse cache of the
+     * given settings.
+     *
+     * @param query The query to parse.
+     * @param settings The settings, with the Model Registry and parse cache to
+     * use.
+     * @param queryDefaults The query defaults to use.
+     * @param path The path the query is for.
+     * @param user The principal of the user.
+     * @param context The context for the query.
+     * @return The parsed Query.
+     */
+    public static Query parseQuery(String query, CoreSettings settings, QueryDefaults queryDefaults, ResourcePath path, PrincipalExtended user, DynamicContext context) {
+        return parseQuery(query, queryDefaults, settings.getModelRegistry(), path, user, context, settings.getQueryParseCache());
+    }
+
+    private static Query parseQuery(String query, QueryDefaults queryDefaults, ModelRegistry modelRegistry, ResourcePath path, PrincipalExtended user, DynamicContext context, ParseTreeCache<Start> cache) {
         if (query == null || query.isEmpty()) {
             return new Query(modelRegistry, queryDefaults, path, user);
         }
         LOGGER.debug("Parsing: {}", query);
-        QParser t = new QParser(query);
         try {
-            Start start = t.Start();
+            final Start start = cache == null ? new QParser(query).Start() : cache.get(query, input -> new QParser(input).Start());
             QueryParser v = new QueryParser(queryDefaults, modelRegistry, path, user, context);
             return v.handle(start);
         } catch (ParseException | IllegalArgumentException ex) {
@@ -19,6 +19,8 @@ package de.fraunhofer.iosb.ilt.frostserver.persistence;
 
 import com.github.fge.jsonpatch.JsonPatch;
 import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.TransactionalMessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
@@ -31,7 +33,9 @@ import de.fraunhofer.iosb.ilt.frostserver.service.UpdateMode;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -60,7 +64,9 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
 
     @Override
     public boolean insert(Entity entity, UpdateMode updateMode) throws NoSuchEntityException, IncompleteEntityException {
+        final long start = System.nanoTime();
         Entity newEntity = doInsert(entity, updateMode);
+        getCoreSettings().getMetrics().persistenceDuration(ServerMetrics.KIND_INSERT).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         if (newEntity != null) {
             newEntity.setQuery(getCoreSettings().getModelRegistry().getMessageQueryGenerator().getQueryFor(entity.getEntityType()));
             changedEntities.add(
@@ -75,6 +81,50 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
 
     public abstract Entity doInsert(Entity entity, UpdateMode updateMode) throws NoSuchEntityException, IncompleteEntityException;
 
+    @Override
+    public List<Exception> insertAll(List<Entity> entities, UpdateMode updateMode) {
+        List<Exception> failures = new ArrayList<>(Collections.nCopies(entities.size(), null));
+        final long start = System.nanoTime();
+        List<Entity> newEntities = doInsertAll(entities, updateMode, failures);
+        getCoreSettings().getMetrics().persistenceDuration(ServerMetrics.KIND_INSERT_BATCH).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        for (Entity newEntity : newEntities) {
+            if (newEntity == null) {
+                continue;
+            }
+            newEntity.setQuery(getCoreSettings().getModelRegistry().getMessageQueryGenerator().getQueryFor(newEntity.getEntityType()));
+            changedEntities.add(
+                    new EntityChangedMessage()
+                            .setEventType(EntityChangedMessage.Type.CREATE)
+                            .setEntity(newEntity));
+        }
+        return failures;
+    }
+
+    /**
+     * Insert a list of new entities, all of the same type. The default
+     * implementation inserts the entities one by one. Implementations can
+     * override this to insert the entities in bulk.
+     *
+     * @param entities The entities to insert.
+     * @param updateMode The rules to follow wen inserting.
+     * @param failures The list to put exceptions in, at the index of the
+     * entity that failed to insert.
+     * @return The inserted entities, as returned by the database, with null
+     * for the entities that were not inserted.
+     */
+    public List<Entity> doInsertAll(List<Entity> entities, UpdateMode updateMode, List<Exception> failures) {
+        List<Entity> newEntities = new ArrayList<>(entities.size());
+        for (int idx = 0; idx < entities.size(); idx++) {
+            try {
+                newEntities.add(doInsert(entities.get(idx), updateMode));
+            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                failures.set(idx, exc);
+                newEntities.add(null);
+            }
+        }
+        return newEntities;
+    }
+
     @Override
     public boolean delete(PathElementEntity pathElement) throws NoSuchEntityException {
         Entity entity = getEntityByEntityPath(pathElement);
@@ -182,7 +232,21 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
 
     @Override
     public void commit() {
+        final MessageBus messageBus = getCoreSettings().getMessageBus();
+        if (messageBus instanceof TransactionalMessageBus txBus && !changedEntities.isEmpty()) {
+            // The messages are committed together with the changes.
+            txBus.storeMessages(this, changedEntities);
+            if (doCommit()) {
+                getCoreSettings().getResponseCache().localChanges(changedEntities);
+                txBus.messagesCommitted(changedEntities.size());
+                clearEntityChangedEvents();
+            }
+            return;
+        }
         if (doCommit()) {
+            // The bus delivers asynchronously, a client that reads its own
+            // write should not get a cached response from before the write.
+            getCoreSettings().getResponseCache().localChanges(changedEntities);
             fireEntityChangeEvents();
         }
     }
@@ -198,6 +262,61 @@ public abstract class AbstractPersistenceManager implements PersistenceManager {
 
     protected abstract boolean doRollback();
 
+    @Override
+    public Object setSavepoint() {
+        final Object savepoint = doSetSavepoint();
+        if (savepoint == null) {
+            return null;
+        }
+        return new Savepoint(savepoint, changedEntities.size());
+    }
+
+    /**
+     * Sets a savepoint in the current transaction.
+     *
+     * @return The savepoint, or null if savepoints are not supported.
+     */
+    protected Object doSetSavepoint() {
+        return null;
+    }
+
+    @Override
+    public void rollbackToSavepoint(Object savepoint) {
+        final Savepoint sp = (Savepoint) savepoint;
+        doRollbackToSavepoint(sp.savepoint());
+        changedEntities.subList(sp.messageCount(), changedEntities.size()).clear();
+    }
+
+    /**
+     * Undoes the changes made after the given savepoint.
+     *
+     * @param savepoint A savepoint returned by {@link #doSetSavepoint()}.
+     */
+    protected void doRollbackToSavepoint(Object savepoint) {
+        throw new UnsupportedOperationException("Savepoints are not supported.");
+    }
+
+    @Override
+    public void releaseSavepoint(Object savepoint) {
+        doReleaseSavepoint(((Savepoint) savepoint).savepoint());
+    }
+
+    /**
+     * Releases the given savepoint.
+     *
+     * @param savepoint A savepoint returned by {@link #doSetSavepoint()}.
+     */
+    protected void doReleaseSavepoint(Object savepoint) {
+        // Nothing to release by default.
+    }
+
+    /**
+     * A savepoint of the implementation, with the number of messages that were
+     * waiting to be sent when the savepoint was set.
+     */
+    private static record Savepoint(Object savepoint, int messageCount) {
+    }
+
     @Override
     public void close() {
         if (doClose()) {
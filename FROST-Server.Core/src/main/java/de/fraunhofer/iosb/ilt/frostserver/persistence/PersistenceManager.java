@@ -34,6 +34,7 @@ import de.fraunhofer.iosb.ilt.frostserver.util.SecurityModel;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -56,6 +57,31 @@ public interface PersistenceManager extends AutoCloseable {
      */
     public boolean insert(Entity entity, UpdateMode updateMode) throws NoSuchEntityException, IncompleteEntityException;
 
+    /**
+     * Insert a list of new entities, all of the same type. A failure to insert
+     * one of the entities does not stop the other entities from being
+     * inserted. After a successful insert, the primary key of each entity is
+     * set.
+     *
+     * @param entities The entities to insert.
+     * @param updateMode The rules to follow wen inserting.
+     * @return A list with the same size as the given list of entities, with
+     * for each entity null if no error occurred, or the exception that
+     * prevented the insert of the entity.
+     */
+    public default List<Exception> insertAll(List<Entity> entities, UpdateMode updateMode) {
+        List<Exception> failures = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            try {
+                insert(entity, updateMode);
+                failures.add(null);
+            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                failures.add(exc);
+            }
+        }
+        return failures;
+    }
+
     /**
      * Get the Entity of the given EntityType with the given Primary Key.
      *
@@ -152,10 +178,63 @@ public interface PersistenceManager extends AutoCloseable {
 
     public void setRole(Principal user);
 
+    /**
+     * Marks the next transaction of this PersistenceManager as only reading.
+     * Such a transaction may be executed on a read replica of the database.
+     * Must be called before the transaction starts, and is reset when the
+     * PersistenceManager is closed.
+     *
+     * @param readOnly true if the next transaction only reads.
+     */
+    public default void setReadOnly(boolean readOnly) {
+        // Optional method.
+    }
+
+    /**
+     * Checks if security wrappers filter the data that users can read. In that
+     * case, what a user can read depends on more than the requested entities.
+     *
+     * @return true if security wrappers are installed.
+     */
+    public default boolean hasSecurityWrappers() {
+        return false;
+    }
+
     public void commit();
 
     public void rollback();
 
+    /**
+     * Sets a savepoint in the current transaction. The changes made after the
+     * savepoint can be undone with {@link #rollbackToSavepoint(Object)},
+     * without undoing the changes made before it.
+     *
+     * @return The savepoint, or null if savepoints are not supported.
+     */
+    public default Object setSavepoint() {
+        // Optional method.
+        return null;
+    }
+
+    /**
+     * Undoes the changes made after the given savepoint, and forgets the
+     * messages of those changes. The savepoint stays valid.
+     *
+     * @param savepoint A savepoint returned by {@link #setSavepoint()}.
+     */
+    public default void rollbackToSavepoint(Object savepoint) {
+        throw new UnsupportedOperationException("Savepoints are not supported.");
+    }
+
+    /**
+     * Releases the given savepoint, keeping the changes made after it.
+     *
+     * @param savepoint A savepoint returned by {@link #setSavepoint()}.
+     */
+    public default void releaseSavepoint(Object savepoint) {
+        // Optional method.
+    }
+
     @Override
     public void close();
 
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.service;
+
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ACCEPT;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ACCEPT_ENCODING;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_CONTENT_ENCODING;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ETAG;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_IF_NONE_MATCH;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_VARY;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches documents that are generated from the model, like $metadata and the
+ * OpenAPI document. These only change when the model changes, so they are
+ * generated once, and kept as encoded and gzipped bytes with an ETag. The
+ * cache is cleared when the version of the model changes.
+ *
+ * @author hylke
+ */
+public class DocumentCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentCache.class.getName());
+
+    /**
+     * The maximum number of documents to keep. Documents can have request
+     * parameters, so the number of variants is not fixed.
+     */
+    private static final int MAX_SIZE = 100;
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String VARY = HEADER_ACCEPT + ", " + HEADER_ACCEPT_ENCODING;
+
+    private final ModelRegistry modelRegistry;
+    private final Map<Key, Document> documents = new ConcurrentHashMap<>();
+    private int modelVersion;
+
+    public DocumentCache(ModelRegistry modelRegistry) {
+        this.modelRegistry = modelRegistry;
+        this.modelVersion = modelRegistry.getModelVersion();
+    }
+
+    /**
+     * Get the document for the given key, generating it if needed.
+     *
+     * @param key The key of the document.
+     * @param generator The generator that creates the document if it is not
+     * cached.
+     * @return The document.
+     * @throws IOException If the generator fails.
+     */
+    public Document get(Key key, Generator generator) throws IOException {
+        final int version = checkModelVersion();
+        Document document = documents.get(key);
+        if (document != null) {
+            return document;
+        }
+        LOGGER.debug("Generating document {}", key);
+        document = new Document(generator.generate(), key.contentType());
+        if (documents.size() >= MAX_SIZE) {
+            documents.clear();
+        }
+        if (version == modelRegistry.getModelVersion()) {
+            // Only cache documents of the current model.
+            documents.put(key, document);
+        }
+        return document;
+    }
+
+    private synchronized int checkModelVersion() {
+        final int currentVersion = modelRegistry.getModelVersion();
+        if (currentVersion != modelVersion) {
+            LOGGER.debug("Model changed, clearing generated documents.");
+            modelVersion = currentVersion;
+            documents.clear();
+        }
+        return currentVersion;
+    }
+
+    public void clear() {
+        documents.clear();
+    }
+
+    /**
+     * Write the given document to the given response, honouring the
+     * If-None-Match and Accept-Encoding headers of the request. The gzipped
+     * and the plain body each have their own ETag.
+     *
+     * @param request The request to answer.
+     * @param response The response to write to.
+     * @param document The document to write.
+     * @return The response.
+     */
+    public static ServiceResponse writeDocument(ServiceRequest request, ServiceResponse response, Document document) {
+        final OutputStream out = response.getOutputStream();
+        final boolean gzip = out != null && acceptsGzip(request.getParameter(HEADER_ACCEPT_ENCODING));
+        response.setHeader(HEADER_ETAG, document.getEtag(gzip));
+        response.setHeader(HEADER_VARY, VARY);
+        if (document.matches(request.getParameter(HEADER_IF_NONE_MATCH), gzip)) {
+            response.setCode(304);
+            return response;
+        }
+        response.setContentType(document.getContentType());
+        response.setCode(200);
+        try {
+            if (out == null) {
+                response.getWriter().write(new String(document.getBody(), StandardCharsets.UTF_8));
+            } else if (gzip) {
+                response.setHeader(HEADER_CONTENT_ENCODING, ENCODING_GZIP);
+                out.write(document.getGzipped());
+            } else {
+                out.write(document.getBody());
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed to write document.", ex);
+            return Service.errorResponse(response, 500, "Failed to write document");
+        }
+        return response;
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String part : acceptEncoding.split(",")) {
+            final String[] encodingAndParams = part.split(";");
+            if (ENCODING_GZIP.equalsIgnoreCase(encodingAndParams[0].trim())) {
+                return getQuality(encodingAndParams) > 0;
+            }
+        }
+        return false;
+    }
+
+    private static double getQuality(String[] encodingAndParams) {
+        for (int i = 1; i < encodingAndParams.length; i++) {
+            final String param = encodingAndParams[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(param.substring(2));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Generates the text of a document.
+     */
+    @FunctionalInterface
+    public static interface Generator {
+
+        public String generate() throws IOException;
+    }
+
+    /**
+     * The key of a generated document. The version of the model is not part of
+     * the key, since the cache is cleared when the model changes.
+     *
+     * @param document The name of the document.
+     * @param version The API version the document is for.
+     * @param serviceRootUrl The service root URL used in the document.
+     * @param admin Whether the document is for admin users.
+     * @param variant The format and any parameters of the document.
+     * @param contentType The content type of the document.
+     */
+    public static record Key(String document, String version, String serviceRootUrl, boolean admin, String variant, String contentType) {
+    }
+
+    /**
+     * A generated document.
+     */
+    public static class Document {
+
+        private final String contentType;
+        private final byte[] body;
+        private final byte[] gzipped;
+        private final String etag;
+        private final String gzipEtag;
+
+        public Document(String text, String contentType) throws IOException {
+            this.contentType = contentType;
+            this.body = text.getBytes(StandardCharsets.UTF_8);
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4 + 64);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                gzip.write(body);
+            }
+            this.gzipped = buffer.toByteArray();
+            this.etag = createEtag(body);
+            this.gzipEtag = etag.substring(0, etag.length() - 1) + "-" + ENCODING_GZIP + '"';
+        }
+
+        private static String createEtag(byte[] body) {
+            try {
+                final byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+                return '"' + Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 22) + '"';
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException("SHA-256 not available", ex);
+            }
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Get the ETag of the plain or the gzipped body.
+         *
+         * @param gzipped Whether to get the ETag of the gzipped body.
+         * @return The ETag of the requested body.
+         */
+        public String getEtag(boolean gzipped) {
+            return gzipped ? gzipEtag : etag;
+        }
+
+        /**
+         * Checks if the given If-None-Match header value matches the ETag of
+         * the plain or gzipped body of this document.
+         *
+         * @param ifNoneMatch The value of the If-None-Match header, may be
+         * null.
+         * @param gzipped Whether to match the ETag of the gzipped body.
+         * @return true if the value matches.
+         */
+        public boolean matches(String ifNoneMatch, boolean gzipped) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            final String etag = getEtag(gzipped);
+            for (String candidate : ifNoneMatch.split(",")) {
+                String trimmed = candidate.trim();
+                if (trimmed.startsWith("W/")) {
+                    trimmed = trimmed.substring(2);
+                }
+                if ("*".equals(trimmed) || etag.equals(trimmed)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
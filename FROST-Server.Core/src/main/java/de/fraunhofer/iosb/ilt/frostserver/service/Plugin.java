@@ -46,4 +46,12 @@ public interface Plugin {
      */
     public boolean isEnabled();
 
+    /**
+     * Stop any background tasks the plugin started. Called when the server
+     * shuts down.
+     */
+    public default void stop() {
+        // Most plugins do not start background tasks.
+    }
+
 }
@@ -292,6 +292,20 @@ public class PluginManager implements ConfigDefaults {
         }
     }
 
+    /**
+     * Stops the background tasks of all plugins. To be called when the server
+     * shuts down.
+     */
+    public void stopPlugins() {
+        for (Object plugin : plugins.values()) {
+            try {
+                ((Plugin) plugin).stop();
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Failed to stop plugin {}", plugin.getClass().getName(), ex);
+            }
+        }
+    }
+
     public <P extends Plugin> boolean isPluginEnabled(Class<P> pluginClass) {
         P plugin = getPlugin(pluginClass);
         if (plugin == null) {
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The time a request spends in each phase of its handling. Phases can be
+ * nested in themselves, only the outermost start and end count. Different
+ * phases can overlap: the expand phase includes the SQL and loading of the
+ * expanded entities, and entity sets that are loaded lazily are loaded while
+ * being serialised.
+ *
+ * A request that is not timed uses {@link #DISABLED}, for which all methods
+ * return immediately.
+ *
+ * @author hylke
+ */
+public class RequestTiming {
+
+    /**
+     * The phases of handling a request.
+     */
+    public enum Phase {
+        PARSE("parse"),
+        BUILD("build"),
+        SQL("sql"),
+        LOAD("load"),
+        EXPAND("expand"),
+        SERIALISE("serialise");
+
+        public final String label;
+
+        private Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * The instance used by requests that are not timed.
+     */
+    public static final RequestTiming DISABLED = new RequestTiming(false, false);
+
+    private static final int MAX_QUERIES = 25;
+    private static final double NANOS_PER_MS = 1e6;
+
+    private final boolean enabled;
+    private final boolean collectQueries;
+    private final long startNanos;
+    private final long[] totals = new long[Phase.values().length];
+    private final int[] depths = new int[Phase.values().length];
+    private long rows;
+    private int queryCount;
+    private List<Supplier<String>> queries;
+
+    /**
+     * Create a new, enabled timing, starting now.
+     *
+     * @param collectQueries Whether the SQL of the queries should be kept, to
+     * be logged when the request turns out to be slow.
+     */
+    public RequestTiming(boolean collectQueries) {
+        this(true, collectQueries);
+    }
+
+    private RequestTiming(boolean enabled, boolean collectQueries) {
+        this.enabled = enabled;
+        this.collectQueries = collectQueries;
+        this.startNanos = enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Get the timing of the request handled by the current thread.
+     *
+     * @return The timing of the current request, or {@link #DISABLED}.
+     */
+    public static RequestTiming current() {
+        final ServiceRequest request = ServiceRequest.getLocalRequest();
+        if (request == null) {
+            return DISABLED;
+        }
+        return request.getTiming();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isCollectQueries() {
+        return collectQueries;
+    }
+
+    /**
+     * Start the given phase.
+     *
+     * @param phase The phase to start.
+     * @return The value to pass to {@link #end(Phase, long)}.
+     */
+    public long start(Phase phase) {
+        if (!enabled || depths[phase.ordinal()]++ > 0) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * End the given phase.
+     *
+     * @param phase The phase to end.
+     * @param start The value returned by {@link #start(Phase)}.
+     */
+    public void end(Phase phase, long start) {
+        if (!enabled) {
+            return;
+        }
+        final int idx = phase.ordinal();
+        if (--depths[idx] == 0) {
+            totals[idx] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Count loaded rows.
+     *
+     * @param count The number of rows that were loaded.
+     */
+    public void addRows(long count) {
+        if (enabled) {
+            rows += count;
+        }
+    }
+
+    /**
+     * Count a query, and keep its SQL if queries are collected.
+     *
+     * @param sql The supplier of the SQL, only called when the request is
+     * logged.
+     */
+    public void addQuery(Supplier<String> sql) {
+        if (!enabled) {
+            return;
+        }
+        queryCount++;
+        if (collectQueries) {
+            if (queries == null) {
+                queries = new ArrayList<>();
+            }
+            if (queries.size() < MAX_QUERIES) {
+                queries.add(sql);
+            }
+        }
+    }
+
+    public long getTotalNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return totals[phase.ordinal()];
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Format the timings as the value of a Server-Timing header.
+     *
+     * @return The value for the Server-Timing header.
+     */
+    public String toServerTiming() {
+        final StringBuilder result = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            final long nanos = totals[phase.ordinal()];
+            if (nanos > 0) {
+                appendServerTiming(result, phase.label, nanos);
+                result.append(", ");
+            }
+        }
+        appendServerTiming(result, "total", getTotalNanos());
+        return result.toString();
+    }
+
+    private static void appendServerTiming(StringBuilder result, String name, long nanos) {
+        result.append(name).append(";dur=").append(String.format(Locale.ROOT, "%.2f", nanos / NANOS_PER_MS));
+    }
+
+    /**
+     * Describe the timings, row count and, if collected, the queries, for
+     * logging.
+     *
+     * @return A description of the timings of the request.
+     */
+    public String describe() {
+        final StringBuilder result = new StringBuilder();
+        result.append("total ").append(TimeUnit.NANOSECONDS.toMillis(getTotalNanos())).append(" ms");
+        for (Phase phase : Phase.values()) {
+            result.append(", ").append(phase.label).append(' ')
+                    .append(TimeUnit.NANOSECONDS.toMillis(totals[phase.ordinal()])).append(" ms");
+        }
+        result.append(", rows ").append(rows)
+                .append(", queries ").append(queryCount);
+        if (queries != null) {
+            for (Supplier<String> query : queries) {
+                result.append('\n').append(query.get());
+            }
+        }
+        return result.toString();
+    }
+}
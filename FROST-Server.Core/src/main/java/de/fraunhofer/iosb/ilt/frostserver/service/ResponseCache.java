@@ -0,0 +1,701 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.service;
+
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ACCEPT_ENCODING;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_IF_NONE_MATCH;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.path.PathElement;
+import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntity;
+import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntityType;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManagerFactory;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.property.Property;
+import de.fraunhofer.iosb.ilt.frostserver.query.Expand;
+import de.fraunhofer.iosb.ilt.frostserver.query.OrderBy;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Path;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.Function;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the formatted results of GET requests, so that clients that poll the
+ * same URL do not cause the same query to be executed each time.
+ *
+ * Each entry remembers the entity types it depends on: the types in the path,
+ * in $expand, and those navigated to in $filter and $orderby. Entities that are
+ * addressed by id in the path are tracked by id. Entries are removed when a
+ * change message for one of these types or entities, or for a type directly
+ * related to them, is received from the message bus. Since deletes may
+ * cascade, any delete clears the cache. Changes committed by this instance are
+ * also applied directly after the commit, so that clients do not see their own
+ * changes only after the bus delivered them. Each entry has an ETag, so that
+ * clients can use If-None-Match to avoid receiving the same data again.
+ *
+ * Deletes by filter and removed relations do not send change messages. They
+ * clear the cache of the instance that handled them, but the caches of other
+ * instances keep their entries until these expire.
+ *
+ * When security wrappers filter the data per user, the data a user can see
+ * also depends on entities that are not in the response, like the roles of the
+ * user in projects. The cache is not used in that case.
+ *
+ * @author hylke
+ */
+public class ResponseCache implements MessageListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class.getName());
+
+    private final int maxSize;
+    private final long maxAgeMillis;
+    private final int maxEntrySize;
+    private volatile boolean enabled;
+    private final String etagPrefix = Long.toString(new SecureRandom().nextLong() & Long.MAX_VALUE, 36);
+    private final AtomicLong etagCounter = new AtomicLong();
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<EntityType, Set<EntityType>> relatedTypes = new ConcurrentHashMap<>();
+    /**
+     * The keys of the entries that depend on a type as a whole, by type.
+     */
+    private final Map<EntityType, Set<Key>> keysByType = new HashMap<>();
+    /**
+     * The keys of the entries that depend on a type, as a whole or on one of
+     * its entities, by type.
+     */
+    private final Map<EntityType, Set<Key>> keysByAnyType = new HashMap<>();
+    /**
+     * The keys of the entries that depend on a single entity, by entity.
+     */
+    private final Map<EntityKey, Set<Key>> keysByEntity = new HashMap<>();
+    /**
+     * The value of changeCount when the types were last changed.
+     */
+    private final Map<EntityType, Long> lastChangeByType = new HashMap<>();
+    private long changeCount;
+    private long lastClear;
+    private volatile boolean listening;
+
+    public ResponseCache(Settings httpSettings) {
+        maxSize = httpSettings.getInt(CoreSettings.TAG_RESPONSE_CACHE_SIZE, CoreSettings.class);
+        maxAgeMillis = httpSettings.getInt(CoreSettings.TAG_RESPONSE_CACHE_MAX_AGE, CoreSettings.class) * 1000L;
+        maxEntrySize = httpSettings.getInt(CoreSettings.TAG_RESPONSE_CACHE_MAX_ENTRY_SIZE, CoreSettings.class);
+        enabled = maxSize > 0 && maxAgeMillis > 0 && maxEntrySize > 0;
+    }
+
+    /**
+     * Checks if the cache can be used. The cache is only used once it is
+     * registered with the message bus, so that changes are seen.
+     *
+     * @param settings The settings to get the message bus from.
+     * @return true if the cache can be used.
+     */
+    public boolean isUsable(CoreSettings settings) {
+        if (!enabled) {
+            return false;
+        }
+        if (!listening) {
+            registerListener(settings);
+        }
+        return listening;
+    }
+
+    private synchronized void registerListener(CoreSettings settings) {
+        if (listening) {
+            return;
+        }
+        final MessageBus messageBus = settings.getMessageBus();
+        if (messageBus == null) {
+            return;
+        }
+        if (hasSecurityWrappers(settings)) {
+            LOGGER.info("Security wrappers filter the data per user, not using the response cache.");
+            enabled = false;
+            return;
+        }
+        messageBus.addMessageListener(this);
+        listening = true;
+    }
+
+    private static boolean hasSecurityWrappers(CoreSettings settings) {
+        try (PersistenceManager pm = PersistenceManagerFactory.getInstance(settings).create()) {
+            return pm.hasSecurityWrappers();
+        }
+    }
+
+    /**
+     * Start handling the given request with the cache. If the response can not
+     * be cached, null is returned.
+     *
+     * @param request The request to handle.
+     * @param response The response to write to. Only responses that are
+     * streamed to a client are cached.
+     * @return The cache handle for the request, or null.
+     */
+    public Request startRequest(ServiceRequest request, ServiceResponse response) {
+        if (response.getOutputStream() == null) {
+            return null;
+        }
+        return new Request(this, Key.of(request), getChangeCount());
+    }
+
+    private synchronized long getChangeCount() {
+        return changeCount;
+    }
+
+    private String nextEtag() {
+        return '"' + etagPrefix + '-' + Long.toString(etagCounter.incrementAndGet(), 36) + '"';
+    }
+
+    /**
+     * Get the cached entry for the given key, or null if there is no valid
+     * entry.
+     *
+     * @param key The key to get the entry for.
+     * @return The cached entry, or null.
+     */
+    public Entry get(Key key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiry < System.currentTimeMillis()) {
+            remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void put(Key key, Entry entry, long sinceChangeCount) {
+        if (lastClear > sinceChangeCount) {
+            return;
+        }
+        for (EntityType type : entry.getAllTypes()) {
+            if (lastChangeByType.getOrDefault(type, 0L) > sinceChangeCount) {
+                return;
+            }
+        }
+        if (entries.size() >= maxSize) {
+            final long now = System.currentTimeMillis();
+            for (Map.Entry<Key, Entry> item : new ArrayList<>(entries.entrySet())) {
+                if (item.getValue().expiry < now) {
+                    remove(item.getKey(), item.getValue());
+                }
+            }
+            if (entries.size() >= maxSize) {
+                LOGGER.debug("Response cache full, clearing.");
+                clearEntries();
+            }
+        }
+        final Entry old = entries.put(key, entry);
+        if (old != null) {
+            unindex(key, old);
+        }
+        for (EntityType type : entry.types) {
+            keysByType.computeIfAbsent(type, t -> new HashSet<>()).add(key);
+        }
+        for (EntityType type : entry.getAllTypes()) {
+            keysByAnyType.computeIfAbsent(type, t -> new HashSet<>()).add(key);
+        }
+        for (EntityKey entity : entry.entities) {
+            keysByEntity.computeIfAbsent(entity, t -> new HashSet<>()).add(key);
+        }
+    }
+
+    private synchronized void remove(Key key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            unindex(key, entry);
+        }
+    }
+
+    private void unindex(Key key, Entry entry) {
+        for (EntityType type : entry.types) {
+            removeFromIndex(keysByType, type, key);
+        }
+        for (EntityType type : entry.getAllTypes()) {
+            removeFromIndex(keysByAnyType, type, key);
+        }
+        for (EntityKey entity : entry.entities) {
+            removeFromIndex(keysByEntity, entity, key);
+        }
+    }
+
+    private static <T> void removeFromIndex(Map<T, Set<Key>> index, T indexKey, Key key) {
+        final Set<Key> keys = index.get(indexKey);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(indexKey);
+            }
+        }
+    }
+
+    private void clearEntries() {
+        entries.clear();
+        keysByType.clear();
+        keysByAnyType.clear();
+        keysByEntity.clear();
+    }
+
+    public synchronized void clear() {
+        changeCount++;
+        lastClear = changeCount;
+        lastChangeByType.clear();
+        clearEntries();
+    }
+
+    /**
+     * Apply the changes that were just committed locally, without waiting for
+     * the message bus to deliver them.
+     *
+     * @param messages The change messages of the commit.
+     */
+    public void localChanges(List<EntityChangedMessage> messages) {
+        if (!enabled) {
+            return;
+        }
+        for (EntityChangedMessage message : messages) {
+            messageReceived(message);
+        }
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        if (message.getEventType() == EntityChangedMessage.Type.DELETE) {
+            clear();
+            return;
+        }
+        final Entity entity = message.getEntity();
+        final EntityType type = entity.getEntityType();
+        final EntityKey changed = new EntityKey(type, Objects.toString(entity.getPrimaryKeyValues()));
+        final Set<EntityType> related = relatedTypes.computeIfAbsent(type, ResponseCache::findRelatedTypes);
+        synchronized (this) {
+            changeCount++;
+            lastChangeByType.put(type, changeCount);
+            final Set<Key> affected = new HashSet<>(keysByType.getOrDefault(type, Collections.emptySet()));
+            affected.addAll(keysByEntity.getOrDefault(changed, Collections.emptySet()));
+            for (EntityType relatedType : related) {
+                lastChangeByType.put(relatedType, changeCount);
+                affected.addAll(keysByAnyType.getOrDefault(relatedType, Collections.emptySet()));
+            }
+            for (Key key : affected) {
+                final Entry entry = entries.get(key);
+                if (entry != null) {
+                    remove(key, entry);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean needsAllPartitions() {
+        return true;
+    }
+
+    /**
+     * Find the types that are directly linked to the given type. Changes to
+     * an entity can change linked entities, for instance the phenomenonTime of
+     * a Datastream when an Observation is added.
+     */
+    private static Set<EntityType> findRelatedTypes(EntityType type) {
+        final Set<EntityType> related = new HashSet<>();
+        for (NavigationPropertyMain np : type.getNavigationProperties()) {
+            related.add(np.getEntityType());
+        }
+        related.remove(type);
+        return related;
+    }
+
+    /**
+     * Find the entity types and entities that the result of the given path and
+     * query depends on.
+     *
+     * @param path The path of the request.
+     * @param query The query of the request.
+     * @param types The Set to add the entity types to.
+     * @param entities The Set to add the entities identified by id to.
+     */
+    public static void findDependencies(ResourcePath path, Query query, Set<EntityType> types, Set<EntityKey> entities) {
+        final List<PathElement> elements = path.getPathElements();
+        for (int idx = 0; idx < elements.size(); idx++) {
+            final PathElement element = elements.get(idx);
+            if (element instanceof PathElementEntity pee && pee.primaryKeyFullySet()) {
+                entities.add(new EntityKey(pee.getEntityType(), Objects.toString(pee.getPkValues())));
+            } else if (element instanceof PathElementEntityType peet && !isIdentifiedBy(elements, idx + 1)) {
+                types.add(peet.getEntityType());
+            }
+        }
+        findDependencies(query, types);
+    }
+
+    /**
+     * Checks if the element at the given index is an entity with an id, in
+     * which case the set it is in is not relevant.
+     */
+    private static boolean isIdentifiedBy(List<PathElement> elements, int idx) {
+        return idx < elements.size()
+                && elements.get(idx) instanceof PathElementEntity pee
+                && pee.primaryKeyFullySet();
+    }
+
+    private static void findDependencies(Query query, Set<EntityType> types) {
+        if (query == null) {
+            return;
+        }
+        findDependencies(query.getFilter(), types);
+        for (OrderBy orderBy : query.getOrderBy()) {
+            findDependencies(orderBy.getExpression(), types);
+        }
+        for (Expand expand : query.getExpand()) {
+            types.add(expand.getPath().getEntityType());
+            findDependencies(expand.getSubQuery(), types);
+        }
+    }
+
+    private static void findDependencies(Expression expression, Set<EntityType> types) {
+        if (expression instanceof Path path) {
+            for (Property property : path.getElements()) {
+                if (property instanceof NavigationProperty np) {
+                    types.add(np.getEntityType());
+                }
+            }
+        } else if (expression instanceof Function function) {
+            for (Expression parameter : function.getParameters()) {
+                findDependencies(parameter, types);
+            }
+        }
+    }
+
+    /**
+     * The handle of a single request that uses the cache.
+     */
+    public static class Request {
+
+        private final ResponseCache cache;
+        private final Key key;
+        private final long changeCount;
+        private final String etag;
+
+        private Request(ResponseCache cache, Key key, long changeCount) {
+            this.cache = cache;
+            this.key = key;
+            this.changeCount = changeCount;
+            this.etag = cache.nextEtag();
+        }
+
+        /**
+         * Get the cached entry for this request, or null if there is none.
+         *
+         * @return the cached entry, or null.
+         */
+        public Entry getCached() {
+            return cache.get(key);
+        }
+
+        /**
+         * The ETag to send with the response, if it is cached.
+         *
+         * @return The ETag for the new entry.
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Wrap the given stream so that the written data can be cached. The
+         * data is held back until it is known whether it fits in the cache.
+         * Call {@link CapturingOutputStream#finish()} to pass it on.
+         *
+         * @param target The stream to wrap.
+         * @return The wrapping stream.
+         */
+        public CapturingOutputStream wrap(OutputStream target) {
+            return new CapturingOutputStream(target, cache.maxEntrySize);
+        }
+
+        /**
+         * Store the response that was written through the given stream, if it
+         * was not too large. Only a stored response may be sent with the
+         * ETag.
+         *
+         * @param out The stream returned by {@link #wrap(OutputStream)}.
+         * @param contentType The content type of the response.
+         * @param path The path of the request.
+         * @param query The query of the request.
+         * @return true if the response was small enough to store.
+         */
+        public boolean store(CapturingOutputStream out, String contentType, ResourcePath path, Query query) {
+            final byte[] body = out.getCaptured();
+            if (body == null) {
+                return false;
+            }
+            final Set<EntityType> types = new HashSet<>();
+            final Set<EntityKey> entities = new HashSet<>();
+            findDependencies(path, query, types, entities);
+            final long expiry = System.currentTimeMillis() + cache.maxAgeMillis;
+            cache.put(key, new Entry(etag, contentType, body, expiry, types, entities), changeCount);
+            return true;
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    public static class Entry {
+
+        private final String etag;
+        private final String contentType;
+        private final byte[] body;
+        private final long expiry;
+        private final Set<EntityType> types;
+        private final Set<EntityKey> entities;
+
+        private Entry(String etag, String contentType, byte[] body, long expiry, Set<EntityType> types, Set<EntityKey> entities) {
+            this.etag = etag;
+            this.contentType = contentType;
+            this.body = body;
+            this.expiry = expiry;
+            this.types = types;
+            this.entities = entities;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Checks if the given If-None-Match header value matches the ETag of
+         * this entry.
+         *
+         * @param ifNoneMatch The value of the If-None-Match header, may be
+         * null.
+         * @return true if the client already has this version of the response.
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                String trimmed = candidate.trim();
+                if (trimmed.startsWith("W/")) {
+                    trimmed = trimmed.substring(2);
+                }
+                if ("*".equals(trimmed) || etag.equals(trimmed)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private Set<EntityType> getAllTypes() {
+            final Set<EntityType> all = new HashSet<>(types);
+            for (EntityKey entity : entities) {
+                all.add(entity.type());
+            }
+            return all;
+        }
+    }
+
+    /**
+     * An OutputStream that keeps the written data back, as long as the data is
+     * not larger than the limit. When the limit is exceeded, the data is passed
+     * on to the wrapped stream, and so is all following data.
+     */
+    public static class CapturingOutputStream extends OutputStream {
+
+        private final OutputStream target;
+        private final int limit;
+        private ByteArrayOutputStream capture = new ByteArrayOutputStream();
+
+        public CapturingOutputStream(OutputStream target, int limit) {
+            this.target = target;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (capture != null) {
+                if (capture.size() + 1 <= limit) {
+                    capture.write(b);
+                    return;
+                }
+                release();
+            }
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (capture != null) {
+                if (capture.size() + len <= limit) {
+                    capture.write(b, off, len);
+                    return;
+                }
+                release();
+            }
+            target.write(b, off, len);
+        }
+
+        private void release() throws IOException {
+            capture.writeTo(target);
+            capture = null;
+        }
+
+        /**
+         * Only flushes the wrapped stream once data is passed on, so that
+         * headers can still be set while the data is held back.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (capture == null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            target.close();
+        }
+
+        /**
+         * Passes any held back data on to the wrapped stream.
+         *
+         * @throws IOException if writing to the wrapped stream fails.
+         */
+        public void finish() throws IOException {
+            if (capture != null) {
+                release();
+            }
+            target.flush();
+        }
+
+        /**
+         * The data written to this stream, or null if it was larger than the
+         * limit, or already passed on.
+         *
+         * @return The captured data, or null.
+         */
+        public byte[] getCaptured() {
+            if (capture == null) {
+                return null;
+            }
+            return capture.toByteArray();
+        }
+    }
+
+    /**
+     * The key of a cached response.
+     *
+     * @param version The version of the request.
+     * @param serviceRootUrl The service root URL, used in the selfLinks.
+     * @param path The path of the request.
+     * @param query The sorted parts of the query of the request.
+     * @param parameters The (sorted) request parameters, including the
+     * relevant headers.
+     * @param user The name of the user.
+     * @param admin Whether the user is admin.
+     * @param roles The (sorted) roles of the user.
+     */
+    public static record Key(String version, String serviceRootUrl, String path, List<String> query, String parameters, String user, boolean admin, Set<String> roles) {
+
+        public static Key of(ServiceRequest request) {
+            final Map<String, List<String>> parameters = new TreeMap<>(request.getParameterMap());
+            parameters.remove(HEADER_IF_NONE_MATCH);
+            parameters.remove(HEADER_ACCEPT_ENCODING);
+            final PrincipalExtended user = request.getUserPrincipal();
+            return new Key(
+                    request.getVersion().urlPart,
+                    request.getQueryDefaults().getServiceRootUrl(),
+                    request.getUrlPath(),
+                    normaliseQuery(request.getUrlQuery()),
+                    parameters.toString(),
+                    user.getName(),
+                    user.isAdmin(),
+                    user.getRoles() == null ? Collections.emptySet() : new TreeSet<>(user.getRoles()));
+        }
+
+        /**
+         * Splits the (decoded) query into its parts, and sorts them, so that
+         * the order of the parameters does not matter. Empty parts are
+         * dropped.
+         *
+         * @param query The query to normalise.
+         * @return The sorted, non-empty parts of the query.
+         */
+        static List<String> normaliseQuery(String query) {
+            if (query == null || query.isEmpty()) {
+                return Collections.emptyList();
+            }
+            final List<String> parts = new ArrayList<>();
+            for (String part : query.split("&")) {
+                if (!part.isEmpty()) {
+                    parts.add(part);
+                }
+            }
+            Collections.sort(parts);
+            return parts;
+        }
+    }
+
+    /**
+     * An entity addressed by its primary key.
+     *
+     * @param type The type of the entity.
+     * @param pk The primary key of the entity, as String.
+     */
+    public static record EntityKey(EntityType type, String pk) {
+    }
+
+}
@@ -25,15 +25,20 @@ import static de.fraunhofer.iosb.ilt.frostserver.service.RequestTypeUtils.READ;
 import static de.fraunhofer.iosb.ilt.frostserver.service.RequestTypeUtils.UPDATE_ALL;
 import static de.fraunhofer.iosb.ilt.frostserver.service.RequestTypeUtils.UPDATE_CHANGES;
 import static de.fraunhofer.iosb.ilt.frostserver.service.RequestTypeUtils.UPDATE_CHANGESET;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ETAG;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_IF_NONE_MATCH;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_SERVER_TIMING;
 import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.REQUEST_PARAM_FORMAT;
 
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.github.fge.jsonpatch.JsonPatch;
 import de.fraunhofer.iosb.ilt.frostserver.extensions.Extension;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.FormatWriter;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.ResultFormatter;
 import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.JsonReader;
 import de.fraunhofer.iosb.ilt.frostserver.json.serialize.JsonWriter;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
@@ -62,6 +67,7 @@ import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncorrectRequestExcepti
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.UnauthorizedException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.security.Principal;
@@ -71,8 +77,11 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -143,11 +152,63 @@ public class Service implements AutoCloseable {
      */
     public ServiceResponse execute(ServiceRequest request, ServiceResponse response) {
         if (!transactionActive) {
-            getPm().setRole(request.getUserPrincipal());
+            final PersistenceManager pm = getPm();
+            pm.setReadOnly(READ.equals(request.getRequestType()));
+            pm.setRole(request.getUserPrincipal());
         }
         if (response == null) {
             response = new ServiceResponseDefault();
         }
+        final ServerMetrics serverMetrics = settings.getMetrics();
+        final boolean metrics = serverMetrics.isEnabled();
+        final boolean timed = startTiming(request);
+        if (!metrics && !timed) {
+            return executeRequest(request, response);
+        }
+        final long start = System.nanoTime();
+        try {
+            return executeRequest(request, response);
+        } finally {
+            if (metrics) {
+                serverMetrics.requestDuration(request.getRequestType(), findEntityTypeName(request.getUrlPath()))
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            if (timed) {
+                logIfSlow(request);
+            }
+        }
+    }
+
+    /**
+     * Attach a timing to the request, if timing is enabled and the request
+     * does not have one yet.
+     *
+     * @param request The request to time.
+     * @return true if a timing was attached.
+     */
+    private boolean startTiming(ServiceRequest request) {
+        if (!settings.isTimingEnabled() || request.getTiming().isEnabled()) {
+            return false;
+        }
+        final boolean sampled = settings.getSlowRequestThreshold() > 0
+                && ThreadLocalRandom.current().nextInt(100) < settings.getSlowRequestSamplePercent();
+        request.setTiming(new RequestTiming(sampled));
+        return true;
+    }
+
+    private void logIfSlow(ServiceRequest request) {
+        if (settings.getSlowRequestThreshold() <= 0) {
+            return;
+        }
+        // The SQL is only part of the description for sampled requests.
+        final RequestTiming timing = request.getTiming();
+        final long duration = TimeUnit.NANOSECONDS.toMillis(timing.getTotalNanos());
+        if (duration >= settings.getSlowRequestThreshold()) {
+            LOGGER.info("Slow {} request on {}?{}: {}", request.getRequestType(), request.getUrlPath(), request.getUrlQuery(), timing.describe());
+        }
+    }
+
+    private ServiceResponse executeRequest(ServiceRequest request, ServiceResponse response) {
         String requestType = request.getRequestType();
         switch (requestType) {
             case GET_CAPABILITIES:
@@ -173,6 +234,29 @@ public class Service implements AutoCloseable {
         }
     }
 
+    /**
+     * Find the name of the last entity type in the given url path, without
+     * parsing the path. Used to label metrics.
+     *
+     * @param urlPath The url path to search.
+     * @return The name of the last entity type, or an empty String.
+     */
+    private String findEntityTypeName(String urlPath) {
+        if (urlPath == null) {
+            return "";
+        }
+        final ModelRegistry modelRegistry = settings.getModelRegistry();
+        String result = "";
+        for (String segment : urlPath.split("/")) {
+            final int paren = segment.indexOf('(');
+            final EntityType type = modelRegistry.getEntityTypeForName(paren < 0 ? segment : segment.substring(0, paren));
+            if (type != null) {
+                result = type.entityName;
+            }
+        }
+        return result;
+    }
+
     /**
      * Explicitly starts a transaction.
      *
@@ -314,10 +398,40 @@ public class Service implements AutoCloseable {
     }
 
     private ServiceResponse formatResponse(ServiceResponse response, ResultFormatter formatter, Query query, ResourcePath path, Object result) {
+        response.setContentType(formatter.getContentType());
+        final RequestTiming timing = RequestTiming.current();
+        if (timing.isEnabled() && settings.isTimingHeader()) {
+            // Only the phases so far, the header goes out before the body.
+            response.setHeader(HEADER_SERVER_TIMING, timing.toServerTiming());
+        }
+        final long start = timing.start(RequestTiming.Phase.SERIALISE);
+        try {
+            final FormatWriter formatWriter = formatter.format(path, query, result, settings.getQueryDefaults().useAbsoluteNavigationLinks());
+            final OutputStream out = response.getOutputStream();
+            if (out == null) {
+                formatWriter.writeFormatted(response.getWriter());
+            } else {
+                formatWriter.writeFormatted(out);
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Formatter not available.", ex);
+            return errorResponse(response, 500, "Failed to format");
+        } finally {
+            timing.end(RequestTiming.Phase.SERIALISE, start);
+        }
+        return response;
+    }
+
+    private ServiceResponse formatCachedResponse(ServiceResponse response, ResultFormatter formatter, Query query, ResourcePath path, Object result, ResponseCache.Request cacheRequest) {
         response.setContentType(formatter.getContentType());
         try {
+            final ResponseCache.CapturingOutputStream out = cacheRequest.wrap(response.getOutputStream());
             formatter.format(path, query, result, settings.getQueryDefaults().useAbsoluteNavigationLinks())
-                    .writeFormatted(response.getWriter());
+                    .writeFormatted(out);
+            if (cacheRequest.store(out, formatter.getContentType(), path, query)) {
+                response.setHeader(HEADER_ETAG, cacheRequest.getEtag());
+            }
+            out.finish();
         } catch (IOException ex) {
             LOGGER.error("Formatter not available.", ex);
             return errorResponse(response, 500, "Failed to format");
@@ -333,9 +447,16 @@ public class Service implements AutoCloseable {
     }
 
     private ServiceResponse executeGet(ServiceRequest request, ServiceResponse response) {
+        final ResponseCache.Request cacheRequest = startCacheRequest(request, response);
+        if (cacheRequest != null) {
+            final ResponseCache.Entry cached = cacheRequest.getCached();
+            if (cached != null) {
+                return cachedResponse(request, response, cached);
+            }
+        }
         PersistenceManager pm = getPm();
         try {
-            return handleGet(pm, request, response);
+            return handleGet(pm, request, response, cacheRequest);
         } catch (UnauthorizedException e) {
             rollbackAndClose(pm);
             return errorResponse(response, 401, e.getMessage());
@@ -352,29 +473,62 @@ public class Service implements AutoCloseable {
         }
     }
 
-    private ServiceResponse handleGet(PersistenceManager pm, ServiceRequest request, ServiceResponse response) {
+    private ResponseCache.Request startCacheRequest(ServiceRequest request, ServiceResponse response) {
+        if (transactionActive) {
+            return null;
+        }
+        final ResponseCache cache = settings.getResponseCache();
+        if (!cache.isUsable(settings)) {
+            return null;
+        }
+        return cache.startRequest(request, response);
+    }
+
+    private ServiceResponse cachedResponse(ServiceRequest request, ServiceResponse response, ResponseCache.Entry cached) {
+        response.setHeader(HEADER_ETAG, cached.getEtag());
+        if (cached.matches(request.getParameter(HEADER_IF_NONE_MATCH))) {
+            response.setCode(304);
+            return response;
+        }
+        response.setContentType(cached.getContentType());
+        response.setCode(200);
+        try {
+            response.getOutputStream().write(cached.getBody());
+        } catch (IOException ex) {
+            LOGGER.error("Failed to write cached response.", ex);
+            return errorResponse(response, 500, "Failed to write response");
+        }
+        return response;
+    }
+
+    private ServiceResponse handleGet(PersistenceManager pm, ServiceRequest request, ServiceResponse response, ResponseCache.Request cacheRequest) {
         final ResourcePath path;
         final Version version = request.getVersion();
         final QueryDefaults queryDefaults = request.getQueryDefaults();
+        final RequestTiming timing = request.getTiming();
+        final long parseStart = timing.start(RequestTiming.Phase.PARSE);
         try {
-            path = PathParser.parsePath(modelRegistry,
+            path = PathParser.parsePath(settings,
                     queryDefaults.getServiceRootUrl(), version,
                     request.getUrlPath(),
                     request.getUserPrincipal());
         } catch (IllegalArgumentException | IllegalStateException ex) {
+            timing.end(RequestTiming.Phase.PARSE, parseStart);
             return errorResponse(response, 404, ex.getMessage());
         }
         Query query;
         ResultFormatter formatter;
         try {
             query = QueryParser
-                    .parseQuery(request.getUrlQuery(), queryDefaults, modelRegistry, path, request.getUserPrincipal())
+                    .parseQuery(request.getUrlQuery(), settings, queryDefaults, path, request.getUserPrincipal())
                     .validate();
             settings.getPluginManager().parsedQuery(settings, request, query);
             formatter = settings.getFormatter(version, query.getFormat());
             formatter.preProcessRequest(path, query);
         } catch (IllegalArgumentException | IncorrectRequestException ex) {
             return errorResponse(response, 400, ex.getMessage());
+        } finally {
+            timing.end(RequestTiming.Phase.PARSE, parseStart);
         }
 
         if (!pm.validatePath(path)) {
@@ -392,6 +546,9 @@ public class Service implements AutoCloseable {
             } else {
                 response.setResult(object);
                 response.setCode(200);
+                if (cacheRequest != null) {
+                    return formatCachedResponse(response, formatter, query, path, object, cacheRequest);
+                }
                 return formatResponse(response, formatter, query, path, object);
             }
         } catch (UnsupportedOperationException e) {
@@ -444,7 +601,7 @@ public class Service implements AutoCloseable {
         final Version version = request.getVersion();
         final QueryDefaults queryDefaults = request.getQueryDefaults();
         try {
-            path = PathParser.parsePath(modelRegistry,
+            path = PathParser.parsePath(settings,
                     queryDefaults.getServiceRootUrl(),
                     version,
                     urlPath,
@@ -460,7 +617,7 @@ public class Service implements AutoCloseable {
         ResultFormatter formatter;
         try {
             query = QueryParser
-                    .parseQuery(request.getUrlQuery(), queryDefaults, modelRegistry, path, request.getUserPrincipal())
+                    .parseQuery(request.getUrlQuery(), settings, queryDefaults, path, request.getUserPrincipal())
                     .validate();
             settings.getPluginManager().parsedQuery(settings, request, query);
             formatter = findFormatter(query, request, version);
@@ -510,6 +667,218 @@ public class Service implements AutoCloseable {
         }
     }
 
+    /**
+     * Executes the given create requests in one transaction. Entities of the
+     * same type are inserted together. All requests must be for the same user
+     * and use the same update mode. Requests with the same path share the
+     * parsing and validation of that path.
+     *
+     * Each group of entities of the same type is inserted after a savepoint.
+     * If inserting any entity of a group fails, the group is rolled back to
+     * that savepoint, since a failed insert may have created nested entities
+     * or links before it failed. The entities of the group are then inserted
+     * one by one, each after its own savepoint, so that only the failing
+     * requests are rolled back and the others are committed.
+     *
+     * If the PersistenceManager does not support savepoints, a failing insert
+     * rolls back the whole transaction, and all requests are executed again,
+     * one by one, each in its own transaction.
+     *
+     * @param requests The create requests to execute.
+     * @return The responses, in the same order as the requests.
+     */
+    public List<ServiceResponse> executeCreateAll(List<ServiceRequest> requests) {
+        final int count = requests.size();
+        final List<ServiceResponse> responses = new ArrayList<>(count);
+        final List<Entity> entities = new ArrayList<>(count);
+        final Map<String, ResourcePath> validPaths = new HashMap<>();
+        final PersistenceManager pm = getPm();
+        pm.setRole(requests.get(0).getUserPrincipal());
+        try {
+            for (ServiceRequest request : requests) {
+                final ServiceResponse response = new ServiceResponseDefault();
+                responses.add(response);
+                ServiceRequest.setLocalRequest(request);
+                entities.add(parseForCreate(pm, request, response, validPaths));
+            }
+            final Map<EntityType, List<Integer>> indicesByType = new LinkedHashMap<>();
+            for (int idx = 0; idx < count; idx++) {
+                final Entity entity = entities.get(idx);
+                if (entity != null) {
+                    indicesByType.computeIfAbsent(entity.getEntityType(), t -> new ArrayList<>()).add(idx);
+                }
+            }
+            final UpdateMode updateMode = requests.get(0).getUpdateMode();
+            boolean inserted = true;
+            for (List<Integer> indices : indicesByType.values()) {
+                if (!insertGroup(pm, requests, responses, entities, indices, validPaths, updateMode)) {
+                    inserted = false;
+                    break;
+                }
+            }
+            if (inserted) {
+                pm.commitAndClose();
+                persistenceManager = null;
+                return responses;
+            }
+            pm.rollbackAndClose();
+            persistenceManager = null;
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Failed to create {} entities in one transaction, creating them one by one: {}", count, ex.getMessage());
+            LOGGER.debug(EXCEPTION, ex);
+            pm.rollbackAndClose();
+            persistenceManager = null;
+        } finally {
+            ServiceRequest.removeLocalRequest();
+        }
+
+        responses.clear();
+        for (ServiceRequest request : requests) {
+            ServiceRequest.setLocalRequest(request);
+            try {
+                responses.add(execute(request, new ServiceResponseDefault()));
+            } finally {
+                ServiceRequest.removeLocalRequest();
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Inserts the entities of one type, after a savepoint. If any insert
+     * fails, the group is rolled back to the savepoint and the entities are
+     * inserted again, one by one.
+     *
+     * @return false if an insert failed and the PersistenceManager does not
+     * support savepoints, in which case the transaction must be rolled back.
+     */
+    private boolean insertGroup(PersistenceManager pm, List<ServiceRequest> requests, List<ServiceResponse> responses, List<Entity> entities, List<Integer> indices, Map<String, ResourcePath> validPaths, UpdateMode updateMode) {
+        final Object savepoint = pm.setSavepoint();
+        Exception firstFailure = null;
+        try {
+            final List<Exception> failures = pm.insertAll(indices.stream().map(entities::get).toList(), updateMode);
+            firstFailure = failures.stream().filter(Objects::nonNull).findFirst().orElse(null);
+        } catch (RuntimeException ex) {
+            if (savepoint == null) {
+                throw ex;
+            }
+            firstFailure = ex;
+        }
+        if (firstFailure == null) {
+            for (int idx : indices) {
+                successResponse(responses.get(idx), 201, "Created").setResult(entities.get(idx));
+            }
+            if (savepoint != null) {
+                pm.releaseSavepoint(savepoint);
+            }
+            return true;
+        }
+        if (savepoint == null) {
+            LOGGER.debug("Failed to create an entity in a batch of {}, creating them one by one: {}", requests.size(), firstFailure.getMessage());
+            return false;
+        }
+        LOGGER.debug("Failed to create an entity in a group of {}, creating them one by one: {}", indices.size(), firstFailure.getMessage());
+        pm.rollbackToSavepoint(savepoint);
+        for (int idx : indices) {
+            final ServiceRequest request = requests.get(idx);
+            ServiceRequest.setLocalRequest(request);
+            insertSingle(pm, request, responses.get(idx), validPaths, updateMode);
+        }
+        return true;
+    }
+
+    /**
+     * Parses and inserts the entity of the given create request after a
+     * savepoint, and rolls back to that savepoint if the insert fails.
+     */
+    private void insertSingle(PersistenceManager pm, ServiceRequest request, ServiceResponse response, Map<String, ResourcePath> validPaths, UpdateMode updateMode) {
+        // The entity of the failed group may have been changed by the insert.
+        final Entity entity = parseForCreate(pm, request, response, validPaths);
+        if (entity == null) {
+            return;
+        }
+        final Object savepoint = pm.setSavepoint();
+        try {
+            pm.insert(entity, updateMode);
+            pm.releaseSavepoint(savepoint);
+            successResponse(response, 201, "Created").setResult(entity);
+        } catch (IllegalArgumentException | IncompleteEntityException | NoSuchEntityException ex) {
+            pm.rollbackToSavepoint(savepoint);
+            errorResponse(response, 400, ex.getMessage());
+        } catch (RuntimeException ex) {
+            LOGGER.error(FAILED_TO_HANDLE_REQUEST_DETAILS_IN_DEBUG, ex.getMessage());
+            LOGGER.debug(EXCEPTION, ex);
+            pm.rollbackToSavepoint(savepoint);
+            errorResponse(response, 500, "Failed to store data.");
+        }
+    }
+
+    /**
+     * Parses and validates the entity of the given create request.
+     *
+     * @return The entity to insert, or null if the request is not valid, in
+     * which case the response contains the error.
+     */
+    private Entity parseForCreate(PersistenceManager pm, ServiceRequest request, ServiceResponse response, Map<String, ResourcePath> validPaths) {
+        final String urlPath = request.getUrlPath();
+        if (urlPath == null || urlPath.equals("/")) {
+            errorResponse(response, 400, POST_ONLY_ALLOWED_TO_COLLECTIONS);
+            return null;
+        }
+        final QueryDefaults queryDefaults = request.getQueryDefaults();
+        ResourcePath path = validPaths.get(urlPath);
+        final boolean newPath = path == null;
+        if (newPath) {
+            try {
+                path = PathParser.parsePath(settings,
+                        queryDefaults.getServiceRootUrl(),
+                        request.getVersion(),
+                        urlPath,
+                        request.getUserPrincipal());
+            } catch (IllegalArgumentException | IllegalStateException ex) {
+                errorResponse(response, 404, ex.getMessage());
+                return null;
+            }
+            if (!(path.getMainElement() instanceof PathElementEntitySet)) {
+                errorResponse(response, 400, POST_ONLY_ALLOWED_TO_COLLECTIONS);
+                return null;
+            }
+        }
+        // The query, and what plugins do with it, can differ per request.
+        try {
+            Query query = QueryParser
+                    .parseQuery(request.getUrlQuery(), settings, queryDefaults, path, request.getUserPrincipal())
+                    .validate();
+            settings.getPluginManager().parsedQuery(settings, request, query);
+        } catch (IllegalArgumentException ex) {
+            errorResponse(response, 400, ex.getMessage());
+            return null;
+        }
+        if (newPath) {
+            if (!pm.validatePath(path)) {
+                errorResponse(response, 404, NOTHING_FOUND_RESPONSE);
+                return null;
+            }
+            validPaths.put(urlPath, path);
+        }
+
+        final PathElementEntitySet mainSet = (PathElementEntitySet) path.getMainElement();
+        final EntityType type = mainSet.getEntityType();
+        try {
+            final Entity entity = request.getJsonReader().parseEntity(type, request.getContentReader());
+            if (mainSet.getParent() != null) {
+                type.setParent(mainSet, entity);
+            }
+            type.validateCreate(entity);
+            settings.getCustomLinksHelper().cleanPropertiesMap(entity);
+            return entity;
+        } catch (IOException | IncompleteEntityException | IllegalArgumentException | IllegalStateException ex) {
+            LOGGER.trace("Post failed.", ex);
+            errorResponse(response, 400, ex.getMessage());
+            return null;
+        }
+    }
+
     public ResultFormatter findFormatter(Query query, ServiceRequest request, Version version) throws IncorrectRequestException {
         ResultFormatter formatter;
         String format = query.getFormat();
@@ -616,7 +985,7 @@ public class Service implements AutoCloseable {
         ResourcePath path;
         try {
             path = PathParser.parsePath(
-                    modelRegistry,
+                    settings,
                     request.getQueryDefaults().getServiceRootUrl(),
                     request.getVersion(),
                     request.getUrlPath(),
@@ -709,7 +1078,7 @@ public class Service implements AutoCloseable {
         ResourcePath path;
         try {
             path = PathParser.parsePath(
-                    modelRegistry,
+                    settings,
                     request.getQueryDefaults().getServiceRootUrl(),
                     request.getVersion(),
                     request.getUrlPath(),
@@ -818,7 +1187,7 @@ public class Service implements AutoCloseable {
         Query query;
         try {
             query = QueryParser
-                    .parseQuery(request.getUrlQuery(), request.getQueryDefaults(), modelRegistry, path, request.getUserPrincipal())
+                    .parseQuery(request.getUrlQuery(), settings, request.getQueryDefaults(), path, request.getUserPrincipal())
                     .validate();
             settings.getPluginManager().parsedQuery(settings, request, query);
         } catch (IllegalArgumentException e) {
@@ -840,6 +1209,8 @@ public class Service implements AutoCloseable {
         try {
             pm.delete(path, query);
             maybeCommitAndClose();
+            // Deletes by filter do not send change messages.
+            settings.getResponseCache().clear();
             return successResponse(response, 200, "Deleted.");
         } catch (NoSuchEntityException e) {
             pm.rollbackAndClose();
@@ -899,6 +1270,8 @@ public class Service implements AutoCloseable {
         try {
             pm.deleteRelation(linkData.sourceEntity, linkData.navigationProperty, linkData.targetEntity);
             maybeCommitAndClose();
+            // Removing a relation does not send change messages.
+            settings.getResponseCache().clear();
             return successResponse(response, 204, "");
         } catch (IncompleteEntityException ex) {
             pm.rollbackAndClose();
@@ -923,7 +1296,7 @@ public class Service implements AutoCloseable {
         final QueryDefaults queryDefaults = request.getQueryDefaults();
         try {
             query = QueryParser
-                    .parseQuery(request.getUrlQuery(), queryDefaults, modelRegistry, path, request.getUserPrincipal())
+                    .parseQuery(request.getUrlQuery(), settings, queryDefaults, path, request.getUserPrincipal())
                     .validate();
             settings.getPluginManager().parsedQuery(settings, request, query);
         } catch (IllegalArgumentException ex) {
@@ -950,7 +1323,7 @@ public class Service implements AutoCloseable {
             return LinkData.error("$id parameter must use the same version as the request ('" + versionUrl + "').");
         }
         targetUrl = targetUrl.substring(versionUrl.length());
-        ResourcePath targetPath = PathParser.parsePath(modelRegistry, serviceRootUrl, version, targetUrl, request.getUserPrincipal());
+        ResourcePath targetPath = PathParser.parsePath(settings, serviceRootUrl, version, targetUrl, request.getUserPrincipal());
         PathElement lastTargetElement = targetPath.getLastElement();
         PathElementEntity targetEntity;
         if (lastTargetElement instanceof PathElementEntity pathElementEntity) {
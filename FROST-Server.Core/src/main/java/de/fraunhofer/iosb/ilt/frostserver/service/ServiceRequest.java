@@ -61,6 +61,7 @@ public class ServiceRequest {
     private QueryDefaults queryDefaults;
     private UpdateMode updateMode;
     private JsonReader jsonReader;
+    private RequestTiming timing = RequestTiming.DISABLED;
 
     public Map<String, Object> getAttributeMap() {
         return attributeMap;
@@ -285,6 +286,21 @@ public class ServiceRequest {
         return this;
     }
 
+    /**
+     * Get the timing of this request.
+     *
+     * @return The timing of this request, {@link RequestTiming#DISABLED} if
+     * this request is not timed.
+     */
+    public RequestTiming getTiming() {
+        return timing;
+    }
+
+    public ServiceRequest setTiming(RequestTiming timing) {
+        this.timing = timing == null ? RequestTiming.DISABLED : timing;
+        return this;
+    }
+
     public static ServiceRequest getLocalRequest() {
         return LOCAL_REQUEST.get();
     }
@@ -17,6 +17,7 @@
  */
 package de.fraunhofer.iosb.ilt.frostserver.service;
 
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.List;
 import java.util.Map;
@@ -82,6 +83,19 @@ public interface ServiceResponse {
      */
     public Writer getWriter();
 
+    /**
+     * Get the stream that the formatted result can be written to, as UTF-8
+     * bytes. Responses that can not stream bytes return null, and the result
+     * is written to {@link #getWriter()} instead. Only one of the two may be
+     * used.
+     *
+     * @return the stream that the formatted result should be written to, or
+     * null.
+     */
+    public default OutputStream getOutputStream() {
+        return null;
+    }
+
     public boolean isSuccessful();
 
 }
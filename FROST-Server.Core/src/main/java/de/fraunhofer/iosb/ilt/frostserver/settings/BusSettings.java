@@ -30,12 +30,20 @@ public class BusSettings implements ConfigDefaults {
      */
     @DefaultValue("de.fraunhofer.iosb.ilt.frostserver.messagebus.InternalMessageBus")
     public static final String TAG_IMPLEMENTATION_CLASS = "busImplementationClass";
+    @DefaultValue("de.fraunhofer.iosb.ilt.frostserver.messagebus.DefaultMessagePartitioner")
+    public static final String TAG_PARTITIONER_CLASS = "partitionerClass";
 
     /**
      * Fully-qualified class name of the MqttServer implementation class
      */
     private String busImplementationClass;
 
+    /**
+     * Fully-qualified class name of the MessagePartitioner implementation
+     * class.
+     */
+    private String partitionerClass;
+
     /**
      * Extension point for implementation specific settings
      */
@@ -50,6 +58,7 @@ public class BusSettings implements ConfigDefaults {
 
     private void init(Settings settings) {
         busImplementationClass = settings.get(TAG_IMPLEMENTATION_CLASS, getClass());
+        partitionerClass = settings.get(TAG_PARTITIONER_CLASS, getClass());
         customSettings = settings;
     }
 
@@ -69,6 +78,10 @@ public class BusSettings implements ConfigDefaults {
         this.busImplementationClass = busImplementationClass;
     }
 
+    public String getPartitionerClass() {
+        return partitionerClass;
+    }
+
     public Settings getCustomSettings() {
         return customSettings;
     }
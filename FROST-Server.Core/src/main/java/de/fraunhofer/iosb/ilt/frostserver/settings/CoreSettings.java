@@ -22,17 +22,23 @@ import static de.fraunhofer.iosb.ilt.frostserver.service.PluginResultFormat.FORM
 import de.fraunhofer.iosb.ilt.frostserver.extensions.Extension;
 import de.fraunhofer.iosb.ilt.frostserver.formatter.ResultFormatter;
 import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
 import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.parser.ParseTreeCache;
 import de.fraunhofer.iosb.ilt.frostserver.path.CustomLinksHelper;
 import de.fraunhofer.iosb.ilt.frostserver.path.Version;
 import de.fraunhofer.iosb.ilt.frostserver.query.QueryDefaults;
+import de.fraunhofer.iosb.ilt.frostserver.service.DocumentCache;
 import de.fraunhofer.iosb.ilt.frostserver.service.PluginManager;
+import de.fraunhofer.iosb.ilt.frostserver.service.ResponseCache;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolean;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
 import de.fraunhofer.iosb.ilt.frostserver.util.LiquibaseUser;
 import de.fraunhofer.iosb.ilt.frostserver.util.StringHelper;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncorrectRequestException;
+import de.fraunhofer.iosb.ilt.frostserver.util.pathparser.Node;
+import de.fraunhofer.iosb.ilt.frostserver.util.queryparser.nodes.Start;
 import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
 import java.io.IOException;
 import java.io.Reader;
@@ -90,6 +96,20 @@ public class CoreSettings implements ConfigDefaults {
     public static final String TAG_TEMP_PATH = "tempPath";
     @DefaultValueInt(0)
     public static final String TAG_QUEUE_LOGGING_INTERVAL = "queueLoggingInterval";
+    @DefaultValueInt(1000)
+    public static final String TAG_PARSE_CACHE_SIZE = "parseCacheSize";
+    @DefaultValueBoolean(false)
+    public static final String TAG_METRICS_ENABLE = "metrics.enable";
+    @DefaultValue("")
+    public static final String TAG_METRICS_TOKEN = "metrics.bearerToken";
+    @DefaultValueBoolean(false)
+    public static final String TAG_TIMING_ENABLE = "timing.enable";
+    @DefaultValueBoolean(false)
+    public static final String TAG_TIMING_HEADER = "timing.serverTimingHeader";
+    @DefaultValueInt(0)
+    public static final String TAG_TIMING_SLOW_THRESHOLD = "timing.slowRequestThreshold";
+    @DefaultValueInt(100)
+    public static final String TAG_TIMING_SLOW_SAMPLE = "timing.slowRequestSamplePercent";
 
     /**
      * Used when passing CoreSettings in a map.
@@ -115,6 +135,12 @@ public class CoreSettings implements ConfigDefaults {
     public static final String TAG_CORS_REQUEST_DECORATE = "cors.request.decorate";
     @DefaultValue("")
     public static final String TAG_SESSION_COOKIE_PATH = "sessionCookiePath";
+    @DefaultValueInt(0)
+    public static final String TAG_RESPONSE_CACHE_SIZE = "responseCache.size";
+    @DefaultValueInt(60)
+    public static final String TAG_RESPONSE_CACHE_MAX_AGE = "responseCache.maxAge";
+    @DefaultValueInt(1_000_000)
+    public static final String TAG_RESPONSE_CACHE_MAX_ENTRY_SIZE = "responseCache.maxEntrySize";
 
     // Auth Tags
     @DefaultValue("")
@@ -162,6 +188,22 @@ public class CoreSettings implements ConfigDefaults {
      * Flag indicating if delete on entity sets is allowed.
      */
     private boolean filterDeleteEnabled;
+    /**
+     * Flag indicating if the phases of requests are timed.
+     */
+    private boolean timingEnabled;
+    /**
+     * Flag indicating if request timings are sent in a Server-Timing header.
+     */
+    private boolean timingHeader;
+    /**
+     * Requests that take longer than this many ms are logged, 0 for never.
+     */
+    private long slowRequestThreshold;
+    /**
+     * The percentage of requests that are sampled for the slow request log.
+     */
+    private int slowRequestSamplePercent;
     /**
      * The set of enabled extensions that are defined in the standard.
      */
@@ -217,6 +259,15 @@ public class CoreSettings implements ConfigDefaults {
 
     private CustomLinksHelper customLinksHelper;
 
+    private ResponseCache responseCache;
+    private ServerMetrics metrics = new ServerMetrics(false);
+
+    private DocumentCache documentCache;
+
+    private final ParseTreeCache<Node> pathParseCache = new ParseTreeCache<>(defaultValueInt(TAG_PARSE_CACHE_SIZE));
+
+    private final ParseTreeCache<Start> queryParseCache = new ParseTreeCache<>(defaultValueInt(TAG_PARSE_CACHE_SIZE));
+
     /**
      * Creates an empty, uninitialised CoreSettings.
      */
@@ -287,6 +338,14 @@ public class CoreSettings implements ConfigDefaults {
         queryDefaults.setAlwaysOrder(settings.getBoolean(TAG_ALWAYS_ORDERBY_ID, getClass()));
         dataSizeMax = settings.getLong(TAG_MAX_DATASIZE, getClass());
         filterDeleteEnabled = settings.getBoolean(TAG_FILTER_DELETE_ENABLE, getClass());
+        timingEnabled = settings.getBoolean(TAG_TIMING_ENABLE, getClass());
+        timingHeader = settings.getBoolean(TAG_TIMING_HEADER, getClass());
+        slowRequestThreshold = settings.getLong(TAG_TIMING_SLOW_THRESHOLD, getClass());
+        slowRequestSamplePercent = settings.getInt(TAG_TIMING_SLOW_SAMPLE, getClass());
+        final int parseCacheSize = settings.getInt(TAG_PARSE_CACHE_SIZE, getClass());
+        pathParseCache.setMaxSize(parseCacheSize);
+        queryParseCache.setMaxSize(parseCacheSize);
+        metrics = new ServerMetrics(settings.getBoolean(TAG_METRICS_ENABLE, getClass()));
     }
 
     private void initChildSettings() {
@@ -437,6 +496,22 @@ public class CoreSettings implements ConfigDefaults {
         return filterDeleteEnabled;
     }
 
+    public boolean isTimingEnabled() {
+        return timingEnabled;
+    }
+
+    public boolean isTimingHeader() {
+        return timingHeader;
+    }
+
+    public long getSlowRequestThreshold() {
+        return slowRequestThreshold;
+    }
+
+    public int getSlowRequestSamplePercent() {
+        return slowRequestSamplePercent;
+    }
+
     /**
      * Get the unmodifiable list of liquibase users.
      *
@@ -495,4 +570,50 @@ public class CoreSettings implements ConfigDefaults {
         return customLinksHelper;
     }
 
+    /**
+     * The metrics of this server instance.
+     *
+     * @return The metrics of this server instance.
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    public synchronized ResponseCache getResponseCache() {
+        if (responseCache == null) {
+            responseCache = new ResponseCache(getHttpSettings());
+        }
+        return responseCache;
+    }
+
+    /**
+     * The cache for the syntax trees of parsed paths.
+     *
+     * @return The cache for the syntax trees of parsed paths.
+     */
+    public ParseTreeCache<Node> getPathParseCache() {
+        return pathParseCache;
+    }
+
+    /**
+     * The cache for the syntax trees of parsed queries.
+     *
+     * @return The cache for the syntax trees of parsed queries.
+     */
+    public ParseTreeCache<Start> getQueryParseCache() {
+        return queryParseCache;
+    }
+
+    /**
+     * The cache for documents generated from the model, like $metadata.
+     *
+     * @return The cache for documents generated from the model.
+     */
+    public synchronized DocumentCache getDocumentCache() {
+        if (documentCache == null) {
+            documentCache = new DocumentCache(modelRegistry);
+        }
+        return documentCache;
+    }
+
 }
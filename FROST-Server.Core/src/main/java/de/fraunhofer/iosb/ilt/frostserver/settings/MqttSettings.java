@@ -41,6 +41,27 @@ import org.slf4j.LoggerFactory;
  */
 public class MqttSettings implements ConfigDefaults {
 
+    /**
+     * When to evaluate MQTT filters on the entities in the messages.
+     */
+    public enum FilterInMemory {
+        /**
+         * Evaluate filters in memory when no security wrappers are installed.
+         */
+        AUTO,
+        TRUE,
+        FALSE;
+
+        public static FilterInMemory fromValue(String value) {
+            try {
+                return FilterInMemory.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException exc) {
+                LOGGER.error("No filterInMemory mode named {}, should be one of {}", value, FilterInMemory.values());
+                return AUTO;
+            }
+        }
+    }
+
     /**
      * Tags
      */
@@ -64,12 +85,18 @@ public class MqttSettings implements ConfigDefaults {
     public static final String TAG_CREATE_MESSAGE_QUEUE_SIZE = "CreateMessageQueueSize";
     @DefaultValueInt(5)
     public static final String TAG_CREATE_THREAD_POOL_SIZE = "CreateThreadPoolSize";
+    @DefaultValueInt(1)
+    public static final String TAG_CREATE_BATCH_SIZE = "CreateBatchSize";
+    @DefaultValueInt(0)
+    public static final String TAG_CREATE_LINGER_MS = "CreateLingerMs";
     @DefaultValue("")
     public static final String TAG_EXPOSED_MQTT_ENDPOINTS = "exposedEndpoints";
     @DefaultValueBoolean(true)
     public static final String TAG_MQTT_ALLOW_EXPAND = "allowExpand";
     @DefaultValueBoolean(false)
     public static final String TAG_MQTT_ALLOW_FILTER = "allowFilter";
+    @DefaultValue("auto")
+    public static final String TAG_MQTT_FILTER_IN_MEMORY = "filterInMemory";
 
     /**
      * Constraints
@@ -144,6 +171,15 @@ public class MqttSettings implements ConfigDefaults {
      * Number of threads used to process EntityCreateEvents.
      */
     private int createThreadPoolSize;
+    /**
+     * The maximum number of EntityCreateEvents handled in one transaction.
+     */
+    private int createBatchSize;
+    /**
+     * The time to wait for more EntityCreateEvents, before handling a batch
+     * that is not full.
+     */
+    private int createLingerMs;
 
     /**
      * Flag indicating if $expand is allowed on MQTT topics or not.
@@ -155,6 +191,12 @@ public class MqttSettings implements ConfigDefaults {
      */
     private boolean allowMqttFilter;
 
+    /**
+     * If MQTT filters should be evaluated on the entities in the messages,
+     * where possible, instead of in the database.
+     */
+    private FilterInMemory filterInMemory;
+
     /**
      * Extension point for implementation specific settings.
      */
@@ -175,12 +217,15 @@ public class MqttSettings implements ConfigDefaults {
         port = customSettings.getInt(TAG_PORT, getClass());
         allowMqttExpand = customSettings.getBoolean(TAG_MQTT_ALLOW_EXPAND, getClass());
         allowMqttFilter = customSettings.getBoolean(TAG_MQTT_ALLOW_FILTER, getClass());
+        filterInMemory = FilterInMemory.fromValue(customSettings.get(TAG_MQTT_FILTER_IN_MEMORY, getClass()));
         setHost(customSettings.get(TAG_HOST, getClass()));
         setInternalHost(customSettings.get(TAG_HOST_INTERNAL, getClass()));
         setSubscribeMessageQueueSize(customSettings.getInt(TAG_SUBSCRIBE_MESSAGE_QUEUE_SIZE, getClass()));
         setSubscribeThreadPoolSize(customSettings.getInt(TAG_SUBSCRIBE_THREAD_POOL_SIZE, getClass()));
         setCreateMessageQueueSize(customSettings.getInt(TAG_CREATE_MESSAGE_QUEUE_SIZE, getClass()));
         setCreateThreadPoolSize(customSettings.getInt(TAG_CREATE_THREAD_POOL_SIZE, getClass()));
+        setCreateBatchSize(customSettings.getInt(TAG_CREATE_BATCH_SIZE, getClass()));
+        createLingerMs = Math.max(0, customSettings.getInt(TAG_CREATE_LINGER_MS, getClass()));
         setQosLevel(customSettings.getInt(TAG_QOS, getClass()));
 
         if (enableMqtt) {
@@ -359,6 +404,21 @@ public class MqttSettings implements ConfigDefaults {
         this.createThreadPoolSize = createThreadPoolSize;
     }
 
+    public int getCreateBatchSize() {
+        return createBatchSize;
+    }
+
+    public void setCreateBatchSize(int createBatchSize) {
+        if (createBatchSize < 1) {
+            throw new IllegalArgumentException(TAG_CREATE_BATCH_SIZE + MUST_BE_POSITIVE);
+        }
+        this.createBatchSize = createBatchSize;
+    }
+
+    public int getCreateLingerMs() {
+        return createLingerMs;
+    }
+
     public boolean isAllowMqttExpand() {
         return allowMqttExpand;
     }
@@ -367,4 +427,14 @@ public class MqttSettings implements ConfigDefaults {
         return allowMqttFilter;
     }
 
+    /**
+     * If MQTT filters should be evaluated on the entities in the messages,
+     * where possible, instead of in the database.
+     *
+     * @return the filterInMemory mode.
+     */
+    public FilterInMemory getFilterInMemory() {
+        return filterInMemory;
+    }
+
 }
@@ -68,6 +68,20 @@ public class PersistenceSettings implements ConfigDefaults {
     public static final String TAG_ESTIMATE_COUNT_THRESHOLD = "countEstimateThreshold";
     @DefaultValueBoolean(false)
     public static final String TAG_TRANSACTION_ROLE = "transactionRole";
+    @DefaultValueInt(100)
+    public static final String TAG_EXPAND_BATCH_SIZE = "expandBatchSize";
+    @DefaultValueInt(10_000)
+    public static final String TAG_EXISTENCE_CACHE_SIZE = "existenceCacheSize";
+    @DefaultValueInt(60)
+    public static final String TAG_EXISTENCE_CACHE_MAX_AGE = "existenceCacheMaxAge";
+    @DefaultValueBoolean(false)
+    public static final String TAG_JSON_PASS_THROUGH = "jsonPassThrough";
+    @DefaultValueInt(10_000)
+    public static final String TAG_SECURITY_CACHE_SIZE = "securityCacheSize";
+    @DefaultValueInt(60)
+    public static final String TAG_SECURITY_CACHE_MAX_AGE = "securityCacheMaxAge";
+    @DefaultValueInt(1000)
+    public static final String TAG_SQL_CACHE_SIZE = "sqlCacheSize";
 
     /**
      * Fully-qualified class name of the PersistenceManager implementation
@@ -99,6 +113,36 @@ public class PersistenceSettings implements ConfigDefaults {
      * typically for Row-Level Security.
      */
     private boolean transactionRole;
+    /**
+     * The maximum number of parent entities for which set-valued expands are
+     * loaded in a single query.
+     */
+    private int expandBatchSize;
+    /**
+     * The maximum number of entities that are remembered to exist.
+     */
+    private int existenceCacheSize;
+    /**
+     * The time, in seconds, that entities are remembered to exist.
+     */
+    private int existenceCacheMaxAge;
+    /**
+     * Flag indicating JSON loaded from the database should be parsed only when
+     * needed, and written out as-is otherwise.
+     */
+    private boolean jsonPassThrough;
+    /**
+     * The maximum number of positive security decisions that are remembered.
+     */
+    private int securityCacheSize;
+    /**
+     * The time, in seconds, that positive security decisions are remembered.
+     */
+    private int securityCacheMaxAge;
+    /**
+     * The maximum number of rendered select queries that are remembered.
+     */
+    private int sqlCacheSize;
     /**
      * Extension point for implementation specific settings.
      */
@@ -122,6 +166,13 @@ public class PersistenceSettings implements ConfigDefaults {
         countMode = CountMode.fromValue(settings.get(TAG_COUNT_MODE, getClass()));
         estimateCountThreshold = settings.getInt(TAG_ESTIMATE_COUNT_THRESHOLD, getClass());
         transactionRole = settings.getBoolean(TAG_TRANSACTION_ROLE, getClass());
+        expandBatchSize = settings.getInt(TAG_EXPAND_BATCH_SIZE, getClass());
+        existenceCacheSize = settings.getInt(TAG_EXISTENCE_CACHE_SIZE, getClass());
+        existenceCacheMaxAge = settings.getInt(TAG_EXISTENCE_CACHE_MAX_AGE, getClass());
+        jsonPassThrough = settings.getBoolean(TAG_JSON_PASS_THROUGH, getClass());
+        securityCacheSize = settings.getInt(TAG_SECURITY_CACHE_SIZE, getClass());
+        securityCacheMaxAge = settings.getInt(TAG_SECURITY_CACHE_MAX_AGE, getClass());
+        sqlCacheSize = settings.getInt(TAG_SQL_CACHE_SIZE, getClass());
         customSettings = settings;
     }
 
@@ -193,4 +244,82 @@ public class PersistenceSettings implements ConfigDefaults {
         return estimateCountThreshold;
     }
 
+    /**
+     * The maximum number of parent entities for which set-valued expands are
+     * loaded in a single query. A value of 1 or lower disables batching.
+     *
+     * @return The maximum number of parents in one expand batch.
+     */
+    public int getExpandBatchSize() {
+        return expandBatchSize;
+    }
+
+    /**
+     * Flag indicating set-valued expands should be loaded in batches.
+     *
+     * @return true if expandBatchSize is larger than 1.
+     */
+    public boolean isExpandBatched() {
+        return expandBatchSize > 1;
+    }
+
+    /**
+     * The maximum number of entities that are remembered to exist. A value of
+     * 0 disables the existence cache.
+     *
+     * @return The maximum size of the existence cache.
+     */
+    public int getExistenceCacheSize() {
+        return existenceCacheSize;
+    }
+
+    /**
+     * The time, in seconds, that entities are remembered to exist.
+     *
+     * @return The maximum age of entries in the existence cache, in seconds.
+     */
+    public int getExistenceCacheMaxAge() {
+        return existenceCacheMaxAge;
+    }
+
+    /**
+     * Flag indicating JSON objects loaded from the database are kept as the
+     * text the database returned, and only parsed when needed.
+     *
+     * @return true if JSON loaded from the database is passed through.
+     */
+    public boolean isJsonPassThrough() {
+        return jsonPassThrough;
+    }
+
+    /**
+     * The maximum number of positive security decisions that are remembered. A
+     * value of 0 disables the security decision cache.
+     *
+     * @return The maximum size of the security decision cache.
+     */
+    public int getSecurityCacheSize() {
+        return securityCacheSize;
+    }
+
+    /**
+     * The time, in seconds, that positive security decisions are remembered.
+     *
+     * @return The maximum age of entries in the security decision cache, in
+     * seconds.
+     */
+    public int getSecurityCacheMaxAge() {
+        return securityCacheMaxAge;
+    }
+
+    /**
+     * The maximum number of rendered select queries that are remembered. A
+     * value of 0 disables the SQL cache.
+     *
+     * @return The maximum size of the SQL cache.
+     */
+    public int getSqlCacheSize() {
+        return sqlCacheSize;
+    }
+
 }
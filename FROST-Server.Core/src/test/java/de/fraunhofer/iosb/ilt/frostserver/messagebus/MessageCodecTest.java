@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import de.fraunhofer.iosb.ilt.frostserver.util.TestModel;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the MessageCodec.
+ */
+class MessageCodecTest {
+
+    private static ModelRegistry modelRegistry;
+    private static TestModel testModel;
+
+    @BeforeAll
+    public static void beforeClass() {
+        CoreSettings coreSettings = new CoreSettings();
+        modelRegistry = coreSettings.getModelRegistry();
+        testModel = new TestModel();
+        testModel.initModel(modelRegistry, Constants.VALUE_ID_TYPE_LONG);
+        modelRegistry.initFinalise();
+    }
+
+    @Test
+    void testJsonSingleIsPlainObject() throws IOException {
+        MessageCodec codec = new MessageCodec(modelRegistry, MessageCodec.Format.JSON);
+        byte[] data = codec.encode(createMessages(1));
+        assertEquals('{', new String(data, StandardCharsets.UTF_8).charAt(0));
+        assertMessages(createMessages(1), codec.decode(data));
+    }
+
+    @Test
+    void testJsonBatch() throws IOException {
+        MessageCodec codec = new MessageCodec(modelRegistry, MessageCodec.Format.JSON);
+        List<EntityChangedMessage> messages = createMessages(5);
+        assertMessages(messages, codec.decode(codec.encode(messages)));
+    }
+
+    @Test
+    void testSmile() throws IOException {
+        MessageCodec codec = new MessageCodec(modelRegistry, MessageCodec.Format.SMILE);
+        assertMessages(createMessages(1), codec.decode(codec.encode(createMessages(1))));
+        List<EntityChangedMessage> messages = createMessages(5);
+        assertMessages(messages, codec.decode(codec.encode(messages)));
+    }
+
+    @Test
+    void testMixedFormats() throws IOException {
+        MessageCodec codecJson = new MessageCodec(modelRegistry, MessageCodec.Format.JSON);
+        MessageCodec codecSmile = new MessageCodec(modelRegistry, MessageCodec.Format.SMILE);
+        List<EntityChangedMessage> messages = createMessages(3);
+        assertMessages(messages, codecJson.decode(codecSmile.encode(messages)));
+        assertMessages(messages, codecSmile.decode(codecJson.encode(messages)));
+    }
+
+    private static List<EntityChangedMessage> createMessages(int count) {
+        List<EntityChangedMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            Entity house = testModel.createHouse(i, "House " + i, i * 1.5);
+            house.setQuery(modelRegistry.getMessageQueryGenerator().getQueryFor(testModel.ET_HOUSE));
+            messages.add(new EntityChangedMessage()
+                    .setEventType(EntityChangedMessage.Type.CREATE)
+                    .setEntity(house));
+        }
+        return messages;
+    }
+
+    private static void assertMessages(List<EntityChangedMessage> expected, List<EntityChangedMessage> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Entity expectedEntity = expected.get(i).getEntity();
+            Entity actualEntity = actual.get(i).getEntity();
+            assertEquals(expected.get(i).getEventType(), actual.get(i).getEventType());
+            assertEquals(expectedEntity.getEntityType(), actualEntity.getEntityType());
+            assertEquals(expectedEntity.getPrimaryKeyValues(), actualEntity.getPrimaryKeyValues());
+            assertEquals(expectedEntity.getProperty(testModel.EP_NAME), actualEntity.getProperty(testModel.EP_NAME));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.messagebus;
+
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.PREFIX_BUS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import de.fraunhofer.iosb.ilt.frostserver.util.TestModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the partitioning of messages on the message buses.
+ */
+class PartitionedMessageBusTest {
+
+    private static final int ROOM_COUNT = 7;
+    private static final int MESSAGE_COUNT = 2000;
+
+    private TestModel testModel;
+
+    private CoreSettings createSettings(String partitionKey) {
+        CoreSettings coreSettings = new CoreSettings();
+        Settings settings = coreSettings.getSettings();
+        settings.set(PREFIX_BUS + InternalMessageBus.TAG_WORKER_COUNT, "4");
+        settings.set(PREFIX_BUS + InternalMessageBus.TAG_QUEUE_SIZE, Integer.toString(MESSAGE_COUNT));
+        settings.set(PREFIX_BUS + DefaultMessagePartitioner.TAG_PARTITION_KEY, partitionKey);
+        settings.set(PREFIX_BUS + DefaultMessagePartitioner.TAG_PARTITION_PARENTS, "Room.House, Room.NoSuchParent, NoSuchType.House");
+        testModel = new TestModel();
+        testModel.initModel(coreSettings.getModelRegistry(), Constants.VALUE_ID_TYPE_LONG);
+        coreSettings.getModelRegistry().initFinalise();
+        return coreSettings;
+    }
+
+    private EntityChangedMessage createRoomMessage(long roomId, long houseId, int sequence) {
+        Entity room = new DefaultEntity(testModel.ET_ROOM, PkValue.of(roomId))
+                .setProperty(testModel.EP_VALUE, sequence)
+                .setProperty(testModel.NP_ROOM_HOUSE, new DefaultEntity(testModel.ET_HOUSE, PkValue.of(houseId)));
+        return new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.CREATE)
+                .setEntity(room);
+    }
+
+    @Test
+    void testPartitionKeys() {
+        MessagePartitioner partitioner = MessageBusFactory.createPartitioner(createSettings("ENTITY"));
+        assertTrue(partitioner.isPartitioning());
+        String key1 = partitioner.partitionKey(createRoomMessage(1, 1, 0));
+        assertEquals(key1, partitioner.partitionKey(createRoomMessage(1, 2, 0).setEventType(EntityChangedMessage.Type.UPDATE)));
+        assertEquals(key1, partitioner.partitionKey(createRoomMessage(1, 2, 0).setEventType(EntityChangedMessage.Type.DELETE)));
+        assertNotEquals(key1, partitioner.partitionKey(createRoomMessage(2, 1, 0)));
+
+        partitioner = MessageBusFactory.createPartitioner(createSettings("ENTITY_TYPE"));
+        assertEquals("Room", partitioner.partitionKey(createRoomMessage(1, 1, 0)));
+
+        partitioner = MessageBusFactory.createPartitioner(createSettings("NONE"));
+        assertFalse(partitioner.isPartitioning());
+        assertNull(partitioner.partitionKey(createRoomMessage(1, 1, 0)));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(
+                    partitioner.partition(createRoomMessage(i, 3, 0), 16),
+                    partitioner.partition(createRoomMessage(i, 4, 1), 16));
+        }
+    }
+
+    @Test
+    void testParentPartitionKeys() {
+        MessagePartitioner partitioner = MessageBusFactory.createPartitioner(createSettings("PARENT"));
+        assertTrue(partitioner.isPartitioning());
+        String key = partitioner.partitionKey(createRoomMessage(1, 1, 0));
+        // An update of the same Room carries the full entity, with its House.
+        assertEquals(key, partitioner.partitionKey(createRoomMessage(1, 1, 1).setEventType(EntityChangedMessage.Type.UPDATE)));
+        assertEquals(key, partitioner.partitionKey(createRoomMessage(2, 1, 0)));
+        assertNotEquals(key, partitioner.partitionKey(createRoomMessage(1, 2, 0)));
+        // The Rooms of a House are ordered together with the House itself.
+        Entity house = new DefaultEntity(testModel.ET_HOUSE, PkValue.of(1L));
+        assertEquals(key, partitioner.partitionKey(new EntityChangedMessage().setEventType(EntityChangedMessage.Type.UPDATE).setEntity(house)));
+        // Without a parent, the Room is ordered by itself.
+        Entity orphan = new DefaultEntity(testModel.ET_ROOM, PkValue.of(1L));
+        EntityChangedMessage orphanMessage = new EntityChangedMessage().setEventType(EntityChangedMessage.Type.CREATE).setEntity(orphan);
+        assertEquals(MessagePartitioner.entityKey(orphanMessage), partitioner.partitionKey(orphanMessage));
+    }
+
+    @Test
+    void testEntityKey() {
+        createSettings("NONE");
+        EntityChangedMessage create = createRoomMessage(1, 1, 0);
+        EntityChangedMessage update = createRoomMessage(1, 2, 1).setEventType(EntityChangedMessage.Type.UPDATE);
+        String key = MessagePartitioner.entityKey(create);
+        assertEquals(key, MessagePartitioner.entityKey(update));
+        assertNotEquals(key, MessagePartitioner.entityKey(createRoomMessage(2, 1, 0)));
+        assertEquals(MessagePartitioner.partitionOf(key, 8), MessagePartitioner.partitionOf(MessagePartitioner.entityKey(update), 8));
+        assertEquals(0, MessagePartitioner.partitionOf(key, 1));
+    }
+
+    @Test
+    void testParsePartitions() {
+        assertEquals(Arrays.asList(0, 1, 2, 3), MqttMessageBus.parsePartitions("", 4));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 7), MqttMessageBus.parsePartitions("0-3, 7", 8));
+        assertEquals(Arrays.asList(2, 3), MqttMessageBus.parsePartitions("x,2-10", 4));
+    }
+
+    @Test
+    void testInternalBusKeepsOrderPerKey() throws InterruptedException {
+        InternalMessageBus bus = new InternalMessageBus();
+        bus.init(createSettings("ENTITY"));
+        final Map<Object, List<Integer>> receivedPerRoom = new ConcurrentHashMap<>();
+        final CountDownLatch latch = new CountDownLatch(MESSAGE_COUNT);
+        bus.addMessageListener(message -> {
+            Entity room = message.getEntity();
+            Object roomId = room.getPrimaryKeyValues().get(0);
+            receivedPerRoom.computeIfAbsent(roomId, t -> new ArrayList<>())
+                    .add(room.getProperty(testModel.EP_VALUE).intValue());
+            latch.countDown();
+        });
+        try {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                bus.sendMessage(createRoomMessage(i % ROOM_COUNT, 0, i));
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS), "Not all messages were delivered.");
+        } finally {
+            bus.stop();
+        }
+        assertEquals(ROOM_COUNT, receivedPerRoom.size());
+        for (List<Integer> received : receivedPerRoom.values()) {
+            List<Integer> sorted = new ArrayList<>(received);
+            sorted.sort(null);
+            assertEquals(sorted, received);
+        }
+    }
+
+    @Test
+    void testInternalBusKeepsOrderPerParent() throws InterruptedException {
+        InternalMessageBus bus = new InternalMessageBus();
+        bus.init(createSettings("PARENT"));
+        final Map<Object, List<Integer>> receivedPerHouse = new ConcurrentHashMap<>();
+        final CountDownLatch latch = new CountDownLatch(MESSAGE_COUNT);
+        bus.addMessageListener(message -> {
+            Entity room = message.getEntity();
+            Object houseId = room.getProperty(testModel.NP_ROOM_HOUSE).getPrimaryKeyValues().get(0);
+            receivedPerHouse.computeIfAbsent(houseId, t -> new ArrayList<>())
+                    .add(room.getProperty(testModel.EP_VALUE).intValue());
+            latch.countDown();
+        });
+        try {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                bus.sendMessage(createRoomMessage(i, i % ROOM_COUNT, i));
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS), "Not all messages were delivered.");
+        } finally {
+            bus.stop();
+        }
+        assertEquals(ROOM_COUNT, receivedPerHouse.size());
+        for (List<Integer> received : receivedPerHouse.values()) {
+            List<Integer> sorted = new ArrayList<>(received);
+            sorted.sort(null);
+            assertEquals(sorted, received);
+        }
+    }
+
+    @Test
+    void testPartitionedProcessorsMetrics() throws InterruptedException, IOException {
+        final CountDownLatch latch = new CountDownLatch(5);
+        final ServerMetrics metrics = new ServerMetrics(true);
+        PartitionedProcessors<Integer> processors = new PartitionedProcessors<Integer>(true, 2, 10, (queue, item) -> latch.countDown(), "TestMtr", new ArrayList<>())
+                .exportMetrics(metrics, "test_partitions");
+        try {
+            for (int i = 0; i < 5; i++) {
+                processors.put(i, i);
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS), "Not all items were handled.");
+        } finally {
+            processors.shutdown(1, TimeUnit.SECONDS);
+        }
+        final MeterRegistry registry = metrics.getRegistry();
+        assertEquals(0, registry.get("frost.queue.depth").tag("queue", "test_partitions").gauge().value());
+        assertEquals(0, registry.get("frost.partition.queue.depth").tags("queue", "test_partitions", "partition", "1").gauge().value());
+        assertEquals(3, registry.get("frost.partition.handling.duration").tags("queue", "test_partitions", "partition", "0").timer().count());
+        assertEquals(2, registry.get("frost.partition.handling.duration").tags("queue", "test_partitions", "partition", "1").timer().count());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        metrics.write(out);
+        final String text = out.toString(StandardCharsets.UTF_8);
+        assertTrue(text.contains("frost_partition_handling_duration_seconds_count{partition=\"0\",queue=\"test_partitions\"} 3"), text);
+        assertTrue(text.contains("frost_queue_depth{queue=\"test_partitions\"} 0"), text);
+    }
+}
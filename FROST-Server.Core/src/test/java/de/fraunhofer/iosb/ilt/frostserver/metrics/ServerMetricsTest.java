@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the ServerMetrics and the Prometheus text format.
+ */
+class ServerMetricsTest {
+
+    @Test
+    void testPrometheusFormat() throws IOException {
+        ServerMetrics metrics = new ServerMetrics(true);
+        metrics.queueDropped("a\"b").increment(3);
+        metrics.queueDepth("q", () -> 7);
+        metrics.persistenceDuration(ServerMetrics.KIND_SELECT).record(2, TimeUnit.MILLISECONDS);
+        metrics.persistenceDuration(ServerMetrics.KIND_SELECT).record(20, TimeUnit.SECONDS);
+
+        String text = write(metrics);
+        assertTrue(text.contains("# TYPE frost_queue_dropped_total counter\nfrost_queue_dropped_total{queue=\"a\\\"b\"} 3"), text);
+        assertTrue(text.contains("frost_queue_depth{queue=\"q\"} 7"), text);
+        assertTrue(text.contains("frost_persistence_duration_seconds_bucket{kind=\"select\",le=\"0.001\"} 0"), text);
+        assertTrue(text.contains("frost_persistence_duration_seconds_bucket{kind=\"select\",le=\"0.005\"} 1"), text);
+        assertTrue(text.contains("frost_persistence_duration_seconds_bucket{kind=\"select\",le=\"+Inf\"} 2"), text);
+        assertTrue(text.contains("frost_persistence_duration_seconds_count{kind=\"select\"} 2"), text);
+    }
+
+    @Test
+    void testGaugeReplaced() {
+        ServerMetrics metrics = new ServerMetrics(true);
+        metrics.queueDepth("q", () -> 1);
+        metrics.queueDepth("q", () -> 2);
+        assertEquals(2, metrics.getRegistry().get("frost.queue.depth").tag("queue", "q").gauge().value());
+    }
+
+    @Test
+    void testDisabled() throws IOException {
+        ServerMetrics metrics = new ServerMetrics(false);
+        assertFalse(metrics.isEnabled());
+        metrics.mqttPublished().increment();
+        assertEquals(0, metrics.mqttPublished().count());
+        assertEquals("", write(metrics));
+    }
+
+    @Test
+    void testInstancesSeparate() {
+        ServerMetrics first = new ServerMetrics(true);
+        ServerMetrics second = new ServerMetrics(true);
+        first.mqttPublished().increment();
+        assertEquals(1, first.mqttPublished().count());
+        assertEquals(0, second.mqttPublished().count());
+    }
+
+    private static String write(ServerMetrics metrics) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        metrics.write(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -18,9 +18,13 @@
 package de.fraunhofer.iosb.ilt.frostserver.mqtt;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.github.fge.jsonpatch.JsonPatch;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.DefaultMessagePartitioner;
 import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
@@ -28,13 +32,16 @@ import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.create.EntityCreateListener;
+import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.Subscription;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.SubscriptionEvent;
+import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.SubscriptionFactory;
 import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.SubscriptionListener;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntity;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.path.Version;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.property.Property;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.service.InitResult;
 import de.fraunhofer.iosb.ilt.frostserver.service.PluginManager;
@@ -53,10 +60,13 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -73,6 +83,7 @@ class MqttManagerTest {
 
     private static final int REPEAT_COUNT = 1;
     private static final int MESSAGE_COUNT = 2000;
+    private static final Pattern NAME_PATTERN = Pattern.compile("\"name\"\\s*:\\s*\"(\\d+)\"");
 
     private CoreSettings coreSettings;
     private ModelRegistry modelRegistry;
@@ -88,6 +99,8 @@ class MqttManagerTest {
         properties.put(CoreSettings.PREFIX_MQTT + MqttSettings.TAG_IMPLEMENTATION_CLASS, TestMqttServer.class.getName());
         properties.put(CoreSettings.PREFIX_MQTT + MqttSettings.TAG_SUBSCRIBE_MESSAGE_QUEUE_SIZE, "20000");
         properties.put(CoreSettings.PREFIX_MQTT + MqttSettings.TAG_SUBSCRIBE_THREAD_POOL_SIZE, "10");
+        properties.put(CoreSettings.PREFIX_MQTT + MqttSettings.TAG_MQTT_ALLOW_FILTER, "true");
+        properties.put(CoreSettings.PREFIX_BUS + DefaultMessagePartitioner.TAG_PARTITION_PARENTS, "Room.House");
         properties.put(CoreSettings.PREFIX_PERSISTENCE + PersistenceSettings.TAG_IMPLEMENTATION_CLASS, DummyPersistenceManager.class.getName());
         properties.put(CoreSettings.PREFIX_PLUGINS + PluginManager.TAG_PROVIDED_PLUGINS, TestModel.class.getName() + "," + PluginManager.VALUE_PROVIDED_PLUGINS);
 
@@ -122,6 +135,85 @@ class MqttManagerTest {
         mqttServer.subscribe("v1.1/Rooms(1)/House");
     }
 
+    @Test
+    void testFilteredSubscriptionIsParented() {
+        SubscriptionFactory factory = new SubscriptionFactory(coreSettings);
+        Subscription plain = factory.get("v1.1/Houses(1)/Rooms");
+        Subscription filtered = factory.get("v1.1/Houses(1)/Rooms?$filter=name%20eq%20'a'");
+        Subscription selected = factory.get("v1.1/Houses(1)/Rooms?$filter=name%20eq%20'a'&$select=name");
+        assertEquals(plain.getParentRelation(), filtered.getParentRelation());
+        assertEquals(PkValue.of(1L), filtered.getParentId());
+        assertEquals(filtered.getMatchKey(), selected.getMatchKey());
+        assertNotEquals(plain.getMatchKey(), filtered.getMatchKey());
+        assertEquals(plain.getFormatKey(), filtered.getFormatKey());
+        assertNotEquals(filtered.getFormatKey(), selected.getFormatKey());
+    }
+
+    @Test
+    void testFilterInMemoryAuto() {
+        SubscriptionFactory factory = new SubscriptionFactory(coreSettings);
+        Entity room = new DefaultEntity(testModel.ET_ROOM, PkValue.of(1L))
+                .setProperty(testModel.EP_NAME, "a");
+        // The dummy database finds nothing, so only an in-memory evaluation matches.
+        DummyPersistenceManager pm = new DummyPersistenceManager();
+        assertTrue(factory.get("v1.1/Rooms?$filter=name%20eq%20'a'").matches(pm, room, null));
+
+        factory = new SubscriptionFactory(coreSettings);
+        pm.securityWrappers = true;
+        assertFalse(factory.get("v1.1/Rooms?$filter=name%20eq%20'a'").matches(pm, room, null));
+    }
+
+    @Test
+    void testNotificationCache() {
+        MqttManager mqttManager = new MqttManager(coreSettings);
+        TestMqttServer mqttServer = TestMqttServerRegister.getInstance().getServers().get(0);
+        List<String> published = new ArrayList<>();
+        mqttServer.addPublishListener((topic, payload) -> published.add(topic));
+
+        AtomicInteger matchCount = new AtomicInteger();
+        AtomicInteger formatCount = new AtomicInteger();
+        Entity room = new DefaultEntity(testModel.ET_ROOM, PkValue.of(1L));
+        NotificationCache cache = new NotificationCache(mqttManager, null, room, null);
+        cache.notifyIfMatches(new CountingSubscription("a", "match", "format", matchCount, formatCount));
+        cache.notifyIfMatches(new CountingSubscription("b", "match", "format", matchCount, formatCount));
+        cache.notifyIfMatches(new CountingSubscription("c", "match", "other", matchCount, formatCount));
+
+        assertEquals(List.of("a", "b", "c"), published);
+        assertEquals(1, matchCount.get());
+        assertEquals(2, formatCount.get());
+        assertEquals(2, cache.getPayloadCount());
+    }
+
+    @Test
+    void testNotificationsInOrderPerParent() throws InterruptedException {
+        MqttManager mqttManager = new MqttManager(coreSettings);
+        TestMqttServer mqttServer = TestMqttServerRegister.getInstance().getServers().get(0);
+        mqttServer.subscribe("v1.1/Houses(1)/Rooms");
+        final List<Integer> published = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(MESSAGE_COUNT);
+        mqttServer.addPublishListener((topic, payload) -> {
+            Matcher matcher = NAME_PATTERN.matcher(payload);
+            if (matcher.find()) {
+                published.add(Integer.valueOf(matcher.group(1)));
+            }
+            latch.countDown();
+        });
+        // Each Room is a different entity, but all have the same House.
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            mqttManager.messageReceived(new EntityChangedMessage()
+                    .setEventType(EntityChangedMessage.Type.CREATE)
+                    .setEntity(new DefaultEntity(testModel.ET_ROOM, PkValue.of((long) i))
+                            .setProperty(testModel.EP_NAME, Integer.toString(i))
+                            .setProperty(testModel.NP_ROOM_HOUSE, new DefaultEntity(testModel.ET_HOUSE, PkValue.of(1L)))));
+        }
+        assertTrue(latch.await(15, TimeUnit.SECONDS), "Not all messages were published.");
+        mqttManager.shutdown();
+        assertEquals(MESSAGE_COUNT, published.size());
+        List<Integer> sorted = new ArrayList<>(published);
+        sorted.sort(null);
+        assertEquals(sorted, published);
+    }
+
     @Test
     void testMqttManager() throws InterruptedException {
         MqttManager mqttManager = new MqttManager(coreSettings);
@@ -161,7 +253,7 @@ class MqttManagerTest {
 
         final CountDownLatch barrier = new CountDownLatch(publishCount);
         final AtomicInteger publishedCount = new AtomicInteger();
-        mqttServer.addPublishListener((topic) -> {
+        mqttServer.addPublishListener((topic, payload) -> {
             publishedCount.incrementAndGet();
             barrier.countDown();
         });
@@ -270,7 +362,7 @@ class MqttManagerTest {
         @Override
         public void publish(String topic, String payload, int qos) {
             for (PublishListener listener : publishListeners) {
-                listener.publish(topic);
+                listener.publish(topic, payload);
             }
         }
 
@@ -308,14 +400,78 @@ class MqttManagerTest {
 
     }
 
+    private static class CountingSubscription implements Subscription {
+
+        private final String topic;
+        private final Object matchKey;
+        private final Object formatKey;
+        private final AtomicInteger matchCount;
+        private final AtomicInteger formatCount;
+
+        public CountingSubscription(String topic, Object matchKey, Object formatKey, AtomicInteger matchCount, AtomicInteger formatCount) {
+            this.topic = topic;
+            this.matchKey = matchKey;
+            this.formatKey = formatKey;
+            this.matchCount = matchCount;
+            this.formatCount = formatCount;
+        }
+
+        @Override
+        public String formatMessage(Entity entity) {
+            return "message " + formatCount.incrementAndGet();
+        }
+
+        @Override
+        public EntityType getEntityType() {
+            return null;
+        }
+
+        @Override
+        public String getTopic() {
+            return topic;
+        }
+
+        @Override
+        public boolean matches(PersistenceManager persistenceManager, Entity newEntity, Set<Property> fields) {
+            matchCount.incrementAndGet();
+            return true;
+        }
+
+        @Override
+        public NavigationPropertyMain getParentRelation() {
+            return null;
+        }
+
+        @Override
+        public PkValue getParentId() {
+            return null;
+        }
+
+        @Override
+        public Object getMatchKey() {
+            return matchKey;
+        }
+
+        @Override
+        public Object getFormatKey() {
+            return formatKey;
+        }
+    }
+
     public static interface PublishListener {
 
-        public void publish(String topic);
+        public void publish(String topic, String payload);
     }
 
     public static final class DummyPersistenceManager implements PersistenceManager {
 
         private CoreSettings coreSettings;
+        private boolean securityWrappers;
+
+        @Override
+        public boolean hasSecurityWrappers() {
+            return securityWrappers;
+        }
 
         @Override
         public boolean validatePath(ResourcePath path) {
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.model.ext.TimeValue;
+import de.fraunhofer.iosb.ilt.frostserver.mqtt.subscription.EntityFilterEvaluator.NotEvaluableException;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.path.Version;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import de.fraunhofer.iosb.ilt.frostserver.util.TestModel;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.time4j.Moment;
+import net.time4j.PlainTimestamp;
+import net.time4j.tz.ZonalOffset;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the in-memory evaluation of MQTT filters.
+ */
+class EntityFilterEvaluatorTest {
+
+    private static CoreSettings coreSettings;
+    private static ModelRegistry modelRegistry;
+    private static TestModel testModel;
+    private static ResourcePath path;
+
+    @BeforeAll
+    public static void beforeClass() {
+        coreSettings = new CoreSettings();
+        modelRegistry = coreSettings.getModelRegistry();
+        testModel = new TestModel();
+        testModel.initModel(modelRegistry, Constants.VALUE_ID_TYPE_LONG);
+        modelRegistry.initFinalise();
+        path = new ResourcePath("http://example.org/FROST-Server", Version.V_1_0, "/");
+    }
+
+    private static Entity createRoom() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("count", 3);
+        properties.put("label", "three");
+        properties.put("nested", Map.of("list", List.of(1, 2, 4)));
+        Moment time = PlainTimestamp.of(2020, 1, 1, 12, 0).at(ZonalOffset.UTC);
+        return new DefaultEntity(testModel.ET_ROOM, PkValue.of(1L))
+                .setProperty(testModel.EP_NAME, "Room 1")
+                .setProperty(testModel.EP_VALUE, 7)
+                .setProperty(testModel.EP_TIME, TimeValue.create(time))
+                .setProperty(ModelRegistry.EP_PROPERTIES, properties)
+                .setProperty(testModel.NP_ROOM_HOUSE, new DefaultEntity(testModel.ET_HOUSE, PkValue.of(2L)));
+    }
+
+    private static Boolean evaluate(String filter, Entity entity) {
+        Query query = QueryParser.parseQuery("$filter=" + filter, coreSettings.getQueryDefaults(), modelRegistry, path);
+        query.validate(testModel.ET_ROOM);
+        return new EntityFilterEvaluator(entity).evaluate(query.getFilter());
+    }
+
+    private static Boolean evaluate(String filter) {
+        return evaluate(filter, createRoom());
+    }
+
+    @Test
+    void testComparisons() {
+        assertTrue(evaluate("id eq 1"));
+        assertFalse(evaluate("id eq 2"));
+        assertTrue(evaluate("name eq 'Room 1'"));
+        assertFalse(evaluate("name ne 'Room 1'"));
+        assertTrue(evaluate("value gt 6.5"));
+        assertTrue(evaluate("value le 7"));
+        assertFalse(evaluate("value lt 7"));
+        assertTrue(evaluate("value in (1, 7)"));
+        assertFalse(evaluate("value in (1, 2)"));
+        assertTrue(evaluate("time gt 2020-01-01T11:00:00Z"));
+        assertFalse(evaluate("time lt 2020-01-01T13:00:00+02:00"));
+    }
+
+    @Test
+    void testNulls() {
+        assertFalse(evaluate("name eq null"));
+        assertTrue(evaluate("name ne null"));
+        Entity room = createRoom().setProperty(testModel.EP_NAME, null);
+        assertTrue(evaluate("name eq null", room));
+        assertNull(evaluate("name eq 'Room 1'", room));
+        assertNull(evaluate("not (name eq 'Room 1')", room));
+        assertFalse(evaluate("name eq 'Room 1' and id eq 2", room));
+        assertTrue(evaluate("name eq 'Room 1' or id eq 1", room));
+    }
+
+    @Test
+    void testNavigation() {
+        assertTrue(evaluate("House/id eq 2"));
+        assertFalse(evaluate("House/id eq 3"));
+        NotEvaluableException exc = assertThrows(NotEvaluableException.class, () -> evaluate("House/name eq 'House 2'"));
+        assertFalse(exc.isPermanent());
+        // The first part is false, the rest is not needed.
+        assertFalse(evaluate("House/id eq 3 and House/name eq 'House 2'"));
+    }
+
+    @Test
+    void testCustomProperties() {
+        assertTrue(evaluate("properties/count eq 3"));
+        assertTrue(evaluate("properties/count ge 2.5"));
+        assertTrue(evaluate("properties/label eq 'three'"));
+        assertTrue(evaluate("properties/nested/list[2] eq 4"));
+        assertNull(evaluate("properties/missing eq 3"));
+        assertNull(evaluate("properties/nested/list[5] eq 3"));
+        // Type coercion is left to the database.
+        assertThrows(NotEvaluableException.class, () -> evaluate("properties/label eq 3"));
+        assertThrows(NotEvaluableException.class, () -> evaluate("properties/count eq '3'"));
+    }
+
+    @Test
+    void testFunctions() {
+        assertTrue(evaluate("value add 1 eq 8"));
+        assertTrue(evaluate("value mul 2 sub 4 eq 10"));
+        assertTrue(evaluate("value mod 4 eq 3"));
+        assertTrue(evaluate("floor(value) eq 7"));
+        assertTrue(evaluate("length(name) eq 6"));
+        assertTrue(evaluate("indexof(name, 'oo') eq 2"));
+        assertTrue(evaluate("indexof(name, 'x') eq 0"));
+        assertTrue(evaluate("substring(name, 1) eq 'oom 1'"));
+        assertTrue(evaluate("substring(name, 1, 2) eq 'oo'"));
+        assertTrue(evaluate("tolower(name) eq 'room 1'"));
+        assertTrue(evaluate("toupper(name) eq 'ROOM 1'"));
+        assertTrue(evaluate("trim(concat('  ', name)) eq 'Room 1'"));
+        assertTrue(evaluate("startswith(name, 'Ro')"));
+        assertTrue(evaluate("endswith(name, ' 1')"));
+        assertTrue(evaluate("substringof('om', name)"));
+    }
+
+    @Test
+    void testNotEvaluable() {
+        assertPermanent("st_within(properties/geo, geography'POINT(8 49)')");
+        assertPermanent("year(time) eq 2020");
+        assertPermanent("value div 2 eq 3.5");
+        assertPermanent("Rooms/any(r: r/value gt 5)");
+        assertThrows(NotEvaluableException.class, () -> evaluate("name gt 'A'"));
+    }
+
+    private static void assertPermanent(String filter) {
+        NotEvaluableException exc = assertThrows(NotEvaluableException.class, () -> evaluate(filter));
+        assertTrue(exc.isPermanent(), "Expected permanent failure for " + filter);
+    }
+
+    @Test
+    void testNumberNormalisation() {
+        Entity room = createRoom().setProperty(testModel.EP_VALUE, new BigDecimal("7.00"));
+        assertTrue(evaluate("value eq 7", room));
+        assertTrue(evaluate("value eq 7.0", room));
+    }
+}
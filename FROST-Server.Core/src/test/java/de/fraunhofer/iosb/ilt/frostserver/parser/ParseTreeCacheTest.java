@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the ParseTreeCache.
+ */
+class ParseTreeCacheTest {
+
+    private final AtomicInteger parseCount = new AtomicInteger();
+
+    private Object parse(String input) {
+        parseCount.incrementAndGet();
+        return new Object();
+    }
+
+    @Test
+    void testLeastRecentlyUsedEvicted() {
+        final ParseTreeCache<Object> cache = new ParseTreeCache<>(2);
+        final Object a = cache.get("a", this::parse);
+        cache.get("b", this::parse);
+        assertSame(a, cache.get("a", this::parse));
+        cache.get("c", this::parse);
+        assertEquals(2, cache.size());
+        assertEquals(3, parseCount.get());
+
+        // b was the least recently used, a is kept.
+        assertSame(a, cache.get("a", this::parse));
+        assertEquals(3, parseCount.get());
+        cache.get("b", this::parse);
+        assertEquals(4, parseCount.get());
+    }
+
+    @Test
+    void testSegmentedSize() {
+        final ParseTreeCache<Object> cache = new ParseTreeCache<>(1000);
+        for (int i = 0; i < 5000; i++) {
+            cache.get("input" + i, this::parse);
+        }
+        assertEquals(1000, cache.size());
+    }
+
+    @Test
+    void testDisabled() {
+        final ParseTreeCache<Object> cache = new ParseTreeCache<>(0);
+        assertNotSame(cache.get("a", this::parse), cache.get("a", this::parse));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testPerSettings() {
+        final CoreSettings first = new CoreSettings();
+        final CoreSettings second = new CoreSettings();
+        assertNotSame(first.getPathParseCache(), second.getPathParseCache());
+        first.getPathParseCache().get("a", input -> null);
+        assertEquals(1, first.getPathParseCache().size());
+        assertEquals(0, second.getPathParseCache().size());
+        second.getQueryParseCache().setMaxSize(0);
+        first.getQueryParseCache().get("b", input -> null);
+        assertEquals(1, first.getQueryParseCache().size());
+    }
+
+}
@@ -22,6 +22,7 @@ import static de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended.INT
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -105,6 +106,18 @@ class QueryParserTest {
         assertEquals(10, result.getTopOrDefault());
     }
 
+    @Test
+    void testParseTwice() {
+        String query = "$top=1&$orderby=time desc&$filter=name eq 'abc'&$expand=House($select=name)";
+        int cached = coreSettings.getQueryParseCache().size();
+        Query first = QueryParser.parseQuery(query, coreSettings, coreSettings.getQueryDefaults(), path, INTERNAL_ADMIN_PRINCIPAL);
+        Query second = QueryParser.parseQuery(query, coreSettings, coreSettings.getQueryDefaults(), path, INTERNAL_ADMIN_PRINCIPAL);
+        assertEquals(cached + 1, coreSettings.getQueryParseCache().size());
+        assertEquals(first, second);
+        assertNotSame(first, second);
+        assertNotSame(first.getFilter(), second.getFilter());
+    }
+
     @Test
     void testSkip() {
         Query expResult = new Query(modelRegistry, coreSettings.getQueryDefaults(), path);
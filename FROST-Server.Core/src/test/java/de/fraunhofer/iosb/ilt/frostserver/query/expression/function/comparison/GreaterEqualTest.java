@@ -31,6 +31,16 @@ import org.junit.jupiter.api.Test;
  */
 class GreaterEqualTest {
 
+    @Test
+    void testEqualsAndHashCode() {
+        GreaterEqual first = new GreaterEqual(new IntegerConstant(2), new IntegerConstant(1));
+        GreaterEqual second = new GreaterEqual(new IntegerConstant(2), new IntegerConstant(1));
+        // Only the first has its type bindings initialised.
+        first.getAllowedTypeBindings();
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
     @Test
     void testIntIntGreater() {
         Expression expectedResult = new BooleanConstant(true);
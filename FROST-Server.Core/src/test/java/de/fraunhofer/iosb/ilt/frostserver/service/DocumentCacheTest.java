@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.service;
+
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ACCEPT_ENCODING;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_CONTENT_ENCODING;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ETAG;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_IF_NONE_MATCH;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_VARY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the DocumentCache.
+ */
+class DocumentCacheTest {
+
+    private static final String DOCUMENT = "{\"name\":\"test\"}";
+    private static final DocumentCache.Key KEY = new DocumentCache.Key("test", "v1.1", "http://localhost", false, "json", Constants.CONTENT_TYPE_APPLICATION_JSON);
+
+    @Test
+    void testGeneratedOnce() throws IOException {
+        final ModelRegistry modelRegistry = new ModelRegistry();
+        final DocumentCache cache = new DocumentCache(modelRegistry);
+        final AtomicInteger count = new AtomicInteger();
+        final DocumentCache.Generator generator = () -> {
+            count.incrementAndGet();
+            return DOCUMENT;
+        };
+        final DocumentCache.Document first = cache.get(KEY, generator);
+        assertSame(first, cache.get(KEY, generator));
+        assertEquals(1, count.get());
+
+        modelRegistry.modelChanged();
+        final DocumentCache.Document second = cache.get(KEY, generator);
+        assertNotSame(first, second);
+        assertEquals(2, count.get());
+        assertEquals(first.getEtag(), second.getEtag());
+    }
+
+    @Test
+    void testWriteDocument() throws IOException {
+        final DocumentCache.Document document = new DocumentCache(new ModelRegistry()).get(KEY, () -> DOCUMENT);
+
+        StreamingResponse response = new StreamingResponse();
+        DocumentCache.writeDocument(createRequest(Map.of()), response, document);
+        assertEquals(200, response.getCode());
+        assertEquals(DOCUMENT, response.out.toString(StandardCharsets.UTF_8));
+        assertNull(response.getHeaders().get(HEADER_CONTENT_ENCODING));
+        assertEquals(List.of(document.getEtag()), response.getHeaders().get(HEADER_ETAG));
+        assertEquals(List.of("Accept, Accept-Encoding"), response.getHeaders().get(HEADER_VARY));
+
+        response = new StreamingResponse();
+        DocumentCache.writeDocument(createRequest(Map.of(HEADER_ACCEPT_ENCODING, "deflate, gzip;q=0.5")), response, document);
+        assertEquals(List.of("gzip"), response.getHeaders().get(HEADER_CONTENT_ENCODING));
+        assertEquals(List.of(document.getEtag(true)), response.getHeaders().get(HEADER_ETAG));
+        assertNotEquals(document.getEtag(), document.getEtag(true));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.out.toByteArray()))) {
+            assertEquals(DOCUMENT, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        response = new StreamingResponse();
+        DocumentCache.writeDocument(createRequest(Map.of(HEADER_ACCEPT_ENCODING, "gzip;q=0")), response, document);
+        assertNull(response.getHeaders().get(HEADER_CONTENT_ENCODING));
+
+        response = new StreamingResponse();
+        DocumentCache.writeDocument(createRequest(Map.of(HEADER_IF_NONE_MATCH, document.getEtag())), response, document);
+        assertEquals(304, response.getCode());
+        assertEquals(0, response.out.size());
+
+        response = new StreamingResponse();
+        DocumentCache.writeDocument(createRequest(Map.of(HEADER_IF_NONE_MATCH, document.getEtag(), HEADER_ACCEPT_ENCODING, "gzip")), response, document);
+        assertEquals(200, response.getCode());
+
+        response = new StreamingResponse();
+        DocumentCache.writeDocument(createRequest(Map.of(HEADER_IF_NONE_MATCH, document.getEtag(true), HEADER_ACCEPT_ENCODING, "gzip")), response, document);
+        assertEquals(304, response.getCode());
+    }
+
+    private static ServiceRequest createRequest(Map<String, String> headers) {
+        final Map<String, List<String>> parameters = new HashMap<>();
+        headers.forEach((k, v) -> parameters.put(k, List.of(v)));
+        return new ServiceRequest().setParameterMap(parameters);
+    }
+
+    private static class StreamingResponse extends ServiceResponseDefault {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.service.RequestTiming.Phase;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the RequestTiming.
+ */
+class RequestTimingTest {
+
+    @Test
+    void testPhases() throws InterruptedException {
+        RequestTiming timing = new RequestTiming(true);
+        long outer = timing.start(Phase.EXPAND);
+        long inner = timing.start(Phase.EXPAND);
+        Thread.sleep(5);
+        timing.end(Phase.EXPAND, inner);
+        long afterInner = timing.getPhaseNanos(Phase.EXPAND);
+        timing.end(Phase.EXPAND, outer);
+        assertEquals(0, afterInner, "Nested phases should only count when the outermost ends.");
+        assertTrue(timing.getPhaseNanos(Phase.EXPAND) >= 5_000_000);
+
+        timing.addRows(3);
+        timing.addQuery(() -> "SELECT 1");
+        String header = timing.toServerTiming();
+        assertTrue(header.startsWith("expand;dur="), header);
+        assertTrue(header.contains(", total;dur="), header);
+        assertFalse(header.contains("sql"), header);
+        String description = timing.describe();
+        assertTrue(description.contains("rows 3, queries 1\nSELECT 1"), description);
+    }
+
+    @Test
+    void testQueriesNotCollected() {
+        RequestTiming timing = new RequestTiming(false);
+        timing.addQuery(() -> "SELECT 1");
+        String description = timing.describe();
+        assertTrue(description.endsWith("queries 1"), description);
+    }
+
+    @Test
+    void testDisabled() {
+        RequestTiming timing = RequestTiming.DISABLED;
+        assertFalse(timing.isEnabled());
+        timing.end(Phase.SQL, timing.start(Phase.SQL));
+        timing.addRows(5);
+        assertEquals(0, timing.getRows());
+        assertSame(RequestTiming.DISABLED, new ServiceRequest().setTiming(null).getTiming());
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.service;
+
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_IF_NONE_MATCH;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.path.Version;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import de.fraunhofer.iosb.ilt.frostserver.util.TestModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the ResponseCache.
+ */
+class ResponseCacheTest {
+
+    private static CoreSettings coreSettings;
+    private static ModelRegistry modelRegistry;
+    private static TestModel testModel;
+
+    @BeforeAll
+    public static void beforeClass() {
+        coreSettings = new CoreSettings();
+        coreSettings.getSettings().set(CoreSettings.PREFIX_HTTP + CoreSettings.TAG_RESPONSE_CACHE_SIZE, "10");
+        modelRegistry = coreSettings.getModelRegistry();
+        testModel = new TestModel();
+        testModel.initModel(modelRegistry, Constants.VALUE_ID_TYPE_LONG);
+        modelRegistry.initFinalise();
+    }
+
+    @Test
+    void testFindDependencies() {
+        Set<EntityType> types = new HashSet<>();
+        Set<ResponseCache.EntityKey> entities = new HashSet<>();
+        findDependencies("/Houses(1)", null, types, entities);
+        assertTrue(types.isEmpty());
+        assertEquals(Set.of(new ResponseCache.EntityKey(testModel.ET_HOUSE, "[1]")), entities);
+
+        types.clear();
+        entities.clear();
+        findDependencies("/Rooms", "$filter=House/name eq 'a'", types, entities);
+        assertEquals(Set.of(testModel.ET_ROOM, testModel.ET_HOUSE), types);
+        assertTrue(entities.isEmpty());
+
+        types.clear();
+        entities.clear();
+        findDependencies("/Houses(1)", "$expand=Rooms", types, entities);
+        assertEquals(Set.of(testModel.ET_ROOM), types);
+        assertEquals(1, entities.size());
+    }
+
+    @Test
+    void testCacheAndInvalidate() throws IOException {
+        ResponseCache cache = new ResponseCache(coreSettings.getHttpSettings());
+
+        ServiceRequest request = createRequest("/Houses(1)", null);
+        ResponseCache.Entry entry = storeResponse(cache, request, "{\"name\":\"a\"}");
+        assertNotNull(entry);
+        assertArrayEquals("{\"name\":\"a\"}".getBytes(StandardCharsets.UTF_8), entry.getBody());
+        assertTrue(entry.matches(entry.getEtag()));
+        assertTrue(entry.matches("\"other\", W/" + entry.getEtag()));
+        assertFalse(entry.matches("\"other\""));
+        assertFalse(entry.matches(null));
+
+        // The If-None-Match header is not part of the key.
+        request.addParameterIfAbsent(HEADER_IF_NONE_MATCH, entry.getEtag());
+        assertNotNull(cache.startRequest(request, new StreamingResponse()).getCached());
+
+        // A change to a different House does not affect the entry.
+        cache.messageReceived(updateMessage(testModel.ET_HOUSE, 2L));
+        assertNotNull(cache.startRequest(request, new StreamingResponse()).getCached());
+
+        cache.messageReceived(updateMessage(testModel.ET_HOUSE, 1L));
+        assertNull(cache.startRequest(request, new StreamingResponse()).getCached());
+    }
+
+    @Test
+    void testChangeDuringRequest() throws IOException {
+        ResponseCache cache = new ResponseCache(coreSettings.getHttpSettings());
+        ServiceRequest request = createRequest("/Rooms", null);
+        ResponseCache.Request cacheRequest = cache.startRequest(request, new StreamingResponse());
+        cache.messageReceived(updateMessage(testModel.ET_ROOM, 5L));
+        store(cacheRequest, request, "{}");
+        assertNull(cache.startRequest(request, new StreamingResponse()).getCached());
+    }
+
+    @Test
+    void testLocalChangesInvalidate() throws IOException {
+        ResponseCache cache = new ResponseCache(coreSettings.getHttpSettings());
+        ServiceRequest request = createRequest("/Houses(1)", null);
+        assertNotNull(storeResponse(cache, request, "{}"));
+        cache.localChanges(List.of(updateMessage(testModel.ET_HOUSE, 1L)));
+        assertNull(cache.startRequest(request, new StreamingResponse()).getCached());
+    }
+
+    @Test
+    void testRelatedTypesInvalidate() throws IOException {
+        ResponseCache cache = new ResponseCache(coreSettings.getHttpSettings());
+        ServiceRequest rooms = createRequest("/Rooms", null);
+        ServiceRequest house = createRequest("/Houses(1)", null);
+        assertNotNull(storeResponse(cache, rooms, "{}"));
+        assertNotNull(storeResponse(cache, house, "{}"));
+
+        // A Room is related to Houses, so any House entry is affected.
+        cache.messageReceived(updateMessage(testModel.ET_ROOM, 7L));
+        assertNull(cache.startRequest(rooms, new StreamingResponse()).getCached());
+        assertNull(cache.startRequest(house, new StreamingResponse()).getCached());
+
+        assertNotNull(storeResponse(cache, rooms, "{}"));
+        assertNotNull(storeResponse(cache, house, "{}"));
+        cache.messageReceived(updateMessage(testModel.ET_HOUSE, 2L));
+        assertNull(cache.startRequest(rooms, new StreamingResponse()).getCached());
+        assertNotNull(cache.startRequest(house, new StreamingResponse()).getCached());
+    }
+
+    @Test
+    void testQueryOrderDoesNotMatter() throws IOException {
+        ResponseCache cache = new ResponseCache(coreSettings.getHttpSettings());
+        assertNotNull(storeResponse(cache, createRequest("/Rooms", "$top=2&$skip=1"), "{}"));
+        assertNotNull(cache.startRequest(createRequest("/Rooms", "$skip=1&$top=2&"), new StreamingResponse()).getCached());
+        assertNull(cache.startRequest(createRequest("/Rooms", "$skip=2&$top=2"), new StreamingResponse()).getCached());
+    }
+
+    @Test
+    void testDataHeldBackUntilFinished() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        ResponseCache.CapturingOutputStream out = new ResponseCache.CapturingOutputStream(target, 10);
+        out.write("abc".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        assertEquals(0, target.size());
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), out.getCaptured());
+        out.finish();
+        assertEquals("abc", target.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testTooLargeNotStored() throws IOException {
+        ResponseCache cache = new ResponseCache(coreSettings.getHttpSettings());
+        ServiceRequest request = createRequest("/Rooms", null);
+        ResponseCache.Request cacheRequest = cache.startRequest(request, new StreamingResponse());
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        ResponseCache.CapturingOutputStream out = new ResponseCache.CapturingOutputStream(target, 4);
+        out.write("abc".getBytes(StandardCharsets.UTF_8));
+        out.write("def".getBytes(StandardCharsets.UTF_8));
+        assertEquals("abcdef", target.toString(StandardCharsets.UTF_8));
+        ResourcePath path = PathParser.parsePath(modelRegistry, "", Version.V_1_1, request.getUrlPath());
+        Query query = QueryParser.parseQuery(null, coreSettings.getQueryDefaults(), modelRegistry, path).validate();
+        assertFalse(cacheRequest.store(out, Constants.CONTENT_TYPE_APPLICATION_JSON, path, query));
+        assertNull(cache.startRequest(request, new StreamingResponse()).getCached());
+    }
+
+    @Test
+    void testNotStreaming() {
+        ResponseCache cache = new ResponseCache(coreSettings.getHttpSettings());
+        assertNull(cache.startRequest(createRequest("/Rooms", null), new ServiceResponseDefault()));
+    }
+
+    private void findDependencies(String urlPath, String urlQuery, Set<EntityType> types, Set<ResponseCache.EntityKey> entities) {
+        ResourcePath path = PathParser.parsePath(modelRegistry, "", Version.V_1_1, urlPath);
+        Query query = QueryParser.parseQuery(urlQuery, coreSettings.getQueryDefaults(), modelRegistry, path).validate();
+        ResponseCache.findDependencies(path, query, types, entities);
+    }
+
+    private ServiceRequest createRequest(String urlPath, String urlQuery) {
+        return new ServiceRequest()
+                .setCoreSettings(coreSettings)
+                .setQueryDefaults(coreSettings.getQueryDefaults())
+                .setVersion(Version.V_1_1)
+                .setRequestType(RequestTypeUtils.READ)
+                .setUrlPath(urlPath)
+                .setUrlQuery(urlQuery);
+    }
+
+    private ResponseCache.Entry storeResponse(ResponseCache cache, ServiceRequest request, String body) throws IOException {
+        store(cache.startRequest(request, new StreamingResponse()), request, body);
+        return cache.startRequest(request, new StreamingResponse()).getCached();
+    }
+
+    private void store(ResponseCache.Request cacheRequest, ServiceRequest request, String body) throws IOException {
+        ResourcePath path = PathParser.parsePath(modelRegistry, "", Version.V_1_1, request.getUrlPath());
+        Query query = QueryParser.parseQuery(request.getUrlQuery(), coreSettings.getQueryDefaults(), modelRegistry, path).validate();
+        ResponseCache.CapturingOutputStream out = cacheRequest.wrap(new ByteArrayOutputStream());
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+        cacheRequest.store(out, Constants.CONTENT_TYPE_APPLICATION_JSON, path, query);
+        out.finish();
+    }
+
+    private EntityChangedMessage updateMessage(EntityType type, long id) {
+        return new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.UPDATE)
+                .setEntity(new DefaultEntity(type, PkValue.of(id)))
+                .addEpField(testModel.EP_NAME);
+    }
+
+    private static class StreamingResponse extends ServiceResponseDefault {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+    }
+
+}
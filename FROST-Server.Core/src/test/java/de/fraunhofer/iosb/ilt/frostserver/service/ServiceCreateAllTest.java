@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.fge.jsonpatch.JsonPatch;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntity;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.path.Version;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.PersistenceSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import de.fraunhofer.iosb.ilt.frostserver.util.TestModel;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for Service.executeCreateAll.
+ */
+class ServiceCreateAllTest {
+
+    private static final String FAIL_NAME = "fail";
+
+    /**
+     * The transactions of all RecordingPersistenceManagers, in the order they
+     * ended.
+     */
+    private static final List<Transaction> TRANSACTIONS = Collections.synchronizedList(new ArrayList<>());
+
+    private CoreSettings coreSettings;
+
+    @BeforeEach
+    public void init() {
+        init(RecordingPersistenceManager.class);
+    }
+
+    private void init(Class<? extends PersistenceManager> pmClass) {
+        TRANSACTIONS.clear();
+        Properties properties = new Properties();
+        properties.put(CoreSettings.TAG_SERVICE_ROOT_URL, "http://localhost/");
+        properties.put(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        properties.put(CoreSettings.PREFIX_PERSISTENCE + PersistenceSettings.TAG_IMPLEMENTATION_CLASS, pmClass.getName());
+        properties.put(CoreSettings.PREFIX_PLUGINS + PluginManager.TAG_PROVIDED_PLUGINS, TestModel.class.getName() + "," + PluginManager.VALUE_PROVIDED_PLUGINS);
+        coreSettings = new CoreSettings(properties);
+        TestModel testModel = coreSettings.getPluginManager().getPlugin(TestModel.class);
+        testModel.initModel(coreSettings.getModelRegistry(), Constants.VALUE_ID_TYPE_LONG);
+        coreSettings.getModelRegistry().initFinalise();
+    }
+
+    @Test
+    void testAllSucceedInOneTransaction() {
+        final List<ServiceResponse> responses = createAll("a", "b", "c");
+        assertEquals(List.of(201, 201, 201), codes(responses));
+        assertEquals(1, TRANSACTIONS.size());
+        final Transaction tx = TRANSACTIONS.get(0);
+        assertTrue(tx.committed);
+        assertEquals(List.of("a", "b", "c"), tx.inserted);
+    }
+
+    @Test
+    void testFailedInsertRollsBackBatch() {
+        final List<ServiceResponse> responses = createAll("a", FAIL_NAME, "c");
+        assertEquals(List.of(201, 400, 201), codes(responses));
+
+        // The batch, with the side effects of the failed insert, is rolled back.
+        final Transaction batch = TRANSACTIONS.get(0);
+        assertFalse(batch.committed);
+        assertTrue(batch.inserted.contains(FAIL_NAME));
+
+        // The requests are then executed one by one.
+        final List<Object> committed = new ArrayList<>();
+        for (Transaction tx : TRANSACTIONS.subList(1, TRANSACTIONS.size())) {
+            if (tx.committed) {
+                committed.addAll(tx.inserted);
+            } else {
+                assertEquals(List.of(FAIL_NAME), tx.inserted);
+            }
+        }
+        assertEquals(List.of("a", "c"), committed);
+    }
+
+    @Test
+    void testFailedInsertRollsBackToSavepoint() {
+        init(SavepointPersistenceManager.class);
+        final List<ServiceResponse> responses = createAll("a", FAIL_NAME, "c");
+        assertEquals(List.of(201, 400, 201), codes(responses));
+
+        // Only the failed insert is rolled back, the others are committed in
+        // the same transaction.
+        assertEquals(1, TRANSACTIONS.size());
+        final Transaction tx = TRANSACTIONS.get(0);
+        assertTrue(tx.committed);
+        assertEquals(List.of("a", "c"), tx.inserted);
+    }
+
+    @Test
+    void testQueryParsedPerRequest() {
+        final List<ServiceResponse> responses = createAll(List.of("", "$foo=bar", ""), "a", "b", "c");
+        assertEquals(List.of(201, 400, 201), codes(responses));
+    }
+
+    private List<ServiceResponse> createAll(String... names) {
+        return createAll(Collections.nCopies(names.length, null), names);
+    }
+
+    private List<ServiceResponse> createAll(List<String> queries, String... names) {
+        final List<ServiceRequest> requests = new ArrayList<>();
+        for (int idx = 0; idx < names.length; idx++) {
+            final String name = names[idx];
+            requests.add(new ServiceRequest()
+                    .setCoreSettings(coreSettings)
+                    .setVersion(Version.V_1_1)
+                    .setRequestType(RequestTypeUtils.CREATE)
+                    .setUpdateMode(UpdateMode.INSERT_STA_11)
+                    .setContent("{\"name\":\"" + name + "\"}")
+                    .setUrlPath("/Houses")
+                    .setUrlQuery(queries.get(idx)));
+        }
+        try (Service service = new Service(coreSettings)) {
+            return service.executeCreateAll(requests);
+        }
+    }
+
+    private static List<Integer> codes(List<ServiceResponse> responses) {
+        return responses.stream().map(ServiceResponse::getCode).toList();
+    }
+
+    private static class Transaction {
+
+        private final List<Object> inserted = new ArrayList<>();
+        private boolean committed;
+    }
+
+    /**
+     * A PersistenceManager that records the entities inserted in each
+     * transaction. Inserting an entity with the name "fail" inserts it, as
+     * a side effect that must be rolled back, and then fails.
+     */
+    public static class RecordingPersistenceManager implements PersistenceManager {
+
+        private static final AtomicLong NEXT_ID = new AtomicLong();
+
+        private CoreSettings coreSettings;
+        protected Transaction transaction = new Transaction();
+
+        @Override
+        public boolean validatePath(ResourcePath path) {
+            return true;
+        }
+
+        @Override
+        public boolean insert(Entity entity, UpdateMode updateMode) {
+            final Object name = entity.getProperty(entity.getEntityType().getEntityProperty("name"));
+            transaction.inserted.add(name);
+            if (FAIL_NAME.equals(name)) {
+                throw new IllegalArgumentException("Insert failed.");
+            }
+            entity.setPrimaryKeyValues(PkValue.of(NEXT_ID.incrementAndGet()));
+            return true;
+        }
+
+        @Override
+        public Entity get(EntityType entityType, PkValue id) {
+            return null;
+        }
+
+        @Override
+        public Object get(ResourcePath path, Query query) {
+            return null;
+        }
+
+        @Override
+        public boolean delete(PathElementEntity pathElement) {
+            return true;
+        }
+
+        @Override
+        public void delete(ResourcePath path, Query query) {
+            // Not used.
+        }
+
+        @Override
+        public void deleteRelation(PathElementEntity source, NavigationPropertyMain np, PathElementEntity target) {
+            // Not used.
+        }
+
+        @Override
+        public boolean update(PathElementEntity pathElement, Entity entity, UpdateMode updateMode) {
+            return true;
+        }
+
+        @Override
+        public boolean update(PathElementEntity pathElement, JsonPatch patch) {
+            return true;
+        }
+
+        @Override
+        public List<EntityChangedMessage> getEntityChangedMessages() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public InitResult init(CoreSettings settings) {
+            coreSettings = settings;
+            return InitResult.INIT_OK;
+        }
+
+        @Override
+        public CoreSettings getCoreSettings() {
+            return coreSettings;
+        }
+
+        @Override
+        public void setRole(Principal user) {
+            // Not used.
+        }
+
+        @Override
+        public void commit() {
+            transaction.committed = true;
+            endTransaction();
+        }
+
+        @Override
+        public void rollback() {
+            endTransaction();
+        }
+
+        private void endTransaction() {
+            if (!transaction.inserted.isEmpty()) {
+                TRANSACTIONS.add(transaction);
+            }
+            transaction = new Transaction();
+        }
+
+        @Override
+        public void close() {
+            // Nothing to close.
+        }
+
+    }
+
+    /**
+     * A RecordingPersistenceManager that supports savepoints. Rolling back to
+     * a savepoint forgets the entities inserted after it.
+     */
+    public static final class SavepointPersistenceManager extends RecordingPersistenceManager {
+
+        @Override
+        public Object setSavepoint() {
+            return transaction.inserted.size();
+        }
+
+        @Override
+        public void rollbackToSavepoint(Object savepoint) {
+            final List<Object> inserted = transaction.inserted;
+            inserted.subList((Integer) savepoint, inserted.size()).clear();
+        }
+
+    }
+}
@@ -18,10 +18,15 @@
 package de.fraunhofer.iosb.ilt.frostserver.settings;
 
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_MAX_IN_FLIGHT;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_MESSAGE_FORMAT;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_MQTT_BROKER;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_PARTITIONS;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_PARTITION_COUNT;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_QOS_LEVEL;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_RECV_QUEUE_SIZE;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_RECV_WORKER_COUNT;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SEND_BATCH_SIZE;
+import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SEND_LINGER_MS;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SEND_QUEUE_SIZE;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_SEND_WORKER_COUNT;
 import static de.fraunhofer.iosb.ilt.frostserver.messagebus.MqttMessageBus.TAG_TOPIC_NAME;
@@ -149,6 +154,11 @@ class ConfigDefaultsTest {
         tags.add(TAG_MAX_IN_FLIGHT);
         tags.add(TAG_MQTT_BROKER);
         tags.add(TAG_TOPIC_NAME);
+        tags.add(TAG_MESSAGE_FORMAT);
+        tags.add(TAG_SEND_BATCH_SIZE);
+        tags.add(TAG_SEND_LINGER_MS);
+        tags.add(TAG_PARTITION_COUNT);
+        tags.add(TAG_PARTITIONS);
         assertEquals(tags, b.configTags());
 
     }
@@ -256,6 +266,11 @@ class ConfigDefaultsTest {
         tags.add(TAG_MAX_IN_FLIGHT);
         tags.add(TAG_MQTT_BROKER);
         tags.add(TAG_TOPIC_NAME);
+        tags.add(TAG_MESSAGE_FORMAT);
+        tags.add(TAG_SEND_BATCH_SIZE);
+        tags.add(TAG_SEND_LINGER_MS);
+        tags.add(TAG_PARTITION_COUNT);
+        tags.add(TAG_PARTITIONS);
         assertEquals(tags, ConfigUtils.getConfigTags(c));
     }
 
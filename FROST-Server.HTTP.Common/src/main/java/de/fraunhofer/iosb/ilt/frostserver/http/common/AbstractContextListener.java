@@ -123,6 +123,7 @@ public abstract class AbstractContextListener implements ServletContextListener
         if (coreSettings == null) {
             return;
         }
+        coreSettings.getPluginManager().stopPlugins();
         final MessageBus messageBus = coreSettings.getMessageBus();
         if (messageBus != null) {
             messageBus.stop();
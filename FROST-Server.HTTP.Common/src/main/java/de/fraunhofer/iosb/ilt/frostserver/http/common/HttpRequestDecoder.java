@@ -18,6 +18,8 @@
 package de.fraunhofer.iosb.ilt.frostserver.http.common;
 
 import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ACCEPT;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_ACCEPT_ENCODING;
+import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_IF_NONE_MATCH;
 import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.HEADER_PREFER;
 
 import de.fraunhofer.iosb.ilt.frostserver.path.UrlHelper;
@@ -143,6 +145,8 @@ public class HttpRequestDecoder extends ConfigProvider<HttpRequestDecoder> {
         final Map<String, List<String>> parameterMap = UrlHelper.splitQuery(request.getQueryString());
         decodeAccepHeader(request, parameterMap);
         decodePreferHeader(request, parameterMap);
+        decodeIfNoneMatchHeader(request, parameterMap);
+        decodeAcceptEncodingHeader(request, parameterMap);
 
         final ServiceRequest serviceRequest = new ServiceRequest()
                 .setCoreSettings(coreSettings)
@@ -232,6 +236,20 @@ public class HttpRequestDecoder extends ConfigProvider<HttpRequestDecoder> {
         }
     }
 
+    private static void decodeIfNoneMatchHeader(HttpServletRequest request, final Map<String, List<String>> parameterMap) {
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            parameterMap.putIfAbsent(HEADER_IF_NONE_MATCH, Arrays.asList(ifNoneMatch));
+        }
+    }
+
+    private static void decodeAcceptEncodingHeader(HttpServletRequest request, final Map<String, List<String>> parameterMap) {
+        String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+        if (acceptEncoding != null) {
+            parameterMap.putIfAbsent(HEADER_ACCEPT_ENCODING, Arrays.asList(acceptEncoding));
+        }
+    }
+
     private static void decodePreferHeader(HttpServletRequest request, final Map<String, List<String>> parameterMap) {
         LinkedHashMap<String, String> prefer = new LinkedHashMap<>();
         for (Enumeration<String> en = request.getHeaders(HEADER_PREFER); en.hasMoreElements();) {
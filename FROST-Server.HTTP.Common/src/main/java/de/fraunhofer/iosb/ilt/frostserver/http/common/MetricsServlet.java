@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.http.common;
+
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_CORE_SETTINGS;
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.TAG_METRICS_TOKEN;
+
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Serves the metrics of the server in the Prometheus text format, when
+ * enabled with {@code metrics.enable}. If {@code metrics.bearerToken} is set,
+ * requests must send that token in the Authorization header. If not, only
+ * requests from the local host are served.
+ *
+ * @author hylke
+ */
+@WebServlet(name = "Metrics", urlPatterns = {"/metrics"})
+public class MetricsServlet extends HttpServlet {
+
+    private static final String DESCRIPTION = "Metrics in the Prometheus text format.";
+    private static final String BEARER = "Bearer ";
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final CoreSettings coreSettings = (CoreSettings) request.getServletContext().getAttribute(TAG_CORE_SETTINGS);
+        if (coreSettings == null || !coreSettings.getMetrics().isEnabled()) {
+            response.sendError(404);
+            return;
+        }
+        final ServerMetrics metrics = coreSettings.getMetrics();
+        final String token = coreSettings.getSettings().get(TAG_METRICS_TOKEN, CoreSettings.class);
+        if (token.isEmpty()) {
+            if (!isLocal(request.getRemoteAddr())) {
+                response.sendError(403);
+                return;
+            }
+        } else if (!hasToken(request.getHeader("Authorization"), token)) {
+            response.setHeader("WWW-Authenticate", "Bearer");
+            response.sendError(401);
+            return;
+        }
+        response.setContentType(ServerMetrics.CONTENT_TYPE);
+        try (OutputStream out = response.getOutputStream()) {
+            metrics.write(out);
+        }
+    }
+
+    private static boolean isLocal(String remoteAddr) {
+        try {
+            return remoteAddr != null && InetAddress.getByName(remoteAddr).isLoopbackAddress();
+        } catch (UnknownHostException ex) {
+            return false;
+        }
+    }
+
+    private static boolean hasToken(String authorization, String token) {
+        if (authorization == null || !authorization.startsWith(BEARER)) {
+            return false;
+        }
+        final byte[] given = authorization.substring(BEARER.length()).trim().getBytes(StandardCharsets.UTF_8);
+        return MessageDigest.isEqual(given, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String getServletInfo() {
+        return DESCRIPTION;
+    }
+
+}
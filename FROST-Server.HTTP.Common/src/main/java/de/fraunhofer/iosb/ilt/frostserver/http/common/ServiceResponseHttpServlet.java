@@ -20,6 +20,7 @@ package de.fraunhofer.iosb.ilt.frostserver.http.common;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponse;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -145,6 +146,16 @@ public class ServiceResponseHttpServlet implements ServiceResponse {
         }
     }
 
+    @Override
+    public OutputStream getOutputStream() {
+        try {
+            return httpResponse.getOutputStream();
+        } catch (IOException | IllegalStateException ex) {
+            LOGGER.debug("Failed to get OutputStream, using Writer", ex);
+            return null;
+        }
+    }
+
     @Override
     public boolean isSuccessful() {
         return code >= 200 && code < 300;
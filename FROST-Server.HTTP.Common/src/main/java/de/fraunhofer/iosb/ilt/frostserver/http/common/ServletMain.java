@@ -112,10 +112,11 @@ public class ServletMain extends HttpServlet {
             final ServiceResponseHttpServlet serviceResponse = new ServiceResponseHttpServlet(response);
             plugin.execute(service, serviceRequest, serviceResponse);
             sendResponse(serviceResponse, response);
-            ServiceRequest.removeLocalRequest();
         } catch (Exception exc) {
             LOGGER.error("", exc);
             sendResponse(new ServiceResponseHttpServlet(response, 500, exc.getMessage()), response);
+        } finally {
+            ServiceRequest.removeLocalRequest();
         }
     }
 
@@ -123,7 +124,7 @@ public class ServletMain extends HttpServlet {
         try {
             if (!serviceResponse.isSuccessful() && !StringHelper.isNullOrEmpty(serviceResponse.getMessage())) {
                 httpResponse.setStatus(serviceResponse.getCode());
-                httpResponse.getWriter().write(serviceResponse.getMessage());
+                writeMessage(httpResponse, serviceResponse.getMessage());
             }
         } catch (IOException ex) {
             LOGGER.error("Error writing HTTP result", ex);
@@ -131,6 +132,15 @@ public class ServletMain extends HttpServlet {
         }
     }
 
+    private static void writeMessage(HttpServletResponse httpResponse, String message) throws IOException {
+        try {
+            httpResponse.getWriter().write(message);
+        } catch (IllegalStateException exc) {
+            // The result was being written to the OutputStream when the error happened.
+            httpResponse.getOutputStream().write(message.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) {
         processRequest(request, response);
@@ -219,7 +219,7 @@ public class AuthWrapper implements IAuthenticator, IAuthorizatorPolicy {
         try {
             String internalTopic = URLDecoder.decode(topic, StringHelper.UTF8.name());
             ResourcePath path = PathParser.parsePath(
-                    coreSettings.getModelRegistry(),
+                    coreSettings,
                     coreSettings.getQueryDefaults().getServiceRootUrl(),
                     version,
                     internalTopic,
@@ -50,12 +50,12 @@ import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
 import io.netty.handler.codec.mqtt.MqttQoS;
 import java.io.IOException;
 import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.swing.event.EventListenerList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -101,7 +101,11 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
     protected EventListenerList subscriptionListeners = new EventListenerList();
     protected EventListenerList entityCreateListeners = new EventListenerList();
     private CoreSettings settings;
-    private final Map<String, List<String>> clientSubscriptions = new HashMap<>();
+    /**
+     * The topics each client subscribed to. Changed from the threads of the
+     * MQTT server, so both the map and the lists are concurrent.
+     */
+    private final Map<String, List<String>> clientSubscriptions = new ConcurrentHashMap<>();
     private AuthWrapper authWrapper;
 
     /**
@@ -267,7 +271,7 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
                 return;
             }
             LOGGER.trace("      Client connected: {}", clientId);
-            clientSubscriptions.put(clientId, new ArrayList<>());
+            clientSubscriptions.put(clientId, new CopyOnWriteArrayList<>());
         }
 
         @Override
@@ -277,11 +281,10 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
                 return;
             }
             LOGGER.trace("      Client disconnected: {}", clientId);
-            clientSubscriptions
-                    .getOrDefault(clientId, new ArrayList<>())
-                    .stream()
-                    .forEach(subscribedTopic -> fireUnsubscribe(new SubscriptionEvent(subscribedTopic)));
-            clientSubscriptions.remove(clientId);
+            final List<String> subscribedTopics = clientSubscriptions.remove(clientId);
+            if (subscribedTopics != null) {
+                subscribedTopics.forEach(subscribedTopic -> fireUnsubscribe(new SubscriptionEvent(subscribedTopic)));
+            }
         }
 
         @Override
@@ -293,7 +296,7 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
             final String topicFilter = msg.getTopicFilter();
             LOGGER.trace("      Client {} subscribed to {}", clientId, topicFilter);
             clientSubscriptions
-                    .computeIfAbsent(clientId, t -> new ArrayList<>())
+                    .computeIfAbsent(clientId, t -> new CopyOnWriteArrayList<>())
                     .add(topicFilter);
             fireSubscribe(new SubscriptionEvent(topicFilter));
         }
@@ -306,8 +309,8 @@ public class MoquetteMqttServer implements MqttServer, ConfigDefaults {
             }
             final String topicFilter = msg.getTopicFilter();
             LOGGER.trace("      Client {} unsubscribed from {}", clientId, topicFilter);
-            boolean removed = clientSubscriptions.getOrDefault(clientId, new ArrayList<>())
-                    .remove(topicFilter);
+            final List<String> subscribedTopics = clientSubscriptions.get(clientId);
+            boolean removed = subscribedTopics != null && subscribedTopics.remove(topicFilter);
             if (removed) {
                 fireUnsubscribe(new SubscriptionEvent(topicFilter));
             }
@@ -82,6 +82,7 @@ public class FrostMqttServer {
             LOGGER.trace("Already shutting down.", ex);
         }
         mqttManager.shutdown();
+        coreSettings.getPluginManager().stopPlugins();
         coreSettings.getMessageBus().stop();
         try {
             Thread.sleep(3000L);
@@ -25,7 +25,12 @@ import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.DataSize;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.QueryState;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.service.RequestTiming;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import org.jooq.Cursor;
 import org.jooq.Record;
@@ -121,7 +126,10 @@ public class EntitySetJooqCurser implements EntitySet {
 
     @Override
     public boolean isEmpty() {
-        return !results.hasNext();
+        if (iterator == null) {
+            return !results.hasNext();
+        }
+        return !iterator.hasNext();
     }
 
     @Override
@@ -133,9 +141,15 @@ public class EntitySetJooqCurser implements EntitySet {
         throw new IllegalStateException("EntitySetJooqCurser can only be iterated once.");
     }
 
+    /**
+     * Iterates over the cursor. Entities are fetched from the cursor in
+     * batches of up to expandBatchSize, so that the expands of a batch can be
+     * loaded together.
+     */
     private static class CursorIterator implements Iterator<Entity> {
 
         private final EntitySetJooqCurser parent;
+        private final Deque<Entity> buffer = new ArrayDeque<>();
 
         public CursorIterator(EntitySetJooqCurser parent) {
             this.parent = parent;
@@ -143,30 +157,53 @@ public class EntitySetJooqCurser implements EntitySet {
 
         @Override
         public boolean hasNext() {
-            return parent.results.hasNext() && parent.maxFetch > parent.fetchedCount;
+            return !buffer.isEmpty() || (parent.results.hasNext() && parent.maxFetch > parent.fetchedCount);
         }
 
         @Override
         public Entity next() {
-            if (!hasNext()) {
-                throw new NoSuchElementException("Cursor is closed or empty.");
+            if (buffer.isEmpty()) {
+                fillBuffer();
             }
-            parent.fetchedCount++;
-            final Entity entity = fetchNext();
-            if (parent.size.isExceeded()) {
-                LOGGER.debug("Size limit reached: {} > {}.", parent.size.getDataSize(), parent.size.getMaxSize());
-                parent.maxFetch = parent.fetchedCount;
-                generateNextLinkAndClose(entity);
-            } else if (parent.fetchedCount >= parent.maxFetch) {
-                generateNextLinkAndClose(entity);
+            if (buffer.isEmpty()) {
+                throw new NoSuchElementException("Cursor is closed or empty.");
             }
-            parent.resultBuilder.expandEntity(entity, parent.staQuery);
+            final Entity entity = buffer.poll();
             if (parent.first == null) {
                 parent.first = entity;
             }
             return entity;
         }
 
+        private void fillBuffer() {
+            final int batchSize = parent.resultBuilder.getExpandBatchSize();
+            final List<Entity> batch = new ArrayList<>(Math.min(batchSize, parent.maxFetch));
+            final RequestTiming timing = RequestTiming.current();
+            final long start = timing.start(RequestTiming.Phase.LOAD);
+            while (batch.size() < batchSize && parent.results.hasNext() && parent.maxFetch > parent.fetchedCount) {
+                parent.fetchedCount++;
+                final Entity entity = fetchNext();
+                batch.add(entity);
+                if (parent.size.isExceeded()) {
+                    LOGGER.debug("Size limit reached: {} > {}.", parent.size.getDataSize(), parent.size.getMaxSize());
+                    parent.maxFetch = parent.fetchedCount;
+                    generateNextLinkAndClose(entity);
+                } else if (parent.fetchedCount >= parent.maxFetch) {
+                    generateNextLinkAndClose(entity);
+                }
+            }
+            timing.end(RequestTiming.Phase.LOAD, start);
+            timing.addRows(batch.size());
+            parent.resultBuilder.expandEntities(batch, parent.staQuery);
+            if (!batch.isEmpty() && !parent.results.isClosed() && parent.size.isExceeded()) {
+                // The expands of the batch pushed the size over the limit.
+                LOGGER.debug("Size limit reached after expand: {} > {}.", parent.size.getDataSize(), parent.size.getMaxSize());
+                parent.maxFetch = parent.fetchedCount;
+                generateNextLinkAndClose(batch.get(batch.size() - 1));
+            }
+            buffer.addAll(batch);
+        }
+
         private Entity fetchNext() {
             final Record tuple = parent.results.fetchNext();
             return parent.queryState.entityFromRecord(tuple, parent.size, parent.staQuery);
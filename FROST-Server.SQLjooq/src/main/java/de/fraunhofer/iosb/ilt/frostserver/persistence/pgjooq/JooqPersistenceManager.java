@@ -37,6 +37,7 @@ import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.UpgradeFailedException;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.List;
 import java.util.Map;
 import org.jooq.DSLContext;
 import org.jooq.DataType;
@@ -57,6 +58,8 @@ public interface JooqPersistenceManager extends LiquibaseUser, PersistenceManage
 
     Entity doInsert(Entity entity, UpdateMode updateMode) throws NoSuchEntityException, IncompleteEntityException;
 
+    List<Entity> doInsertAll(List<Entity> entities, UpdateMode updateMode, List<Exception> failures);
+
     EntityChangedMessage doUpdate(PathElementEntity pathElement, Entity entity, UpdateMode updateMode) throws NoSuchEntityException, IncompleteEntityException;
 
     EntityChangedMessage doUpdate(PathElementEntity pathElement, JsonPatch patch) throws NoSuchEntityException, IncompleteEntityException;
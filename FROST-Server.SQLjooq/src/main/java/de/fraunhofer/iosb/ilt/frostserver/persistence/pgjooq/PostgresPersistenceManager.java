@@ -45,12 +45,14 @@ import de.fraunhofer.iosb.ilt.frostserver.model.loader.DefNavigationProperty;
 import de.fraunhofer.iosb.ilt.frostserver.model.loader.DefPmHook;
 import de.fraunhofer.iosb.ilt.frostserver.model.loader.PmHook;
 import de.fraunhofer.iosb.ilt.frostserver.model.loader.PropertyPersistenceMapper;
+import de.fraunhofer.iosb.ilt.frostserver.parser.ParseTreeCache;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntity;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.AbstractPersistenceManager;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.EntityFactories;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.ExistenceCache;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.HookPostDelete;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.HookPostInsert;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.HookPostUpdate;
@@ -70,6 +72,7 @@ import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.LiquibaseHelp
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.PropertyFieldRegistry;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.fieldmapper.FieldMapper;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.HookValidator;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.SecurityDecisionCache;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.SecurityTableWrapper;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
 import de.fraunhofer.iosb.ilt.frostserver.property.Property;
@@ -91,7 +94,9 @@ import java.io.Writer;
 import java.security.Principal;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -164,7 +169,12 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
     private DataSize dataSize;
 
     private static TableCollection getTableCollection(CoreSettings settings) {
-        return tableCollections.computeIfAbsent(settings, t -> new TableCollection().setModelRegistry(t.getModelRegistry()));
+        return tableCollections.computeIfAbsent(settings, t -> new TableCollection()
+                .setModelRegistry(t.getModelRegistry())
+                .setExistenceCache(new ExistenceCache(t.getPersistenceSettings()))
+                .setSecurityDecisionCache(new SecurityDecisionCache(t.getPersistenceSettings()))
+                .setSqlTemplateCache(new ParseTreeCache<>(t.getPersistenceSettings().getSqlCacheSize()))
+                .setJsonPassThrough(t.getPersistenceSettings().isJsonPassThrough()));
     }
 
     @Override
@@ -180,7 +190,7 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
         } else {
             connectionName = connectionUrl;
         }
-        connectionProvider = new ConnectionWrapper(customSettings, connectionName);
+        connectionProvider = new ConnectionWrapper(customSettings, connectionName, settings.getMetrics());
         entityFactories = new EntityFactories(settings.getModelRegistry(), tableCollection);
         dataSize = new DataSize(settings.getDataSizeMax());
         schemaPriority = customSettings.get(TAG_DB_SCHEMA_PRIORITY, ConnectionUtils.class);
@@ -340,6 +350,20 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
         return table.insertIntoDatabase(this, entity, updateMode, dataSize);
     }
 
+    @Override
+    public List<Entity> doInsertAll(List<Entity> entities, UpdateMode updateMode, List<Exception> failures) {
+        if (entities.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final EntityType entityType = entities.get(0).getEntityType();
+        if (entities.stream().anyMatch(e -> e.getEntityType() != entityType)) {
+            return super.doInsertAll(entities, updateMode, failures);
+        }
+        init();
+        StaMainTable<?> table = getTableCollection().getTableForType(entityType);
+        return table.insertIntoDatabase(this, entities, updateMode, dataSize, failures);
+    }
+
     @Override
     public EntityChangedMessage doUpdate(PathElementEntity pathElement, Entity entity, UpdateMode updateMode) throws NoSuchEntityException, IncompleteEntityException {
         init();
@@ -423,6 +447,7 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
             throw new NoSuchEntityException("Source entity not found: " + target.getEntityType() + "(" + target.getPkValues() + ")");
         }
         relation.unLink(this, sourceEntity, targetEntity, np);
+        entityFactories.relationDeleted(source.getEntityType(), target.getEntityType());
     }
 
     @Override
@@ -446,9 +471,16 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
         Delete sqlDelete = psb.buildDelete((PathElementEntitySet) path.getLastElement());
 
         long rowCount = sqlDelete.execute();
+        entityFactories.entitiesDeleted(path.getMainElementType(), null);
+        entityFactories.securityRelevantChange(path.getMainElementType(), false);
         LOGGER.debug("Deleted {} rows using query {}", rowCount, sqlDelete);
     }
 
+    @Override
+    public void setReadOnly(boolean readOnly) {
+        connectionProvider.setReadOnly(readOnly);
+    }
+
     @Override
     public void setRole(Principal user) {
         if (settings.getPersistenceSettings().isTransactionRole()) {
@@ -460,16 +492,50 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
 
     @Override
     protected boolean doCommit() {
-        return connectionProvider.commit();
+        final boolean committed = connectionProvider.commit();
+        if (committed) {
+            entityFactories.transactionCommitted();
+        }
+        return committed;
     }
 
     @Override
     protected boolean doRollback() {
+        entityFactories.transactionEnded();
         return connectionProvider.rollback();
     }
 
+    @Override
+    protected Object doSetSavepoint() {
+        try {
+            return connectionProvider.setSavepoint();
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Failed to set savepoint.", ex);
+        }
+    }
+
+    @Override
+    protected void doRollbackToSavepoint(Object savepoint) {
+        entityFactories.savepointRolledBack();
+        try {
+            connectionProvider.rollback((Savepoint) savepoint);
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Failed to roll back to savepoint.", ex);
+        }
+    }
+
+    @Override
+    protected void doReleaseSavepoint(Object savepoint) {
+        try {
+            connectionProvider.releaseSavepoint((Savepoint) savepoint);
+        } catch (SQLException ex) {
+            throw new IllegalStateException("Failed to release savepoint.", ex);
+        }
+    }
+
     @Override
     protected boolean doClose() {
+        entityFactories.transactionEnded();
         try {
             connectionProvider.close();
             return true;
@@ -549,7 +615,7 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
         LOGGER.info("Checking for upgrades in {}", liquibaseChangelogFilename);
         try {
             final Settings customSettings = persistenceSettings.getCustomSettings();
-            final Connection connection = ConnectionUtils.getConnection(connectionName, customSettings);
+            final Connection connection = ConnectionUtils.getConnection(connectionName, customSettings, settings.getMetrics());
             return LiquibaseHelper.checkForUpgrades(connection, liquibaseChangelogFilename, params);
         } catch (SQLException ex) {
             LOGGER.error("Could not initialise database.", ex);
@@ -565,7 +631,7 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
         final Settings customSettings = persistenceSettings.getCustomSettings();
         final Connection connection;
         try {
-            connection = ConnectionUtils.getConnection(connectionName, customSettings);
+            connection = ConnectionUtils.getConnection(connectionName, customSettings, settings.getMetrics());
         } catch (SQLException ex) {
             LOGGER.error("Could not initialise database.", ex);
             out.append("Failed to initialise database:\n");
@@ -596,6 +662,11 @@ public class PostgresPersistenceManager extends AbstractPersistenceManager imple
         }
     }
 
+    @Override
+    public boolean hasSecurityWrappers() {
+        return tableCollection.hasSecurityWrappers();
+    }
+
     private void loadMapping() {
         final List<DefModel> modelDefinitions = tableCollection.getModelDefinitions();
         if (modelDefinitions.isEmpty()) {
@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq;
 
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.parser.ParseTreeCache;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElement;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementArrayIndex;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementCustomProperty;
@@ -31,6 +32,7 @@ import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePathVisitor;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables.StaMainTable;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables.TableCollection;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.QueryState;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.SqlTemplate;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.TableRef;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationProperty;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
@@ -40,6 +42,7 @@ import de.fraunhofer.iosb.ilt.frostserver.query.Expand;
 import de.fraunhofer.iosb.ilt.frostserver.query.OrderBy;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -55,9 +58,12 @@ import org.jooq.OrderField;
 import org.jooq.Record;
 import org.jooq.Record1;
 import org.jooq.ResultQuery;
+import org.jooq.RowN;
 import org.jooq.SelectConditionStep;
+import org.jooq.SelectField;
 import org.jooq.SelectIntoStep;
 import org.jooq.SelectSelectStep;
+import org.jooq.Table;
 import org.jooq.conf.ParamType;
 import org.jooq.impl.DSL;
 import org.jooq.impl.SQLDataType;
@@ -88,6 +94,14 @@ public class QueryBuilder implements ResourcePathVisitor {
     public static final String ALIAS_PREFIX = "e";
     public static final String DEFAULT_PREFIX = QueryBuilder.ALIAS_PREFIX + "0";
 
+    /**
+     * The names used in batched expand queries.
+     */
+    private static final String BATCH_TABLE = "_BATCH";
+    private static final String BATCH_FIELD_PREFIX = "_F";
+    private static final String BATCH_PARENT_PREFIX = "_P";
+    private static final String BATCH_ROW_NUMBER = "_RN";
+
     private final JooqPersistenceManager pm;
     private final TableCollection tableCollection;
     private Query staQuery;
@@ -105,6 +119,10 @@ public class QueryBuilder implements ResourcePathVisitor {
     private boolean forUpdate = false;
     private boolean parsed = false;
 
+    private PathElementEntity batchParent;
+    private List<PkValue> batchParentIds;
+    private List<Field> batchParentPkFields;
+
     private QueryState<?> queryState;
 
     public QueryBuilder(JooqPersistenceManager pm) {
@@ -168,6 +186,48 @@ public class QueryBuilder implements ResourcePathVisitor {
         return limit;
     }
 
+    /**
+     * Build the select for a path and query, re-using the rendered SQL of an
+     * earlier select for the same path and query. The select is built and
+     * rendered the first time, after that only the data needed to read the
+     * results is gathered. Literals in the path and query are part of the
+     * cache key, so only requests for exactly the same path and query share a
+     * template.
+     *
+     * Security wrappers can add conditions that depend on the user, so the
+     * cache is not used if any are installed. Batch selects and selects for
+     * update are not cached either.
+     *
+     * @return the select query.
+     */
+    public ResultQuery<Record> buildCachedSelect() {
+        final ParseTreeCache<SqlTemplate> cache = tableCollection.getSqlTemplateCache();
+        if (cache == null
+                || !forPath
+                || staQuery == null
+                || forUpdate
+                || batchParent != null
+                || tableCollection.hasSecurityWrappers()) {
+            return buildSelect();
+        }
+        gatherData();
+        final SqlTemplate template = cache.get(templateKey(), key -> SqlTemplate.of(buildSelect()));
+        return template.toQuery(pm.getDslContext(), queryState.getSqlSelectFields());
+    }
+
+    private String templateKey() {
+        final StringBuilder key = new StringBuilder(requestedPath.toString())
+                .append('?')
+                .append(staQuery.toString())
+                .append("&$top=")
+                .append(staQuery.getTopOrDefault());
+        final Expression skipFilter = staQuery.getSkipFilter();
+        if (skipFilter != null) {
+            key.append("&$skipFilter=").append(skipFilter.toUrl());
+        }
+        return key.toString();
+    }
+
     /**
      * Build a count query.
      *
@@ -226,6 +286,89 @@ public class QueryBuilder implements ResourcePathVisitor {
         return query;
     }
 
+    /**
+     * The result of building a batched select.
+     */
+    public static final class BatchSelectResult {
+
+        /**
+         * The query to run.
+         */
+        public final ResultQuery<Record> query;
+        /**
+         * The fields of the normal select, in the order in which they appear
+         * in the records of the query.
+         */
+        public final List<Field> selectFields;
+        /**
+         * The number of primary key fields of the parent, directly following
+         * the normal select fields.
+         */
+        public final int parentPkSize;
+
+        public BatchSelectResult(ResultQuery<Record> query, List<Field> selectFields, int parentPkSize) {
+            this.query = query;
+            this.selectFields = selectFields;
+            this.parentPkSize = parentPkSize;
+        }
+
+    }
+
+    /**
+     * Build a select that fetches the requested set for all parents given in
+     * {@link #forBatchParents(PathElementEntity, List)} in one query. The
+     * $top, $skip and $orderby of the query are applied per parent, using a
+     * row_number window partitioned by the parent primary key. The records
+     * contain the normal select fields, followed by the primary key fields of
+     * the parent and the row number.
+     *
+     * @return the batched query, or null if the query can not be batched.
+     */
+    public BatchSelectResult buildBatchSelect() {
+        gatherData();
+        if (batchParentPkFields == null
+                || staQuery == null
+                || staQuery.isSelectDistinct()
+                || staQuery.getSkipFilter() != null
+                || queryState.isDistinctRequired()) {
+            return null;
+        }
+        final List<Field> selectFields = new ArrayList<>(queryState.getSqlSelectFields());
+        final List<SelectField<?>> innerFields = new ArrayList<>();
+        for (int idx = 0; idx < selectFields.size(); idx++) {
+            innerFields.add(selectFields.get(idx).as(BATCH_FIELD_PREFIX + idx));
+        }
+        for (int idx = 0; idx < batchParentPkFields.size(); idx++) {
+            innerFields.add(batchParentPkFields.get(idx).as(BATCH_PARENT_PREFIX + idx));
+        }
+        final var sortFields = queryState.getSqlSortFields().getSqlSortFields();
+        innerFields.add(DSL.rowNumber()
+                .over(DSL.partitionBy(batchParentPkFields).orderBy(sortFields.toArray(OrderField[]::new)))
+                .as(BATCH_ROW_NUMBER));
+
+        final DSLContext dslContext = pm.getDslContext();
+        final Table<Record> inner = dslContext.select(innerFields)
+                .from(queryState.getSqlFrom())
+                .where(queryState.getFullSqlWhere())
+                .asTable(BATCH_TABLE);
+        final Field<Integer> rowNumber = inner.field(BATCH_ROW_NUMBER, Integer.class);
+        final List<OrderField<?>> outerOrder = new ArrayList<>();
+        for (int idx = 0; idx < batchParentPkFields.size(); idx++) {
+            outerOrder.add(inner.field(BATCH_PARENT_PREFIX + idx));
+        }
+        outerOrder.add(rowNumber);
+        final int skip = staQuery.getSkip(0);
+        final int count = staQuery.getTopOrDefault() + 1;
+        final ResultQuery<Record> query = dslContext.select(inner.fields())
+                .from(inner)
+                .where(rowNumber.gt(skip).and(rowNumber.le(skip + count)))
+                .orderBy(outerOrder);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace(GENERATED_SQL, query.getSQL(ParamType.INDEXED));
+        }
+        return new BatchSelectResult(query, selectFields, batchParentPkFields.size());
+    }
+
     public static final class CountSampleResult {
 
         public final ResultQuery<Record> countQuery;
@@ -322,6 +465,22 @@ public class QueryBuilder implements ResourcePathVisitor {
         return this;
     }
 
+    /**
+     * Batch the query over multiple parents. The given parent must be an
+     * element without primary key in the path given to
+     * {@link #forPath(ResourcePath)}. The parent is restricted to the given
+     * primary key values instead.
+     *
+     * @param parent The path element of the parent, without primary key.
+     * @param parentIds The primary key values of the parents to fetch for.
+     * @return this.
+     */
+    public QueryBuilder forBatchParents(PathElementEntity parent, List<PkValue> parentIds) {
+        this.batchParent = parent;
+        this.batchParentIds = parentIds;
+        return this;
+    }
+
     public QueryBuilder forUpdate(boolean forUpdate) {
         this.forUpdate = forUpdate;
         return this;
@@ -344,6 +503,10 @@ public class QueryBuilder implements ResourcePathVisitor {
             if (forTypeAndId) {
                 parseTypeAndId();
             }
+            if (batchParent != null) {
+                // The path joins give exactly one row per parent-child pair.
+                queryState.setDistinctRequired(false);
+            }
 
             // Joins created when generating the path should not be merged with
             // joins generated for the filter or orderby.
@@ -509,12 +672,36 @@ public class QueryBuilder implements ResourcePathVisitor {
                 where = where.and(lastId.get(idx).eq(targetId.get(idx)));
             }
             queryState.setSqlWhere(queryState.getSqlWhere().and(where));
+        } else if (pe == batchParent) {
+            batchParentPkFields = new ArrayList<>(result.getTable().getPkFields());
+            result.getJoinEqual(batchParentPkFields);
+            queryState.setSqlWhere(queryState.getSqlWhere().and(createParentCondition()));
         }
 
         lastNavProp = pe.getNavigationProperty();
         return result;
     }
 
+    private Condition createParentCondition() {
+        final int pkSize = batchParentPkFields.size();
+        if (pkSize == 1) {
+            final List<Object> values = new ArrayList<>(batchParentIds.size());
+            for (PkValue parentId : batchParentIds) {
+                values.add(parentId.get(0));
+            }
+            return batchParentPkFields.get(0).in(values);
+        }
+        final List<RowN> rows = new ArrayList<>(batchParentIds.size());
+        for (PkValue parentId : batchParentIds) {
+            final Field[] values = new Field[pkSize];
+            for (int idx = 0; idx < pkSize; idx++) {
+                values[idx] = DSL.val(parentId.get(idx), batchParentPkFields.get(idx));
+            }
+            rows.add(DSL.row(values));
+        }
+        return DSL.row(batchParentPkFields).in(rows);
+    }
+
     public TableCollection getTableCollection() {
         return tableCollection;
     }
@@ -18,6 +18,7 @@
 package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq;
 
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
 import de.fraunhofer.iosb.ilt.frostserver.model.ComplexValue;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
@@ -33,6 +34,7 @@ import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementProperty;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePathVisitor;
+import de.fraunhofer.iosb.ilt.frostserver.path.UrlHelper;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.DataSize;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.QueryState;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationProperty;
@@ -42,13 +44,20 @@ import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain.Naviga
 import de.fraunhofer.iosb.ilt.frostserver.query.Expand;
 import de.fraunhofer.iosb.ilt.frostserver.query.Metadata;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.service.RequestTiming;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.PersistenceSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.PersistenceSettings.CountMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.jooq.Cursor;
+import org.jooq.Field;
 import org.jooq.Record;
 import org.jooq.Record1;
 import org.jooq.Result;
@@ -73,6 +82,7 @@ public class ResultBuilder implements ResourcePathVisitor {
 
     private final JooqPersistenceManager pm;
     private final PersistenceSettings persistenceSettings;
+    private final ServerMetrics metrics;
     private final ResourcePath path;
     private final Query staQuery;
     private final QueryBuilder sqlQueryBuilder;
@@ -81,6 +91,7 @@ public class ResultBuilder implements ResourcePathVisitor {
     private final DataSize dataSize;
     private final int estimateTreshold;
     private final CountMode countMode;
+    private final int expandBatchSize;
 
     private Object resultObject;
     /**
@@ -103,13 +114,18 @@ public class ResultBuilder implements ResourcePathVisitor {
         this.path = path;
         this.staQuery = query;
         this.sqlQueryBuilder = sqlQueryBuilder;
-        this.sqlQuery = sqlQueryBuilder.buildSelect();
+        final RequestTiming timing = RequestTiming.current();
+        final long start = timing.start(RequestTiming.Phase.BUILD);
+        this.sqlQuery = sqlQueryBuilder.buildCachedSelect();
+        timing.end(RequestTiming.Phase.BUILD, start);
         this.dataSize = dataSize;
         final CoreSettings coreSettings = pm.getCoreSettings();
         this.persistenceSettings = coreSettings.getPersistenceSettings();
+        this.metrics = coreSettings.getMetrics();
         this.customLinksHelper = coreSettings.getCustomLinksHelper();
         countMode = persistenceSettings.getCountMode();
         estimateTreshold = persistenceSettings.getEstimateCountThreshold();
+        expandBatchSize = persistenceSettings.getExpandBatchSize();
     }
 
     public Object getEntity() {
@@ -138,9 +154,25 @@ public class ResultBuilder implements ResourcePathVisitor {
         return dataSize;
     }
 
+    /**
+     * The maximum number of entities of which the expands are loaded
+     * together.
+     *
+     * @return The expand batch size, at least 1.
+     */
+    public int getExpandBatchSize() {
+        return Math.max(1, expandBatchSize);
+    }
+
     @Override
     public void visit(PathElementEntity element) {
+        final RequestTiming timing = RequestTiming.current();
+        timing.addQuery(() -> sqlQuery.getSQL(ParamType.INDEXED));
+        final long start = timing.start(RequestTiming.Phase.SQL);
+        final long metricStart = System.nanoTime();
         Result<Record> results = sqlQuery.fetch();
+        metrics.persistenceDuration(ServerMetrics.KIND_SELECT).record(System.nanoTime() - metricStart, TimeUnit.NANOSECONDS);
+        timing.end(RequestTiming.Phase.SQL, start);
         if (results.size() > 1) {
             throw new IllegalStateException("Expecting an element, yet more than 1 result. Got " + results.size() + " results.");
         }
@@ -149,10 +181,13 @@ public class ResultBuilder implements ResourcePathVisitor {
         }
 
         QueryState<?> queryState = sqlQueryBuilder.getQueryState();
+        final long loadStart = timing.start(RequestTiming.Phase.LOAD);
         Entity entity = queryState.entityFromRecord(
                 results.get(0),
                 new DataSize(pm.getCoreSettings().getDataSizeMax()),
                 staQuery);
+        timing.end(RequestTiming.Phase.LOAD, loadStart);
+        timing.addRows(1);
 
         if (entity == null) {
             throw new IllegalStateException("Failed to create an entity from result set.");
@@ -162,43 +197,99 @@ public class ResultBuilder implements ResourcePathVisitor {
     }
 
     public void expandEntity(Entity entity, Query query) {
-        if (query == null) {
+        expandEntities(Collections.singletonList(entity), query);
+    }
+
+    /**
+     * Expand the given entities, that were all loaded using the given query.
+     * Set-valued expands are loaded for all the given entities at once, if
+     * batching is enabled.
+     *
+     * @param entities The entities to expand.
+     * @param query The query the entities were loaded with.
+     */
+    public void expandEntities(List<Entity> entities, Query query) {
+        if (query == null || entities.isEmpty()) {
             return;
         }
         if (query.getMetadata() == Metadata.FULL) {
-            customLinksHelper.expandCustomLinks(query, entity, path);
+            for (Entity entity : entities) {
+                customLinksHelper.expandCustomLinks(query, entity, path);
+            }
+        }
+        if (query.getExpand().isEmpty()) {
+            return;
         }
-        for (Expand expand : query.getExpand()) {
-            addExpandToEntity(entity, expand);
+        final RequestTiming timing = RequestTiming.current();
+        final long start = timing.start(RequestTiming.Phase.EXPAND);
+        try {
+            for (Expand expand : query.getExpand()) {
+                addExpandToEntities(entities, expand);
+            }
+        } finally {
+            timing.end(RequestTiming.Phase.EXPAND, start);
         }
     }
 
-    private void addExpandToEntity(Entity entity, Expand expand) {
-        NavigationProperty firstNp = expand.getPath();
-        NavigableElement existing = null;
-        Object o = entity.getProperty(firstNp);
-        if (o instanceof NavigableElement navigableElement) {
-            existing = navigableElement;
-        } else if (firstNp instanceof NavigationPropertyCustom firstNpCust) {
-            PkValue id = firstNpCust.getTargetIdFrom(entity);
-            if (id == null) {
-                return;
-            }
-            existing = loadEntity(firstNp.getEntityType(), id, expand);
-            if (existing == null) {
-                return;
+    private void addExpandToEntities(List<Entity> entities, Expand expand) {
+        final NavigationProperty firstNp = expand.getPath();
+        final Query subQuery = expand.getSubQuery();
+        final boolean batchable = expandBatchSize > 1
+                && firstNp instanceof NavigationPropertyEntitySet
+                && isBatchable(subQuery);
+        final List<Entity> toLoad = new ArrayList<>();
+        final List<Entity> toExpand = new ArrayList<>();
+        for (Entity entity : entities) {
+            final Object existing = entity.getProperty(firstNp);
+            if (existing instanceof NavigableElement navigableElement && !navigableElement.isEmpty()) {
+                if (existing instanceof EntitySet subEntitySet) {
+                    expandEntitySet(subEntitySet, subQuery);
+                } else if (existing instanceof Entity subEntity) {
+                    toExpand.add(subEntity);
+                }
+            } else if (!(existing instanceof NavigableElement) && firstNp instanceof NavigationPropertyCustom firstNpCust) {
+                final Entity linked = loadCustomLinked(entity, firstNpCust, expand);
+                if (linked != null) {
+                    toExpand.add(linked);
+                }
+            } else if (batchable) {
+                toLoad.add(entity);
+            } else {
+                createExpandedElement(entity, firstNp, subQuery);
             }
-            firstNpCust.setElementOn(entity, existing);
         }
+        for (int start = 0; start < toLoad.size(); start += expandBatchSize) {
+            final int end = Math.min(start + expandBatchSize, toLoad.size());
+            loadExpandBatch(toLoad.subList(start, end), (NavigationPropertyEntitySet) firstNp, subQuery, toExpand);
+        }
+        expandEntities(toExpand, subQuery);
+    }
 
-        Query subQuery = expand.getSubQuery();
-        if (existing == null || existing.isEmpty()) {
-            createExpandedElement(entity, firstNp, subQuery);
-        } else if (existing instanceof EntitySet subEntitySet) {
-            expandEntitySet(subEntitySet, subQuery);
-        } else if (existing instanceof Entity subEntity) {
-            expandEntity(subEntity, subQuery);
+    /**
+     * Loads the entity that the given custom link points to, and sets it on
+     * the given entity.
+     *
+     * @param entity The entity holding the custom link.
+     * @param firstNpCust The custom navigation property to follow.
+     * @param expand The expand to load the linked entity with.
+     * @return The linked entity, or null if there is no (valid) link.
+     */
+    private Entity loadCustomLinked(Entity entity, NavigationPropertyCustom firstNpCust, Expand expand) {
+        final PkValue id = firstNpCust.getTargetIdFrom(entity);
+        if (id == null) {
+            return null;
+        }
+        final Entity linked = loadEntity(firstNpCust.getEntityType(), id, expand);
+        if (linked != null) {
+            firstNpCust.setElementOn(entity, linked);
         }
+        return linked;
+    }
+
+    private static boolean isBatchable(Query subQuery) {
+        return subQuery != null
+                && subQuery.getTopOrDefault() > 0
+                && !subQuery.isCountOrDefault();
     }
 
     private Entity loadEntity(EntityType type, PkValue pkValues, Expand expand) {
@@ -210,9 +301,9 @@ public class ResultBuilder implements ResourcePathVisitor {
         return null;
     }
 
-    private void createExpandedElement(Entity entity, NavigationProperty firstNp, Query subQuery) {
-        PathElementEntitySet parentCollection = new PathElementEntitySet(entity.getEntityType());
-        PathElementEntity parent = new PathElementEntity(entity.getPrimaryKeyValues(), entity.getEntityType(), parentCollection);
+    private ResourcePath createExpandPath(EntityType parentType, PkValue parentPk, NavigationProperty firstNp) {
+        PathElementEntitySet parentCollection = new PathElementEntitySet(parentType);
+        PathElementEntity parent = new PathElementEntity(parentPk, parentType, parentCollection);
         ResourcePath ePath = new ResourcePath(path.getServiceRootUrl(), path.getVersion(), null);
         ePath.addPathElement(parentCollection, false, false);
         ePath.addPathElement(parent, false, true);
@@ -229,51 +320,133 @@ public class ResultBuilder implements ResourcePathVisitor {
             }
             ePath.addPathElement(childPe, true, false);
         }
+        return ePath;
+    }
+
+    private void createExpandedElement(Entity entity, NavigationProperty firstNp, Query subQuery) {
+        ResourcePath ePath = createExpandPath(entity.getEntityType(), entity.getPrimaryKeyValues(), firstNp);
         Object child = pm.get(ePath, subQuery);
         entity.setProperty(firstNp, child);
     }
 
+    /**
+     * Loads the set-valued expand for all given parents in one query, and sets
+     * the resulting sets on the parents. The loaded entities are added to
+     * loaded, so they can be expanded further.
+     *
+     * @param parents The parents to load the expand for, all of the same type.
+     * @param firstNp The navigation property to expand.
+     * @param subQuery The query to use for the expanded sets.
+     * @param loaded The list to add the loaded entities to.
+     */
+    private void loadExpandBatch(List<Entity> parents, NavigationPropertyEntitySet firstNp, Query subQuery, List<Entity> loaded) {
+        if (parents.size() == 1) {
+            createExpandedElement(parents.get(0), firstNp, subQuery);
+            return;
+        }
+        final EntityType parentType = parents.get(0).getEntityType();
+        final ResourcePath ePath = createExpandPath(parentType, null, firstNp);
+        final PathElementEntity parentElement = (PathElementEntity) ePath.get(1);
+        final Map<PkValue, List<Entity>> parentsByPk = new LinkedHashMap<>();
+        for (Entity parent : parents) {
+            parentsByPk.computeIfAbsent(parent.getPrimaryKeyValues(), pk -> new ArrayList<>()).add(parent);
+        }
+        final QueryBuilder batchQueryBuilder = new QueryBuilder(pm)
+                .forPath(ePath)
+                .forBatchParents(parentElement, new ArrayList<>(parentsByPk.keySet()))
+                .usingQuery(subQuery);
+        final QueryBuilder.BatchSelectResult batchSelect = batchQueryBuilder.buildBatchSelect();
+        if (batchSelect == null) {
+            for (Entity parent : parents) {
+                createExpandedElement(parent, firstNp, subQuery);
+            }
+            return;
+        }
+
+        final QueryState<?> queryState = batchQueryBuilder.getQueryState();
+        final int top = subQuery.getTopOrDefault();
+        final int fieldCount = batchSelect.selectFields.size();
+        final Field[] selectFields = batchSelect.selectFields.toArray(Field[]::new);
+        final Map<PkValue, EntitySet> sets = new HashMap<>();
+        final Map<PkValue, Entity> lastEntities = new HashMap<>();
+        try (Cursor<Record> results = timeQuery(batchSelect.query, ServerMetrics.KIND_SELECT)) {
+            for (Record batchRecord : results) {
+                final Object[] values = batchRecord.intoArray();
+                final PkValue parentPk = new PkValue(Arrays.copyOfRange(values, fieldCount, fieldCount + batchSelect.parentPkSize));
+                final Record childRecord = pm.getDslContext().newRecord(selectFields);
+                childRecord.fromArray(Arrays.copyOf(values, fieldCount));
+                final Entity child = queryState.entityFromRecord(childRecord, dataSize, subQuery);
+                final EntitySet set = sets.computeIfAbsent(parentPk, pk -> new EntitySetImpl(firstNp));
+                final int rowNumber = ((Number) values[values.length - 1]).intValue() - subQuery.getSkip(0);
+                if (rowNumber > top) {
+                    final ResourcePath parentPath = createExpandPath(parentType, parentPk, firstNp);
+                    set.setNextLink(UrlHelper.generateNextLink(parentPath, subQuery, top, lastEntities.get(parentPk), child));
+                } else {
+                    set.add(child);
+                    lastEntities.put(parentPk, child);
+                    loaded.add(child);
+                }
+            }
+        }
+        for (Map.Entry<PkValue, List<Entity>> entry : parentsByPk.entrySet()) {
+            final EntitySet set = sets.computeIfAbsent(entry.getKey(), pk -> new EntitySetImpl(firstNp));
+            for (Entity parent : entry.getValue()) {
+                parent.setProperty(firstNp, set);
+            }
+        }
+    }
+
     private void expandEntitySet(EntitySet entitySet, Query subQuery) {
         for (Entity subEntity : entitySet) {
             expandEntity(subEntity, subQuery);
         }
     }
 
-    private <R extends Record> Cursor<R> timeQuery(ResultQuery<R> query) {
+    private <R extends Record> Cursor<R> timeQuery(ResultQuery<R> query, String kind) {
         if (persistenceSettings.isTimeoutQueries()) {
             query.queryTimeout(persistenceSettings.getQueryTimeout());
         }
-        if (!persistenceSettings.isLogSlowQueries()) {
+        final boolean logSlow = persistenceSettings.isLogSlowQueries();
+        final RequestTiming timing = RequestTiming.current();
+        if (!logSlow && !metrics.isEnabled() && !timing.isEnabled()) {
             return query.fetchLazy();
         }
-        long start = System.currentTimeMillis();
+        timing.addQuery(() -> query.getSQL(ParamType.INDEXED));
+        final long phaseStart = timing.start(RequestTiming.Phase.SQL);
+        long start = System.nanoTime();
         Cursor<R> result;
         try {
             result = query.fetchLazy();
         } catch (DataAccessException exc) {
+            if (!logSlow) {
+                throw exc;
+            }
             if (LOGGER.isWarnEnabled()) {
                 LOGGER.info("Failed to run query:\n{}", query.getSQL(ParamType.INLINED));
             }
             throw new IllegalStateException("Failed to run query: " + exc.getMessage());
+        } finally {
+            timing.end(RequestTiming.Phase.SQL, phaseStart);
         }
-        long end = System.currentTimeMillis();
-        long duration = end - start;
-        if (LOGGER.isInfoEnabled() && duration > persistenceSettings.getSlowQueryThreshold()) {
+        long durationNanos = System.nanoTime() - start;
+        metrics.persistenceDuration(kind).record(durationNanos, TimeUnit.NANOSECONDS);
+        long duration = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        if (logSlow && LOGGER.isInfoEnabled() && duration > persistenceSettings.getSlowQueryThreshold()) {
             LOGGER.info("Slow Query executed in {} ms:\n{}", duration, query.getSQL(ParamType.INLINED));
         }
         return result;
     }
 
     private int timeCountQueryRecord(ResultQuery<Record> query) {
-        try (Cursor<Record> countCursor = timeQuery(query)) {
+        try (Cursor<Record> countCursor = timeQuery(query, ServerMetrics.KIND_ESTIMATE)) {
             return countCursor
                     .fetchNext()
                     .get(0, Integer.class);
         }
     }
 
-    private int timeCountQuery(ResultQuery<Record1<Integer>> query) {
-        try (Cursor<Record1<Integer>> countCursor = timeQuery(query)) {
+    private int timeCountQuery(ResultQuery<Record1<Integer>> query, String kind) {
+        try (Cursor<Record1<Integer>> countCursor = timeQuery(query, kind)) {
             return countCursor
                     .fetchNext()
                     .component1();
@@ -284,7 +457,7 @@ public class ResultBuilder implements ResourcePathVisitor {
     public void visit(PathElementEntitySet element) {
         final EntitySet entitySet;
         if (staQuery.getTopOrDefault() > 0) {
-            final Cursor<Record> results = timeQuery(sqlQuery);
+            final Cursor<Record> results = timeQuery(sqlQuery, ServerMetrics.KIND_SELECT);
             entitySet = sqlQueryBuilder
                     .getQueryState()
                     .createSetFromRecords(results, this);
@@ -303,16 +476,16 @@ public class ResultBuilder implements ResourcePathVisitor {
 
     private void fetchAndAddCount(EntitySet entitySet) {
         if (LOGGER.isTraceEnabled()) {
-            final int estimate = timeCountQuery(sqlQueryBuilder.buildEstimateCountExplain());
+            final int estimate = timeCountQuery(sqlQueryBuilder.buildEstimateCountExplain(), ServerMetrics.KIND_ESTIMATE);
             final int sample = timeCountQueryRecord(sqlQueryBuilder.buildEstimateCountSample().countQuery) * 100;
-            final int limit = timeCountQuery(sqlQueryBuilder.buildCount(estimateTreshold));
-            final int full = timeCountQuery(sqlQueryBuilder.buildCount());
+            final int limit = timeCountQuery(sqlQueryBuilder.buildCount(estimateTreshold), ServerMetrics.KIND_COUNT);
+            final int full = timeCountQuery(sqlQueryBuilder.buildCount(), ServerMetrics.KIND_COUNT);
             LOGGER.trace("Estimate: {}, Sample: {}, Limit: {}, Full: {}", estimate, sample, limit, full);
         }
         if (staQuery.isCountOrDefault()) {
             switch (countMode) {
                 case FULL:
-                    entitySet.setCount(timeCountQuery(sqlQueryBuilder.buildCount()));
+                    entitySet.setCount(timeCountQuery(sqlQueryBuilder.buildCount(), ServerMetrics.KIND_COUNT));
                     return;
 
                 case LIMIT_ESTIMATE:
@@ -342,7 +515,7 @@ public class ResultBuilder implements ResourcePathVisitor {
         final var csr = sqlQueryBuilder.buildEstimateCountSample();
         final int estimate = (int) (timeCountQueryRecord(csr.countQuery) * Math.pow(100, csr.sampledTables));
         if (estimate < estimateTreshold) {
-            final int count = timeCountQuery(sqlQueryBuilder.buildCount());
+            final int count = timeCountQuery(sqlQueryBuilder.buildCount(), ServerMetrics.KIND_COUNT);
             entitySet.setCount(count);
             LOGGER.debug(ESTIMATE_COUNT, estimate, count);
         } else {
@@ -351,7 +524,7 @@ public class ResultBuilder implements ResourcePathVisitor {
     }
 
     public void countLimitSample(EntitySet entitySet) {
-        final int count = timeCountQuery(sqlQueryBuilder.buildCount(estimateTreshold));
+        final int count = timeCountQuery(sqlQueryBuilder.buildCount(estimateTreshold), ServerMetrics.KIND_COUNT);
         if (count < estimateTreshold) {
             entitySet.setCount(count);
         } else {
@@ -363,9 +536,9 @@ public class ResultBuilder implements ResourcePathVisitor {
     }
 
     public void countEstimateLimit(EntitySet entitySet) {
-        final int estimate = timeCountQuery(sqlQueryBuilder.buildEstimateCountExplain());
+        final int estimate = timeCountQuery(sqlQueryBuilder.buildEstimateCountExplain(), ServerMetrics.KIND_ESTIMATE);
         if (estimate < estimateTreshold) {
-            final int count = timeCountQuery(sqlQueryBuilder.buildCount(estimateTreshold));
+            final int count = timeCountQuery(sqlQueryBuilder.buildCount(estimateTreshold), ServerMetrics.KIND_COUNT);
             entitySet.setCount(count);
             LOGGER.debug(ESTIMATE_COUNT, estimate, count);
         } else {
@@ -374,11 +547,11 @@ public class ResultBuilder implements ResourcePathVisitor {
     }
 
     public void countLimitEstimate(EntitySet entitySet) {
-        final int count = timeCountQuery(sqlQueryBuilder.buildCount(estimateTreshold));
+        final int count = timeCountQuery(sqlQueryBuilder.buildCount(estimateTreshold), ServerMetrics.KIND_COUNT);
         if (count < estimateTreshold) {
             entitySet.setCount(count);
         } else {
-            final int estimate = timeCountQuery(sqlQueryBuilder.buildEstimateCountExplain());
+            final int estimate = timeCountQuery(sqlQueryBuilder.buildEstimateCountExplain(), ServerMetrics.KIND_ESTIMATE);
             entitySet.setCount(Math.max(count, estimate));
             LOGGER.debug(ESTIMATE_COUNT, estimate, count);
         }
@@ -20,6 +20,7 @@ package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.bindings;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.Utils;
+import de.fraunhofer.iosb.ilt.frostserver.util.RawJsonMap;
 import java.util.Map;
 
 /**
@@ -57,10 +58,39 @@ public class JsonValue {
         return value;
     }
 
+    /**
+     * Get the value. If passThrough is true, and the value is a JSON object
+     * that has not been parsed yet, a lazily parsed {@link RawJsonMap} is
+     * returned.
+     *
+     * @param passThrough Flag indicating a RawJsonMap may be returned.
+     * @return The value.
+     */
+    public Object getValue(boolean passThrough) {
+        if (passThrough && value == null && RawJsonMap.isJsonObject(stringValue)) {
+            return new RawJsonMap(stringValue);
+        }
+        return getValue();
+    }
+
     public Map<String, Object> getMapValue() {
         return Utils.jsonToObject(stringValue, Utils.TYPE_SORTED_MAP_STRING_OBJECT);
     }
 
+    /**
+     * Get the value as a Map. If passThrough is true, and the value is a JSON
+     * object, a lazily parsed {@link RawJsonMap} is returned.
+     *
+     * @param passThrough Flag indicating a RawJsonMap may be returned.
+     * @return The value as a Map.
+     */
+    public Map<String, Object> getMapValue(boolean passThrough) {
+        if (passThrough && RawJsonMap.isJsonObject(stringValue)) {
+            return new RawJsonMap(stringValue);
+        }
+        return getMapValue();
+    }
+
     public <T> T getValue(TypeReference<T> typeReference) {
         return Utils.jsonToObject(stringValue, typeReference);
     }
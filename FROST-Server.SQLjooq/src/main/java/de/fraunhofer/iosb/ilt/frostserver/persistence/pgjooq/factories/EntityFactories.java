@@ -36,13 +36,17 @@ import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.bindings.JsonValue;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables.StaMainTable;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables.TableCollection;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.Utils;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.SecurityDecisionCache;
 import de.fraunhofer.iosb.ilt.frostserver.service.UpdateMode;
 import de.fraunhofer.iosb.ilt.frostserver.util.SimpleJsonMapper;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import net.time4j.Moment;
 import net.time4j.range.MomentInterval;
 import org.geojson.Crs;
@@ -82,11 +86,39 @@ public class EntityFactories {
 
     private final ModelRegistry modelRegistry;
     private final TableCollection tableCollection;
+    private final ExistenceCache existenceCache;
+    /**
+     * The entities that were found to exist in the current transaction. These
+     * are added to the shared cache when the transaction is committed.
+     */
+    private final Set<ExistenceCache.Key> existingInTransaction = new HashSet<>();
+    /**
+     * The generation of the shared cache when the first entity in
+     * existingInTransaction was checked.
+     */
+    private long existenceCacheGeneration;
+    private final SecurityDecisionCache securityDecisionCache;
+    /**
+     * The positive security decisions made in the current transaction. These
+     * are added to the shared cache when the transaction is committed.
+     */
+    private final Set<SecurityDecisionCache.Key> decisionsInTransaction = new HashSet<>();
+    /**
+     * The generation of the shared cache when the first decision in
+     * decisionsInTransaction was made.
+     */
+    private long securityDecisionCacheGeneration;
+    /**
+     * The actions to run when the current transaction ends, either committed
+     * or not.
+     */
+    private final List<Runnable> transactionEndActions = new ArrayList<>();
 
     public EntityFactories(ModelRegistry modelRegistry, TableCollection tableCollection) {
         this.modelRegistry = modelRegistry;
         this.tableCollection = tableCollection;
-
+        this.existenceCache = tableCollection.getExistenceCache();
+        this.securityDecisionCache = tableCollection.getSecurityDecisionCache();
     }
 
     public ModelRegistry getModelRegistry() {
@@ -167,6 +199,14 @@ public class EntityFactories {
 
     public boolean entityExists(JooqPersistenceManager pm, EntityType type, PkValue entityId, boolean admin) {
         StaMainTable<?> table = tableCollection.getTableForType(type);
+        // Only checks that are not filtered for the user can be cached.
+        final boolean cacheable = existenceCache != null
+                && (admin || table.getSecurityWrapper() == null)
+                && existenceCache.isUsable(pm.getCoreSettings());
+        final ExistenceCache.Key key = cacheable ? new ExistenceCache.Key(type, entityId) : null;
+        if (cacheable && (existingInTransaction.contains(key) || existenceCache.contains(key))) {
+            return true;
+        }
         if (!admin) {
             table = table.asSecure("t", pm);
         }
@@ -188,10 +228,166 @@ public class EntityFactories {
         if (count > 1) {
             LOGGER.error("More than one instance of {} with id {}.", type, entityId);
         }
+        if (cacheable && count > 0) {
+            if (existingInTransaction.isEmpty()) {
+                existenceCacheGeneration = existenceCache.getGeneration();
+            }
+            existingInTransaction.add(key);
+        }
         return count > 0;
 
     }
 
+    /**
+     * Removes deleted entities from the existence cache, both for the current
+     * transaction and the shared cache. Clears both if the delete may have
+     * cascaded to other entities.
+     *
+     * @param type The type of the deleted entities.
+     * @param pk The primary key of the deleted entity, or null if it is not
+     * known which entities of the type were deleted.
+     */
+    public void entitiesDeleted(EntityType type, PkValue pk) {
+        if (existenceCache == null) {
+            existingInTransaction.clear();
+            return;
+        }
+        if (existenceCache.deleteMayCascade(type)) {
+            existingInTransaction.clear();
+        } else if (pk == null) {
+            existingInTransaction.removeIf(key -> key.type() == type);
+        } else {
+            existingInTransaction.remove(new ExistenceCache.Key(type, pk));
+        }
+        existenceCache.deleted(type, pk);
+    }
+
+    /**
+     * Moves the entities that were found to exist in the current transaction
+     * to the shared existence cache, and runs the transaction end actions.
+     */
+    public void transactionCommitted() {
+        if (existenceCache != null && !existingInTransaction.isEmpty()) {
+            existenceCache.addAll(existingInTransaction, existenceCacheGeneration);
+        }
+        existingInTransaction.clear();
+        if (securityDecisionCache != null && !decisionsInTransaction.isEmpty()) {
+            securityDecisionCache.addAll(decisionsInTransaction, securityDecisionCacheGeneration);
+        }
+        decisionsInTransaction.clear();
+        runTransactionEndActions();
+    }
+
+    /**
+     * Forgets the entities that were found to exist, and the security decisions
+     * made, in the current transaction, without adding them to the shared
+     * caches, and runs the transaction end actions.
+     */
+    public void transactionEnded() {
+        existingInTransaction.clear();
+        decisionsInTransaction.clear();
+        runTransactionEndActions();
+    }
+
+    /**
+     * Forgets the entities that were found to exist, and the security decisions
+     * made, in the current transaction, since some of them may be about
+     * entities that were rolled back to a savepoint. The transaction goes on.
+     */
+    public void savepointRolledBack() {
+        existingInTransaction.clear();
+        decisionsInTransaction.clear();
+    }
+
+    /**
+     * Registers an action to run once, when the current transaction ends,
+     * either by a commit or by a rollback.
+     *
+     * @param action The action to run.
+     */
+    public void onTransactionEnd(Runnable action) {
+        transactionEndActions.add(action);
+    }
+
+    private void runTransactionEndActions() {
+        if (transactionEndActions.isEmpty()) {
+            return;
+        }
+        final List<Runnable> actions = new ArrayList<>(transactionEndActions);
+        transactionEndActions.clear();
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    /**
+     * The cache of positive security decisions, if it can be used.
+     *
+     * @param pm The PersistenceManager to get the settings from.
+     * @return The security decision cache, or null if it can not be used.
+     */
+    public SecurityDecisionCache getSecurityDecisionCache(JooqPersistenceManager pm) {
+        if (securityDecisionCache != null && securityDecisionCache.isUsable(pm.getCoreSettings())) {
+            return securityDecisionCache;
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a positive security decision was made for the given key,
+     * either in the current transaction or in an earlier one.
+     *
+     * @param key The key of the decision.
+     * @return true if the decision is known to be positive.
+     */
+    public boolean isSecurityDecisionCached(SecurityDecisionCache.Key key) {
+        return decisionsInTransaction.contains(key)
+                || (securityDecisionCache != null && securityDecisionCache.contains(key));
+    }
+
+    /**
+     * Remember a positive security decision. It is added to the shared cache
+     * when the current transaction is committed.
+     *
+     * @param key The key of the decision.
+     */
+    public void addSecurityDecision(SecurityDecisionCache.Key key) {
+        if (securityDecisionCache == null) {
+            return;
+        }
+        if (decisionsInTransaction.isEmpty()) {
+            securityDecisionCacheGeneration = securityDecisionCache.getGeneration();
+        }
+        decisionsInTransaction.add(key);
+    }
+
+    /**
+     * Clears the security decisions, both for the current transaction and the
+     * shared cache, if a change to an entity of the given type may change them.
+     *
+     * @param type The type of the changed entity.
+     * @param created Flag indicating the entity was newly created.
+     */
+    public void securityRelevantChange(EntityType type, boolean created) {
+        if (securityDecisionCache != null && securityDecisionCache.isAffectedBy(type, created)) {
+            decisionsInTransaction.clear();
+            securityDecisionCache.clear();
+        }
+    }
+
+    /**
+     * Clears the security decisions that may depend on a link between the
+     * given types. Unlinking does not send a change message, so the shared
+     * cache is cleared directly.
+     *
+     * @param sourceType The type of the source of the removed link.
+     * @param targetType The type of the target of the removed link.
+     */
+    public void relationDeleted(EntityType sourceType, EntityType targetType) {
+        securityRelevantChange(sourceType, false);
+        securityRelevantChange(targetType, false);
+    }
+
     public boolean entityExists(JooqPersistenceManager pm, Entity e, boolean admin) {
         if (e == null || !e.primaryKeyFullySet()) {
             return false;
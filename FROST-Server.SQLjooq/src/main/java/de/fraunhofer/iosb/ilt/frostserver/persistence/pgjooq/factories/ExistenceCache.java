@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.PersistenceSettings;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which entities are known to exist, so that the existence checks of
+ * entities in the path and of linked entities do not need a query each time.
+ *
+ * Only existence checks that are not filtered by security rules can use this
+ * cache. Entities are only added after the transaction that saw them has been
+ * committed, and only if the cache has not been cleared in the meantime.
+ * Entries expire after a configured time. Deletes, both local ones and those
+ * received from the message bus, remove the deleted entity. When the deleted
+ * entity type has relations that may cascade the delete to other entities,
+ * the whole cache is cleared instead.
+ *
+ * @author hylke
+ */
+public class ExistenceCache implements MessageListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExistenceCache.class.getName());
+
+    private final int maxSize;
+    private final long maxAgeMillis;
+    private final boolean enabled;
+    private final Map<Key, Long> expiryByKey = new ConcurrentHashMap<>();
+    private final Map<EntityType, Boolean> cascadingByType = new ConcurrentHashMap<>();
+    private volatile long generation;
+    private volatile boolean listening;
+
+    public ExistenceCache(PersistenceSettings settings) {
+        maxSize = settings.getExistenceCacheSize();
+        maxAgeMillis = settings.getExistenceCacheMaxAge() * 1000L;
+        // With a transaction role the database itself may filter entities per user.
+        enabled = maxSize > 0 && maxAgeMillis > 0 && !settings.isTransactionRole();
+    }
+
+    /**
+     * Checks if the cache can be used. The cache is only used once it is
+     * registered with the message bus, so that deletes on other instances are
+     * seen.
+     *
+     * @param settings The settings to get the message bus from.
+     * @return true if the cache can be used.
+     */
+    public boolean isUsable(CoreSettings settings) {
+        if (!enabled) {
+            return false;
+        }
+        if (!listening) {
+            registerListener(settings);
+        }
+        return listening;
+    }
+
+    private synchronized void registerListener(CoreSettings settings) {
+        if (listening) {
+            return;
+        }
+        final MessageBus messageBus = settings.getMessageBus();
+        if (messageBus == null) {
+            return;
+        }
+        messageBus.addMessageListener(this);
+        listening = true;
+    }
+
+    /**
+     * The generation of the cache. This changes each time the cache is
+     * cleared.
+     *
+     * @return The current generation of the cache.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public boolean contains(Key key) {
+        final Long expiry = expiryByKey.get(key);
+        if (expiry == null) {
+            return false;
+        }
+        if (expiry < System.currentTimeMillis()) {
+            expiryByKey.remove(key, expiry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add the given keys to the cache, if the cache has not been cleared since
+     * the given generation.
+     *
+     * @param keys The keys of the entities that are known to exist.
+     * @param sinceGeneration The generation of the cache when the first of the
+     * entities was checked.
+     */
+    public synchronized void addAll(Set<Key> keys, long sinceGeneration) {
+        if (sinceGeneration != generation) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (expiryByKey.size() + keys.size() > maxSize) {
+            expiryByKey.values().removeIf(expiry -> expiry < now);
+            if (expiryByKey.size() + keys.size() > maxSize) {
+                LOGGER.debug("Existence cache full, clearing.");
+                expiryByKey.clear();
+            }
+        }
+        final Long expiry = now + maxAgeMillis;
+        for (Key key : keys) {
+            expiryByKey.put(key, expiry);
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        expiryByKey.clear();
+    }
+
+    /**
+     * Removes deleted entities from the cache. If the delete of the given type
+     * may cascade to other entities, the whole cache is cleared.
+     *
+     * @param type The type of the deleted entities.
+     * @param pk The primary key of the deleted entity, or null if it is not
+     * known which entities of the type were deleted.
+     */
+    public synchronized void deleted(EntityType type, PkValue pk) {
+        if (deleteMayCascade(type)) {
+            clear();
+            return;
+        }
+        // Transactions that saw the entity before the delete must not re-add it.
+        generation++;
+        if (pk == null) {
+            expiryByKey.keySet().removeIf(key -> key.type() == type);
+        } else {
+            expiryByKey.remove(new Key(type, pk));
+        }
+    }
+
+    /**
+     * Checks if deleting an entity of the given type may delete other
+     * entities. This is the case when other entities may refer to it: when the
+     * type has a navigation property to a set, or a navigation property to a
+     * single entity that has a single entity as inverse.
+     *
+     * @param type The entity type to check.
+     * @return true if a delete of the given type may cascade.
+     */
+    public boolean deleteMayCascade(EntityType type) {
+        return cascadingByType.computeIfAbsent(type, ExistenceCache::findCascading);
+    }
+
+    private static boolean findCascading(EntityType type) {
+        for (NavigationPropertyMain<?> np : type.getNavigationProperties()) {
+            if (np.isEntitySet()) {
+                return true;
+            }
+            final NavigationPropertyMain<?> inverse = np.getInverse();
+            if (inverse != null && !inverse.isEntitySet()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        if (message.getEventType() == EntityChangedMessage.Type.DELETE) {
+            final Entity entity = message.getEntity();
+            deleted(message.getEntityType(), entity == null ? null : entity.getPrimaryKeyValues());
+        }
+    }
+
+    @Override
+    public boolean needsAllPartitions() {
+        return true;
+    }
+
+    /**
+     * The key of an entity in the cache.
+     *
+     * @param type The type of the entity.
+     * @param pk The primary key of the entity.
+     */
+    public static record Key(EntityType type, PkValue pk) {
+    }
+
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.messagebus;
+
+import static de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings.PREFIX_BUS;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.JsonReaderDefault;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.JsonWriter;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.TransactionalMessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManagerFactory;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
+import de.fraunhofer.iosb.ilt.frostserver.util.ChangingStatusLogger;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.InsertValuesStep2;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.Record3;
+import org.jooq.Result;
+import org.jooq.Table;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A message bus that writes the messages to an outbox table, in the same
+ * database transaction as the changes they describe. A pool of publishers
+ * claims the messages from the outbox in batches, hands them to a delivery
+ * bus, and removes them from the outbox once the delivery bus has accepted
+ * them.
+ *
+ * Messages are delivered at least once: if the delivery bus fails, or the
+ * server stops before a batch is removed from the outbox, the batch is
+ * delivered again. When the delivery bus can not keep up, messages wait in
+ * the database, not in memory.
+ *
+ * The delivery bus is the InternalMessageBus when all components run in the
+ * same JVM, or the MqttMessageBus when they do not. The delivery bus is
+ * configured with the same bus settings as this bus. Multiple instances can
+ * share the same outbox, each batch is only claimed by one publisher.
+ *
+ * Messages are delivered in the order they were committed, as long as a
+ * single publisher delivers them. With more publishers, or multiple
+ * instances, batches are delivered in parallel.
+ *
+ * @author hylke
+ */
+public class OutboxMessageBus implements TransactionalMessageBus, ConfigDefaults {
+
+    @DefaultValue("de.fraunhofer.iosb.ilt.frostserver.messagebus.InternalMessageBus")
+    public static final String TAG_DELIVERY_BUS = "outboxDeliveryBus";
+    @DefaultValueInt(1)
+    public static final String TAG_PUBLISHER_COUNT = "outboxPublisherPoolSize";
+    @DefaultValueInt(500)
+    public static final String TAG_BATCH_SIZE = "outboxBatchSize";
+    @DefaultValueInt(20)
+    public static final String TAG_LINGER_MS = "outboxLingerMs";
+    @DefaultValueInt(1000)
+    public static final String TAG_POLL_INTERVAL_MS = "outboxPollIntervalMs";
+
+    public static final String TABLE_NAME = "FROST_OUTBOX";
+
+    /**
+     * The logger for this class.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutboxMessageBus.class);
+
+    /**
+     * The maximum number of rows to insert with a single statement.
+     */
+    private static final int INSERT_CHUNK_SIZE = 1000;
+    /**
+     * The time for which the outbox statistics are reused before they are read
+     * from the database again.
+     */
+    private static final long STATS_MAX_AGE_MS = 5000;
+
+    private static final Table<Record> TABLE = DSL.table(DSL.name(TABLE_NAME));
+    private static final Field<Long> FIELD_ID = DSL.field(DSL.name("ID"), SQLDataType.BIGINT);
+    private static final Field<Long> FIELD_CREATED = DSL.field(DSL.name("CREATED"), SQLDataType.BIGINT);
+    private static final Field<String> FIELD_MESSAGE = DSL.field(DSL.name("MESSAGE"), SQLDataType.CLOB);
+
+    private CoreSettings settings;
+    private ServerMetrics metrics;
+    private MessageBus deliveryBus;
+    private int publisherCount;
+    private int batchSize;
+    private long lingerMs;
+    private long pollIntervalMs;
+    private ExecutorService publisherService;
+    private volatile boolean running;
+
+    private ObjectMapper formatter;
+
+    /**
+     * Lock for the count of messages that were committed by this instance, but
+     * not yet claimed.
+     */
+    private final Object pendingLock = new Object();
+    private long pendingCount;
+    private long pendingSince;
+
+    private final ChangingStatusLogger statusLogger = new ChangingStatusLogger(LOGGER);
+    private final LoggingStatus logStatus = new LoggingStatus(this::updateStatus);
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile long deliveryLagMs;
+
+    /**
+     * Lock for the outbox statistics, that are read at most once per
+     * STATS_MAX_AGE_MS.
+     */
+    private final Object statsLock = new Object();
+    private long statsReadAt;
+    private int backlog;
+    private long oldestAgeMs;
+
+    public OutboxMessageBus() {
+        // Default constructor, the bus is configured in init().
+    }
+
+    /**
+     * Creates a bus that does not start any publishers, for testing.
+     *
+     * @param deliveryBus The bus to deliver claimed messages to.
+     * @param batchSize The maximum number of messages to claim at once.
+     */
+    OutboxMessageBus(MessageBus deliveryBus, int batchSize) {
+        this.deliveryBus = deliveryBus;
+        this.batchSize = batchSize;
+        this.formatter = JsonWriter.getObjectMapper();
+        this.metrics = new ServerMetrics(false);
+    }
+
+    @Override
+    public void init(CoreSettings settings) {
+        this.settings = settings;
+        this.metrics = settings.getMetrics();
+        Settings customSettings = settings.getBusSettings().getCustomSettings();
+        publisherCount = customSettings.getInt(TAG_PUBLISHER_COUNT, getClass());
+        batchSize = customSettings.getInt(TAG_BATCH_SIZE, getClass());
+        lingerMs = customSettings.getInt(TAG_LINGER_MS, getClass());
+        pollIntervalMs = customSettings.getInt(TAG_POLL_INTERVAL_MS, getClass());
+        formatter = JsonWriter.getObjectMapper();
+
+        deliveryBus = createDeliveryBus(customSettings.get(TAG_DELIVERY_BUS, getClass()));
+        deliveryBus.init(settings);
+
+        running = true;
+        ThreadFactory factory = new BasicThreadFactory.Builder().namingPattern("OutboxPub-%d").build();
+        publisherService = Executors.newFixedThreadPool(publisherCount, factory);
+        for (int i = 0; i < publisherCount; i++) {
+            final JsonReaderDefault parser = new JsonReaderDefault(settings.getModelRegistry(), true);
+            publisherService.submit(() -> publish(parser));
+        }
+
+        metrics.outboxBacklog(() -> readStats().backlog());
+        metrics.outboxOldestAge(() -> readStats().oldestAgeMs() / 1000.0);
+
+        long queueLoggingInterval = settings.getSettings().getInt(CoreSettings.TAG_QUEUE_LOGGING_INTERVAL, CoreSettings.class);
+        if (queueLoggingInterval > 0) {
+            statusLogger
+                    .setLogIntervalMs(queueLoggingInterval)
+                    .addLogStatus(logStatus)
+                    .start();
+        }
+    }
+
+    private MessageBus createDeliveryBus(String className) {
+        try {
+            Class<?> busClass = Class.forName(className);
+            if (OutboxMessageBus.class.isAssignableFrom(busClass)) {
+                throw new IllegalArgumentException("The " + PREFIX_BUS + TAG_DELIVERY_BUS + " can not be an OutboxMessageBus.");
+            }
+            return (MessageBus) busClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException | ClassCastException ex) {
+            throw new IllegalArgumentException("Could not create delivery bus '" + className + "'", ex);
+        }
+    }
+
+    @Override
+    public void stop() {
+        LOGGER.info("Outbox message bus shutting down.");
+        running = false;
+        synchronized (pendingLock) {
+            pendingLock.notifyAll();
+        }
+        publisherService.shutdown();
+        try {
+            if (!publisherService.awaitTermination(10, TimeUnit.SECONDS)) {
+                publisherService.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.error("Interrupted while waiting for shutdown.", ex);
+            publisherService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        statusLogger.stop();
+        deliveryBus.stop();
+    }
+
+    /**
+     * Messages that are not sent as part of a transaction are handed to the
+     * delivery bus directly.
+     *
+     * @param message the message to send.
+     */
+    @Override
+    public void sendMessage(EntityChangedMessage message) {
+        deliveryBus.sendMessage(message);
+    }
+
+    @Override
+    public void storeMessages(PersistenceManager pm, List<EntityChangedMessage> messages) {
+        if (!(pm instanceof JooqPersistenceManager jooqPm)) {
+            throw new IllegalStateException("The OutboxMessageBus needs a JooqPersistenceManager, not a " + pm.getClass().getName());
+        }
+        final DSLContext dslContext = jooqPm.getDslContext();
+        final Long created = System.currentTimeMillis();
+        InsertValuesStep2<Record, Long, String> insert = null;
+        int count = 0;
+        for (EntityChangedMessage message : messages) {
+            if (insert == null) {
+                insert = dslContext.insertInto(TABLE, FIELD_CREATED, FIELD_MESSAGE);
+            }
+            insert = insert.values(created, serialise(message));
+            count++;
+            if (count == INSERT_CHUNK_SIZE) {
+                insert.execute();
+                insert = null;
+                count = 0;
+            }
+        }
+        if (insert != null) {
+            insert.execute();
+        }
+    }
+
+    private String serialise(EntityChangedMessage message) {
+        try {
+            return formatter.writeValueAsString(message);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("Failed to serialise message for the outbox.", ex);
+        }
+    }
+
+    @Override
+    public void messagesCommitted(int count) {
+        synchronized (pendingLock) {
+            if (pendingCount == 0) {
+                // Waiting publishers start lingering.
+                pendingSince = System.currentTimeMillis();
+                pendingLock.notifyAll();
+            }
+            pendingCount += count;
+            if (pendingCount >= batchSize) {
+                pendingLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void addMessageListener(MessageListener listener) {
+        deliveryBus.addMessageListener(listener);
+    }
+
+    @Override
+    public void removeMessageListener(MessageListener listener) {
+        deliveryBus.removeMessageListener(listener);
+    }
+
+    private void publish(JsonReaderDefault parser) {
+        while (running) {
+            try {
+                awaitWork();
+                int claimed;
+                do {
+                    claimed = publishBatch(parser);
+                } while (running && claimed >= batchSize);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException ex) {
+                LOGGER.error("Failed to publish messages from the outbox: {}", ex.getMessage());
+                LOGGER.debug("Exception:", ex);
+                if (!pause()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean pause() {
+        try {
+            Thread.sleep(pollIntervalMs);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Waits until a full batch of messages was committed by this instance,
+     * until the first committed message has lingered long enough, or until the
+     * poll interval has passed, to pick up messages from other instances and
+     * messages of which the delivery failed.
+     */
+    private void awaitWork() throws InterruptedException {
+        synchronized (pendingLock) {
+            final long pollEnd = System.currentTimeMillis() + pollIntervalMs;
+            long now = System.currentTimeMillis();
+            while (running && pendingCount < batchSize) {
+                final long until = pendingCount > 0
+                        ? Math.min(pendingSince + lingerMs, pollEnd)
+                        : pollEnd;
+                if (now >= until) {
+                    break;
+                }
+                pendingLock.wait(until - now);
+                now = System.currentTimeMillis();
+            }
+            pendingCount = Math.max(0, pendingCount - batchSize);
+            pendingSince = now;
+        }
+    }
+
+    /**
+     * Claims a batch of messages from the outbox and delivers them.
+     *
+     * @param parser The parser to use for the messages.
+     * @return The number of claimed messages.
+     */
+    private int publishBatch(JsonReaderDefault parser) {
+        try (PersistenceManager pm = PersistenceManagerFactory.getInstance(settings).create()) {
+            return publishBatch((JooqPersistenceManager) pm, parser);
+        }
+    }
+
+    /**
+     * Claims a batch of messages from the outbox, using the given
+     * PersistenceManager, and delivers them. Commits the PersistenceManager
+     * when the messages are delivered, rolls it back if not.
+     *
+     * @param pm The PersistenceManager to claim the messages with.
+     * @param parser The parser to use for the messages.
+     * @return The number of claimed messages.
+     */
+    int publishBatch(JooqPersistenceManager pm, JsonReaderDefault parser) {
+        final DSLContext dslContext = pm.getDslContext();
+        final Result<Record3<Long, Long, String>> rows = dslContext.select(FIELD_ID, FIELD_CREATED, FIELD_MESSAGE)
+                .from(TABLE)
+                .orderBy(FIELD_ID)
+                .limit(batchSize)
+                .forUpdate()
+                .skipLocked()
+                .fetch();
+        if (rows.isEmpty()) {
+            pm.rollback();
+            return 0;
+        }
+        final List<Long> ids = new ArrayList<>(rows.size());
+        final List<EntityChangedMessage> messages = new ArrayList<>(rows.size());
+        long oldest = Long.MAX_VALUE;
+        for (Record3<Long, Long, String> row : rows) {
+            ids.add(row.value1());
+            oldest = Math.min(oldest, row.value2());
+            try {
+                messages.add(parser.parseObject(EntityChangedMessage.class, row.value3()));
+            } catch (IOException | IllegalArgumentException ex) {
+                LOGGER.error("Removing message {} from the outbox, failed to decode it. Details in DEBUG.", row.value1());
+                LOGGER.debug("Failed to decode message: {}", row.value3(), ex);
+            }
+        }
+        if (!deliveryBus.deliverMessages(messages)) {
+            // The rows stay in the outbox, to be delivered later.
+            pm.rollback();
+            failedCount.incrementAndGet();
+            metrics.outboxFailedBatches().increment();
+            return 0;
+        }
+        dslContext.deleteFrom(TABLE)
+                .where(FIELD_ID.in(ids))
+                .execute();
+        pm.commit();
+        deliveredCount.addAndGet(messages.size());
+        deliveryLagMs = System.currentTimeMillis() - oldest;
+        metrics.outboxDelivered().increment(messages.size());
+        metrics.outboxDeliveryLag().record(deliveryLagMs, TimeUnit.MILLISECONDS);
+        return rows.size();
+    }
+
+    /**
+     * Reads the number of messages in the outbox and the age of the oldest
+     * one. The values are read from the database at most once per
+     * STATS_MAX_AGE_MS, since both the status logger and the metrics use them.
+     *
+     * @return The statistics of the outbox.
+     */
+    private OutboxStats readStats() {
+        synchronized (statsLock) {
+            final long now = System.currentTimeMillis();
+            if (now - statsReadAt < STATS_MAX_AGE_MS) {
+                return new OutboxStats(backlog, oldestAgeMs);
+            }
+            statsReadAt = now;
+            backlog = 0;
+            oldestAgeMs = 0;
+            try (PersistenceManager pm = PersistenceManagerFactory.getInstance(settings).create()) {
+                final Record2<Integer, Long> stats = ((JooqPersistenceManager) pm).getDslContext()
+                        .select(DSL.count(), DSL.min(FIELD_CREATED))
+                        .from(TABLE)
+                        .fetchOne();
+                pm.rollback();
+                if (stats != null) {
+                    backlog = stats.value1();
+                    if (stats.value2() != null) {
+                        oldestAgeMs = now - stats.value2();
+                    }
+                }
+            } catch (RuntimeException ex) {
+                LOGGER.debug("Failed to read the outbox status.", ex);
+            }
+            return new OutboxStats(backlog, oldestAgeMs);
+        }
+    }
+
+    private void updateStatus() {
+        final OutboxStats stats = readStats();
+        logStatus.setBacklog(stats.backlog())
+                .setOldestAge(stats.oldestAgeMs())
+                .setDelivered(deliveredCount.get())
+                .setFailed(failedCount.get())
+                .setDeliveryLag(deliveryLagMs);
+    }
+
+    private static record OutboxStats(int backlog, long oldestAgeMs) {
+    }
+
+    private static class LoggingStatus extends ChangingStatusLogger.ChangingStatusDefault {
+
+        public static final String MESSAGE = "Outbox: {} messages, oldest {} ms. Delivered: {}, failed batches: {}, last delivery lag: {} ms";
+        public final Object[] status;
+        private final Runnable processor;
+
+        public LoggingStatus(Runnable processor) {
+            super(MESSAGE, new Object[5]);
+            status = getCurrentParams();
+            Arrays.setAll(status, (int i) -> 0);
+            this.processor = processor;
+        }
+
+        @Override
+        public void process() {
+            processor.run();
+        }
+
+        public LoggingStatus setBacklog(Integer count) {
+            status[0] = count;
+            return this;
+        }
+
+        public LoggingStatus setOldestAge(Long ageMs) {
+            status[1] = ageMs;
+            return this;
+        }
+
+        public LoggingStatus setDelivered(Long count) {
+            status[2] = count;
+            return this;
+        }
+
+        public LoggingStatus setFailed(Long count) {
+            status[3] = count;
+            return this;
+        }
+
+        public LoggingStatus setDeliveryLag(Long lagMs) {
+            status[4] = lagMs;
+            return this;
+        }
+    }
+}
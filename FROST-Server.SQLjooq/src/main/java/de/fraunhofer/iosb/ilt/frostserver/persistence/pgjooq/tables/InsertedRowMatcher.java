@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import net.time4j.Moment;
+import org.jooq.Field;
+import org.jooq.Record;
+
+/**
+ * Matches the rows returned by a multi-row INSERT ... RETURNING to the rows
+ * that were inserted. Neither PostgreSQL nor MariaDB guarantee that the
+ * returned rows are in the order of the VALUES list, so the rows are matched
+ * on their content: on the primary key if the primary key is part of the
+ * inserted fields, otherwise on the values of the inserted fields that can be
+ * compared reliably after a round-trip through the database.
+ *
+ * Rows that can not be told apart, but that are not identical, must be
+ * inserted one by one.
+ */
+class InsertedRowMatcher {
+
+    private final List<Field> matchFields;
+    private final Map<List<Object>, Deque<Integer>> pending = new HashMap<>();
+
+    /**
+     * Creates a new matcher.
+     *
+     * @param insertFields The fields that are inserted.
+     * @param pkFields The primary key fields of the table.
+     * @param returnedFields The fields that are returned by the insert.
+     */
+    InsertedRowMatcher(List<Field> insertFields, List<Field> pkFields, Collection<Field> returnedFields) {
+        if (!pkFields.isEmpty() && insertFields.containsAll(pkFields) && returnedFields.containsAll(pkFields)) {
+            matchFields = new ArrayList<>(pkFields);
+        } else {
+            matchFields = insertFields.stream()
+                    .filter(returnedFields::contains)
+                    .filter(f -> isComparable(f.getType()))
+                    .toList();
+        }
+    }
+
+    /**
+     * Registers the given rows for matching.
+     *
+     * @param indices The indices of the rows to register.
+     * @param rows The list of all rows, by index.
+     * @return The indices of the rows that can not be matched after a
+     * multi-row insert and have to be inserted one by one.
+     */
+    List<Integer> register(List<Integer> indices, List<Map<Field, Object>> rows) {
+        final Map<List<Object>, List<Integer>> bySignature = new LinkedHashMap<>();
+        for (Integer idx : indices) {
+            final Map<Field, Object> row = rows.get(idx);
+            bySignature.computeIfAbsent(signature(row::get), t -> new ArrayList<>()).add(idx);
+        }
+        final List<Integer> single = new ArrayList<>();
+        for (Map.Entry<List<Object>, List<Integer>> entry : bySignature.entrySet()) {
+            final List<Integer> group = entry.getValue();
+            if (identical(group, rows)) {
+                pending.put(entry.getKey(), new ArrayDeque<>(group));
+            } else {
+                single.addAll(group);
+            }
+        }
+        return single;
+    }
+
+    /**
+     * Finds the index of the registered row that the given returned row
+     * belongs to. Each registered row is matched only once.
+     *
+     * @param result The row returned by the database.
+     * @return The index of the inserted row.
+     * @throws IllegalStateException if the returned row does not match any
+     * of the registered rows, for instance because a database rule or
+     * trigger changed the inserted values.
+     */
+    int match(Record result) {
+        final List<Object> signature = signature(result::get);
+        final Deque<Integer> candidates = pending.get(signature);
+        if (candidates == null || candidates.isEmpty()) {
+            throw new IllegalStateException("Returned row " + signature + " does not match any inserted row.");
+        }
+        return candidates.poll();
+    }
+
+    private List<Object> signature(Function<Field, Object> values) {
+        final List<Object> signature = new ArrayList<>(matchFields.size());
+        for (Field field : matchFields) {
+            signature.add(normalise(values.apply(field)));
+        }
+        return signature;
+    }
+
+    private static boolean identical(List<Integer> group, List<Map<Field, Object>> rows) {
+        final Map<Field, Object> first = rows.get(group.get(0));
+        for (int i = 1; i < group.size(); i++) {
+            if (!first.equals(rows.get(group.get(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isComparable(Class<?> type) {
+        return Number.class.isAssignableFrom(type)
+                || CharSequence.class.isAssignableFrom(type)
+                || Boolean.class.equals(type)
+                || UUID.class.equals(type)
+                || Moment.class.equals(type);
+    }
+
+    /**
+     * Normalises the given value so that the value sent to the database and
+     * the value returned by the database are equal.
+     */
+    static Object normalise(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            final double dbl = ((Number) value).doubleValue();
+            if (Double.isNaN(dbl) || Double.isInfinite(dbl)) {
+                return Double.toString(dbl);
+            }
+            return new BigDecimal(Double.toString(dbl)).stripTrailingZeros();
+        }
+        if (value instanceof BigDecimal bigDecimal) {
+            return bigDecimal.stripTrailingZeros();
+        }
+        if (value instanceof BigInteger || value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return new BigDecimal(value.toString());
+        }
+        if (value instanceof CharSequence || value instanceof UUID) {
+            return value.toString();
+        }
+        if (value instanceof Moment moment) {
+            // The databases store timestamps with microsecond precision.
+            return List.of(moment.getPosixTime(), moment.getNanosecond() / 1000);
+        }
+        return value;
+    }
+}
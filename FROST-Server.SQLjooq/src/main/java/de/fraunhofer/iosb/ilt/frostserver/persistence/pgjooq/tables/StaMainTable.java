@@ -96,6 +96,13 @@ public interface StaMainTable<T extends StaMainTable<T>> extends StaTable<T> {
 
     public <U extends StaMainTable<U>> void createSemiJoin(String name, U targetTable, QueryState queryState);
 
+    /**
+     * Get the TableCollection this table is registered in.
+     *
+     * @return The TableCollection this table is registered in.
+     */
+    public TableCollection getTables();
+
     public PropertyFieldRegistry<T> getPropertyFieldRegistry();
 
     public PropertyFieldRegistry.PropertyFields<T> handleEntityPropertyCustomSelect(final EntityPropertyCustomSelect epCustomSelect);
@@ -108,6 +115,22 @@ public interface StaMainTable<T extends StaMainTable<T>> extends StaTable<T> {
 
     public Entity insertIntoDatabase(JooqPersistenceManager pm, Entity entity, UpdateMode updateMode, DataSize dataSize) throws NoSuchEntityException, IncompleteEntityException;
 
+    /**
+     * Insert the given entities, that must all be of the type of this table.
+     * Linked entities are only checked once, and entities that insert the same
+     * fields are inserted with one multi-row insert.
+     *
+     * @param pm The PersistenceManager to use for queries.
+     * @param entities The entities to insert.
+     * @param updateMode The rules to follow wen inserting.
+     * @param dataSize The DataSize to update.
+     * @param failures The list to put exceptions in, at the index of the
+     * entity that failed to insert.
+     * @return The inserted entities, with null for the entities that were not
+     * inserted.
+     */
+    public List<Entity> insertIntoDatabase(JooqPersistenceManager pm, List<Entity> entities, UpdateMode updateMode, DataSize dataSize, List<Exception> failures);
+
     public EntityChangedMessage updateInDatabase(JooqPersistenceManager pm, Entity entity, PkValue entityId, UpdateMode updateMode, DataSize dataSize) throws NoSuchEntityException, IncompleteEntityException;
 
     public void delete(JooqPersistenceManager pm, PkValue entityId) throws NoSuchEntityException;
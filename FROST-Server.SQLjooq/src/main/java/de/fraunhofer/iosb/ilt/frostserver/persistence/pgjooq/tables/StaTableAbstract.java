@@ -59,8 +59,10 @@ import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityExcepti
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,6 +73,7 @@ import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.DataType;
 import org.jooq.Field;
+import org.jooq.InsertValuesStepN;
 import org.jooq.Name;
 import org.jooq.Record;
 import org.jooq.Table;
@@ -89,6 +92,14 @@ import org.slf4j.LoggerFactory;
 public abstract class StaTableAbstract<T extends StaMainTable<T>> extends TableImpl<Record> implements StaMainTable<T> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(StaTableAbstract.class.getName());
+
+    /**
+     * The maximum number of parameters to use in one multi-row insert. Both
+     * PostgreSQL and MariaDB limit the number of parameters in a statement to
+     * 65535.
+     */
+    private static final int MAX_BULK_INSERT_PARAMETERS = 30_000;
+
     private static final String DO_NOT_KNOW_HOW_TO_JOIN = "Do not know how to join ";
 
     public static final String TYPE_JSONB = "\"pg_catalog\".\"jsonb\"";
@@ -259,6 +270,120 @@ public abstract class StaTableAbstract<T extends StaMainTable<T>> extends TableI
 
     @Override
     public Entity insertIntoDatabase(JooqPersistenceManager pm, Entity entity, UpdateMode updateMode, DataSize dataSize) throws NoSuchEntityException, IncompleteEntityException {
+        final T thisTable = getThis();
+        Map<Field, Object> insertFields = prepareInsert(pm, entity, updateMode, null);
+        if (insertFields == null) {
+            return null;
+        }
+
+        // Sixth, do the actual insert.
+        // This returns the entire inserted row. It may or may not be changed by databse rules or before-triggers.
+        DSLContext dslContext = pm.getDslContext();
+        final Set<PropertyFields<T>> propertyFields = getPropertyFieldRegistry().getSelectFields(new HashSet<>());
+        final Set<Field> selectFields = QueryState.propertiesToFields(thisTable, propertyFields);
+        Record result = dslContext.insertInto(thisTable)
+                .set(insertFields)
+                .returningResult(selectFields)
+                .fetchAny();
+        LOGGER.debug("Inserted {} with id = {}.", entity.getEntityType(), result);
+        if (result == null) {
+            return null;
+        }
+        return finishInsert(pm, entity, insertFields, result, propertyFields, updateMode, dataSize);
+    }
+
+    @Override
+    public List<Entity> insertIntoDatabase(JooqPersistenceManager pm, List<Entity> entities, UpdateMode updateMode, DataSize dataSize, List<Exception> failures) {
+        final T thisTable = getThis();
+        final int count = entities.size();
+        final List<Entity> newEntities = new ArrayList<>(Collections.nCopies(count, null));
+        final List<Map<Field, Object>> rows = new ArrayList<>(Collections.nCopies(count, null));
+        // Rows that insert the same fields can be inserted with one statement.
+        final Map<Set<Field>, List<Integer>> rowGroups = new LinkedHashMap<>();
+        final Set<LinkedEntityKey> knownLinks = new HashSet<>();
+        for (int idx = 0; idx < count; idx++) {
+            try {
+                Map<Field, Object> insertFields = prepareInsert(pm, entities.get(idx), updateMode, knownLinks);
+                if (insertFields != null) {
+                    rows.set(idx, insertFields);
+                    rowGroups.computeIfAbsent(insertFields.keySet(), t -> new ArrayList<>()).add(idx);
+                }
+            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                failures.set(idx, exc);
+            }
+        }
+
+        DSLContext dslContext = pm.getDslContext();
+        final Set<PropertyFields<T>> propertyFields = getPropertyFieldRegistry().getSelectFields(new HashSet<>());
+        final Set<Field> selectFields = QueryState.propertiesToFields(thisTable, propertyFields);
+        for (Map.Entry<Set<Field>, List<Integer>> rowGroup : rowGroups.entrySet()) {
+            final List<Field> fields = new ArrayList<>(rowGroup.getKey());
+            final List<Integer> group = rowGroup.getValue();
+            final int chunkSize = fields.isEmpty() ? 1 : Math.max(1, MAX_BULK_INSERT_PARAMETERS / fields.size());
+            for (int start = 0; start < group.size(); start += chunkSize) {
+                final List<Integer> chunk = group.subList(start, Math.min(group.size(), start + chunkSize));
+                final Map<Integer, Record> results = new HashMap<>();
+                final List<Integer> single;
+                if (fields.isEmpty()) {
+                    single = chunk;
+                } else {
+                    // The returned rows are not guaranteed to be in the order of the inserted rows.
+                    final InsertedRowMatcher matcher = new InsertedRowMatcher(fields, thisTable.getPkFields(), selectFields);
+                    single = matcher.register(chunk, rows);
+                    final List<Integer> bulk = new ArrayList<>(chunk);
+                    bulk.removeAll(new HashSet<>(single));
+                    if (!bulk.isEmpty()) {
+                        InsertValuesStepN<?> insert = dslContext.insertInto(thisTable, fields.toArray(Field[]::new));
+                        for (Integer idx : bulk) {
+                            final Map<Field, Object> row = rows.get(idx);
+                            insert = insert.values(fields.stream().map(row::get).toList());
+                        }
+                        final List<Record> bulkResults = insert.returningResult(selectFields).fetch();
+                        if (bulkResults.size() != bulk.size()) {
+                            throw new IllegalStateException("Inserted " + bulk.size() + " rows, but got " + bulkResults.size() + " results.");
+                        }
+                        for (Record result : bulkResults) {
+                            results.put(matcher.match(result), result);
+                        }
+                    }
+                }
+                for (Integer idx : single) {
+                    results.put(idx, dslContext.insertInto(thisTable)
+                            .set(rows.get(idx))
+                            .returningResult(selectFields)
+                            .fetchAny());
+                }
+                LOGGER.debug("Inserted {} rows of {}, {} one by one.", chunk.size(), getEntityType(), single.size());
+                for (Integer idx : chunk) {
+                    final Record result = results.get(idx);
+                    if (result == null) {
+                        continue;
+                    }
+                    try {
+                        newEntities.set(idx, finishInsert(pm, entities.get(idx), rows.get(idx), result, propertyFields, updateMode, dataSize));
+                    } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                        failures.set(idx, exc);
+                    }
+                }
+            }
+        }
+        return newEntities;
+    }
+
+    /**
+     * Runs the pre-insert hooks, checks and creates the single-entity
+     * navigation links and generates the fields to insert for the given
+     * entity.
+     *
+     * @param pm The PersistenceManager to use for queries.
+     * @param entity The entity to prepare the insert for.
+     * @param updateMode The rules to follow wen inserting.
+     * @param knownLinks If not null, the linked entities that are known to
+     * exist. These are not checked again, and newly checked linked entities
+     * are added.
+     * @return The fields to insert, or null if the insert should be skipped.
+     */
+    private Map<Field, Object> prepareInsert(JooqPersistenceManager pm, Entity entity, UpdateMode updateMode, Set<LinkedEntityKey> knownLinks) throws NoSuchEntityException, IncompleteEntityException {
         final T thisTable = getThis();
         EntityFactories entityFactories = pm.getEntityFactories();
         EntityType entityType = entity.getEntityType();
@@ -277,7 +402,10 @@ public abstract class StaTableAbstract<T extends StaMainTable<T>> extends TableI
         for (NavigationPropertyMain<Entity> np : entityType.getNavigationEntities()) {
             if (entity.isSetProperty(np)) {
                 Entity ne = entity.getProperty(np);
-                entityFactories.entityExistsOrCreate(pm, ne, updateMode);
+                if (!LinkedEntityKey.isKnown(knownLinks, ne)) {
+                    entityFactories.entityExistsOrCreate(pm, ne, updateMode);
+                    LinkedEntityKey.addKnown(knownLinks, ne);
+                }
                 PropertyFields<T> registry = pfReg.getSelectFieldsForProperty(np);
                 registry.converter.convert(thisTable, entity, insertFields);
             }
@@ -305,20 +433,18 @@ public abstract class StaTableAbstract<T extends StaMainTable<T>> extends TableI
                 pfReg.getSelectFieldsForProperty(ep).converter.convert(thisTable, entity, insertFields);
             }
         }
+        return insertFields;
+    }
 
-        // Sixth, do the actual insert.
-        // This returns the entire inserted row. It may or may not be changed by databse rules or before-triggers.
-        DSLContext dslContext = pm.getDslContext();
-        final Set<PropertyFields<T>> propertyFields = getPropertyFieldRegistry().getSelectFields(new HashSet<>());
-        final Set<Field> selectFields = QueryState.propertiesToFields(thisTable, propertyFields);
-        Record result = dslContext.insertInto(thisTable)
-                .set(insertFields)
-                .returningResult(selectFields)
-                .fetchAny();
-        LOGGER.debug("Inserted {} with id = {}.", entityType, result);
-        if (result == null) {
-            return null;
-        }
+    /**
+     * Handles the steps after the row for the given entity is inserted: the
+     * set-navigation links and the post-insert hooks.
+     *
+     * @return The entity created from the returned row.
+     */
+    private Entity finishInsert(JooqPersistenceManager pm, Entity entity, Map<Field, Object> insertFields, Record result, Set<PropertyFields<T>> propertyFields, UpdateMode updateMode, DataSize dataSize) throws NoSuchEntityException, IncompleteEntityException {
+        final T thisTable = getThis();
+        final EntityType entityType = entity.getEntityType();
         Set<Object> pks = new HashSet<>();
         thisTable.getPkFields().stream().map(result::get).forEachOrdered(pks::add);
         entity.setPrimaryKeyValues(new PkValue(pks.toArray()));
@@ -461,6 +587,15 @@ public abstract class StaTableAbstract<T extends StaMainTable<T>> extends TableI
             }
         }
 
+        if (result == null) {
+            // No fields of this table changed, but the message must still carry
+            // the full entity, including the links to its parents.
+            result = dslContext.select(selectFields)
+                    .from(thisTable)
+                    .where(where)
+                    .fetchOne();
+        }
+
         for (NavigationPropertyMain<EntitySet> np : entityType.getNavigationSets()) {
             if (entity.isSetProperty(np)) {
                 updateNavigationPropertySet(entity, entity.getProperty(np), pm, updateMode);
@@ -528,6 +663,7 @@ public abstract class StaTableAbstract<T extends StaMainTable<T>> extends TableI
         return modelRegistry;
     }
 
+    @Override
     public final TableCollection getTables() {
         return tables;
     }
@@ -597,4 +733,24 @@ public abstract class StaTableAbstract<T extends StaMainTable<T>> extends TableI
         pfs.addField("1", t -> field);
         return pfs;
     }
+    /**
+     * The type and primary key of a linked entity, to remember which linked
+     * entities are known to exist during a bulk insert.
+     */
+    private static record LinkedEntityKey(EntityType type, PkValue pk) {
+
+        private static boolean isKnown(Set<LinkedEntityKey> knownLinks, Entity linked) {
+            return knownLinks != null
+                    && linked != null
+                    && linked.primaryKeyFullySet()
+                    && knownLinks.contains(new LinkedEntityKey(linked.getEntityType(), linked.getPrimaryKeyValues()));
+        }
+
+        private static void addKnown(Set<LinkedEntityKey> knownLinks, Entity linked) {
+            if (knownLinks != null && linked.primaryKeyFullySet()) {
+                knownLinks.add(new LinkedEntityKey(linked.getEntityType(), linked.getPrimaryKeyValues()));
+            }
+        }
+    }
+
 }
@@ -25,10 +25,14 @@ import static de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended.ROL
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
 import de.fraunhofer.iosb.ilt.frostserver.model.loader.DefModel;
+import de.fraunhofer.iosb.ilt.frostserver.parser.ParseTreeCache;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.EntityFactories;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.ExistenceCache;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.SqlTemplate;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.CheckUserHasRoles;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.HookValidator;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.SecurityDecisionCache;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.SecurityTableWrapper;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator.ValidatorCUD;
 import java.util.ArrayList;
@@ -61,6 +65,10 @@ public class TableCollection {
     private List<DefModel> modelDefinitions;
     private Map<String, SecurityTableWrapper> securityWrappers;
     private Map<String, List<HookValidator>> securityValidators;
+    private ExistenceCache existenceCache;
+    private SecurityDecisionCache securityDecisionCache;
+    private ParseTreeCache<SqlTemplate> sqlTemplateCache;
+    private boolean jsonPassThrough;
 
     private final Map<EntityType, StaMainTable<?>> tablesByType = new LinkedHashMap<>();
     private final Map<Class<?>, StaTable<?>> tablesByClass = new LinkedHashMap<>();
@@ -71,6 +79,67 @@ public class TableCollection {
         return this;
     }
 
+    /**
+     * The cache of entities that are known to exist, shared by all
+     * PersistenceManagers using this TableCollection.
+     *
+     * @return the existenceCache, may be null.
+     */
+    public ExistenceCache getExistenceCache() {
+        return existenceCache;
+    }
+
+    public TableCollection setExistenceCache(ExistenceCache existenceCache) {
+        this.existenceCache = existenceCache;
+        return this;
+    }
+
+    /**
+     * The cache of positive security decisions, shared by all
+     * PersistenceManagers using this TableCollection.
+     *
+     * @return the securityDecisionCache, may be null.
+     */
+    public SecurityDecisionCache getSecurityDecisionCache() {
+        return securityDecisionCache;
+    }
+
+    public TableCollection setSecurityDecisionCache(SecurityDecisionCache securityDecisionCache) {
+        this.securityDecisionCache = securityDecisionCache;
+        return this;
+    }
+
+    /**
+     * The cache of rendered select queries, keyed by the path and query they
+     * were built for, shared by all PersistenceManagers using this
+     * TableCollection.
+     *
+     * @return the sqlTemplateCache, may be null.
+     */
+    public ParseTreeCache<SqlTemplate> getSqlTemplateCache() {
+        return sqlTemplateCache;
+    }
+
+    public TableCollection setSqlTemplateCache(ParseTreeCache<SqlTemplate> sqlTemplateCache) {
+        this.sqlTemplateCache = sqlTemplateCache;
+        return this;
+    }
+
+    /**
+     * Flag indicating JSON objects loaded from the database should be kept as
+     * text, and only parsed when needed.
+     *
+     * @return true if JSON loaded from the database is passed through.
+     */
+    public boolean isJsonPassThrough() {
+        return jsonPassThrough;
+    }
+
+    public TableCollection setJsonPassThrough(boolean jsonPassThrough) {
+        this.jsonPassThrough = jsonPassThrough;
+        return this;
+    }
+
     public StaMainTable<?> getTableForType(EntityType type) {
         return tablesByType.get(type);
     }
@@ -121,6 +190,11 @@ public class TableCollection {
                     table.initRelations();
                     initSecurityWrapper(table);
                     initSecurityValidators(table, ppm);
+                    final EntityType type = table.getEntityType();
+                    table.registerHookPostDelete(-1, (pm, entityId) -> pm.getEntityFactories().entitiesDeleted(type, entityId));
+                    if (securityValidators != null && securityDecisionCache != null) {
+                        registerSecurityDecisionHooks(table);
+                    }
                 }
                 return true;
             }
@@ -166,6 +240,10 @@ public class TableCollection {
         table.setSecurityWrapper(stw);
     }
 
+    public boolean hasSecurityWrappers() {
+        return securityWrappers != null && !securityWrappers.isEmpty();
+    }
+
     public void addSecurityWrapper(String tableName, SecurityTableWrapper w) {
         if (securityWrappers == null) {
             securityWrappers = new HashMap<>();
@@ -192,6 +270,16 @@ public class TableCollection {
         }
     }
 
+    private static void registerSecurityDecisionHooks(StaMainTable<?> table) {
+        final EntityType type = table.getEntityType();
+        table.registerHookPostInsert(-1, (pm, entity, insertFields) -> {
+            pm.getEntityFactories().securityRelevantChange(type, true);
+            return true;
+        });
+        table.registerHookPostUpdate(-1, (pm, entity, entityId, updateMode) -> pm.getEntityFactories().securityRelevantChange(type, false));
+        table.registerHookPostDelete(-1, (pm, entityId) -> pm.getEntityFactories().securityRelevantChange(type, false));
+    }
+
     public void addSecurityValidator(String tableName, HookValidator hv) {
         if (securityValidators == null) {
             securityValidators = new HashMap<>();
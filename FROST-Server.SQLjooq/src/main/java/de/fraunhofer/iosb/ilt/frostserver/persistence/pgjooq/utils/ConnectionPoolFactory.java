@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils;
+
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import javax.sql.DataSource;
+
+/**
+ * Creates the connection pools used by {@link ConnectionUtils}. The
+ * implementation to use is configured with
+ * {@link ConnectionUtils#TAG_DB_POOL_FACTORY}, so that a different pool
+ * implementation can be plugged in without changes to the persistence
+ * managers. Implementations must have a public no-argument constructor.
+ *
+ * @author hylke
+ */
+public interface ConnectionPoolFactory {
+
+    /**
+     * Create a new connection pool.
+     *
+     * @param config The configuration of the pool.
+     * @return The new pool.
+     */
+    public DataSource createPool(PoolConfig config);
+
+    /**
+     * Register the metrics of the given pool, if the pool exposes any.
+     *
+     * @param metrics The metrics to register with.
+     * @param config The configuration the pool was created with.
+     * @param pool The pool created by {@link #createPool(PoolConfig)}.
+     */
+    public default void registerMetrics(ServerMetrics metrics, PoolConfig config, DataSource pool) {
+        // By default there are no pool-specific metrics.
+    }
+
+    /**
+     * The configuration of a single connection pool. Negative numbers mean
+     * the default of the pool implementation is used.
+     *
+     * @param label The name of the pool, safe to use in logs and metrics.
+     * @param driver The JDBC driver class.
+     * @param url The JDBC url to connect to.
+     * @param username The username to connect with.
+     * @param password The password to connect with.
+     * @param maxTotal The maximum number of connections.
+     * @param maxIdle The maximum number of idle connections.
+     * @param minIdle The minimum number of idle connections.
+     * @param maxWaitMillis How long to wait for a free connection, before
+     * failing.
+     * @param maxLifetimeMillis The maximum lifetime of a connection.
+     * @param validationTimeoutSeconds The timeout for validating a connection
+     * before it is handed out.
+     * @param statementCacheSize The number of prepared statements to cache
+     * per connection, 0 to disable the cache.
+     */
+    public static record PoolConfig(
+            String label,
+            String driver,
+            String url,
+            String username,
+            String password,
+            int maxTotal,
+            int maxIdle,
+            int minIdle,
+            long maxWaitMillis,
+            long maxLifetimeMillis,
+            int validationTimeoutSeconds,
+            int statementCacheSize) {
+
+        @Override
+        public String toString() {
+            return "PoolConfig{" + label + ", maxTotal=" + maxTotal + ", maxIdle=" + maxIdle + ", minIdle=" + minIdle
+                    + ", maxWait=" + maxWaitMillis + ", maxLifetime=" + maxLifetimeMillis
+                    + ", validationTimeout=" + validationTimeoutSeconds + ", statementCache=" + statementCacheSize + '}';
+        }
+
+    }
+}
@@ -18,24 +18,33 @@
 package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils;
 
 import de.fraunhofer.iosb.ilt.frostclient.settings.annotation.SensitiveValue;
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionPoolFactory.PoolConfig;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ReadReplicas.Replica;
 import de.fraunhofer.iosb.ilt.frostserver.settings.ConfigDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolean;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.sql.Savepoint;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
-import org.apache.commons.dbcp2.BasicDataSource;
 import org.apache.commons.dbcp2.ConnectionFactory;
 import org.apache.commons.dbcp2.DriverManagerConnectionFactory;
 import org.apache.commons.dbcp2.PoolableConnection;
 import org.apache.commons.dbcp2.PoolableConnectionFactory;
 import org.apache.commons.dbcp2.PoolingDriver;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.pool2.ObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.slf4j.Logger;
@@ -67,19 +76,115 @@ public class ConnectionUtils implements ConfigDefaults {
     public static final String TAG_DB_MAXIDLE = "db.conn.idle.max";
     public static final String TAG_DB_MINIDLE = "db.conn.idle.min";
 
+    @DefaultValue("de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.DbcpConnectionPoolFactory")
+    public static final String TAG_DB_POOL_FACTORY = "db.pool.factory";
+    @DefaultValueInt(-1)
+    public static final String TAG_DB_MAXWAIT = "db.conn.maxWait";
+    @DefaultValueInt(-1)
+    public static final String TAG_DB_MAXLIFETIME = "db.conn.maxLifetime";
+    @DefaultValueInt(0)
+    public static final String TAG_DB_VALIDATION_TIMEOUT = "db.conn.validationTimeout";
+    @DefaultValueInt(0)
+    public static final String TAG_DB_STATEMENT_CACHE = "db.conn.statementCache";
+
+    @DefaultValueBoolean(false)
+    public static final String TAG_DB_READ_POOL = "db.read.enable";
+    @SensitiveValue
+    @DefaultValue("")
+    public static final String TAG_DB_READ_URL = "db.read.url";
+    public static final String TAG_DB_READ_MAXCONN = "db.read.conn.max";
+    @DefaultValueInt(30)
+    public static final String TAG_DB_READ_MAXLAG = "db.read.maxLag";
+    @DefaultValueInt(5000)
+    public static final String TAG_DB_READ_CHECK_INTERVAL = "db.read.checkInterval";
+    @DefaultValue("SELECT COALESCE(CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END, 0)")
+    public static final String TAG_DB_READ_LAG_QUERY = "db.read.lagQuery";
+
     /**
      * The logger for this class.
      */
     private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionUtils.class);
 
-    private static final Map<String, DataSource> EXISTING_POOLS = new HashMap<>();
+    private static final Map<String, Pool> EXISTING_POOLS = new ConcurrentHashMap<>();
+    private static final Map<String, ReadReplicas> READ_REPLICAS = new ConcurrentHashMap<>();
+    /**
+     * Used when connections are requested without metrics.
+     */
+    private static final ServerMetrics NO_METRICS = new ServerMetrics(false);
 
     private ConnectionUtils() {
         // Utility class, should not be instantiated.
     }
 
+    /**
+     * Get a connection from the primary pool, with auto-commit disabled.
+     *
+     * @param name The name to use for the source
+     * @param settings The settings, must contain the options for db driver, db
+     * url and username/password.
+     * @return A pooled database connection.
+     * @throws SQLException when there is a problem.
+     */
     public static Connection getConnection(String name, Settings settings) throws SQLException {
-        Connection connection = getPoolingConnection(name, settings);
+        return getConnection(name, settings, false, NO_METRICS);
+    }
+
+    /**
+     * Get a connection from the primary pool, with auto-commit disabled.
+     *
+     * @param name The name to use for the source
+     * @param settings The settings, must contain the options for db driver, db
+     * url and username/password.
+     * @param metrics The metrics to register a new pool with.
+     * @return A pooled database connection.
+     * @throws SQLException when there is a problem.
+     */
+    public static Connection getConnection(String name, Settings settings, ServerMetrics metrics) throws SQLException {
+        return getConnection(name, settings, false, metrics);
+    }
+
+    /**
+     * Get a connection, with auto-commit disabled. When read pools are
+     * configured, and the connection is only used for reading, the connection
+     * is taken from a read pool. If no read pool can be used, the connection is
+     * taken from the primary pool.
+     *
+     * @param name The name to use for the source
+     * @param settings The settings, must contain the options for db driver, db
+     * url and username/password.
+     * @param readOnly true if the connection is only used for reading.
+     * @return A pooled database connection.
+     * @throws SQLException when there is a problem.
+     */
+    public static Connection getConnection(String name, Settings settings, boolean readOnly) throws SQLException {
+        return getConnection(name, settings, readOnly, NO_METRICS);
+    }
+
+    /**
+     * Get a connection, with auto-commit disabled. When read pools are
+     * configured, and the connection is only used for reading, the connection
+     * is taken from a read pool. If no read pool can be used, the connection is
+     * taken from the primary pool.
+     *
+     * Pools are shared by name. The metrics of a pool are registered with the
+     * metrics given when the pool is created.
+     *
+     * @param name The name to use for the source
+     * @param settings The settings, must contain the options for db driver, db
+     * url and username/password.
+     * @param readOnly true if the connection is only used for reading.
+     * @param metrics The metrics to register a new pool with.
+     * @return A pooled database connection.
+     * @throws SQLException when there is a problem.
+     */
+    public static Connection getConnection(String name, Settings settings, boolean readOnly, ServerMetrics metrics) throws SQLException {
+        final Connection connection;
+        if (readOnly && settings.getBoolean(TAG_DB_READ_POOL, ConnectionUtils.class)) {
+            connection = getReadConnection(name, settings, metrics);
+        } else {
+            connection = getPoolingConnection(name, settings, null, metrics);
+        }
         connection.setAutoCommit(false);
         return connection;
     }
@@ -94,47 +199,135 @@ public class ConnectionUtils implements ConfigDefaults {
      * @throws SQLException when there is a problem.
      */
     public static Connection getPoolingConnection(String name, Settings settings) throws SQLException {
-        DataSource source = EXISTING_POOLS.get(name);
-        if (source == null) {
-            source = createPoolingConnection(name, settings);
-        }
-        return source.getConnection();
+        return getPoolingConnection(name, settings, null, NO_METRICS);
     }
 
-    private static DataSource createPoolingConnection(String name, Settings settings) {
-        synchronized (EXISTING_POOLS) {
-            DataSource source = EXISTING_POOLS.get(name);
-            if (source == null) {
-                if (!settings.get(TAG_DB_URL, ConnectionUtils.class).isEmpty()) {
-                    source = setupBasicDataSource(settings);
-                } else {
-                    source = setupDataSource(settings);
-                }
-                EXISTING_POOLS.put(name, source);
+    private static Connection getReadConnection(String name, Settings settings, ServerMetrics metrics) throws SQLException {
+        final ReadReplicas replicas = READ_REPLICAS.computeIfAbsent(name, n -> new ReadReplicas(n, settings, metrics));
+        for (Replica replica : replicas.nextOrder()) {
+            if (!replica.isAvailable()) {
+                continue;
+            }
+            final Connection connection;
+            try {
+                connection = getPoolingConnection(replica.poolName, settings, replica, metrics);
+            } catch (SQLException ex) {
+                replicas.markFailed(replica, ex);
+                continue;
             }
-            return source;
+            if (replicas.checkLag(replica, connection)) {
+                return connection;
+            }
+            connection.close();
+        }
+        metrics.dbReadFallback(poolLabel(name)).increment();
+        return getPoolingConnection(name, settings, null, metrics);
+    }
+
+    private static Connection getPoolingConnection(String name, Settings settings, Replica replica, ServerMetrics metrics) throws SQLException {
+        final Pool pool = EXISTING_POOLS.computeIfAbsent(name, n -> createPool(n, settings, replica, metrics));
+        final long start = System.nanoTime();
+        try {
+            final Connection connection = pool.source.getConnection();
+            pool.waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return connection;
+        } catch (SQLException ex) {
+            pool.failed.increment();
+            throw ex;
+        }
+    }
+
+    private static Pool createPool(String name, Settings settings, Replica replica, ServerMetrics metrics) {
+        final String label = replica == null ? poolLabel(name) : replica.label;
+        final DataSource source;
+        if (!settings.get(TAG_DB_URL, ConnectionUtils.class).isEmpty()) {
+            final PoolConfig config = createPoolConfig(label, settings, replica);
+            final ConnectionPoolFactory factory = createPoolFactory(settings);
+            LOGGER.info("Setting up connection pool using {}: {}", factory.getClass().getSimpleName(), config);
+            source = factory.createPool(config);
+            factory.registerMetrics(metrics, config, source);
+        } else {
+            source = setupDataSource(settings);
         }
+        return new Pool(source,
+                metrics.dbConnectionWait(label),
+                metrics.dbConnectionFailed(label));
     }
 
-    private static DataSource setupBasicDataSource(Settings settings) {
-        LOGGER.info("Setting up BasicDataSource for database connections.");
+    private static ConnectionPoolFactory createPoolFactory(Settings settings) {
+        final String clsName = settings.get(TAG_DB_POOL_FACTORY, ConnectionUtils.class);
+        try {
+            Class<?> factoryClass = Class.forName(clsName);
+            return (ConnectionPoolFactory) factoryClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException exc) {
+            throw new IllegalArgumentException("Could not create ConnectionPoolFactory '" + clsName + "'", exc);
+        }
+    }
+
+    private static PoolConfig createPoolConfig(String label, Settings settings, Replica replica) {
         String driver = settings.get(TAG_DB_DRIVER, ConnectionUtils.class);
         if (driver.isEmpty()) {
             throw new IllegalArgumentException("Property '" + TAG_DB_DRIVER + "' must be non-empty");
         }
         try {
             Class.forName(driver);
-            BasicDataSource ds = new BasicDataSource();
-            ds.setUrl(settings.get(TAG_DB_URL, ConnectionUtils.class));
-            ds.setUsername(settings.get(TAG_DB_USERNAME, ConnectionUtils.class));
-            ds.setPassword(settings.get(TAG_DB_PASSWRD, ConnectionUtils.class));
-            ds.setMaxIdle(settings.getInt(TAG_DB_MAXIDLE, ds.getMaxIdle()));
-            ds.setMaxTotal(settings.getInt(TAG_DB_MAXCONN, ds.getMaxTotal()));
-            ds.setMinIdle(settings.getInt(TAG_DB_MINIDLE, ds.getMinIdle()));
-            return ds;
         } catch (ClassNotFoundException exc) {
             throw new IllegalArgumentException(exc);
         }
+        String url = settings.get(TAG_DB_URL, ConnectionUtils.class);
+        int maxTotal = settings.getInt(TAG_DB_MAXCONN, -1);
+        if (replica != null) {
+            if (replica.url != null) {
+                url = replica.url;
+            }
+            maxTotal = settings.getInt(TAG_DB_READ_MAXCONN, maxTotal);
+        }
+        return new PoolConfig(
+                label,
+                driver,
+                url,
+                settings.get(TAG_DB_USERNAME, ConnectionUtils.class),
+                settings.get(TAG_DB_PASSWRD, ConnectionUtils.class),
+                maxTotal,
+                settings.getInt(TAG_DB_MAXIDLE, -1),
+                settings.getInt(TAG_DB_MINIDLE, -1),
+                settings.getLong(TAG_DB_MAXWAIT, ConnectionUtils.class),
+                settings.getLong(TAG_DB_MAXLIFETIME, ConnectionUtils.class),
+                settings.getInt(TAG_DB_VALIDATION_TIMEOUT, ConnectionUtils.class),
+                settings.getInt(TAG_DB_STATEMENT_CACHE, ConnectionUtils.class));
+    }
+
+    /**
+     * Pool names are often the database url, which may contain credentials.
+     * Strips everything but the host, port and database.
+     */
+    static String poolLabel(String name) {
+        String label = name;
+        final int paramStart = StringUtils.indexOfAny(label, '?', ';');
+        if (paramStart >= 0) {
+            label = label.substring(0, paramStart);
+        }
+        final int hostStart = label.indexOf("//");
+        if (hostStart >= 0) {
+            final int userEnd = label.indexOf('@', hostStart);
+            if (userEnd >= 0) {
+                label = label.substring(0, hostStart + 2) + label.substring(userEnd + 1);
+            }
+        }
+        return label;
+    }
+
+    private static final class Pool {
+
+        private final DataSource source;
+        private final Timer waitTimer;
+        private final Counter failed;
+
+        private Pool(DataSource source, Timer waitTimer, Counter failed) {
+            this.source = source;
+            this.waitTimer = waitTimer;
+            this.failed = failed;
+        }
     }
 
     private static DataSource setupDataSource(Settings settings) {
@@ -183,18 +376,25 @@ public class ConnectionUtils implements ConfigDefaults {
 
         private final Settings settings;
         private final String connectionName;
+        private final ServerMetrics metrics;
         private Connection connection;
+        private boolean readOnly;
 
         public ConnectionWrapper(Settings settings, String connectionName) {
+            this(settings, connectionName, NO_METRICS);
+        }
+
+        public ConnectionWrapper(Settings settings, String connectionName, ServerMetrics metrics) {
             this.settings = settings;
             this.connectionName = connectionName;
+            this.metrics = metrics;
         }
 
         @Override
         public Connection get() {
             if (connection == null) {
                 try {
-                    connection = ConnectionUtils.getConnection(connectionName, settings);
+                    connection = ConnectionUtils.getConnection(connectionName, settings, readOnly, metrics);
                 } catch (SQLException ex) {
                     LOGGER.error("Could not inizialize {}", getClass().getName(), ex);
                 }
@@ -202,6 +402,18 @@ public class ConnectionUtils implements ConfigDefaults {
             return connection;
         }
 
+        /**
+         * Sets whether the next connection is only used for reading, and may
+         * be taken from a read pool. Has no effect on a connection that is
+         * already open. Reset when the connection is closed.
+         *
+         * @param readOnly true if the next connection is only used for
+         * reading.
+         */
+        public void setReadOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+        }
+
         public boolean commit() {
             if (connection == null) {
                 return true;
@@ -233,6 +445,38 @@ public class ConnectionUtils implements ConfigDefaults {
             return false;
         }
 
+        /**
+         * Sets a savepoint in the current transaction, opening the connection
+         * if needed.
+         *
+         * @return The new savepoint.
+         * @throws SQLException If the savepoint could not be set.
+         */
+        public Savepoint setSavepoint() throws SQLException {
+            return get().setSavepoint();
+        }
+
+        /**
+         * Undoes the changes made after the given savepoint.
+         *
+         * @param savepoint The savepoint to roll back to.
+         * @throws SQLException If the rollback failed.
+         */
+        public void rollback(Savepoint savepoint) throws SQLException {
+            LOGGER.debug("Rolling back changes to savepoint.");
+            get().rollback(savepoint);
+        }
+
+        /**
+         * Releases the given savepoint, keeping the changes made after it.
+         *
+         * @param savepoint The savepoint to release.
+         * @throws SQLException If the release failed.
+         */
+        public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+            get().releaseSavepoint(savepoint);
+        }
+
         @Override
         public void close() throws SQLException {
             if (connection == null) {
@@ -247,6 +491,7 @@ public class ConnectionUtils implements ConfigDefaults {
 
         private void clear() {
             connection = null;
+            readOnly = false;
         }
 
     }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils;
+
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import java.time.Duration;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp2.BasicDataSource;
+
+/**
+ * The default ConnectionPoolFactory, creating commons-dbcp2 BasicDataSources.
+ *
+ * @author hylke
+ */
+public class DbcpConnectionPoolFactory implements ConnectionPoolFactory {
+
+    @Override
+    public DataSource createPool(PoolConfig config) {
+        BasicDataSource ds = new BasicDataSource();
+        ds.setDriverClassName(config.driver());
+        ds.setUrl(config.url());
+        ds.setUsername(config.username());
+        ds.setPassword(config.password());
+        if (config.maxIdle() >= 0) {
+            ds.setMaxIdle(config.maxIdle());
+        }
+        if (config.maxTotal() >= 0) {
+            ds.setMaxTotal(config.maxTotal());
+        }
+        if (config.minIdle() >= 0) {
+            ds.setMinIdle(config.minIdle());
+        }
+        if (config.maxWaitMillis() >= 0) {
+            ds.setMaxWait(Duration.ofMillis(config.maxWaitMillis()));
+        }
+        if (config.maxLifetimeMillis() > 0) {
+            ds.setMaxConn(Duration.ofMillis(config.maxLifetimeMillis()));
+        }
+        if (config.validationTimeoutSeconds() > 0) {
+            ds.setTestOnBorrow(true);
+            ds.setValidationQueryTimeout(Duration.ofSeconds(config.validationTimeoutSeconds()));
+        }
+        if (config.statementCacheSize() > 0) {
+            ds.setPoolPreparedStatements(true);
+            ds.setMaxOpenPreparedStatements(config.statementCacheSize());
+        }
+        return ds;
+    }
+
+    @Override
+    public void registerMetrics(ServerMetrics metrics, PoolConfig config, DataSource pool) {
+        if (pool instanceof BasicDataSource basicSource) {
+            final String label = config.label();
+            metrics.dbConnections(label, "active", basicSource::getNumActive);
+            metrics.dbConnections(label, "idle", basicSource::getNumIdle);
+            metrics.dbConnections(label, "max", basicSource::getMaxTotal);
+        }
+    }
+
+}
@@ -654,7 +654,7 @@ public class PropertyFieldRegistry<T extends StaMainTable<T>> {
         }
     }
 
-    public static class ConverterMap<T> implements ConverterRecord<T> {
+    public static class ConverterMap<T extends StaMainTable<T>> implements ConverterRecord<T> {
 
         private final Property property;
         private final ExpressionFactory<T> factory;
@@ -671,7 +671,7 @@ public class PropertyFieldRegistry<T extends StaMainTable<T>> {
                 return;
             }
             dataSize.increase(data.getStringLength());
-            entity.setProperty(property, data.getMapValue());
+            entity.setProperty(property, data.getMapValue(table.getTables().isJsonPassThrough()));
         }
 
         @Override
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils;
+
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_READ_CHECK_INTERVAL;
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_READ_LAG_QUERY;
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_READ_MAXLAG;
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_READ_URL;
+
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The read replicas of one database, used for read requests. Replicas are
+ * used round-robin. A replica that fails, or that lags too far behind the
+ * primary, is skipped until it is checked again.
+ *
+ * @author hylke
+ */
+class ReadReplicas {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadReplicas.class);
+
+    static final String READ_POOL_SUFFIX = "#read";
+
+    private final List<Replica> replicas;
+    private final int maxLagSeconds;
+    private final long checkIntervalMillis;
+    private final String lagQuery;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReadReplicas(String name, Settings settings, ServerMetrics metrics) {
+        maxLagSeconds = settings.getInt(TAG_DB_READ_MAXLAG, ConnectionUtils.class);
+        checkIntervalMillis = settings.getLong(TAG_DB_READ_CHECK_INTERVAL, ConnectionUtils.class);
+        lagQuery = settings.get(TAG_DB_READ_LAG_QUERY, ConnectionUtils.class);
+        final String[] urls = StringUtils.split(settings.get(TAG_DB_READ_URL, ConnectionUtils.class));
+        final List<Replica> list = new ArrayList<>();
+        if (urls == null || urls.length == 0) {
+            list.add(new Replica(name + READ_POOL_SUFFIX, ConnectionUtils.poolLabel(name) + READ_POOL_SUFFIX, null, metrics));
+        } else {
+            for (int idx = 0; idx < urls.length; idx++) {
+                final String url = urls[idx];
+                list.add(new Replica(name + READ_POOL_SUFFIX + idx, ConnectionUtils.poolLabel(url) + READ_POOL_SUFFIX, url, metrics));
+            }
+        }
+        replicas = Collections.unmodifiableList(list);
+        LOGGER.info("Using {} read pool(s), maximum lag {}s.", replicas.size(), maxLagSeconds);
+    }
+
+    /**
+     * The replicas, in the order in which they should be tried for the next
+     * connection.
+     *
+     * @return The replicas, starting at the next one in the round-robin.
+     */
+    List<Replica> nextOrder() {
+        final int size = replicas.size();
+        if (size == 1) {
+            return replicas;
+        }
+        final int start = Math.floorMod(next.getAndIncrement(), size);
+        final List<Replica> order = new ArrayList<>(size);
+        for (int idx = 0; idx < size; idx++) {
+            order.add(replicas.get((start + idx) % size));
+        }
+        return order;
+    }
+
+    /**
+     * Checks if the given connection, taken from the given replica, may be
+     * used. When a lag check is due, it is done using this connection.
+     *
+     * @param replica The replica the connection is taken from.
+     * @param connection The connection to check.
+     * @return true if the replica is not lagging too far behind.
+     */
+    boolean checkLag(Replica replica, Connection connection) {
+        if (maxLagSeconds <= 0) {
+            return true;
+        }
+        final long now = System.currentTimeMillis();
+        final long due = replica.nextCheck.get();
+        if (now < due || !replica.nextCheck.compareAndSet(due, now + checkIntervalMillis)) {
+            return !replica.lagging;
+        }
+        try (Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery(lagQuery)) {
+            final double lag = result.next() ? result.getDouble(1) : 0;
+            replica.lag = lag;
+            replica.lagging = lag > maxLagSeconds;
+            if (replica.lagging) {
+                LOGGER.warn("Read pool {} lags {}s behind, using the primary database.", replica.label, lag);
+            }
+        } catch (SQLException ex) {
+            LOGGER.warn("Failed to check the lag of read pool {}: {}", replica.label, ex.getMessage());
+            replica.lagging = true;
+        }
+        return !replica.lagging;
+    }
+
+    /**
+     * Marks the given replica as failed. It is skipped until the next check.
+     *
+     * @param replica The replica that failed.
+     * @param ex The reason it failed.
+     */
+    void markFailed(Replica replica, SQLException ex) {
+        LOGGER.warn("Failed to get a connection from read pool {}, using the primary database: {}", replica.label, ex.getMessage());
+        replica.failedUntil = System.currentTimeMillis() + checkIntervalMillis;
+    }
+
+    static class Replica {
+
+        final String poolName;
+        final String label;
+        /**
+         * The url to connect to, or null to connect to the primary url.
+         */
+        final String url;
+        final AtomicLong nextCheck = new AtomicLong();
+        volatile boolean lagging;
+        volatile double lag;
+        volatile long failedUntil;
+
+        Replica(String poolName, String label, String url, ServerMetrics metrics) {
+            this.poolName = poolName;
+            this.label = label;
+            this.url = url;
+            metrics.dbReplicaLag(label, () -> lag);
+        }
+
+        /**
+         * Checks if the replica is worth trying. A replica is not tried when
+         * it recently failed, or when it was lagging and is not due for a new
+         * check.
+         *
+         * @return true if the replica is worth trying.
+         */
+        boolean isAvailable() {
+            final long now = System.currentTimeMillis();
+            if (now < failedUntil) {
+                return false;
+            }
+            return !lagging || now >= nextCheck.get();
+        }
+
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Param;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+import org.jooq.conf.ParamType;
+
+/**
+ * The rendered SQL of a query, with its bind values. Rendering a jOOQ query and
+ * collecting its bind values costs about as much CPU time as building it, and
+ * has to be done again each time the query is executed. A template renders the
+ * query once, and can then be executed any number of times, by any thread.
+ *
+ * Bind values are kept with their data types, so that values with custom
+ * bindings, like times and geometries, are bound the same way as in the
+ * original query.
+ *
+ * @author hylke
+ */
+public class SqlTemplate {
+
+    private final String sql;
+    private final Object[] params;
+
+    private SqlTemplate(String sql, Object[] params) {
+        this.sql = sql;
+        this.params = params;
+    }
+
+    /**
+     * Render the given query into a template.
+     *
+     * @param query The query to render.
+     * @return The template for the query.
+     */
+    public static SqlTemplate of(Query query) {
+        final String sql = query.getSQL(ParamType.INDEXED);
+        final List<Param<?>> bound = new ArrayList<>();
+        for (Param<?> param : query.getParams().values()) {
+            if (!param.isInline()) {
+                bound.add(param);
+            }
+        }
+        return new SqlTemplate(sql, bound.toArray());
+    }
+
+    /**
+     * The SQL of the template, with a ? for each bind value.
+     *
+     * @return The SQL of the template.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * Create a query from the template, that returns records with the given
+     * fields. The fields must be the fields the rendered query selected, in
+     * the same order.
+     *
+     * @param dslContext The DSLContext to create the query in.
+     * @param fields The fields of the returned records.
+     * @return A query executing the SQL of the template.
+     */
+    public ResultQuery<Record> toQuery(DSLContext dslContext, Collection<? extends Field> fields) {
+        return dslContext.resultQuery(sql, params).coerce(fields.toArray(Field[]::new));
+    }
+
+}
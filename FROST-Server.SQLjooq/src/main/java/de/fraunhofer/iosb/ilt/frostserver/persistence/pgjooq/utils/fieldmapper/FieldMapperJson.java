@@ -79,7 +79,7 @@ public class FieldMapperJson extends FieldMapperAbstractEp {
                             (T t, Record tuple, Entity entity, DataSize dataSize) -> {
                                 final JsonValue fieldJsonValue = Utils.getFieldJsonValue(tuple, (Field) t.field(idx));
                                 dataSize.increase(fieldJsonValue.getStringLength());
-                                entity.setProperty(entityProperty, fieldJsonValue.getValue());
+                                entity.setProperty(entityProperty, fieldJsonValue.getValue(t.getTables().isJsonPassThrough()));
                             },
                             (t, entity, insertFields) -> insertFields.put(t.field(idx), new JsonValue(entity.getProperty(entityProperty))),
                             (t, entity, updateFields, message) -> {
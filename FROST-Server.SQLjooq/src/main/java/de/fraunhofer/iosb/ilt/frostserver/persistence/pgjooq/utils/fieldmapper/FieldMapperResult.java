@@ -171,7 +171,7 @@ public class FieldMapperResult extends FieldMapperAbstractEp {
                 case OBJECT_ARRAY:
                     JsonValue jsonData = Utils.getFieldJsonValue(tuple, (Field<JsonValue>) table.field(idxReJs));
                     dataSize.increase(jsonData.getStringLength());
-                    entity.setProperty(property, jsonData.getValue());
+                    entity.setProperty(property, jsonData.getValue(table.getTables().isJsonPassThrough()));
                     break;
 
                 case STRING:
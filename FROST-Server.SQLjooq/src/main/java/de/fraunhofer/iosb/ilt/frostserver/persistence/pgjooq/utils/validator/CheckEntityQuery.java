@@ -22,11 +22,13 @@ import de.fraunhofer.iosb.ilt.configurable.editor.EditorString;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
 import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
 import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.path.Version;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.EntityFactories;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.query.QueryDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.query.expression.DynamicContext;
@@ -60,16 +62,29 @@ public class CheckEntityQuery implements ValidationCheck {
             init(contextEntity, pm);
         }
         final PrincipalExtended localPrincipal = PrincipalExtended.getLocalPrincipal();
+        final PkValue entityId = contextEntity.getPrimaryKeyValues();
+        final EntityFactories entityFactories = pm.getEntityFactories();
+        final boolean cacheable = localPrincipal != null
+                && contextEntity.primaryKeyFullySet()
+                && entityFactories.getSecurityDecisionCache(pm) != null;
+        final SecurityDecisionCache.Key key = cacheable ? new SecurityDecisionCache.Key(this, localPrincipal.getName(), entityType, entityId) : null;
+        if (cacheable && entityFactories.isSecurityDecisionCached(key)) {
+            LOGGER.debug("  Check on {}: true (cached)", entityType);
+            return true;
+        }
         try {
             context.setEntity(contextEntity);
             context.setUser(localPrincipal);
 
             // Run the actual query as admin, but with the user in the context.
             PrincipalExtended.setLocalPrincipal(PrincipalExtended.INTERNAL_ADMIN_PRINCIPAL);
-            final Entity result = pm.get(entityType, contextEntity.getPrimaryKeyValues(), parsedQuery);
+            final Entity result = pm.get(entityType, entityId, parsedQuery);
             PrincipalExtended.setLocalPrincipal(localPrincipal);
 
             final boolean valid = result != null;
+            if (valid && cacheable) {
+                entityFactories.addSecurityDecision(key);
+            }
             LOGGER.debug("  Check on {}: {}", entityType, valid);
             return valid;
         } finally {
@@ -89,6 +104,10 @@ public class CheckEntityQuery implements ValidationCheck {
         final ModelRegistry modelRegistry = coreSettings.getModelRegistry();
         parsedQuery = QueryParser.parseQuery(getQuery(), queryDefaults, modelRegistry, path, PrincipalExtended.INTERNAL_ADMIN_PRINCIPAL, context)
                 .validate(null, entityType);
+        final SecurityDecisionCache decisionCache = pm.getTableCollection().getSecurityDecisionCache();
+        if (decisionCache != null) {
+            decisionCache.registerCheck(entityType, parsedQuery);
+        }
         LOGGER.info("Initialised check on {}", entityType);
     }
 
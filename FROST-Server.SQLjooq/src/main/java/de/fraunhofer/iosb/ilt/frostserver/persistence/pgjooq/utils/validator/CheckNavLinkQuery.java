@@ -30,6 +30,7 @@ import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntitySet;
 import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
 import de.fraunhofer.iosb.ilt.frostserver.path.Version;
 import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.EntityFactories;
 import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain;
 import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.query.QueryDefaults;
@@ -87,13 +88,7 @@ public class CheckNavLinkQuery implements ValidationCheck {
                     return isEmptyAllowed();
                 }
                 final PkValue targetId = targetEntity.getPrimaryKeyValues();
-
-                // Run the actual query as admin, but with the user in the context.
-                PrincipalExtended.setLocalPrincipal(PrincipalExtended.INTERNAL_ADMIN_PRINCIPAL);
-                final Entity result = pm.get(targetType, targetId, parsedQuery);
-                PrincipalExtended.setLocalPrincipal(localPrincipal);
-
-                final boolean valid = result != null;
+                final boolean valid = checkTarget(pm, targetId, localPrincipal);
                 LOGGER.debug("  Check on {}.{}({}): {}", entityType, targetNp, targetId, valid);
                 return valid;
             }
@@ -108,12 +103,7 @@ public class CheckNavLinkQuery implements ValidationCheck {
                         // Entity does not exist yet. Will be checked wen it is created.
                     } else {
                         final PkValue targetId = te.getPrimaryKeyValues();
-                        // Run the actual query as admin, but with the user in the context.
-                        PrincipalExtended.setLocalPrincipal(PrincipalExtended.INTERNAL_ADMIN_PRINCIPAL);
-                        Entity result = pm.get(targetType, targetId, parsedQuery);
-                        PrincipalExtended.setLocalPrincipal(localPrincipal);
-
-                        if (result == null) {
+                        if (!checkTarget(pm, targetId, localPrincipal)) {
                             LOGGER.debug("  Check on {}.{}({}): false", entityType, targetNp, targetId);
                             return false;
                         }
@@ -130,6 +120,28 @@ public class CheckNavLinkQuery implements ValidationCheck {
         return false;
     }
 
+    private boolean checkTarget(JooqPersistenceManager pm, PkValue targetId, PrincipalExtended localPrincipal) {
+        final EntityFactories entityFactories = pm.getEntityFactories();
+        final boolean cacheable = localPrincipal != null && entityFactories.getSecurityDecisionCache(pm) != null;
+        final SecurityDecisionCache.Key key = cacheable ? new SecurityDecisionCache.Key(this, localPrincipal.getName(), targetType, targetId) : null;
+        if (cacheable && entityFactories.isSecurityDecisionCached(key)) {
+            return true;
+        }
+
+        // Run the actual query as admin, but with the user in the context.
+        PrincipalExtended.setLocalPrincipal(PrincipalExtended.INTERNAL_ADMIN_PRINCIPAL);
+        final Entity result = pm.get(targetType, targetId, parsedQuery);
+        PrincipalExtended.setLocalPrincipal(localPrincipal);
+
+        if (result == null) {
+            return false;
+        }
+        if (cacheable) {
+            entityFactories.addSecurityDecision(key);
+        }
+        return true;
+    }
+
     private void init(Entity contextEntity, JooqPersistenceManager pm) {
         try {
             entityType = contextEntity.getEntityType();
@@ -143,6 +155,10 @@ public class CheckNavLinkQuery implements ValidationCheck {
             final ModelRegistry modelRegistry = coreSettings.getModelRegistry();
             parsedQuery = QueryParser.parseQuery(getQuery(), queryDefaults, modelRegistry, path, PrincipalExtended.INTERNAL_ADMIN_PRINCIPAL, context)
                     .validate(null, targetType);
+            final SecurityDecisionCache decisionCache = pm.getTableCollection().getSecurityDecisionCache();
+            if (decisionCache != null) {
+                decisionCache.registerCheck(targetType, parsedQuery);
+            }
             LOGGER.info("Initialised check on {}.{}", entityType, targetNp);
         } catch (RuntimeException ex) {
             LOGGER.error("Failed to initialise check.", ex);
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationProperty;
+import de.fraunhofer.iosb.ilt.frostserver.property.Property;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Expression;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.Path;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.Function;
+import de.fraunhofer.iosb.ilt.frostserver.query.expression.function.logical.Any;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.PersistenceSettings;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the positive decisions of query-based security checks, so that
+ * repeated inserts and updates by the same user, against the same target
+ * entity, do not need to run the same permission query each time.
+ *
+ * A decision only depends on the name of the user and the rows the check query
+ * touches. Each check registers the entity type it runs against, and the entity
+ * types its filter navigates to. Any change to an entity of a navigated type
+ * clears the cache, as does an update or delete of an entity of a type a check
+ * runs against. Creating a new entity of such a type does not change the
+ * decisions for existing entities. Entries also expire after a configured time,
+ * since not all changes, like deleting a link, are sent over the message bus.
+ *
+ * Like the ExistenceCache, decisions are only added after the transaction that
+ * made them has been committed, and only if the cache has not been cleared in
+ * the meantime.
+ *
+ * @author hylke
+ */
+public class SecurityDecisionCache implements MessageListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecurityDecisionCache.class.getName());
+
+    private final int maxSize;
+    private final long maxAgeMillis;
+    private final boolean enabled;
+    private final Map<Key, Long> expiryByKey = new ConcurrentHashMap<>();
+    /**
+     * The entity types that checks run against. Updates and deletes of these
+     * clear the cache.
+     */
+    private final Set<EntityType> checkedTypes = ConcurrentHashMap.newKeySet();
+    /**
+     * The entity types that the filters of checks navigate to. Any change to
+     * these clears the cache.
+     */
+    private final Set<EntityType> navigatedTypes = ConcurrentHashMap.newKeySet();
+    private volatile long generation;
+    private volatile boolean listening;
+
+    public SecurityDecisionCache(PersistenceSettings settings) {
+        maxSize = settings.getSecurityCacheSize();
+        maxAgeMillis = settings.getSecurityCacheMaxAge() * 1000L;
+        enabled = maxSize > 0 && maxAgeMillis > 0;
+    }
+
+    /**
+     * Checks if the cache can be used. The cache is only used once it is
+     * registered with the message bus, so that changes on other instances are
+     * seen.
+     *
+     * @param settings The settings to get the message bus from.
+     * @return true if the cache can be used.
+     */
+    public boolean isUsable(CoreSettings settings) {
+        if (!enabled) {
+            return false;
+        }
+        if (!listening) {
+            registerListener(settings);
+        }
+        return listening;
+    }
+
+    private synchronized void registerListener(CoreSettings settings) {
+        if (listening) {
+            return;
+        }
+        final MessageBus messageBus = settings.getMessageBus();
+        if (messageBus == null) {
+            return;
+        }
+        messageBus.addMessageListener(this);
+        listening = true;
+    }
+
+    /**
+     * Register the entity types a check depends on.
+     *
+     * @param checkedType The type of the entities the check query runs against.
+     * @param query The parsed query of the check.
+     */
+    public void registerCheck(EntityType checkedType, Query query) {
+        checkedTypes.add(checkedType);
+        if (query != null) {
+            findNavigatedTypes(query.getFilter(), navigatedTypes);
+        }
+        LOGGER.debug("Security decisions depend on changes to {} and updates to {}", navigatedTypes, checkedTypes);
+    }
+
+    private static void findNavigatedTypes(Expression expression, Set<EntityType> target) {
+        if (expression instanceof Path path) {
+            for (Property element : path.getElements()) {
+                if (element instanceof NavigationProperty np) {
+                    target.add(np.getEntityType());
+                }
+            }
+        }
+        if (expression instanceof Any any) {
+            findNavigatedTypes(any.getCollection(), target);
+        }
+        if (expression instanceof Function function) {
+            for (Expression parameter : function.getParameters()) {
+                findNavigatedTypes(parameter, target);
+            }
+        }
+    }
+
+    /**
+     * Checks if a change to an entity of the given type may change cached
+     * decisions.
+     *
+     * @param type The type of the changed entity.
+     * @param created Flag indicating the entity was newly created.
+     * @return true if the cache must be cleared.
+     */
+    public boolean isAffectedBy(EntityType type, boolean created) {
+        return navigatedTypes.contains(type) || (!created && checkedTypes.contains(type));
+    }
+
+    /**
+     * The generation of the cache. This changes each time the cache is
+     * cleared.
+     *
+     * @return The current generation of the cache.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public boolean contains(Key key) {
+        final Long expiry = expiryByKey.get(key);
+        if (expiry == null) {
+            return false;
+        }
+        if (expiry < System.currentTimeMillis()) {
+            expiryByKey.remove(key, expiry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add the given decisions to the cache, if the cache has not been cleared
+     * since the given generation.
+     *
+     * @param keys The keys of the positive decisions.
+     * @param sinceGeneration The generation of the cache when the first of the
+     * decisions was made.
+     */
+    public synchronized void addAll(Set<Key> keys, long sinceGeneration) {
+        if (sinceGeneration != generation) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (expiryByKey.size() + keys.size() > maxSize) {
+            expiryByKey.values().removeIf(expiry -> expiry < now);
+            if (expiryByKey.size() + keys.size() > maxSize) {
+                LOGGER.debug("Security decision cache full, clearing.");
+                expiryByKey.clear();
+            }
+        }
+        final Long expiry = now + maxAgeMillis;
+        for (Key key : keys) {
+            expiryByKey.put(key, expiry);
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        expiryByKey.clear();
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        final Entity entity = message.getEntity();
+        if (entity == null) {
+            return;
+        }
+        if (isAffectedBy(entity.getEntityType(), message.getEventType() == EntityChangedMessage.Type.CREATE)) {
+            clear();
+        }
+    }
+
+    @Override
+    public boolean needsAllPartitions() {
+        return true;
+    }
+
+    /**
+     * The key of a decision in the cache.
+     *
+     * @param check The check that made the decision.
+     * @param principalName The name of the user the decision was made for.
+     * @param type The type of the entity the check ran against.
+     * @param pk The primary key of the entity the check ran against.
+     */
+    public static record Key(ValidationCheck check, String principalName, EntityType type, PkValue pk) {
+    }
+
+}
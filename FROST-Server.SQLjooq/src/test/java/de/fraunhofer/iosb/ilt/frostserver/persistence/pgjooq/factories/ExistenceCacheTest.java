@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories;
+
+import static de.fraunhofer.iosb.ilt.frostserver.property.SpecialNames.AT_IOT_ID;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.property.EntityPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain.NavigationPropertyEntity;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain.NavigationPropertyEntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for removing deleted entities from the existence cache.
+ */
+class ExistenceCacheTest {
+
+    private static CoreSettings coreSettings;
+    private static EntityType etThing;
+    private static EntityType etProject;
+
+    private ExistenceCache cache;
+
+    @BeforeAll
+    public static void beforeClass() {
+        coreSettings = new CoreSettings();
+        final ModelRegistry modelRegistry = coreSettings.getModelRegistry();
+        etThing = new EntityType("Thing", "Things");
+        etProject = new EntityType("Project", "Projects");
+        final NavigationPropertyEntity npProjectThing = new NavigationPropertyEntity("Project", false);
+        final NavigationPropertyEntitySet npThingsProject = new NavigationPropertyEntitySet("Things", npProjectThing);
+        modelRegistry.registerEntityType(etThing);
+        modelRegistry.registerEntityType(etProject);
+        etThing.registerProperty(new EntityPropertyMain<>(AT_IOT_ID, modelRegistry.getPropertyType(Constants.VALUE_ID_TYPE_LONG)).setAliases("id"))
+                .registerProperty(npProjectThing);
+        etProject.registerProperty(new EntityPropertyMain<>(AT_IOT_ID, modelRegistry.getPropertyType(Constants.VALUE_ID_TYPE_LONG)).setAliases("id"))
+                .registerProperty(npThingsProject);
+        modelRegistry.initFinalise();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        cache = new ExistenceCache(coreSettings.getPersistenceSettings());
+        cache.addAll(Set.of(key(etThing, 1), key(etThing, 2), key(etProject, 1)), cache.getGeneration());
+    }
+
+    @Test
+    void testDeleteOnlyCascadesWithSets() {
+        assertFalse(cache.deleteMayCascade(etThing));
+        assertTrue(cache.deleteMayCascade(etProject));
+    }
+
+    @Test
+    void testNonCascadingDeleteRemovesEntity() {
+        cache.deleted(etThing, PkValue.of(1L));
+        assertFalse(cache.contains(key(etThing, 1)));
+        assertTrue(cache.contains(key(etThing, 2)));
+        assertTrue(cache.contains(key(etProject, 1)));
+
+        cache.messageReceived(message(etThing, 2));
+        assertFalse(cache.contains(key(etThing, 2)));
+        assertTrue(cache.contains(key(etProject, 1)));
+    }
+
+    @Test
+    void testUnknownEntitiesRemoveType() {
+        cache.deleted(etThing, null);
+        assertFalse(cache.contains(key(etThing, 1)));
+        assertFalse(cache.contains(key(etThing, 2)));
+        assertTrue(cache.contains(key(etProject, 1)));
+    }
+
+    @Test
+    void testCascadingDeleteClears() {
+        cache.messageReceived(message(etProject, 1));
+        assertFalse(cache.contains(key(etThing, 1)));
+        assertFalse(cache.contains(key(etThing, 2)));
+        assertFalse(cache.contains(key(etProject, 1)));
+    }
+
+    @Test
+    void testNotAddedAfterDelete() {
+        final long generation = cache.getGeneration();
+        cache.deleted(etThing, PkValue.of(1L));
+        cache.addAll(Set.of(key(etThing, 1)), generation);
+        assertFalse(cache.contains(key(etThing, 1)));
+    }
+
+    private static ExistenceCache.Key key(EntityType type, long id) {
+        return new ExistenceCache.Key(type, PkValue.of(id));
+    }
+
+    private static EntityChangedMessage message(EntityType type, long id) {
+        return new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.DELETE)
+                .setEntity(new DefaultEntity(type, PkValue.of(id)));
+    }
+}
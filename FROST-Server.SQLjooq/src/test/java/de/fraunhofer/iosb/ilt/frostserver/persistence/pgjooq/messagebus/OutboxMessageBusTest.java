@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.messagebus;
+
+import static de.fraunhofer.iosb.ilt.frostserver.property.SpecialNames.AT_IOT_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.json.deserialize.JsonReaderDefault;
+import de.fraunhofer.iosb.ilt.frostserver.json.serialize.JsonWriter;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.property.EntityPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.property.type.TypeSimplePrimitive;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record3;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for claiming, delivering and retrying messages in the
+ * OutboxMessageBus, against a mocked database.
+ */
+class OutboxMessageBusTest {
+
+    private static final Field<Long> FIELD_ID = DSL.field(DSL.name("ID"), SQLDataType.BIGINT);
+    private static final Field<Long> FIELD_CREATED = DSL.field(DSL.name("CREATED"), SQLDataType.BIGINT);
+    private static final Field<String> FIELD_MESSAGE = DSL.field(DSL.name("MESSAGE"), SQLDataType.CLOB);
+
+    private static ModelRegistry modelRegistry;
+    private static EntityType etHouse;
+    private static EntityPropertyMain<String> epName;
+
+    /**
+     * The rows in the mocked outbox.
+     */
+    private final List<Object[]> outbox = new ArrayList<>();
+    /**
+     * The SQL statements executed against the mocked database.
+     */
+    private final List<String> statements = new ArrayList<>();
+    private final List<String> transactionEnds = new ArrayList<>();
+    private final DeliveryBus deliveryBus = new DeliveryBus();
+    private JooqPersistenceManager pm;
+    private JsonReaderDefault parser;
+
+    @BeforeAll
+    public static void beforeClass() {
+        CoreSettings coreSettings = new CoreSettings();
+        modelRegistry = coreSettings.getModelRegistry();
+        epName = new EntityPropertyMain<>("name", TypeSimplePrimitive.EDM_STRING, true, false);
+        etHouse = new EntityType("House", "Houses");
+        modelRegistry.registerEntityType(etHouse);
+        etHouse.registerProperty(new EntityPropertyMain<>(AT_IOT_ID, modelRegistry.getPropertyType(Constants.VALUE_ID_TYPE_LONG)).setAliases("id"))
+                .registerProperty(epName);
+        modelRegistry.initFinalise();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        parser = new JsonReaderDefault(modelRegistry, true);
+        final DSLContext dslContext = DSL.using(new MockConnection(ctx -> {
+            final String sql = ctx.sql().toLowerCase();
+            statements.add(sql);
+            if (sql.startsWith("select")) {
+                final DSLContext create = DSL.using(SQLDialect.POSTGRES);
+                final Result<Record3<Long, Long, String>> result = create.newResult(FIELD_ID, FIELD_CREATED, FIELD_MESSAGE);
+                for (Object[] row : outbox) {
+                    result.add(create.newRecord(FIELD_ID, FIELD_CREATED, FIELD_MESSAGE).values((Long) row[0], (Long) row[1], (String) row[2]));
+                }
+                return new MockResult[]{new MockResult(result.size(), result)};
+            }
+            if (sql.startsWith("delete")) {
+                final List<Object> ids = Arrays.asList(ctx.bindings());
+                outbox.removeIf(row -> ids.contains(row[0]));
+                return new MockResult[]{new MockResult(ids.size(), null)};
+            }
+            return new MockResult[]{new MockResult(1, null)};
+        }), SQLDialect.POSTGRES);
+        pm = (JooqPersistenceManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{JooqPersistenceManager.class},
+                (proxy, method, args) -> switch (method.getName()) {
+            case "getDslContext" ->
+                dslContext;
+            case "commit", "rollback" -> {
+                transactionEnds.add(method.getName());
+                yield true;
+            }
+            default ->
+                null;
+        });
+    }
+
+    @Test
+    void testStoreWritesAllMessagesInOneStatement() {
+        OutboxMessageBus bus = new OutboxMessageBus(deliveryBus, 10);
+        bus.storeMessages(pm, List.of(createMessage(1), createMessage(2), createMessage(3)));
+        assertEquals(1, statements.size());
+        assertTrue(statements.get(0).startsWith("insert into \"frost_outbox\""), statements.get(0));
+    }
+
+    @Test
+    void testClaimDeliverAndRemove() throws IOException {
+        addRow(1, createMessage(1));
+        addRow(2, createMessage(2));
+        OutboxMessageBus bus = new OutboxMessageBus(deliveryBus, 10);
+
+        assertEquals(2, bus.publishBatch(pm, parser));
+        assertTrue(statements.get(0).contains("for update skip locked"), statements.get(0));
+        assertEquals(List.of(1L, 2L), deliveryBus.deliveredIds());
+        assertEquals(List.of("commit"), transactionEnds);
+        assertTrue(outbox.isEmpty());
+    }
+
+    @Test
+    void testEmptyOutboxRollsBack() {
+        OutboxMessageBus bus = new OutboxMessageBus(deliveryBus, 10);
+        assertEquals(0, bus.publishBatch(pm, parser));
+        assertEquals(List.of("rollback"), transactionEnds);
+        assertTrue(deliveryBus.deliveredIds().isEmpty());
+    }
+
+    @Test
+    void testFailedDeliveryIsRetried() throws IOException {
+        addRow(1, createMessage(1));
+        addRow(2, createMessage(2));
+        OutboxMessageBus bus = new OutboxMessageBus(deliveryBus, 10);
+
+        deliveryBus.accept = false;
+        assertEquals(0, bus.publishBatch(pm, parser));
+        assertEquals(List.of("rollback"), transactionEnds);
+        assertTrue(deliveryBus.deliveredIds().isEmpty());
+        assertEquals(2, outbox.size(), "Undelivered messages must stay in the outbox.");
+
+        deliveryBus.accept = true;
+        assertEquals(2, bus.publishBatch(pm, parser));
+        assertEquals(List.of("rollback", "commit"), transactionEnds);
+        assertEquals(List.of(1L, 2L), deliveryBus.deliveredIds());
+        assertTrue(outbox.isEmpty());
+    }
+
+    @Test
+    void testUndecodableMessageIsRemoved() throws IOException {
+        addRow(1, createMessage(1));
+        outbox.add(new Object[]{2L, System.currentTimeMillis(), "{not json"});
+        addRow(3, createMessage(3));
+        OutboxMessageBus bus = new OutboxMessageBus(deliveryBus, 10);
+
+        assertEquals(3, bus.publishBatch(pm, parser));
+        assertEquals(List.of(1L, 3L), deliveryBus.deliveredIds());
+        assertTrue(outbox.isEmpty());
+    }
+
+    private void addRow(long id, EntityChangedMessage message) throws IOException {
+        outbox.add(new Object[]{id, System.currentTimeMillis(), JsonWriter.getObjectMapper().writeValueAsString(message)});
+    }
+
+    private static EntityChangedMessage createMessage(long id) {
+        Entity house = new DefaultEntity(etHouse, PkValue.of(id))
+                .setProperty(epName, "House " + id);
+        house.setQuery(modelRegistry.getMessageQueryGenerator().getQueryFor(etHouse));
+        return new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.CREATE)
+                .setEntity(house);
+    }
+
+    private static class DeliveryBus implements MessageBus {
+
+        private final List<EntityChangedMessage> delivered = new ArrayList<>();
+        private boolean accept = true;
+
+        @Override
+        public void init(CoreSettings settings) {
+            // Nothing to initialise.
+        }
+
+        @Override
+        public void stop() {
+            // Nothing to stop.
+        }
+
+        @Override
+        public void sendMessage(EntityChangedMessage message) {
+            delivered.add(message);
+        }
+
+        @Override
+        public boolean deliverMessages(List<EntityChangedMessage> messages) {
+            if (accept) {
+                delivered.addAll(messages);
+            }
+            return accept;
+        }
+
+        @Override
+        public void addMessageListener(MessageListener listener) {
+            // Not used.
+        }
+
+        @Override
+        public void removeMessageListener(MessageListener listener) {
+            // Not used.
+        }
+
+        private List<Object> deliveredIds() {
+            List<Object> ids = new ArrayList<>();
+            for (EntityChangedMessage message : delivered) {
+                ids.add(message.getEntity().getPrimaryKeyValues().get(0));
+            }
+            return ids;
+        }
+    }
+}
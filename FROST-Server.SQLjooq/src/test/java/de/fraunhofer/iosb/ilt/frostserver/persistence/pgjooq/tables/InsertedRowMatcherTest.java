@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.bindings.JsonBinding;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.bindings.JsonValue;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.bindings.MomentBinding;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import net.time4j.Moment;
+import net.time4j.scale.TimeScale;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for matching the rows returned by a multi-row insert to the inserted
+ * rows, when the database returns them in a different order.
+ */
+class InsertedRowMatcherTest {
+
+    private static final DSLContext CREATE = DSL.using(SQLDialect.POSTGRES);
+    private static final Field<Long> ID = DSL.field(DSL.name("id"), SQLDataType.BIGINT);
+    private static final Field<String> NAME = DSL.field(DSL.name("name"), SQLDataType.CLOB);
+    private static final Field<Double> NUMBER = DSL.field(DSL.name("number"), SQLDataType.DOUBLE);
+    private static final Field<Moment> TIME = DSL.field(DSL.name("time"), MomentBinding.dataType());
+    private static final Field<JsonValue> JSON = DSL.field(DSL.name("json"), JsonBinding.dataType());
+    private static final List<Field> RETURNED = Arrays.asList(ID, NAME, NUMBER, TIME, JSON);
+
+    private static Map<Field, Object> row(Object... fieldsAndValues) {
+        Map<Field, Object> row = new HashMap<>();
+        for (int i = 0; i < fieldsAndValues.length; i += 2) {
+            row.put((Field) fieldsAndValues[i], fieldsAndValues[i + 1]);
+        }
+        return row;
+    }
+
+    private static Record result(Long id, String name, Double number, Moment time) {
+        Record result = CREATE.newRecord(RETURNED.toArray(Field[]::new));
+        result.set(ID, id);
+        result.set(NAME, name);
+        result.set(NUMBER, number);
+        result.set(TIME, time);
+        return result;
+    }
+
+    @Test
+    void testMatchOnPrimaryKey() {
+        List<Map<Field, Object>> rows = Arrays.asList(
+                row(ID, 5L, NAME, "a"),
+                row(ID, 6L, NAME, "a"),
+                row(ID, 7L, NAME, "a"));
+        InsertedRowMatcher matcher = new InsertedRowMatcher(Arrays.asList(ID, NAME), Arrays.asList(ID), RETURNED);
+        assertTrue(matcher.register(Arrays.asList(0, 1, 2), rows).isEmpty());
+        assertEquals(2, matcher.match(result(7L, "a", null, null)));
+        assertEquals(0, matcher.match(result(5L, "a", null, null)));
+        assertEquals(1, matcher.match(result(6L, "a", null, null)));
+    }
+
+    @Test
+    void testMatchOnContentInReverseOrder() {
+        Moment time = Moment.of(1_700_000_000L, 123_456_789, TimeScale.POSIX);
+        List<Map<Field, Object>> rows = Arrays.asList(
+                row(NAME, "a", NUMBER, 1.5, TIME, time),
+                row(NAME, "b", NUMBER, 1.5, TIME, time),
+                row(NAME, "b", NUMBER, 2.0, TIME, time));
+        InsertedRowMatcher matcher = new InsertedRowMatcher(Arrays.asList(NAME, NUMBER, TIME), Arrays.asList(ID), RETURNED);
+        assertTrue(matcher.register(Arrays.asList(0, 1, 2), rows).isEmpty());
+        // The database truncates the time to microseconds.
+        Moment stored = Moment.of(1_700_000_000L, 123_456_000, TimeScale.POSIX);
+        assertEquals(2, matcher.match(result(103L, "b", 2.0, stored)));
+        assertEquals(1, matcher.match(result(102L, "b", 1.5, stored)));
+        assertEquals(0, matcher.match(result(101L, "a", 1.5, stored)));
+    }
+
+    @Test
+    void testIdenticalRowsAreMatchedOnce() {
+        List<Map<Field, Object>> rows = Arrays.asList(
+                row(NAME, "a"),
+                row(NAME, "a"));
+        InsertedRowMatcher matcher = new InsertedRowMatcher(Arrays.asList(NAME), Arrays.asList(ID), RETURNED);
+        assertTrue(matcher.register(Arrays.asList(0, 1), rows).isEmpty());
+        int first = matcher.match(result(1L, "a", null, null));
+        int second = matcher.match(result(2L, "a", null, null));
+        assertEquals(1, first + second);
+        Record third = result(3L, "a", null, null);
+        assertThrows(IllegalStateException.class, () -> matcher.match(third));
+    }
+
+    @Test
+    void testIndistinguishableRowsAreInsertedOneByOne() {
+        // JSON values do not survive a round-trip unchanged, so they can not be used to tell rows apart.
+        List<Map<Field, Object>> rows = Arrays.asList(
+                row(NAME, "a", JSON, new JsonValue("{\"x\":1}")),
+                row(NAME, "a", JSON, new JsonValue("{\"x\":2}")),
+                row(NAME, "b", JSON, new JsonValue("{\"x\":2}")));
+        InsertedRowMatcher matcher = new InsertedRowMatcher(Arrays.asList(NAME, JSON), Arrays.asList(ID), RETURNED);
+        assertEquals(Arrays.asList(0, 1), matcher.register(Arrays.asList(0, 1, 2), rows));
+        assertEquals(2, matcher.match(result(1L, "b", null, null)));
+    }
+
+    @Test
+    void testChangedRowIsNotMatched() {
+        List<Map<Field, Object>> rows = Arrays.asList(row(NAME, "a"));
+        InsertedRowMatcher matcher = new InsertedRowMatcher(Arrays.asList(NAME), Arrays.asList(ID), RETURNED);
+        matcher.register(Arrays.asList(0), rows);
+        Record changed = result(1L, "A", null, null);
+        assertThrows(IllegalStateException.class, () -> matcher.match(changed));
+    }
+
+    @Test
+    void testNormalise() {
+        assertEquals(InsertedRowMatcher.normalise(2), InsertedRowMatcher.normalise(2L));
+        assertEquals(InsertedRowMatcher.normalise(2.0), InsertedRowMatcher.normalise(new BigDecimal("2.000")));
+        assertEquals(InsertedRowMatcher.normalise(Double.NaN), InsertedRowMatcher.normalise(Double.NaN));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils;
+
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_DRIVER;
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_POOL_FACTORY;
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_READ_MAXLAG;
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_READ_POOL;
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_READ_URL;
+import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionUtils.TAG_DB_URL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the selection of the primary and read pools in ConnectionUtils.
+ */
+class ConnectionUtilsTest {
+
+    private static final String PRIMARY_URL = "jdbc:test:primary";
+    private static final String FAILING_URL = "jdbc:test:fail";
+    private static final AtomicInteger NAME_COUNTER = new AtomicInteger();
+
+    /**
+     * The lag reported by the lag query of the test connections.
+     */
+    private static volatile double replicaLag;
+
+    private String name;
+
+    @BeforeEach
+    public void setUp() {
+        // Pools are kept per name, each test uses its own pools.
+        name = "test-" + NAME_COUNTER.incrementAndGet();
+        replicaLag = 0;
+    }
+
+    @Test
+    void testWritesUsePrimary() throws SQLException {
+        final Settings settings = createSettings(true, "jdbc:test:r1 jdbc:test:r2");
+        assertEquals(PRIMARY_URL, urlOf(ConnectionUtils.getConnection(name, settings)));
+        assertEquals(PRIMARY_URL, urlOf(ConnectionUtils.getConnection(name, settings, false)));
+    }
+
+    @Test
+    void testReadsUsePrimaryWhenReadPoolDisabled() throws SQLException {
+        final Settings settings = createSettings(false, "jdbc:test:r1");
+        assertEquals(PRIMARY_URL, urlOf(ConnectionUtils.getConnection(name, settings, true)));
+    }
+
+    @Test
+    void testReadsUseReplicasInTurn() throws SQLException {
+        final Settings settings = createSettings(true, "jdbc:test:r1 jdbc:test:r2");
+        assertEquals("jdbc:test:r1", urlOf(ConnectionUtils.getConnection(name, settings, true)));
+        assertEquals("jdbc:test:r2", urlOf(ConnectionUtils.getConnection(name, settings, true)));
+        assertEquals("jdbc:test:r1", urlOf(ConnectionUtils.getConnection(name, settings, true)));
+    }
+
+    @Test
+    void testReadPoolWithoutReplicaUrlUsesPrimaryUrl() throws SQLException {
+        final Settings settings = createSettings(true, "");
+        assertEquals(PRIMARY_URL, urlOf(ConnectionUtils.getConnection(name, settings, true)));
+    }
+
+    @Test
+    void testFailedReplicaIsSkipped() throws SQLException {
+        final Settings settings = createSettings(true, FAILING_URL + " jdbc:test:r2");
+        assertEquals("jdbc:test:r2", urlOf(ConnectionUtils.getConnection(name, settings, true)));
+        assertEquals("jdbc:test:r2", urlOf(ConnectionUtils.getConnection(name, settings, true)));
+    }
+
+    @Test
+    void testLaggingReplicaFallsBackToPrimary() throws SQLException {
+        replicaLag = 100;
+        final Settings settings = createSettings(true, "jdbc:test:r1");
+        assertEquals(PRIMARY_URL, urlOf(ConnectionUtils.getConnection(name, settings, true)));
+        replicaLag = 0;
+        // The lagging replica is not checked again until the check interval passed.
+        assertEquals(PRIMARY_URL, urlOf(ConnectionUtils.getConnection(name, settings, true)));
+    }
+
+    @Test
+    void testLagCheckCanBeDisabled() throws SQLException {
+        replicaLag = 100;
+        final Settings settings = createSettings(true, "jdbc:test:r1");
+        settings.set(TAG_DB_READ_MAXLAG, "0");
+        assertEquals("jdbc:test:r1", urlOf(ConnectionUtils.getConnection(name, settings, true)));
+    }
+
+    @Test
+    void testConnectionWrapperReadOnlyIsReset() throws SQLException {
+        final Settings settings = createSettings(true, "jdbc:test:r1");
+        try (ConnectionUtils.ConnectionWrapper wrapper = new ConnectionUtils.ConnectionWrapper(settings, name)) {
+            wrapper.setReadOnly(true);
+            assertEquals("jdbc:test:r1", urlOf(wrapper.get()));
+            wrapper.close();
+            assertEquals(PRIMARY_URL, urlOf(wrapper.get()));
+        }
+    }
+
+    private static Settings createSettings(boolean readPool, String readUrls) {
+        final Properties properties = new Properties();
+        properties.put(TAG_DB_POOL_FACTORY, TestPoolFactory.class.getName());
+        properties.put(TAG_DB_DRIVER, "org.postgresql.Driver");
+        properties.put(TAG_DB_URL, PRIMARY_URL);
+        properties.put(TAG_DB_READ_POOL, Boolean.toString(readPool));
+        properties.put(TAG_DB_READ_URL, readUrls);
+        return new Settings(properties);
+    }
+
+    private static String urlOf(Connection connection) {
+        return connection.toString();
+    }
+
+    /**
+     * A pool factory that creates pools of fake connections. The toString of a
+     * connection is the url it connects to.
+     */
+    public static class TestPoolFactory implements ConnectionPoolFactory {
+
+        @Override
+        public DataSource createPool(PoolConfig config) {
+            final String url = config.url();
+            return (DataSource) Proxy.newProxyInstance(
+                    ConnectionUtilsTest.class.getClassLoader(),
+                    new Class<?>[]{DataSource.class},
+                    (proxy, method, args) -> {
+                        if (!"getConnection".equals(method.getName())) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        if (FAILING_URL.equals(url)) {
+                            throw new SQLException("Replica is down.");
+                        }
+                        return createConnection(url);
+                    });
+        }
+
+        private static Connection createConnection(String url) {
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionUtilsTest.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                case "toString" ->
+                    url;
+                case "createStatement" ->
+                    createStatement();
+                case "isClosed" ->
+                    false;
+                default ->
+                    null;
+            });
+        }
+
+        private static Statement createStatement() {
+            final ResultSet result = (ResultSet) Proxy.newProxyInstance(
+                    ConnectionUtilsTest.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                case "next" ->
+                    true;
+                case "getDouble" ->
+                    replicaLag;
+                default ->
+                    null;
+            });
+            return (Statement) Proxy.newProxyInstance(
+                    ConnectionUtilsTest.class.getClassLoader(),
+                    new Class<?>[]{Statement.class},
+                    (proxy, method, args) -> "executeQuery".equals(method.getName()) ? result : null);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.metrics.ServerMetrics;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.ConnectionPoolFactory.PoolConfig;
+import java.sql.SQLException;
+import java.time.Duration;
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the DbcpConnectionPoolFactory.
+ */
+class DbcpConnectionPoolFactoryTest {
+
+    private static final String DRIVER = "org.postgresql.Driver";
+    private static final String URL = "jdbc:postgresql://localhost/test";
+
+    @Test
+    void testConfigApplied() throws SQLException {
+        final PoolConfig config = new PoolConfig("configured", DRIVER, URL, "user", "secret", 20, 5, 2, 1500, 60000, 3, 50);
+        final BasicDataSource ds = (BasicDataSource) new DbcpConnectionPoolFactory().createPool(config);
+        try {
+            assertEquals(DRIVER, ds.getDriverClassName());
+            assertEquals(URL, ds.getUrl());
+            assertEquals("user", ds.getUserName());
+            assertEquals(20, ds.getMaxTotal());
+            assertEquals(5, ds.getMaxIdle());
+            assertEquals(2, ds.getMinIdle());
+            assertEquals(Duration.ofMillis(1500), ds.getMaxWaitDuration());
+            assertEquals(Duration.ofMillis(60000), ds.getMaxConnDuration());
+            assertTrue(ds.getTestOnBorrow());
+            assertEquals(Duration.ofSeconds(3), ds.getValidationQueryTimeoutDuration());
+            assertTrue(ds.isPoolPreparedStatements());
+            assertEquals(50, ds.getMaxOpenPreparedStatements());
+        } finally {
+            ds.close();
+        }
+    }
+
+    @Test
+    void testDefaultsKept() throws SQLException {
+        final BasicDataSource defaults = new BasicDataSource();
+        final PoolConfig config = new PoolConfig("defaults", DRIVER, URL, "user", "secret", -1, -1, -1, -1, -1, 0, 0);
+        final BasicDataSource ds = (BasicDataSource) new DbcpConnectionPoolFactory().createPool(config);
+        try {
+            assertEquals(defaults.getMaxTotal(), ds.getMaxTotal());
+            assertEquals(defaults.getMaxIdle(), ds.getMaxIdle());
+            assertEquals(defaults.getMinIdle(), ds.getMinIdle());
+            assertEquals(defaults.getMaxWaitDuration(), ds.getMaxWaitDuration());
+            assertEquals(defaults.getMaxConnDuration(), ds.getMaxConnDuration());
+            assertEquals(defaults.getTestOnBorrow(), ds.getTestOnBorrow());
+            assertFalse(ds.isPoolPreparedStatements());
+        } finally {
+            ds.close();
+            defaults.close();
+        }
+    }
+
+    @Test
+    void testMetricsRegistered() throws SQLException {
+        final PoolConfig config = new PoolConfig("metrics", DRIVER, URL, "user", "secret", 12, -1, -1, -1, -1, 0, 0);
+        final DbcpConnectionPoolFactory factory = new DbcpConnectionPoolFactory();
+        final BasicDataSource ds = (BasicDataSource) factory.createPool(config);
+        final ServerMetrics metrics = new ServerMetrics(true);
+        try {
+            factory.registerMetrics(metrics, config, ds);
+            assertEquals(12, connections(metrics, "max"));
+            assertEquals(0, connections(metrics, "active"));
+            assertEquals(0, connections(metrics, "idle"));
+        } finally {
+            ds.close();
+        }
+    }
+
+    private static double connections(ServerMetrics metrics, String state) {
+        return metrics.getRegistry().get("frost.db.connections").tags("pool", "metrics", "state", state).gauge().value();
+    }
+
+}
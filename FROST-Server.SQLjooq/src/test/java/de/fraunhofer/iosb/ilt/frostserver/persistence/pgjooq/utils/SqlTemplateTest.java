@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.bindings.MomentBinding;
+import java.util.Arrays;
+import java.util.List;
+import net.time4j.Moment;
+import net.time4j.scale.TimeScale;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+import org.jooq.SQLDialect;
+import org.jooq.conf.ParamType;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for executing queries from their rendered SQL.
+ */
+class SqlTemplateTest {
+
+    private static final DSLContext CREATE = DSL.using(SQLDialect.POSTGRES);
+    private static final Field<Long> ID = DSL.field(DSL.name("t", "id"), SQLDataType.BIGINT);
+    private static final Field<String> NAME = DSL.field(DSL.name("t", "name"), SQLDataType.CLOB);
+    private static final Field<Moment> TIME = DSL.field(DSL.name("t", "time"), MomentBinding.dataType());
+    private static final List<Field<?>> FIELDS = Arrays.asList(ID, NAME, TIME);
+
+    @Test
+    void testQueryFromTemplate() {
+        final Moment time = Moment.of(1_704_067_200L, TimeScale.POSIX);
+        final ResultQuery<Record> select = CREATE.select(FIELDS)
+                .from(DSL.table(DSL.name("t")))
+                .where(NAME.eq("it's ?"))
+                .and(TIME.greaterThan(DSL.val(time, TIME)))
+                .and(ID.notEqual(DSL.inline(3L)))
+                .orderBy(ID)
+                .limit(10, 5);
+        final SqlTemplate template = SqlTemplate.of(select);
+        assertEquals(select.getSQL(ParamType.INDEXED), template.getSql());
+
+        final ResultQuery<Record> query = template.toQuery(CREATE, FIELDS);
+        assertEquals(select.getSQL(ParamType.INDEXED), query.getSQL(ParamType.INDEXED));
+        assertEquals(select.getSQL(ParamType.INLINED), query.getSQL(ParamType.INLINED));
+        assertEquals(select.getBindValues(), query.getBindValues());
+        assertEquals(FIELDS, Arrays.asList(query.fields()));
+    }
+
+}
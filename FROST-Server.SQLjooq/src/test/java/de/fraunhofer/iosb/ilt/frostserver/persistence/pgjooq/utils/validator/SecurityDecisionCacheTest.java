@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.validator;
+
+import static de.fraunhofer.iosb.ilt.frostserver.property.SpecialNames.AT_IOT_ID;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.EntityFactories;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables.TableCollection;
+import de.fraunhofer.iosb.ilt.frostserver.property.EntityPropertyMain;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain.NavigationPropertyEntity;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain.NavigationPropertyEntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.property.type.TypeSimplePrimitive;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.util.Constants;
+import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for caching the decisions of query-based security checks.
+ */
+class SecurityDecisionCacheTest {
+
+    private static CoreSettings coreSettings;
+    private static ModelRegistry modelRegistry;
+    private static EntityType etThing;
+    private static EntityType etProject;
+    private static EntityType etRole;
+
+    private SecurityDecisionCache cache;
+    private EntityFactories entityFactories;
+    private CheckEntityQuery check;
+    private JooqPersistenceManager pm;
+    /**
+     * The number of times the check query was executed.
+     */
+    private int queryCount;
+    /**
+     * Whether the check query finds the entity, and thus allows the change.
+     */
+    private boolean allowed;
+
+    @BeforeAll
+    public static void beforeClass() {
+        coreSettings = new CoreSettings();
+        coreSettings.setMessageBus((MessageBus) Proxy.newProxyInstance(
+                SecurityDecisionCacheTest.class.getClassLoader(),
+                new Class<?>[]{MessageBus.class},
+                (proxy, method, args) -> null));
+        modelRegistry = coreSettings.getModelRegistry();
+        etThing = new EntityType("Thing", "Things");
+        etProject = new EntityType("Project", "Projects");
+        etRole = new EntityType("Role", "Roles");
+        final EntityPropertyMain<String> epName = new EntityPropertyMain<>("name", TypeSimplePrimitive.EDM_STRING);
+        final EntityPropertyMain<String> epUserName = new EntityPropertyMain<>("userName", TypeSimplePrimitive.EDM_STRING);
+        final NavigationPropertyEntity npProjectThing = new NavigationPropertyEntity("Project", false);
+        final NavigationPropertyEntitySet npThingsProject = new NavigationPropertyEntitySet("Things", npProjectThing);
+        final NavigationPropertyEntity npProjectRole = new NavigationPropertyEntity("Project", false);
+        final NavigationPropertyEntitySet npRolesProject = new NavigationPropertyEntitySet("Roles", npProjectRole);
+        modelRegistry.registerEntityType(etThing);
+        modelRegistry.registerEntityType(etProject);
+        modelRegistry.registerEntityType(etRole);
+        etThing.registerProperty(new EntityPropertyMain<>(AT_IOT_ID, modelRegistry.getPropertyType(Constants.VALUE_ID_TYPE_LONG)).setAliases("id"))
+                .registerProperty(epName)
+                .registerProperty(npProjectThing);
+        etProject.registerProperty(new EntityPropertyMain<>(AT_IOT_ID, modelRegistry.getPropertyType(Constants.VALUE_ID_TYPE_LONG)).setAliases("id"))
+                .registerProperty(epName)
+                .registerProperty(npThingsProject)
+                .registerProperty(npRolesProject);
+        etRole.registerProperty(new EntityPropertyMain<>(AT_IOT_ID, modelRegistry.getPropertyType(Constants.VALUE_ID_TYPE_LONG)).setAliases("id"))
+                .registerProperty(epUserName)
+                .registerProperty(npProjectRole);
+        modelRegistry.initFinalise();
+    }
+
+    @BeforeEach
+    public void setUp() {
+        cache = new SecurityDecisionCache(coreSettings.getPersistenceSettings());
+        final TableCollection tableCollection = new TableCollection()
+                .setModelRegistry(modelRegistry)
+                .setSecurityDecisionCache(cache);
+        entityFactories = new EntityFactories(modelRegistry, tableCollection);
+        check = new CheckEntityQuery();
+        check.setQuery("$filter=Project/Roles/any(r: r/userName eq 'alice')");
+        queryCount = 0;
+        allowed = true;
+        pm = (JooqPersistenceManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{JooqPersistenceManager.class},
+                (proxy, method, args) -> switch (method.getName()) {
+            case "getCoreSettings" ->
+                coreSettings;
+            case "getEntityFactories" ->
+                entityFactories;
+            case "getTableCollection" ->
+                tableCollection;
+            case "get" -> {
+                queryCount++;
+                yield allowed ? args[0] == etThing ? thing(((PkValue) args[1]).get(0)) : null : null;
+            }
+            default ->
+                throw new UnsupportedOperationException(method.getName());
+        });
+        PrincipalExtended.setLocalPrincipal(new PrincipalExtended("alice", false, Collections.emptySet()));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        PrincipalExtended.removeLocalPrincipal();
+    }
+
+    @Test
+    void testPositiveDecisionIsReused() {
+        assertTrue(check.check(pm, thing(1)));
+        assertTrue(check.check(pm, thing(1)));
+        assertEquals(1, queryCount);
+        entityFactories.transactionCommitted();
+
+        assertTrue(check.check(pm, thing(1)));
+        assertEquals(1, queryCount);
+        // A different entity, or a different user, is checked again.
+        assertTrue(check.check(pm, thing(2)));
+        assertEquals(2, queryCount);
+        PrincipalExtended.setLocalPrincipal(new PrincipalExtended("bob", false, Collections.emptySet()));
+        assertTrue(check.check(pm, thing(1)));
+        assertEquals(3, queryCount);
+    }
+
+    @Test
+    void testDenialIsRechecked() {
+        allowed = false;
+        assertFalse(check.check(pm, thing(1)));
+        entityFactories.transactionCommitted();
+        assertFalse(check.check(pm, thing(1)));
+        assertEquals(2, queryCount);
+    }
+
+    @Test
+    void testRolledBackDecisionIsNotPublished() {
+        assertTrue(check.check(pm, thing(1)));
+        entityFactories.transactionEnded();
+        entityFactories.transactionCommitted();
+        assertTrue(check.check(pm, thing(1)));
+        assertEquals(2, queryCount);
+    }
+
+    @Test
+    void testNotAddedAfterGenerationBump() {
+        assertTrue(check.check(pm, thing(1)));
+        cache.messageReceived(message(EntityChangedMessage.Type.UPDATE, etRole));
+        entityFactories.transactionCommitted();
+        assertTrue(check.check(pm, thing(1)));
+        assertEquals(2, queryCount);
+    }
+
+    @Test
+    void testChangesInvalidate() {
+        assertCachedAfter(message(EntityChangedMessage.Type.CREATE, etThing), true);
+        assertCachedAfter(message(EntityChangedMessage.Type.UPDATE, etThing), false);
+        assertCachedAfter(message(EntityChangedMessage.Type.DELETE, etThing), false);
+        assertCachedAfter(message(EntityChangedMessage.Type.CREATE, etProject), false);
+        assertCachedAfter(message(EntityChangedMessage.Type.UPDATE, etProject), false);
+        assertCachedAfter(message(EntityChangedMessage.Type.DELETE, etProject), false);
+        assertCachedAfter(message(EntityChangedMessage.Type.CREATE, etRole), false);
+        assertCachedAfter(message(EntityChangedMessage.Type.UPDATE, etRole), false);
+        assertCachedAfter(message(EntityChangedMessage.Type.DELETE, etRole), false);
+    }
+
+    @Test
+    void testDeleteRelationInvalidates() {
+        assertTrue(check.check(pm, thing(1)));
+        entityFactories.transactionCommitted();
+        entityFactories.relationDeleted(etProject, etRole);
+        assertTrue(check.check(pm, thing(1)));
+        assertEquals(2, queryCount);
+    }
+
+    @Test
+    void testDeleteRelationInTransactionInvalidates() {
+        assertTrue(check.check(pm, thing(1)));
+        entityFactories.relationDeleted(etThing, etProject);
+        assertTrue(check.check(pm, thing(1)));
+        assertEquals(2, queryCount);
+    }
+
+    private void assertCachedAfter(EntityChangedMessage message, boolean expectCached) {
+        assertTrue(check.check(pm, thing(1)));
+        entityFactories.transactionCommitted();
+        final int before = queryCount;
+        cache.messageReceived(message);
+        assertTrue(check.check(pm, thing(1)));
+        entityFactories.transactionCommitted();
+        assertEquals(expectCached ? before : before + 1, queryCount, "After " + message.getEventType() + " of " + message.getEntity().getEntityType());
+    }
+
+    private static Entity thing(Object id) {
+        return new DefaultEntity(etThing, PkValue.of(id));
+    }
+
+    private static EntityChangedMessage message(EntityChangedMessage.Type type, EntityType entityType) {
+        return new EntityChangedMessage()
+                .setEventType(type)
+                .setEntity(new DefaultEntity(entityType, PkValue.of(5L)));
+    }
+}
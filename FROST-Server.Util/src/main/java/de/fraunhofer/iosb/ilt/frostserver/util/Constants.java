@@ -34,8 +34,14 @@ public class Constants {
     public static final String CHARSET_UTF8 = "charset=UTF-8";
 
     public static final String HEADER_ACCEPT = "Accept";
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_SERVER_TIMING = "Server-Timing";
     public static final String HEADER_LOCATION = "Location";
     public static final String HEADER_PREFER = "Prefer";
+    public static final String HEADER_VARY = "Vary";
 
     public static final String TAG_PREFER_RETURN = "return";
 
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A Map that holds a JSON object as text, as it was loaded from the database,
+ * and only parses it when its content is accessed. As long as it has not been
+ * parsed, it is written to textual JSON output as-is, without the
+ * parse-and-serialise round trip. Once parsed, it behaves like a TreeMap.
+ *
+ * @author hylke
+ */
+@JsonSerialize(using = RawJsonMap.RawJsonMapSerializer.class)
+public class RawJsonMap extends AbstractMap<String, Object> {
+
+    private static final TypeReference<TreeMap<String, Object>> TYPE_SORTED_MAP = new TypeReference<TreeMap<String, Object>>() {
+        // Empty on purpose.
+    };
+
+    private final String rawJson;
+    private volatile Map<String, Object> parsed;
+
+    /**
+     * Create a new RawJsonMap for the given JSON text, that must contain a JSON
+     * object.
+     *
+     * @param rawJson The JSON object, as text.
+     */
+    public RawJsonMap(String rawJson) {
+        this.rawJson = rawJson;
+    }
+
+    /**
+     * Check if the given JSON text can be wrapped in a RawJsonMap, meaning it
+     * contains a JSON object.
+     *
+     * @param json The JSON text to check.
+     * @return true if the text starts with a JSON object.
+     */
+    public static boolean isJsonObject(String json) {
+        if (json == null) {
+            return false;
+        }
+        final int length = json.length();
+        for (int i = 0; i < length; i++) {
+            final char c = json.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the content has been parsed. A Map that is parsed can have been
+     * changed, and is no longer written out as-is.
+     *
+     * @return true if the content has been parsed.
+     */
+    public boolean isParsed() {
+        return parsed != null;
+    }
+
+    /**
+     * The JSON text this Map was created with. If the Map has been parsed, this
+     * may no longer reflect the content of the Map.
+     *
+     * @return The JSON text this Map was created with.
+     */
+    public String getRawJson() {
+        return rawJson;
+    }
+
+    private Map<String, Object> getParsed() {
+        Map<String, Object> result = parsed;
+        if (result == null) {
+            synchronized (this) {
+                result = parsed;
+                if (result == null) {
+                    try {
+                        result = SimpleJsonMapper.getSimpleObjectMapper().readValue(rawJson, TYPE_SORTED_MAP);
+                    } catch (IOException ex) {
+                        throw new IllegalStateException("Failed to parse stored json.", ex);
+                    }
+                    parsed = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Object get(Object key) {
+        return getParsed().get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getParsed().containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return getParsed().containsValue(value);
+    }
+
+    @Override
+    public int size() {
+        return getParsed().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        final Map<String, Object> current = parsed;
+        if (current != null) {
+            return current.isEmpty();
+        }
+        // Avoid parsing just to find out if there is anything in the object.
+        final int start = rawJson.indexOf('{') + 1;
+        final int length = rawJson.length();
+        for (int i = start; i < length; i++) {
+            if (!Character.isWhitespace(rawJson.charAt(i))) {
+                return rawJson.charAt(i) == '}';
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return getParsed().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return getParsed().remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> m) {
+        getParsed().putAll(m);
+    }
+
+    @Override
+    public void clear() {
+        getParsed().clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return getParsed().keySet();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return getParsed().entrySet();
+    }
+
+    /**
+     * Writes the JSON text as-is when the map is not parsed and the output is
+     * textual JSON. Otherwise, the parsed map is serialised normally.
+     */
+    public static class RawJsonMapSerializer extends StdSerializer<RawJsonMap> {
+
+        public RawJsonMapSerializer() {
+            super(RawJsonMap.class);
+        }
+
+        @Override
+        public void serialize(RawJsonMap value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            if (!value.isParsed() && isTextualJson(gen)) {
+                gen.writeRawValue(value.rawJson);
+            } else {
+                serializers.defaultSerializeValue(value.getParsed(), gen);
+            }
+        }
+
+        private static boolean isTextualJson(JsonGenerator gen) {
+            if (gen.canWriteBinaryNatively()) {
+                // Binary formats, like Smile, and token buffers.
+                return false;
+            }
+            final ObjectCodec codec = gen.getCodec();
+            return codec == null || JsonFactory.FORMAT_NAME_JSON.equals(codec.getFactory().getFormatName());
+        }
+
+        @Override
+        public boolean isEmpty(SerializerProvider provider, RawJsonMap value) {
+            return value == null || value.isEmpty();
+        }
+    }
+}
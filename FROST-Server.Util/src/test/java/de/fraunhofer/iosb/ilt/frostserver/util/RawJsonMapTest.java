@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author hylke
+ */
+class RawJsonMapTest {
+
+    private static final String JSON = "{\"b\": [1, 2], \"a\": {\"c\": true}}";
+
+    @Test
+    void testIsJsonObject() {
+        assertTrue(RawJsonMap.isJsonObject(JSON));
+        assertTrue(RawJsonMap.isJsonObject(" \n{}"));
+        assertFalse(RawJsonMap.isJsonObject("[1, 2]"));
+        assertFalse(RawJsonMap.isJsonObject("null"));
+        assertFalse(RawJsonMap.isJsonObject(null));
+    }
+
+    @Test
+    void testWrittenAsIs() throws JsonProcessingException {
+        final ObjectMapper mapper = SimpleJsonMapper.getSimpleObjectMapper();
+        final RawJsonMap map = new RawJsonMap(JSON);
+        assertEquals("{\"x\":" + JSON + "}", mapper.writeValueAsString(Map.of("x", map)));
+        assertFalse(map.isParsed());
+        assertFalse(map.isEmpty());
+        assertTrue(new RawJsonMap("{ }").isEmpty());
+        assertFalse(map.isParsed());
+    }
+
+    @Test
+    void testParsedOnDemand() throws JsonProcessingException {
+        final ObjectMapper mapper = SimpleJsonMapper.getSimpleObjectMapper();
+        final RawJsonMap map = new RawJsonMap(JSON);
+        assertEquals(Map.of("c", true), map.get("a"));
+        assertTrue(map.isParsed());
+        assertEquals("{\"a\":{\"c\":true},\"b\":[1,2]}", mapper.writeValueAsString(map));
+
+        map.put("d", 4);
+        assertEquals(3, map.size());
+        assertEquals("{\"a\":{\"c\":true},\"b\":[1,2],\"d\":4}", mapper.writeValueAsString(map));
+    }
+
+    @Test
+    void testNotWrittenAsIsToTokens() throws JsonProcessingException {
+        final ObjectMapper mapper = SimpleJsonMapper.getSimpleObjectMapper();
+        final RawJsonMap map = new RawJsonMap(JSON);
+        assertEquals(mapper.readTree(JSON), mapper.valueToTree(map));
+        assertTrue(map.isParsed());
+    }
+
+}
@@ -22,6 +22,7 @@ import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolean;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
 
 /**
  *
@@ -29,6 +30,16 @@ import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolea
  */
 public final class CoreModelSettings implements ConfigDefaults {
 
+    /**
+     * Datastreams are updated by a row-level trigger for each Observation.
+     */
+    public static final String DS_ACTUALIZATION_ROW = "ROW";
+    /**
+     * The extents of new Observations are queued, and folded into the
+     * Datastreams without waiting for locks.
+     */
+    public static final String DS_ACTUALIZATION_DEFERRED = "DEFERRED";
+
     @DefaultValueBoolean(true)
     public static final String TAG_ENABLE_CORE_MODEL = "coreModel.enable";
     @DefaultValueBoolean(false)
@@ -51,6 +62,12 @@ public final class CoreModelSettings implements ConfigDefaults {
     public static final String TAG_ID_TYPE_SENSOR = "coreModel.idType.sensor";
     @DefaultValue("")
     public static final String TAG_ID_TYPE_THING = "coreModel.idType.thing";
+    @DefaultValueInt(10000)
+    public static final String TAG_GENERATED_FOI_CACHE_SIZE = "coreModel.generatedFoiCacheSize";
+    @DefaultValue(DS_ACTUALIZATION_ROW)
+    public static final String TAG_DS_ACTUALIZATION = "coreModel.datastreamActualization";
+    @DefaultValueInt(10000)
+    public static final String TAG_DS_ACTUALIZATION_FOLD_INTERVAL = "coreModel.datastreamActualization.foldInterval";
 
     public final String idTypeDefault;
     public final String idTypeDatastream;
@@ -62,6 +79,9 @@ public final class CoreModelSettings implements ConfigDefaults {
     public final String idTypeSensor;
     public final String idTypeThing;
     public final boolean dsPropsEditable;
+    public final int generatedFoiCacheSize;
+    public final String dsActualization;
+    public final int dsActualizationFoldInterval;
 
     public CoreModelSettings(CoreSettings settings) {
         Settings pluginSettings = settings.getPluginSettings();
@@ -75,5 +95,16 @@ public final class CoreModelSettings implements ConfigDefaults {
         idTypeSensor = pluginSettings.get(TAG_ID_TYPE_SENSOR, idTypeDefault).toUpperCase();
         idTypeThing = pluginSettings.get(TAG_ID_TYPE_THING, idTypeDefault).toUpperCase();
         dsPropsEditable = pluginSettings.getBoolean(TAG_CAN_EDIT_DS_PHENTIME, CoreModelSettings.class);
+        generatedFoiCacheSize = pluginSettings.getInt(TAG_GENERATED_FOI_CACHE_SIZE, CoreModelSettings.class);
+        final String actualization = pluginSettings.get(TAG_DS_ACTUALIZATION, CoreModelSettings.class).toUpperCase();
+        if (DS_ACTUALIZATION_DEFERRED.equals(actualization) || DS_ACTUALIZATION_ROW.equals(actualization)) {
+            dsActualization = actualization;
+        } else {
+            throw new IllegalArgumentException("Unknown value for " + TAG_DS_ACTUALIZATION + ": " + actualization);
+        }
+        dsActualizationFoldInterval = pluginSettings.getInt(TAG_DS_ACTUALIZATION_FOLD_INTERVAL, CoreModelSettings.class);
+        if (dsActualizationFoldInterval < 0) {
+            throw new IllegalArgumentException("Value for " + TAG_DS_ACTUALIZATION_FOLD_INTERVAL + " must not be negative: " + dsActualizationFoldInterval);
+        }
     }
 }
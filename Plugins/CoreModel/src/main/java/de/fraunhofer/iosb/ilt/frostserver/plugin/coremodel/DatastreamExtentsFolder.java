@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel;
+
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.PersistenceManagerFactory;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.PostgresPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.jooq.impl.DSL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically folds the queued Datastream extents of the DEFERRED
+ * actualization mode into the Datastreams. The triggers fold the extents of
+ * the Datastreams they insert into, but skip Datastreams that are locked by
+ * other transactions. Without this, the extents queued by those transactions
+ * would only be folded on the next insert into the same Datastream.
+ *
+ * @author hylke
+ */
+public class DatastreamExtentsFolder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatastreamExtentsFolder.class.getName());
+
+    private final CoreSettings settings;
+    private final long intervalMillis;
+    private ScheduledExecutorService executor;
+    private boolean warned;
+
+    public DatastreamExtentsFolder(CoreSettings settings, long intervalMillis) {
+        this.settings = settings;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public synchronized void start() {
+        if (executor != null || intervalMillis <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DatastreamExtentsFolder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::fold, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Folding queued Datastream extents every {}ms.", intervalMillis);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    synchronized boolean isRunning() {
+        return executor != null;
+    }
+
+    void fold() {
+        PersistenceManager pm = null;
+        try {
+            pm = PersistenceManagerFactory.getInstance(settings).create();
+            if (!(pm instanceof PostgresPersistenceManager ppm)) {
+                LOGGER.warn("Deferred Datastream actualization needs PostgreSQL, not folding extents.");
+                stop();
+                return;
+            }
+            Integer count = ppm.getDslContext().fetchValue(DSL.field("datastreams_fold_extents()", Integer.class));
+            pm.commit();
+            LOGGER.debug("Folded the extents of {} Datastreams.", count);
+            warned = false;
+        } catch (RuntimeException ex) {
+            if (pm != null) {
+                pm.rollback();
+            }
+            if (warned) {
+                LOGGER.debug("Failed to fold Datastream extents.", ex);
+            } else {
+                LOGGER.warn("Failed to fold Datastream extents: {}", ex.getMessage());
+                warned = true;
+            }
+        } finally {
+            if (pm != null) {
+                pm.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the id of the generated FeatureOfInterest for Datastreams, so that
+ * Observations without a FeatureOfInterest do not need to look up the Location
+ * of the Thing of the Datastream for each insert.
+ *
+ * The cache is cleared by the Location and Thing hooks, and by messages on the
+ * message bus about changes to Locations, HistoricalLocations, Datastreams and
+ * deleted FeaturesOfInterest, so that other instances in a multi-node setup
+ * also clear their caches. The cache is only used once it is registered with
+ * the message bus.
+ *
+ * FeaturesOfInterest generated in a transaction are not cached until that
+ * transaction ends, since the transaction may be rolled back.
+ *
+ * @author hylke
+ */
+public class GeneratedFoiCache implements MessageListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GeneratedFoiCache.class.getName());
+
+    private final PluginCoreModel pluginCoreModel;
+    private final int maxSize;
+    private final Map<Object, Object> foiIdByDatastreamId = new ConcurrentHashMap<>();
+    /**
+     * The ids of FeaturesOfInterest that were generated in transactions that
+     * have not ended yet. These may not be committed, so they are not cached.
+     */
+    private final Set<Object> pendingFoiIds = ConcurrentHashMap.newKeySet();
+    private volatile boolean listening;
+
+    public GeneratedFoiCache(PluginCoreModel pluginCoreModel, int maxSize) {
+        this.pluginCoreModel = pluginCoreModel;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Clears the cache of the CoreModel plugin of the given PersistenceManager,
+     * if there is one.
+     *
+     * @param pm The PersistenceManager to get the settings from.
+     */
+    public static void clear(JooqPersistenceManager pm) {
+        final PluginCoreModel plugin = pm.getCoreSettings().getPluginManager().getPlugin(PluginCoreModel.class);
+        if (plugin != null && plugin.getGeneratedFoiCache() != null) {
+            plugin.getGeneratedFoiCache().clear();
+        }
+    }
+
+    /**
+     * Get the cached id of the generated FeatureOfInterest for the Datastream
+     * with the given id.
+     *
+     * @param pm The PersistenceManager, used to register with the message bus.
+     * @param datastreamId The id of the Datastream.
+     * @return The id of the FeatureOfInterest, or null if it is not cached.
+     */
+    public Object get(JooqPersistenceManager pm, Object datastreamId) {
+        if (maxSize <= 0 || !checkListening(pm.getCoreSettings())) {
+            return null;
+        }
+        return foiIdByDatastreamId.get(datastreamId);
+    }
+
+    /**
+     * Cache the id of the generated FeatureOfInterest for the Datastream with
+     * the given id, unless the FeatureOfInterest was generated recently and may
+     * not be committed yet.
+     *
+     * @param datastreamId The id of the Datastream.
+     * @param foiId The id of the FeatureOfInterest.
+     */
+    public void put(Object datastreamId, Object foiId) {
+        if (maxSize <= 0 || !listening || pendingFoiIds.contains(foiId)) {
+            return;
+        }
+        if (foiIdByDatastreamId.size() >= maxSize) {
+            LOGGER.debug("Generated FeatureOfInterest cache full, clearing.");
+            foiIdByDatastreamId.clear();
+        }
+        foiIdByDatastreamId.put(datastreamId, foiId);
+    }
+
+    /**
+     * Register that a FeatureOfInterest was generated. Until the transaction of
+     * the given PersistenceManager ends, it is not cached.
+     *
+     * @param pm The PersistenceManager that generated the FeatureOfInterest.
+     * @param foiId The id of the generated FeatureOfInterest.
+     */
+    public void generated(JooqPersistenceManager pm, Object foiId) {
+        if (maxSize > 0 && pendingFoiIds.add(foiId)) {
+            pm.getEntityFactories().onTransactionEnd(() -> pendingFoiIds.remove(foiId));
+        }
+    }
+
+    /**
+     * The number of generated FeaturesOfInterest that are not cached because
+     * their transaction has not ended yet.
+     *
+     * @return The number of pending FeaturesOfInterest.
+     */
+    int getPendingCount() {
+        return pendingFoiIds.size();
+    }
+
+    /**
+     * Remove the cached id of the generated FeatureOfInterest for the given
+     * key.
+     *
+     * @param key The key, usually the id of the Datastream.
+     */
+    public void remove(Object key) {
+        foiIdByDatastreamId.remove(key);
+    }
+
+    public void clear() {
+        foiIdByDatastreamId.clear();
+    }
+
+    private boolean checkListening(CoreSettings settings) {
+        if (!listening) {
+            registerListener(settings);
+        }
+        return listening;
+    }
+
+    private synchronized void registerListener(CoreSettings settings) {
+        if (listening) {
+            return;
+        }
+        final MessageBus messageBus = settings.getMessageBus();
+        if (messageBus == null) {
+            return;
+        }
+        messageBus.addMessageListener(this);
+        listening = true;
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        final EntityType type = message.getEntityType();
+        final EntityChangedMessage.Type eventType = message.getEventType();
+        if (type == pluginCoreModel.etFeatureOfInterest) {
+            if (eventType == EntityChangedMessage.Type.DELETE) {
+                clear();
+            }
+        } else if (type == pluginCoreModel.etLocation
+                || type == pluginCoreModel.etHistoricalLocation
+                || (type == pluginCoreModel.etDatastream && eventType != EntityChangedMessage.Type.CREATE)) {
+            clear();
+        }
+    }
+
+    @Override
+    public boolean needsAllPartitions() {
+        return true;
+    }
+
+}
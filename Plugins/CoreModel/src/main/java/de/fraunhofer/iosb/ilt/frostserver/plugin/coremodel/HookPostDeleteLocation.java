@@ -37,6 +37,7 @@ class HookPostDeleteLocation implements HookPostDelete {
 
     @Override
     public void postDelete(JooqPersistenceManager pm, PkValue entityId) throws NoSuchEntityException {
+        GeneratedFoiCache.clear(pm);
         final TableCollection tables = pm.getTableCollection();
         // Also postDelete all historicalLocations that no longer reference any location
         TableImpHistLocations thl = tables.getTableForClass(TableImpHistLocations.class);
@@ -109,6 +109,8 @@ public class HookPrePostInsertUpdateLocation implements HookPreInsert, HookPostI
     }
 
     private void unlinkExitingLocationsFromLinkedThings(JooqPersistenceManager pm, Entity entity) {
+        // Changed Locations may change the FeatureOfInterest to generate for Datastreams.
+        GeneratedFoiCache.clear(pm);
         TableCollection tables = pm.getTableCollection();
         EntityType et = entity.getEntityType();
         NavigationPropertyEntitySet npLocationThings = et.getNavigationPropertyEntitySet("Things");
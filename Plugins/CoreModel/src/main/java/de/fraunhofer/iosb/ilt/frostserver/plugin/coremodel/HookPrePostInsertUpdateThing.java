@@ -108,6 +108,8 @@ public class HookPrePostInsertUpdateThing implements HookPreInsert, HookPostInse
         }
         EntitySet locations = entity.getProperty(npThingLocations);
         if (locations != null && !locations.isEmpty()) {
+            // The Datastreams of this Thing may get a different generated FeatureOfInterest.
+            GeneratedFoiCache.clear(pm);
             // New locations to be set, delete old locations.
             Object thingId = entityId.get(0);
             DSLContext dslContext = pm.getDslContext();
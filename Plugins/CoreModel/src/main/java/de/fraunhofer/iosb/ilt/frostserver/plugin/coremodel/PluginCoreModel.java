@@ -19,6 +19,7 @@ package de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel;
 
 import static de.fraunhofer.iosb.ilt.frostserver.model.ext.TypeReferencesHelper.TYPE_REFERENCE_UOM;
 import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.utils.LiquibaseHelper.CHANGE_SET_NAME;
+import static de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.CoreModelSettings.DS_ACTUALIZATION_DEFERRED;
 import static de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.CoreModelSettings.TAG_ENABLE_CORE_MODEL;
 import static de.fraunhofer.iosb.ilt.frostserver.property.SpecialNames.AT_IOT_ID;
 import static de.fraunhofer.iosb.ilt.frostserver.property.type.TypeSimplePrimitive.EDM_DATETIMEOFFSET;
@@ -126,6 +127,7 @@ public class PluginCoreModel implements PluginRootDocument, PluginModel, Liquiba
     private static final String NAME_LIQUIBASE_FEATURE = "Feature";
 
     private static final String LIQUIBASE_CHANGELOG_FILENAME = "liquibase/plugincoremodel/tables.xml";
+    private static final String LIQUIBASE_DS_ACTUALIZATION = "datastreamActualization";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PluginCoreModel.class.getName());
 
@@ -199,6 +201,8 @@ public class PluginCoreModel implements PluginRootDocument, PluginModel, Liquiba
 
     private CoreSettings settings;
     private CoreModelSettings modelSettings;
+    private GeneratedFoiCache generatedFoiCache;
+    private DatastreamExtentsFolder datastreamExtentsFolder;
     private boolean enabled;
     private boolean fullyInitialised;
 
@@ -209,6 +213,10 @@ public class PluginCoreModel implements PluginRootDocument, PluginModel, Liquiba
         enabled = pluginSettings.getBoolean(TAG_ENABLE_CORE_MODEL, CoreModelSettings.class);
         if (enabled) {
             modelSettings = new CoreModelSettings(settings);
+            generatedFoiCache = new GeneratedFoiCache(this, modelSettings.generatedFoiCacheSize);
+            if (DS_ACTUALIZATION_DEFERRED.equals(modelSettings.dsActualization)) {
+                datastreamExtentsFolder = new DatastreamExtentsFolder(settings, modelSettings.dsActualizationFoldInterval);
+            }
             settings.getPluginManager().registerPlugin(this);
             epPhenomenonTimeDs.setReadOnly(!modelSettings.dsPropsEditable);
             epResultTimeDs.setReadOnly(!modelSettings.dsPropsEditable);
@@ -222,6 +230,13 @@ public class PluginCoreModel implements PluginRootDocument, PluginModel, Liquiba
         return enabled;
     }
 
+    @Override
+    public void stop() {
+        if (datastreamExtentsFolder != null) {
+            datastreamExtentsFolder.stop();
+        }
+    }
+
     @Override
     public boolean isFullyInitialised() {
         return fullyInitialised;
@@ -366,6 +381,9 @@ public class PluginCoreModel implements PluginRootDocument, PluginModel, Liquiba
             tableCollection.registerTable(etSensor, new TableImpSensors(dataTypeSnsr, this));
             tableCollection.registerTable(etThing, new TableImpThings(dataTypeThng, this));
             tableCollection.registerTable(new TableImpThingsLocations(dataTypeThng, dataTypeLctn));
+            if (datastreamExtentsFolder != null) {
+                datastreamExtentsFolder.start();
+            }
         }
         fullyInitialised = true;
         return true;
@@ -386,6 +404,7 @@ public class PluginCoreModel implements PluginRootDocument, PluginModel, Liquiba
         ppm.generateLiquibaseVariables(target, NAME_LIQUIBASE_OBSERVATION, modelSettings.idTypeObservation);
         ppm.generateLiquibaseVariables(target, NAME_LIQUIBASE_SENSOR, modelSettings.idTypeSensor);
         ppm.generateLiquibaseVariables(target, NAME_LIQUIBASE_THING, modelSettings.idTypeThing);
+        target.put(LIQUIBASE_DS_ACTUALIZATION, modelSettings.dsActualization);
 
         return target;
     }
@@ -481,4 +500,19 @@ public class PluginCoreModel implements PluginRootDocument, PluginModel, Liquiba
         return epIdThing;
     }
 
+    /**
+     * @return the cache of generated FeatureOfInterest ids by Datastream id.
+     */
+    public GeneratedFoiCache getGeneratedFoiCache() {
+        return generatedFoiCache;
+    }
+
+    /**
+     * @return the task that folds queued Datastream extents, or null if the
+     * DEFERRED actualization mode is not used.
+     */
+    DatastreamExtentsFolder getDatastreamExtentsFolder() {
+        return datastreamExtentsFolder;
+    }
+
 }
@@ -171,6 +171,7 @@ public class TableImpFeatures extends StaTableAbstract<TableImpFeatures> {
                 .setNull(tLoc.getGenFoiId())
                 .where(((TableField) tLoc.getGenFoiId()).eq(entityId.get(0)))
                 .execute();
+        pluginCoreModel.getGeneratedFoiCache().clear();
     }
 
     @Override
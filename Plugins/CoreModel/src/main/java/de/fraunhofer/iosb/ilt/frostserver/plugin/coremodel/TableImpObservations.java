@@ -236,7 +236,7 @@ public class TableImpObservations extends StaTableAbstract<TableImpObservations>
                         (TableImpObservations table, Record tuple, Entity entity, DataSize dataSize) -> {
                             JsonValue resultQuality = Utils.getFieldJsonValue(tuple, table.colResultQuality);
                             dataSize.increase(resultQuality.getStringLength());
-                            entity.setProperty(pluginCoreModel.epResultQuality, resultQuality.getValue());
+                            entity.setProperty(pluginCoreModel.epResultQuality, resultQuality.getValue(table.getTables().isJsonPassThrough()));
                         },
                         (table, entity, insertFields) -> insertFields.put(table.colResultQuality, EntityFactories.objectToJson(entity.getProperty(pluginCoreModel.epResultQuality))),
                         (table, entity, updateFields, message) -> {
@@ -358,7 +358,7 @@ public class TableImpObservations extends StaTableAbstract<TableImpObservations>
                 case OBJECT_ARRAY:
                     JsonValue jsonData = Utils.getFieldJsonValue(tuple, table.colResultJson);
                     dataSize.increase(jsonData.getStringLength());
-                    entity.setProperty(pluginCoreModel.epResult, jsonData.getValue());
+                    entity.setProperty(pluginCoreModel.epResult, jsonData.getValue(table.getTables().isJsonPassThrough()));
                     break;
 
                 case STRING:
@@ -383,6 +383,11 @@ public class TableImpObservations extends StaTableAbstract<TableImpObservations>
     }
 
     public Entity generateFeatureOfInterest(JooqPersistenceManager pm, Object dsId) throws NoSuchEntityException, IncompleteEntityException {
+        final GeneratedFoiCache foiCache = pluginCoreModel.getGeneratedFoiCache();
+        final Object cachedFoiId = foiCache.get(pm, dsId);
+        if (cachedFoiId != null) {
+            return new DefaultEntity(pluginCoreModel.etFeatureOfInterest, PkValue.of(cachedFoiId));
+        }
         final DSLContext dslContext = pm.getDslContext();
         TableCollection tableCollection = getTables();
         TableImpLocations ql = tableCollection.getTableForClass(TableImpLocations.class);
@@ -396,7 +401,11 @@ public class TableImpObservations extends StaTableAbstract<TableImpObservations>
                 .innerJoin(qt).on(((TableField) qt.getId()).eq(qtl.getThingId()))
                 .innerJoin(qd).on(((TableField) qd.getThingId()).eq(qt.getId()))
                 .where(((TableField) qd.getId()).eq(dsId));
-        return generateFeatureOfInterest(pm, query);
+        Entity foi = generateFeatureOfInterest(pm, query);
+        if (foi != null) {
+            foiCache.put(dsId, foi.getPrimaryKeyValues().get(0));
+        }
+        return foi;
     }
 
     public Entity generateFeatureOfInterest(JooqPersistenceManager pm, ResultQuery<Record3<Object, Object, String>> locationQuery) throws NoSuchEntityException, IncompleteEntityException {
@@ -458,6 +467,7 @@ public class TableImpObservations extends StaTableAbstract<TableImpObservations>
             PrincipalExtended.setLocalPrincipal(userPrincipal);
 
             Object foiId = foi.getPrimaryKeyValues().get(0);
+            pluginCoreModel.getGeneratedFoiCache().generated(pm, foiId);
             dslContext.update(ql)
                     .set(((TableField) ql.getGenFoiId()), foiId)
                     .where(((TableField) ql.getId()).eq(locationId))
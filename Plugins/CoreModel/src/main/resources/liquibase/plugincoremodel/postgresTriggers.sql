@@ -73,15 +73,6 @@ $BODY$
 
 
 
-do $$ begin
-    create trigger datastreams_actualization_insert
-        after insert
-        on "OBSERVATIONS"
-        for each row
-        execute procedure datastreams_update_insert();
-exception
-    when others then null;
-end $$;
 
 
 
@@ -157,15 +148,6 @@ $BODY$
     cost 100;
 
 
-do $$ begin
-    create trigger datastreams_actualization_update
-        after update
-        on "OBSERVATIONS"
-        for each row
-        execute procedure datastreams_update_update();
-exception
-    when others then null;
-end $$;
 
 
 
@@ -219,12 +201,233 @@ $BODY$
     cost 100;
 
 
-do $$ begin
-    create trigger datastreams_actualization_delete
-        after delete
-        on "OBSERVATIONS"
-        for each row
-        execute procedure datastreams_update_delete();
-exception
-    when others then null;
-end $$;
+
+-- ---------------------------------------
+-- Function: datastreams_fold_extents(ds_ids)
+--
+-- Folds the queued extents of the given Datastreams into the DATASTREAMS
+-- table, used by the DEFERRED actualization mode. Datastreams that are locked
+-- by another transaction are skipped, their extents stay queued and are folded
+-- by a later call. Queued recompute markers, from updates and deletes, cause
+-- the time extents to be recalculated from the Observations.
+-- Returns the number of Datastreams that were updated.
+-- ---------------------------------------
+create or replace function datastreams_fold_extents(ds_ids anyarray)
+    returns integer as
+$BODY$
+declare
+    folded integer;
+begin
+    with locked as (
+        select ds."ID" from "DATASTREAMS" ds
+        where ds."ID" = any(ds_ids)
+        for no key update skip locked
+    ), removed as (
+        delete from "DATASTREAM_EXTENTS" e using locked where e."DATASTREAM_ID" = locked."ID"
+        returning e.*
+    ), agg as (
+        select "DATASTREAM_ID",
+            min("PHENOMENON_TIME_START") as pt_start,
+            max("PHENOMENON_TIME_END") as pt_end,
+            min("RESULT_TIME_START") as rt_start,
+            max("RESULT_TIME_END") as rt_end,
+            bool_or("RECOMPUTE") as recompute,
+            (array_agg("FEATURE_ID" order by "ID" desc) filter (where "FEATURE_ID" is not null))[1] as last_foi,
+            array_agg(distinct "FEATURE_ID") filter (where "FEATURE_ID" is not null) as fois
+        from removed
+        group by "DATASTREAM_ID"
+    )
+    update "DATASTREAMS" ds set
+        "PHENOMENON_TIME_START" = case when agg.recompute
+            then (select min(o."PHENOMENON_TIME_START") from "OBSERVATIONS" o where o."DATASTREAM_ID" = ds."ID")
+            else least(ds."PHENOMENON_TIME_START", agg.pt_start) end,
+        "PHENOMENON_TIME_END" = case when agg.recompute
+            then (select max(coalesce(o."PHENOMENON_TIME_END", o."PHENOMENON_TIME_START")) from "OBSERVATIONS" o where o."DATASTREAM_ID" = ds."ID")
+            else greatest(ds."PHENOMENON_TIME_END", agg.pt_end) end,
+        "RESULT_TIME_START" = case when agg.recompute
+            then (select min(o."RESULT_TIME") from "OBSERVATIONS" o where o."DATASTREAM_ID" = ds."ID")
+            else least(ds."RESULT_TIME_START", agg.rt_start) end,
+        "RESULT_TIME_END" = case when agg.recompute
+            then (select max(o."RESULT_TIME") from "OBSERVATIONS" o where o."DATASTREAM_ID" = ds."ID")
+            else greatest(ds."RESULT_TIME_END", agg.rt_end) end,
+        "LAST_FOI_ID" = coalesce(agg.last_foi, ds."LAST_FOI_ID"),
+        "OBSERVED_AREA" = case when agg.fois is null
+            then ds."OBSERVED_AREA"
+            else ST_ConvexHull(ST_Collect(ds."OBSERVED_AREA", (select ST_Collect(f."GEOM") from "FEATURES" f where f."ID" = any(agg.fois)))) end
+    from agg
+    where ds."ID" = agg."DATASTREAM_ID";
+    get diagnostics folded = row_count;
+    return folded;
+end
+$BODY$
+    language plpgsql volatile
+    cost 100;
+
+
+
+-- ---------------------------------------
+-- Function: datastreams_fold_extents()
+--
+-- Folds all queued extents that can be folded without waiting for locks, and
+-- removes the queued extents of Datastreams that no longer exist.
+-- ---------------------------------------
+create or replace function datastreams_fold_extents()
+    returns integer as
+$BODY$
+begin
+    delete from "DATASTREAM_EXTENTS" e
+        where not exists (select 1 from "DATASTREAMS" ds where ds."ID" = e."DATASTREAM_ID");
+    return datastreams_fold_extents(array(select distinct "DATASTREAM_ID" from "DATASTREAM_EXTENTS"));
+end
+$BODY$
+    language plpgsql volatile
+    cost 100;
+
+
+
+-- ---------------------------------------
+-- Function: datastreams_extents_insert()
+--
+-- Statement-level trigger for the DEFERRED actualization mode. Queues the
+-- extents of the inserted Observations, per Datastream, and folds the extents
+-- of those Datastreams that are not locked by another transaction.
+-- ---------------------------------------
+create or replace function datastreams_extents_insert()
+    returns trigger as
+$BODY$
+begin
+    insert into "DATASTREAM_EXTENTS"
+        ("DATASTREAM_ID","PHENOMENON_TIME_START","PHENOMENON_TIME_END","RESULT_TIME_START","RESULT_TIME_END","FEATURE_ID")
+        select n."DATASTREAM_ID",
+            min(n."PHENOMENON_TIME_START"),
+            max(coalesce(n."PHENOMENON_TIME_END", n."PHENOMENON_TIME_START")),
+            min(n."RESULT_TIME"),
+            max(n."RESULT_TIME"),
+            n."FEATURE_ID"
+        from new_rows n
+        where n."DATASTREAM_ID" is not null
+        group by n."DATASTREAM_ID", n."FEATURE_ID";
+    perform datastreams_fold_extents(array(select distinct n."DATASTREAM_ID" from new_rows n where n."DATASTREAM_ID" is not null));
+    return null;
+end
+$BODY$
+    language plpgsql volatile
+    cost 100;
+
+
+
+-- ---------------------------------------
+-- Function: datastreams_extents_update()
+--
+-- Statement-level trigger for the DEFERRED actualization mode. Queues a
+-- recompute of the time extents of the Datastreams of Observations of which
+-- the times, or the Datastream, changed.
+-- Warning: OBSERVED_AREA not taken into account.
+-- ---------------------------------------
+create or replace function datastreams_extents_update()
+    returns trigger as
+$BODY$
+begin
+    insert into "DATASTREAM_EXTENTS" ("DATASTREAM_ID","RECOMPUTE")
+        select distinct ids."DATASTREAM_ID", true
+        from new_rows n
+        join old_rows o on o."ID" = n."ID"
+        cross join lateral (values (n."DATASTREAM_ID"), (o."DATASTREAM_ID")) as ids("DATASTREAM_ID")
+        where ids."DATASTREAM_ID" is not null
+            and (n."DATASTREAM_ID" is distinct from o."DATASTREAM_ID"
+                or n."PHENOMENON_TIME_START" is distinct from o."PHENOMENON_TIME_START"
+                or n."PHENOMENON_TIME_END" is distinct from o."PHENOMENON_TIME_END"
+                or n."RESULT_TIME" is distinct from o."RESULT_TIME");
+    return null;
+end
+$BODY$
+    language plpgsql volatile
+    cost 100;
+
+
+
+-- ---------------------------------------
+-- Function: datastreams_extents_delete()
+--
+-- Statement-level trigger for the DEFERRED actualization mode. Queues a
+-- recompute of the time extents of the Datastreams of deleted Observations.
+-- Warning: OBSERVED_AREA not taken into account.
+-- ---------------------------------------
+create or replace function datastreams_extents_delete()
+    returns trigger as
+$BODY$
+begin
+    insert into "DATASTREAM_EXTENTS" ("DATASTREAM_ID","RECOMPUTE")
+        select distinct o."DATASTREAM_ID", true
+        from old_rows o
+        where exists (select 1 from "DATASTREAMS" ds where ds."ID" = o."DATASTREAM_ID");
+    return null;
+end
+$BODY$
+    language plpgsql volatile
+    cost 100;
+
+
+
+-- ---------------------------------------
+-- Function: datastreams_actualization_mode(mode)
+--
+-- Installs the triggers that keep the time extents, OBSERVED_AREA and
+-- LAST_FOI_ID of the Datastreams up to date:
+-- ROW: row-level triggers that update the Datastream for each Observation.
+-- DEFERRED: statement-level triggers that queue the extents, and fold them
+-- into the Datastreams without waiting for locks.
+-- ---------------------------------------
+create or replace function datastreams_actualization_mode(mode text)
+    returns void as
+$BODY$
+begin
+    drop trigger if exists datastreams_actualization_insert on "OBSERVATIONS";
+    drop trigger if exists datastreams_actualization_update on "OBSERVATIONS";
+    drop trigger if exists datastreams_actualization_delete on "OBSERVATIONS";
+    drop trigger if exists datastreams_extents_insert on "OBSERVATIONS";
+    drop trigger if exists datastreams_extents_update on "OBSERVATIONS";
+    drop trigger if exists datastreams_extents_delete on "OBSERVATIONS";
+
+    if (upper(mode) = 'DEFERRED') then
+        create trigger datastreams_extents_insert
+            after insert
+            on "OBSERVATIONS"
+            referencing new table as new_rows
+            for each statement
+            execute procedure datastreams_extents_insert();
+        create trigger datastreams_extents_update
+            after update
+            on "OBSERVATIONS"
+            referencing old table as old_rows new table as new_rows
+            for each statement
+            execute procedure datastreams_extents_update();
+        create trigger datastreams_extents_delete
+            after delete
+            on "OBSERVATIONS"
+            referencing old table as old_rows
+            for each statement
+            execute procedure datastreams_extents_delete();
+    else
+        create trigger datastreams_actualization_insert
+            after insert
+            on "OBSERVATIONS"
+            for each row
+            execute procedure datastreams_update_insert();
+        create trigger datastreams_actualization_update
+            after update
+            on "OBSERVATIONS"
+            for each row
+            execute procedure datastreams_update_update();
+        create trigger datastreams_actualization_delete
+            after delete
+            on "OBSERVATIONS"
+            for each row
+            execute procedure datastreams_update_delete();
+        -- Extents queued before switching to ROW mode.
+        perform datastreams_fold_extents();
+    end if;
+end
+$BODY$
+    language plpgsql volatile
+    cost 100;
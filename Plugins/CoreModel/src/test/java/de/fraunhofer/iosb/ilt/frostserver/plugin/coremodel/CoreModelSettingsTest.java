@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel;
+
+import static de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.CoreModelSettings.DS_ACTUALIZATION_DEFERRED;
+import static de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.CoreModelSettings.DS_ACTUALIZATION_ROW;
+import static de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.CoreModelSettings.TAG_DS_ACTUALIZATION;
+import static de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.CoreModelSettings.TAG_DS_ACTUALIZATION_FOLD_INTERVAL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for reading and validating the CoreModel settings, and for stopping
+ * the background task of the deferred Datastream actualization.
+ */
+class CoreModelSettingsTest {
+
+    private static CoreSettings settingsWith(String key, String value) {
+        CoreSettings coreSettings = new CoreSettings();
+        coreSettings.getSettings().getProperties().put("plugins." + key, value);
+        return coreSettings;
+    }
+
+    @Test
+    void testActualizationDefault() {
+        CoreModelSettings modelSettings = new CoreModelSettings(new CoreSettings());
+        assertEquals(DS_ACTUALIZATION_ROW, modelSettings.dsActualization);
+        assertEquals(10000, modelSettings.dsActualizationFoldInterval);
+    }
+
+    @Test
+    void testActualizationCaseInsensitive() {
+        CoreModelSettings modelSettings = new CoreModelSettings(settingsWith(TAG_DS_ACTUALIZATION, "deferred"));
+        assertEquals(DS_ACTUALIZATION_DEFERRED, modelSettings.dsActualization);
+    }
+
+    @Test
+    void testActualizationUnknown() {
+        CoreSettings coreSettings = settingsWith(TAG_DS_ACTUALIZATION, "LATER");
+        assertThrows(IllegalArgumentException.class, () -> new CoreModelSettings(coreSettings));
+    }
+
+    @Test
+    void testFoldIntervalNegative() {
+        CoreSettings coreSettings = settingsWith(TAG_DS_ACTUALIZATION_FOLD_INTERVAL, "-1");
+        assertThrows(IllegalArgumentException.class, () -> new CoreModelSettings(coreSettings));
+    }
+
+    @Test
+    void testFolderStoppedWithPlugins() {
+        CoreSettings coreSettings = settingsWith(TAG_DS_ACTUALIZATION, DS_ACTUALIZATION_DEFERRED);
+        PluginCoreModel plugin = new PluginCoreModel();
+        plugin.init(coreSettings);
+        DatastreamExtentsFolder folder = plugin.getDatastreamExtentsFolder();
+        folder.start();
+        assertTrue(folder.isRunning());
+        coreSettings.getPluginManager().stopPlugins();
+        assertFalse(folder.isRunning());
+    }
+
+    @Test
+    void testFolderDisabled() {
+        DatastreamExtentsFolder folder = new DatastreamExtentsFolder(new CoreSettings(), 0);
+        folder.start();
+        assertFalse(folder.isRunning());
+    }
+}
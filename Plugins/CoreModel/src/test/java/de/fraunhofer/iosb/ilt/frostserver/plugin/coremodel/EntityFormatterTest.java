@@ -23,6 +23,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import de.fraunhofer.iosb.ilt.frostserver.formatter.ResultFormatterDefault;
 import de.fraunhofer.iosb.ilt.frostserver.json.serialize.JsonWriter;
 import de.fraunhofer.iosb.ilt.frostserver.model.CollectionsHelper;
 import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
@@ -41,8 +42,10 @@ import de.fraunhofer.iosb.ilt.frostserver.query.Query;
 import de.fraunhofer.iosb.ilt.frostserver.query.QueryDefaults;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.SimpleJsonMapper;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import net.time4j.tz.ZonalOffset;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -188,6 +191,36 @@ class EntityFormatterTest {
         assertTrue(jsonEqual(expResult, JsonWriter.writeEntityCollection(things, query)));
     }
 
+    @Test
+    void writeThingsStream() throws IOException {
+        String thing = "{\n"
+                + "\"@iot.id\": 1,\n"
+                + "\"@iot.selfLink\": \"http://example.org/v1.0/Things(1)\",\n"
+                + "\"Locations@iot.navigationLink\": \"Things(1)/Locations\",\n"
+                + "\"Datastreams@iot.navigationLink\": \"Things(1)/Datastreams\",\n"
+                + "\"HistoricalLocations@iot.navigationLink\": \"Things(1)/HistoricalLocations\",\n"
+                + "\"name\": \"Dieses Ding ist ein Ofen, grün, 200°C.\"\n"
+                + "}";
+        String expResult = "{ \"value\":[\n"
+                + thing + ",\n"
+                + thing
+                + "]}";
+        ResourcePath path = PathParser.parsePath(modelRegistry, "http://example.org", Version.V_1_0, "/Things");
+        Query query = new Query(modelRegistry, queryDefaults, path).validate();
+        DefaultEntity entity = new DefaultEntity(pluginCoreModel.etThing)
+                .setQuery(query)
+                .setPrimaryKeyValues(PkValue.of(1L))
+                .setProperty(pluginCoreModel.epName, "Dieses Ding ist ein Ofen, grün, 200°C.");
+        EntitySet things = new EntitySetImpl(pluginCoreModel.etThing);
+        things.add(entity);
+        things.add(entity);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ResultFormatterDefault()
+                .format(path, query, things, false)
+                .writeFormatted(out);
+        compareJson(expResult, out.toString(StandardCharsets.UTF_8));
+    }
+
     @Test
     void writeThingOnlyId() throws IOException {
         String expResult = "{\"@iot.id\": 1}";
@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.EntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.parser.path.PathParser;
+import de.fraunhofer.iosb.ilt.frostserver.parser.query.QueryParser;
+import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntity;
+import de.fraunhofer.iosb.ilt.frostserver.path.PathElementEntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.path.ResourcePath;
+import de.fraunhofer.iosb.ilt.frostserver.path.Version;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.PostgresPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.QueryBuilder;
+import de.fraunhofer.iosb.ilt.frostserver.property.NavigationPropertyMain.NavigationPropertyEntitySet;
+import de.fraunhofer.iosb.ilt.frostserver.query.Query;
+import de.fraunhofer.iosb.ilt.frostserver.service.PluginManager;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import de.fraunhofer.iosb.ilt.frostserver.settings.PersistenceSettings;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.BiFunction;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.conf.ParamType;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for loading set-valued expands for a batch of parents in one query.
+ * The database is replaced by a mock that answers each query with the rows
+ * given by the test.
+ */
+class ExpandBatchTest {
+
+    private static final String SERVICE_ROOT_URL = "http://localhost:8080/FROST-Server";
+    private static final String ROW_NUMBER_SQL = "row_number()";
+
+    private static final Field<Long> ID = DSL.field(DSL.name("ID"), Long.class);
+    private static final Field<String> NAME = DSL.field(DSL.name("NAME"), String.class);
+    private static final Field<String> PROPERTIES = DSL.field(DSL.name("PROPERTIES"), String.class);
+    private static final Field<Long> PARENT = DSL.field(DSL.name("_P0"), Long.class);
+    private static final Field<Integer> ROW_NUMBER = DSL.field(DSL.name("_RN"), Integer.class);
+    private static final Field<Integer> COUNT = DSL.field(DSL.name("COUNT"), Integer.class);
+
+    private CoreSettings coreSettings;
+    private PluginCoreModel pluginCoreModel;
+    private MockPersistenceManager pm;
+
+    /**
+     * The SQL of the queries the mock database received.
+     */
+    private final List<String> queries = new ArrayList<>();
+    /**
+     * Creates the rows to answer a query with, from the SQL and the bind
+     * values of the query.
+     */
+    private BiFunction<String, List<Object>, Result<Record>> responder;
+
+    @BeforeEach
+    public void setUp() {
+        init(10, 10_000, false);
+    }
+
+    private void init(int expandBatchSize, long maxDataSize, boolean customLinks) {
+        final Properties properties = new Properties();
+        properties.put(CoreSettings.TAG_SERVICE_ROOT_URL, SERVICE_ROOT_URL);
+        properties.put(CoreSettings.TAG_TEMP_PATH, System.getProperty("java.io.tmpdir"));
+        properties.put(CoreSettings.TAG_MAX_DATASIZE, Long.toString(maxDataSize));
+        properties.put(CoreSettings.PREFIX_EXTENSION + CoreSettings.TAG_CUSTOM_LINKS_ENABLE, Boolean.toString(customLinks));
+        properties.put(CoreSettings.PREFIX_PERSISTENCE + PersistenceSettings.TAG_EXPAND_BATCH_SIZE, Integer.toString(expandBatchSize));
+        properties.put(CoreSettings.PREFIX_PLUGINS + PluginManager.TAG_PROVIDED_PLUGINS, PluginCoreModel.class.getName());
+        coreSettings = new CoreSettings(properties);
+        pluginCoreModel = coreSettings.getPluginManager().getPlugin(PluginCoreModel.class);
+        queries.clear();
+        pm = new MockPersistenceManager(this);
+        pm.init(coreSettings);
+        pm.getTableCollection().init(pm);
+    }
+
+    @Test
+    void testBatchSelectPerParentTopSkip() {
+        final Query query = parseQuery("/Things", "$expand=Datastreams($select=id,name;$top=2;$skip=1;$orderby=name desc)");
+        final QueryBuilder.BatchSelectResult batch = batchSelect(pluginCoreModel.npDatastreamsThing, query.getExpand().get(0).getSubQuery(), 101L, 102L);
+        assertNotNull(batch);
+        assertEquals(2, batch.selectFields.size());
+        assertEquals(1, batch.parentPkSize);
+        final String sql = batch.query.getSQL(ParamType.INLINED);
+        assertTrue(sql.contains("row_number() over (partition by \"e0\".\"THING_ID\" order by \"e0\".\"NAME\" desc"), sql);
+        assertTrue(sql.contains("\"e0\".\"THING_ID\" in (101, 102)"), sql);
+        assertTrue(sql.contains("\"_BATCH\".\"_RN\" > 1 and \"_BATCH\".\"_RN\" <= 4"), sql);
+    }
+
+    @Test
+    void testBatchSelectDistinctNotBatched() {
+        final Query query = parseQuery("/Things", "$expand=Datastreams($select=distinct:name)");
+        assertNull(batchSelect(pluginCoreModel.npDatastreamsThing, query.getExpand().get(0).getSubQuery(), 101L, 102L));
+    }
+
+    @Test
+    void testExpandStitchedPerParent() {
+        responder = (sql, bindings) -> {
+            if (sql.contains(ROW_NUMBER_SQL)) {
+                return batchResult(bindings, new Field[]{ID, NAME, PARENT, ROW_NUMBER},
+                        row(201L, "D1", 101L, 2),
+                        row(202L, "D2", 101L, 3),
+                        row(203L, "D3", 101L, 4),
+                        row(204L, "D4", 103L, 2));
+            }
+            return result(new Field[]{ID, NAME}, row(101L, "T1"), row(102L, "T2"), row(103L, "T3"));
+        };
+        final List<Entity> things = getAll("/Things", "$select=id,name&$expand=Datastreams($select=id,name;$top=2;$skip=1)");
+        assertEquals(3, things.size());
+        assertEquals(2, queries.size());
+
+        final EntitySet ds1 = (EntitySet) things.get(0).getProperty(pluginCoreModel.npDatastreamsThing);
+        assertEquals(List.of(pk(201L), pk(202L)), pks(ds1));
+        assertNotNull(ds1.getNextLink());
+        assertTrue(ds1.getNextLink().startsWith(SERVICE_ROOT_URL + "/v1.1/Things(101)/Datastreams?"), ds1.getNextLink());
+        assertTrue(ds1.getNextLink().contains("$skip=3"), ds1.getNextLink());
+
+        final EntitySet ds2 = (EntitySet) things.get(1).getProperty(pluginCoreModel.npDatastreamsThing);
+        assertNotNull(ds2);
+        assertTrue(ds2.isEmpty());
+        assertNull(ds2.getNextLink());
+
+        final EntitySet ds3 = (EntitySet) things.get(2).getProperty(pluginCoreModel.npDatastreamsThing);
+        assertEquals(List.of(pk(204L)), pks(ds3));
+        assertNull(ds3.getNextLink());
+    }
+
+    @Test
+    void testNestedExpandBatched() {
+        responder = (sql, bindings) -> {
+            if (sql.contains(ROW_NUMBER_SQL) && sql.contains("from \"OBSERVATIONS\"")) {
+                return batchResult(bindings, new Field[]{ID, PARENT, ROW_NUMBER},
+                        row(301L, 201L, 1),
+                        row(302L, 201L, 2),
+                        row(303L, 203L, 1));
+            }
+            if (sql.contains(ROW_NUMBER_SQL)) {
+                return batchResult(bindings, new Field[]{ID, NAME, PARENT, ROW_NUMBER},
+                        row(201L, "D1", 101L, 1),
+                        row(202L, "D2", 102L, 1),
+                        row(203L, "D3", 102L, 2));
+            }
+            return result(new Field[]{ID, NAME}, row(101L, "T1"), row(102L, "T2"));
+        };
+        final List<Entity> things = getAll("/Things", "$select=id,name&$expand=Datastreams($select=id,name;$expand=Observations($select=id;$top=1))");
+        assertEquals(2, things.size());
+        // One query per level, not one per parent.
+        assertEquals(3, queries.size());
+
+        final List<Entity> datastreams = new ArrayList<>();
+        for (Entity thing : things) {
+            ((EntitySet) thing.getProperty(pluginCoreModel.npDatastreamsThing)).forEach(datastreams::add);
+        }
+        assertEquals(3, datastreams.size());
+        final EntitySet obs1 = (EntitySet) datastreams.get(0).getProperty(pluginCoreModel.npObservationsDatastream);
+        assertEquals(List.of(pk(301L)), pks(obs1));
+        assertTrue(obs1.getNextLink().startsWith(SERVICE_ROOT_URL + "/v1.1/Datastreams(201)/Observations?"), obs1.getNextLink());
+        final EntitySet obs2 = (EntitySet) datastreams.get(1).getProperty(pluginCoreModel.npObservationsDatastream);
+        assertTrue(obs2.isEmpty());
+        final EntitySet obs3 = (EntitySet) datastreams.get(2).getProperty(pluginCoreModel.npObservationsDatastream);
+        assertEquals(List.of(pk(303L)), pks(obs3));
+        assertNull(obs3.getNextLink());
+    }
+
+    @Test
+    void testCountNotBatched() {
+        responder = (sql, bindings) -> {
+            if (sql.contains("count(")) {
+                return result(new Field[]{COUNT}, row(1));
+            }
+            if (sql.contains("from \"DATASTREAMS\"")) {
+                return result(new Field[]{ID, NAME}, row(200L + (Long) bindings.get(0), "D"));
+            }
+            return result(new Field[]{ID, NAME}, row(101L, "T1"), row(102L, "T2"));
+        };
+        final List<Entity> things = getAll("/Things", "$select=id,name&$expand=Datastreams($select=id,name;$count=true)");
+        assertEquals(2, things.size());
+        assertFalse(queries.stream().anyMatch(sql -> sql.contains(ROW_NUMBER_SQL)), queries::toString);
+        for (Entity thing : things) {
+            final EntitySet datastreams = (EntitySet) thing.getProperty(pluginCoreModel.npDatastreamsThing);
+            assertEquals(1, datastreams.getCount());
+        }
+    }
+
+    @Test
+    void testCustomLinkNotBatched() {
+        init(10, 10_000, true);
+        responder = (sql, bindings) -> {
+            if (sql.contains("where")) {
+                // Thing 102 has no link, so there is no Thing to load.
+                if (bindings.isEmpty() || bindings.get(0) == null) {
+                    return result(new Field[]{ID, NAME});
+                }
+                return result(new Field[]{ID, NAME}, row(bindings.get(0), "T" + bindings.get(0)));
+            }
+            return result(new Field[]{ID, PROPERTIES, NAME},
+                    row(101L, "{\"owner.Thing@iot.id\": 103}", "T1"),
+                    row(102L, "{}", "T2"));
+        };
+        final List<Entity> things = getAll("/Things", "$select=id,name,properties&$expand=properties/owner.Thing($select=id,name)");
+        assertEquals(2, things.size());
+        assertFalse(queries.stream().anyMatch(sql -> sql.contains(ROW_NUMBER_SQL)), queries::toString);
+
+        final Map<String, Object> properties = things.get(0).getProperty(ModelRegistry.EP_PROPERTIES);
+        final Entity owner = (Entity) properties.get("owner.Thing");
+        assertNotNull(owner);
+        assertEquals(pk(103L), owner.getPrimaryKeyValues());
+        assertEquals(Map.of(), things.get(1).getProperty(ModelRegistry.EP_PROPERTIES));
+    }
+
+    @Test
+    void testSizeLimitCheckedAfterExpand() {
+        init(2, 60, false);
+        final String longName = "D".repeat(40);
+        responder = (sql, bindings) -> {
+            if (sql.contains(ROW_NUMBER_SQL)) {
+                final List<Object[]> rows = new ArrayList<>();
+                for (long parent = 101; parent <= 105; parent++) {
+                    rows.add(row(parent + 100, longName, parent, 1));
+                }
+                return batchResult(bindings, new Field[]{ID, NAME, PARENT, ROW_NUMBER}, rows.toArray(Object[][]::new));
+            }
+            return result(new Field[]{ID, NAME}, row(101L, "T1"), row(102L, "T2"), row(103L, "T3"), row(104L, "T4"), row(105L, "T5"));
+        };
+        final EntitySet set = (EntitySet) pm.get(parsePath("/Things"), parseQuery("/Things", "$select=id,name&$expand=Datastreams($select=id,name)"));
+        final List<Entity> things = new ArrayList<>();
+        set.forEach(things::add);
+        // The expands of the first batch exceed the size limit, the next
+        // batch is not loaded.
+        assertEquals(2, things.size());
+        assertEquals(2, queries.size());
+        assertNotNull(set.getNextLink());
+        assertTrue(set.getNextLink().contains("$skip=2"), set.getNextLink());
+    }
+
+    private List<Entity> getAll(String path, String query) {
+        final ResourcePath resourcePath = parsePath(path);
+        final EntitySet set = (EntitySet) pm.get(resourcePath, parseQuery(path, query));
+        final List<Entity> entities = new ArrayList<>();
+        set.forEach(entities::add);
+        return entities;
+    }
+
+    private ResourcePath parsePath(String path) {
+        return PathParser.parsePath(coreSettings.getModelRegistry(), SERVICE_ROOT_URL, Version.V_1_1, path);
+    }
+
+    private Query parseQuery(String path, String query) {
+        return QueryParser.parseQuery(query, coreSettings.getQueryDefaults(), coreSettings.getModelRegistry(), parsePath(path))
+                .validate();
+    }
+
+    private QueryBuilder.BatchSelectResult batchSelect(NavigationPropertyEntitySet np, Query subQuery, Object... parentIds) {
+        final PathElementEntitySet parentCollection = new PathElementEntitySet(pluginCoreModel.etThing);
+        final PathElementEntity parent = new PathElementEntity(null, pluginCoreModel.etThing, parentCollection);
+        final ResourcePath ePath = new ResourcePath(SERVICE_ROOT_URL, Version.V_1_1, null);
+        ePath.addPathElement(parentCollection, false, false);
+        ePath.addPathElement(parent, false, true);
+        ePath.addPathElement(new PathElementEntitySet(np, parent), true, false);
+        final List<PkValue> pks = new ArrayList<>();
+        for (Object id : parentIds) {
+            pks.add(PkValue.of(id));
+        }
+        return new QueryBuilder(pm)
+                .forPath(ePath)
+                .forBatchParents(parent, pks)
+                .usingQuery(subQuery)
+                .buildBatchSelect();
+    }
+
+    private static PkValue pk(Object id) {
+        return PkValue.of(id);
+    }
+
+    private static List<PkValue> pks(EntitySet set) {
+        final List<PkValue> pks = new ArrayList<>();
+        for (Entity entity : set) {
+            pks.add(entity.getPrimaryKeyValues());
+        }
+        return pks;
+    }
+
+    private static Object[] row(Object... values) {
+        return values;
+    }
+
+    private Result<Record> result(Field[] fields, Object[]... rows) {
+        final DSLContext dslContext = pm.getDslContext();
+        final Result<Record> result = dslContext.newResult(fields);
+        for (Object[] values : rows) {
+            final Record record = dslContext.newRecord(fields);
+            record.fromArray(values);
+            result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * Creates the result of a batched query, with only the rows of the
+     * parents that the query asked for. The parent id is the second-last
+     * value of each row.
+     */
+    private Result<Record> batchResult(List<Object> bindings, Field[] fields, Object[]... rows) {
+        return result(fields, Arrays.stream(rows)
+                .filter(values -> bindings.contains(values[values.length - 2]))
+                .toArray(Object[][]::new));
+    }
+
+    private MockResult[] respond(String sql, Object[] bindings) {
+        queries.add(sql);
+        return new MockResult[]{new MockResult(0, responder.apply(sql, Arrays.asList(bindings)))};
+    }
+
+    /**
+     * A PostgresPersistenceManager that sends its queries to the mock
+     * database of the test.
+     */
+    private static class MockPersistenceManager extends PostgresPersistenceManager {
+
+        private final DSLContext dslContext;
+
+        public MockPersistenceManager(ExpandBatchTest test) {
+            dslContext = DSL.using(new MockConnection(ctx -> test.respond(ctx.sql(), ctx.bindings())), SQLDialect.POSTGRES);
+        }
+
+        @Override
+        public DSLContext getDslContext() {
+            return dslContext;
+        }
+
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.EntityFactories;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables.TableCollection;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.lang.reflect.Proxy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the GeneratedFoiCache, in particular that FeaturesOfInterest
+ * generated in a transaction are only cached once that transaction ends.
+ */
+class GeneratedFoiCacheTest {
+
+    private PluginCoreModel pluginCoreModel;
+    private GeneratedFoiCache cache;
+    private EntityFactories entityFactories;
+    private JooqPersistenceManager pm;
+
+    @BeforeEach
+    public void setUp() {
+        final CoreSettings coreSettings = new CoreSettings();
+        coreSettings.setMessageBus((MessageBus) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{MessageBus.class},
+                (proxy, method, args) -> null));
+        pluginCoreModel = new PluginCoreModel();
+        cache = new GeneratedFoiCache(pluginCoreModel, 10);
+        entityFactories = new EntityFactories(coreSettings.getModelRegistry(), new TableCollection().setModelRegistry(coreSettings.getModelRegistry()));
+        pm = (JooqPersistenceManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{JooqPersistenceManager.class},
+                (proxy, method, args) -> switch (method.getName()) {
+            case "getCoreSettings" ->
+                coreSettings;
+            case "getEntityFactories" ->
+                entityFactories;
+            default ->
+                throw new UnsupportedOperationException(method.getName());
+        });
+        // Registers the cache with the message bus.
+        assertNull(cache.get(pm, 1L));
+    }
+
+    @Test
+    void testCacheNotGenerated() {
+        cache.put(1L, 10L);
+        assertEquals(10L, cache.get(pm, 1L));
+    }
+
+    @Test
+    void testGeneratedCachedAfterCommit() {
+        cache.generated(pm, 10L);
+        cache.put(1L, 10L);
+        assertNull(cache.get(pm, 1L));
+        entityFactories.transactionCommitted();
+        assertEquals(0, cache.getPendingCount());
+        cache.put(1L, 10L);
+        assertEquals(10L, cache.get(pm, 1L));
+    }
+
+    @Test
+    void testGeneratedForgottenAfterRollback() {
+        cache.generated(pm, 10L);
+        cache.generated(pm, 11L);
+        assertEquals(2, cache.getPendingCount());
+        cache.put(1L, 10L);
+        entityFactories.transactionEnded();
+        assertEquals(0, cache.getPendingCount());
+        assertNull(cache.get(pm, 1L));
+    }
+
+    @Test
+    void testClearedOnDelete() {
+        cache.put(1L, 10L);
+        EntityChangedMessage message = new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.DELETE)
+                .setEntity(new DefaultEntity(pluginCoreModel.etFeatureOfInterest));
+        cache.messageReceived(message);
+        assertNull(cache.get(pm, 1L));
+    }
+}
@@ -39,9 +39,7 @@ import de.fraunhofer.iosb.ilt.frostserver.service.ServiceRequest;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.frostserver.service.UpdateMode;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
-import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncompleteEntityException;
 import de.fraunhofer.iosb.ilt.frostserver.util.exception.IncorrectRequestException;
-import de.fraunhofer.iosb.ilt.frostserver.util.exception.NoSuchEntityException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -91,7 +89,7 @@ public class ServiceDataArray {
         try {
             final ModelRegistry modelRegistry = settings.getModelRegistry();
             final QueryDefaults queryDefaults = request.getQueryDefaults();
-            Query query = QueryParser.parseQuery(request.getUrlQuery(), queryDefaults, modelRegistry, null, request.getUserPrincipal());
+            Query query = QueryParser.parseQuery(request.getUrlQuery(), settings, queryDefaults, null, request.getUserPrincipal());
             JsonReaderDefault entityParser = new JsonReaderDefault(modelRegistry, request.getUserPrincipal());
             List<DataArrayValue> postData = DataArrayDeserializer.deserialize(request.getContentReader(), entityParser, settings);
             List<String> selfLinks = new ArrayList<>();
@@ -130,9 +128,11 @@ public class ServiceDataArray {
     private void handleDataArrayItems(Query query, Version version, List<ArrayValueHandlers.ArrayValueHandler> handlers, DataArrayValue daValue, Entity datastream, Entity multiDatastream, PersistenceManager pm, List<String> selfLinks) {
         final String serviceRootUrl = settings.getQueryDefaults().getServiceRootUrl();
         int compCount = handlers.size();
+        final List<Entity> observations = new ArrayList<>();
+        final List<String> itemErrors = new ArrayList<>();
         for (List<Object> entry : daValue.getDataArray()) {
+            Entity observation = new DefaultEntity(pluginCoreModel.etObservation);
             try {
-                Entity observation = new DefaultEntity(pluginCoreModel.etObservation);
                 if (datastream != null) {
                     observation.setProperty(pluginCoreModel.npDatastreamObservation, datastream);
                 } else {
@@ -144,16 +144,33 @@ public class ServiceDataArray {
                 for (int i = 0; i < compCount; i++) {
                     handlers.get(i).handle(entry.get(i), observation);
                 }
-                pm.insert(observation, UpdateMode.INSERT_STA_11);
-                if (query.getMetadata() == Metadata.OFF) {
-                    selfLinks.add("");
-                } else {
-                    String selfLink = UrlHelper.generateSelfLink(serviceRootUrl, version, observation);
-                    selfLinks.add(selfLink);
-                }
-            } catch (NoSuchEntityException | IncompleteEntityException | IllegalArgumentException exc) {
+                observations.add(observation);
+                itemErrors.add(null);
+            } catch (IllegalArgumentException exc) {
                 LOGGER.debug("Failed to create entity", exc);
-                selfLinks.add("error " + exc.getMessage());
+                observations.add(null);
+                itemErrors.add("error " + exc.getMessage());
+            }
+        }
+
+        // Insert all valid Observations in one go, so they can be written in bulk.
+        final List<Entity> toInsert = observations.stream().filter(o -> o != null).toList();
+        final List<Exception> failures = pm.insertAll(toInsert, UpdateMode.INSERT_STA_11);
+        int insertIdx = 0;
+        for (int idx = 0; idx < observations.size(); idx++) {
+            Entity observation = observations.get(idx);
+            if (observation == null) {
+                selfLinks.add(itemErrors.get(idx));
+                continue;
+            }
+            Exception failure = failures.get(insertIdx++);
+            if (failure != null) {
+                LOGGER.debug("Failed to create entity", failure);
+                selfLinks.add("error " + failure.getMessage());
+            } else if (query.getMetadata() == Metadata.OFF) {
+                selfLinks.add("");
+            } else {
+                selfLinks.add(UrlHelper.generateSelfLink(serviceRootUrl, version, observation));
             }
         }
     }
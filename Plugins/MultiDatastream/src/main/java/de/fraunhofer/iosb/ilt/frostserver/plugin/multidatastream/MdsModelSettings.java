@@ -23,6 +23,7 @@ import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.Settings;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValue;
 import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueBoolean;
+import de.fraunhofer.iosb.ilt.frostserver.settings.annotation.DefaultValueInt;
 
 /**
  *
@@ -34,13 +35,17 @@ public final class MdsModelSettings implements ConfigDefaults {
     public static final String TAG_ENABLE_MDS_MODEL = "multiDatastream.enable";
     @DefaultValue("")
     public static final String TAG_ID_TYPE_MULTIDATASTREAM = "multiDatastream.idType.multiDatastream";
+    @DefaultValueInt(10000)
+    public static final String TAG_METADATA_CACHE_SIZE = "multiDatastream.metadataCacheSize";
 
     public final String idTypeDefault;
     public final String idTypeMultiDatastream;
+    public final int metadataCacheSize;
 
     public MdsModelSettings(CoreSettings settings) {
         Settings pluginSettings = settings.getPluginSettings();
         idTypeDefault = pluginSettings.get(CoreModelSettings.TAG_ID_TYPE_DEFAULT, MdsModelSettings.class).toUpperCase();
         idTypeMultiDatastream = pluginSettings.get(TAG_ID_TYPE_MULTIDATASTREAM, idTypeDefault).toUpperCase();
+        metadataCacheSize = pluginSettings.getInt(TAG_METADATA_CACHE_SIZE, MdsModelSettings.class);
     }
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.plugin.multidatastream;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageListener;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.GeneratedFoiCache;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.PluginCoreModel;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the metadata of MultiDatastreams that is needed when inserting
+ * Observations: the number of ObservedProperties, that the result array must
+ * match, and the id of the generated FeatureOfInterest.
+ *
+ * The ids of generated FeaturesOfInterest are kept in the
+ * {@link GeneratedFoiCache} of the CoreModel plugin, so that they are cleared
+ * when Locations or Things change, like those of Datastreams. The number of
+ * ObservedProperties is cleared by the MultiDatastream and ObservedProperty
+ * hooks, and by messages on the message bus about changes to MultiDatastreams
+ * and deleted ObservedProperties, so that other instances in a multi-node
+ * setup also clear their caches. The cache is only used once it is registered
+ * with the message bus. MultiDatastreams created in a transaction are not
+ * cached until that transaction ends, since it may be rolled back.
+ *
+ * @author hylke
+ */
+public class MultiDatastreamCache implements MessageListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiDatastreamCache.class.getName());
+
+    private final PluginMultiDatastream pluginMultiDatastream;
+    private final PluginCoreModel pluginCoreModel;
+    private final int maxSize;
+    private final Map<Object, Integer> arityByMdsId = new ConcurrentHashMap<>();
+    /**
+     * The ids of MultiDatastreams that were created in transactions that have
+     * not ended yet. These may not be committed, so they are not cached.
+     */
+    private final Set<Object> pendingMdsIds = ConcurrentHashMap.newKeySet();
+    private volatile boolean listening;
+
+    public MultiDatastreamCache(PluginMultiDatastream pluginMultiDatastream, PluginCoreModel pluginCoreModel, int maxSize) {
+        this.pluginMultiDatastream = pluginMultiDatastream;
+        this.pluginCoreModel = pluginCoreModel;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the cached number of ObservedProperties of the MultiDatastream with
+     * the given id.
+     *
+     * @param pm The PersistenceManager, used to register with the message bus.
+     * @param mdsId The id of the MultiDatastream.
+     * @return The number of ObservedProperties, or null if it is not cached.
+     */
+    public Integer getArity(JooqPersistenceManager pm, Object mdsId) {
+        if (maxSize <= 0 || !checkListening(pm.getCoreSettings())) {
+            return null;
+        }
+        return arityByMdsId.get(mdsId);
+    }
+
+    /**
+     * Cache the number of ObservedProperties of the MultiDatastream with the
+     * given id, unless the MultiDatastream was created recently and may not be
+     * committed yet.
+     *
+     * @param mdsId The id of the MultiDatastream.
+     * @param arity The number of ObservedProperties of the MultiDatastream.
+     */
+    public void putArity(Object mdsId, int arity) {
+        if (maxSize <= 0 || !listening || pendingMdsIds.contains(mdsId)) {
+            return;
+        }
+        if (arityByMdsId.size() >= maxSize) {
+            LOGGER.debug("MultiDatastream cache full, clearing.");
+            arityByMdsId.clear();
+        }
+        arityByMdsId.put(mdsId, arity);
+    }
+
+    /**
+     * Get the cached id of the generated FeatureOfInterest for the
+     * MultiDatastream with the given id.
+     *
+     * @param pm The PersistenceManager, used to register with the message bus.
+     * @param mdsId The id of the MultiDatastream.
+     * @return The id of the FeatureOfInterest, or null if it is not cached.
+     */
+    public Object getFoiId(JooqPersistenceManager pm, Object mdsId) {
+        if (!checkListening(pm.getCoreSettings())) {
+            return null;
+        }
+        return pluginCoreModel.getGeneratedFoiCache().get(pm, new FoiKey(mdsId));
+    }
+
+    /**
+     * Cache the id of the generated FeatureOfInterest for the MultiDatastream
+     * with the given id.
+     *
+     * @param mdsId The id of the MultiDatastream.
+     * @param foiId The id of the FeatureOfInterest.
+     */
+    public void putFoiId(Object mdsId, Object foiId) {
+        if (!listening || pendingMdsIds.contains(mdsId)) {
+            return;
+        }
+        pluginCoreModel.getGeneratedFoiCache().put(new FoiKey(mdsId), foiId);
+    }
+
+    /**
+     * Register that a MultiDatastream was created. Until the transaction of the
+     * given PersistenceManager ends, it is not cached.
+     *
+     * @param pm The PersistenceManager that created the MultiDatastream.
+     * @param mdsId The id of the created MultiDatastream.
+     */
+    public void created(JooqPersistenceManager pm, Object mdsId) {
+        if (maxSize > 0 && pendingMdsIds.add(mdsId)) {
+            pm.getEntityFactories().onTransactionEnd(() -> pendingMdsIds.remove(mdsId));
+        }
+    }
+
+    /**
+     * The number of created MultiDatastreams that are not cached because their
+     * transaction has not ended yet.
+     *
+     * @return The number of pending MultiDatastreams.
+     */
+    int getPendingCount() {
+        return pendingMdsIds.size();
+    }
+
+    /**
+     * Remove the MultiDatastream with the given id from the cache.
+     *
+     * @param mdsId The id of the MultiDatastream.
+     */
+    public void remove(Object mdsId) {
+        arityByMdsId.remove(mdsId);
+        pluginCoreModel.getGeneratedFoiCache().remove(new FoiKey(mdsId));
+    }
+
+    public void clear() {
+        arityByMdsId.clear();
+    }
+
+    private boolean checkListening(CoreSettings settings) {
+        if (!listening) {
+            registerListener(settings);
+        }
+        return listening;
+    }
+
+    private synchronized void registerListener(CoreSettings settings) {
+        if (listening) {
+            return;
+        }
+        final MessageBus messageBus = settings.getMessageBus();
+        if (messageBus == null) {
+            return;
+        }
+        messageBus.addMessageListener(this);
+        listening = true;
+    }
+
+    @Override
+    public void messageReceived(EntityChangedMessage message) {
+        final EntityType type = message.getEntityType();
+        final EntityChangedMessage.Type eventType = message.getEventType();
+        if (type == pluginMultiDatastream.etMultiDatastream) {
+            if (eventType != EntityChangedMessage.Type.CREATE) {
+                remove(message.getEntity().getPrimaryKeyValues().get(0));
+            }
+        } else if (type == pluginCoreModel.etObservedProperty && eventType == EntityChangedMessage.Type.DELETE) {
+            clear();
+        }
+    }
+
+    @Override
+    public boolean needsAllPartitions() {
+        return true;
+    }
+
+    /**
+     * The key under which the generated FeatureOfInterest of a MultiDatastream
+     * is stored in the {@link GeneratedFoiCache}, to keep them apart from
+     * those of Datastreams.
+     *
+     * @param multiDatastreamId The id of the MultiDatastream.
+     */
+    private static record FoiKey(Object multiDatastreamId) {
+    }
+
+}
@@ -97,6 +97,7 @@ public class PluginMultiDatastream implements PluginRootDocument, PluginModel, C
     private CoreSettings settings;
     private MdsModelSettings modelSettings;
     private CoreModelSettings coreModelSettings;
+    private MultiDatastreamCache multiDatastreamCache;
     private boolean enabled;
     private boolean fullyInitialised;
 
@@ -223,6 +224,7 @@ public class PluginMultiDatastream implements PluginRootDocument, PluginModel, C
                     }
                 });
 
+        multiDatastreamCache = new MultiDatastreamCache(this, pluginCoreModel, modelSettings.metadataCacheSize);
         if (pm instanceof JooqPersistenceManager ppm) {
             final TableCollection tableCollection = ppm.getTableCollection();
             final DataType dataTypeSnsr = ppm.getDataTypeFor(coreModelSettings.idTypeSensor);
@@ -282,4 +284,13 @@ public class PluginMultiDatastream implements PluginRootDocument, PluginModel, C
         return epIdMultiDatastream;
     }
 
+    /**
+     * The cache of MultiDatastream metadata, used when inserting Observations.
+     *
+     * @return The cache of MultiDatastream metadata.
+     */
+    public MultiDatastreamCache getMultiDatastreamCache() {
+        return multiDatastreamCache;
+    }
+
 }
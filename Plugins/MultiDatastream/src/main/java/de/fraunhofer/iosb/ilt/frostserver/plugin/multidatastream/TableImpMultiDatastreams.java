@@ -21,6 +21,7 @@ import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.Ho
 import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.fieldwrapper.StaTimeIntervalWrapper.KEY_TIME_INTERVAL_END;
 import static de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.fieldwrapper.StaTimeIntervalWrapper.KEY_TIME_INTERVAL_START;
 
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
 import de.fraunhofer.iosb.ilt.frostserver.model.EntityType;
 import de.fraunhofer.iosb.ilt.frostserver.model.ModelRegistry;
 import de.fraunhofer.iosb.ilt.frostserver.model.core.Entity;
@@ -354,7 +355,19 @@ public class TableImpMultiDatastreams extends StaTableAbstract<TableImpMultiData
                                             .where(((TableField) tMdOp.getObsPropertyId()).eq(entityId.get(0)))))
                     .execute();
             LOGGER.debug("Deleted {} MultiDatastreams.", count);
+            if (count > 0) {
+                pluginMultiDatastream.getMultiDatastreamCache().clear();
+            }
+        });
+        // Keep the MultiDatastream cache up to date with changes made through this instance.
+        registerHookPostInsert(-1, (pm, entity, insertFields) -> {
+            pluginMultiDatastream.getMultiDatastreamCache().created(pm, entity.getPrimaryKeyValues().get(0));
+            return true;
         });
+        registerHookPostUpdate(-1, (pm, entity, entityId, updateMode)
+                -> pluginMultiDatastream.getMultiDatastreamCache().remove(entityId.get(0)));
+        registerHookPostDelete(-1, (pm, entityId)
+                -> pluginMultiDatastream.getMultiDatastreamCache().remove(entityId.get(0)));
         // On insert Observation
         observationsTable.registerHookPreInsert(-1, (phase, pm, entity, insertFields) -> {
             if (phase != PRE_RELATIONS) {
@@ -371,12 +384,7 @@ public class TableImpMultiDatastreams extends StaTableAbstract<TableImpMultiData
                 }
                 List list = (List) result;
                 Object mdsId = mds.getPrimaryKeyValues().get(0);
-                TableImpMultiDatastreamsObsProperties tableMdsOps = tables.getTableForClass(TableImpMultiDatastreamsObsProperties.class);
-                Integer count = pm.getDslContext()
-                        .selectCount()
-                        .from(tableMdsOps)
-                        .where(((TableField) tableMdsOps.getMultiDatastreamId()).eq(mdsId))
-                        .fetchOne().component1();
+                int count = getObservedPropertyCount(pm, mdsId);
                 if (count != list.size()) {
                     throw new IllegalArgumentException("Size of result array (" + list.size() + ") must match number of observed properties (" + count + ") in the MultiDatastream.");
                 }
@@ -394,7 +402,14 @@ public class TableImpMultiDatastreams extends StaTableAbstract<TableImpMultiData
         });
         // On update, make sure we still have either a DS or MDS, but not both.
         observationsTable.registerHookPreUpdate(-1, (pm, entity, entityId, updateMode) -> {
-            Entity oldObservation = pm.get(pluginCoreModel.etObservation, entityId);
+            final boolean dsSet = entity.isSetProperty(pluginCoreModel.npDatastreamObservation);
+            final boolean mdsSet = entity.isSetProperty(pluginMultiDatastream.npMultiDatastreamObservation);
+            if (!dsSet && !mdsSet) {
+                // Neither changes, so the Observation stays valid.
+                return;
+            }
+            // Only load the old Observation if one of the two is not in the update.
+            final Entity oldObservation = dsSet && mdsSet ? null : pm.get(pluginCoreModel.etObservation, entityId);
             boolean newHasDatastream = checkDatastreamSet(oldObservation, entity, pm);
             boolean newHasMultiDatastream = checkMultiDatastreamSet(oldObservation, entity, pm);
             if (newHasDatastream == newHasMultiDatastream) {
@@ -445,8 +460,29 @@ public class TableImpMultiDatastreams extends StaTableAbstract<TableImpMultiData
         return this;
     }
 
+    private int getObservedPropertyCount(JooqPersistenceManager pm, Object mdsId) {
+        final MultiDatastreamCache cache = pluginMultiDatastream.getMultiDatastreamCache();
+        final Integer cachedCount = cache.getArity(pm, mdsId);
+        if (cachedCount != null) {
+            return cachedCount;
+        }
+        TableImpMultiDatastreamsObsProperties tableMdsOps = getTables().getTableForClass(TableImpMultiDatastreamsObsProperties.class);
+        Integer count = pm.getDslContext()
+                .selectCount()
+                .from(tableMdsOps)
+                .where(((TableField) tableMdsOps.getMultiDatastreamId()).eq(mdsId))
+                .fetchOne().component1();
+        cache.putArity(mdsId, count);
+        return count;
+    }
+
     public Entity generateFeatureOfInterest(JooqPersistenceManager pm, PkValue datastreamId) throws NoSuchEntityException, IncompleteEntityException {
         final Object dsId = datastreamId.get(0);
+        final MultiDatastreamCache cache = pluginMultiDatastream.getMultiDatastreamCache();
+        final Object cachedFoiId = cache.getFoiId(pm, dsId);
+        if (cachedFoiId != null) {
+            return new DefaultEntity(pluginCoreModel.etFeatureOfInterest, PkValue.of(cachedFoiId));
+        }
         final DSLContext dslContext = pm.getDslContext();
         TableCollection tableCollection = getTables();
         TableImpLocations tl = tableCollection.getTableForClass(TableImpLocations.class);
@@ -461,7 +497,11 @@ public class TableImpMultiDatastreams extends StaTableAbstract<TableImpMultiData
                 .innerJoin(tmd).on(((TableField) tmd.getThingId()).eq(tt.getId()))
                 .where(((TableField) tmd.getId()).eq(dsId));
         TableImpObservations tblObs = tableCollection.getTableForClass(TableImpObservations.class);
-        return tblObs.generateFeatureOfInterest(pm, query);
+        final Entity foi = tblObs.generateFeatureOfInterest(pm, query);
+        if (foi != null) {
+            cache.putFoiId(dsId, foi.getPrimaryKeyValues().get(0));
+        }
+        return foi;
     }
 
     private boolean checkMultiDatastreamSet(Entity oldObservation, Entity newObservation, JooqPersistenceManager pm) throws IncompleteEntityException {
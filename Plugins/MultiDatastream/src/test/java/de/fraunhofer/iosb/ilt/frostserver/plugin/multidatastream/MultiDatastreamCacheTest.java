@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2024 Fraunhofer Institut IOSB, Fraunhoferstr. 1, D 76131
+ * Karlsruhe, Germany.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.fraunhofer.iosb.ilt.frostserver.plugin.multidatastream;
+
+import static de.fraunhofer.iosb.ilt.frostserver.plugin.multidatastream.MdsModelSettings.TAG_ENABLE_MDS_MODEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import de.fraunhofer.iosb.ilt.frostserver.messagebus.MessageBus;
+import de.fraunhofer.iosb.ilt.frostserver.model.DefaultEntity;
+import de.fraunhofer.iosb.ilt.frostserver.model.EntityChangedMessage;
+import de.fraunhofer.iosb.ilt.frostserver.model.core.PkValue;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.JooqPersistenceManager;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.factories.EntityFactories;
+import de.fraunhofer.iosb.ilt.frostserver.persistence.pgjooq.tables.TableCollection;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.GeneratedFoiCache;
+import de.fraunhofer.iosb.ilt.frostserver.plugin.coremodel.PluginCoreModel;
+import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
+import java.lang.reflect.Proxy;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the MultiDatastreamCache.
+ */
+class MultiDatastreamCacheTest {
+
+    private static CoreSettings coreSettings;
+    private static PluginCoreModel pluginCoreModel;
+    private static PluginMultiDatastream pluginMultiDatastream;
+
+    private MultiDatastreamCache cache;
+    private EntityFactories entityFactories;
+    private JooqPersistenceManager pm;
+
+    @BeforeAll
+    public static void beforeClass() {
+        coreSettings = new CoreSettings();
+        coreSettings.getSettings().getProperties().put("plugins." + TAG_ENABLE_MDS_MODEL, "true");
+        coreSettings.setMessageBus((MessageBus) Proxy.newProxyInstance(
+                MultiDatastreamCacheTest.class.getClassLoader(),
+                new Class<?>[]{MessageBus.class},
+                (proxy, method, args) -> null));
+        pluginCoreModel = new PluginCoreModel();
+        pluginCoreModel.init(coreSettings);
+        pluginMultiDatastream = new PluginMultiDatastream();
+        pluginMultiDatastream.init(coreSettings);
+        coreSettings.getPluginManager().initPlugins(null);
+    }
+
+    @BeforeEach
+    public void setUp() {
+        pluginCoreModel.getGeneratedFoiCache().clear();
+        cache = new MultiDatastreamCache(pluginMultiDatastream, pluginCoreModel, 10);
+        entityFactories = new EntityFactories(coreSettings.getModelRegistry(), new TableCollection().setModelRegistry(coreSettings.getModelRegistry()));
+        pm = (JooqPersistenceManager) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{JooqPersistenceManager.class},
+                (proxy, method, args) -> switch (method.getName()) {
+            case "getCoreSettings" ->
+                coreSettings;
+            case "getEntityFactories" ->
+                entityFactories;
+            default ->
+                throw new UnsupportedOperationException(method.getName());
+        });
+        // Registers the caches with the message bus.
+        assertNull(cache.getArity(pm, 1L));
+        assertNull(cache.getFoiId(pm, 1L));
+    }
+
+    @Test
+    void testRemoveOnlyRemovesThatMultiDatastream() {
+        final GeneratedFoiCache foiCache = pluginCoreModel.getGeneratedFoiCache();
+        foiCache.put(1L, 100L);
+        cache.putArity(1L, 2);
+        cache.putArity(2L, 3);
+        cache.putFoiId(1L, 10L);
+        cache.putFoiId(2L, 20L);
+        cache.remove(1L);
+        assertNull(cache.getArity(pm, 1L));
+        assertNull(cache.getFoiId(pm, 1L));
+        assertEquals(3, cache.getArity(pm, 2L));
+        assertEquals(20L, cache.getFoiId(pm, 2L));
+        // The Datastream with the same id is not affected.
+        assertEquals(100L, foiCache.get(pm, 1L));
+    }
+
+    @Test
+    void testCreatedCachedAfterTransactionEnds() {
+        cache.created(pm, 1L);
+        cache.putArity(1L, 2);
+        cache.putFoiId(1L, 10L);
+        assertNull(cache.getArity(pm, 1L));
+        assertNull(cache.getFoiId(pm, 1L));
+        entityFactories.transactionCommitted();
+        assertEquals(0, cache.getPendingCount());
+        cache.putArity(1L, 2);
+        assertEquals(2, cache.getArity(pm, 1L));
+    }
+
+    @Test
+    void testCreatedForgottenAfterRollback() {
+        cache.created(pm, 1L);
+        cache.created(pm, 2L);
+        assertEquals(2, cache.getPendingCount());
+        entityFactories.transactionEnded();
+        assertEquals(0, cache.getPendingCount());
+    }
+
+    @Test
+    void testUpdateMessageRemoves() {
+        cache.putArity(1L, 2);
+        cache.putArity(2L, 3);
+        EntityChangedMessage message = new EntityChangedMessage()
+                .setEventType(EntityChangedMessage.Type.UPDATE)
+                .setEntity(new DefaultEntity(pluginMultiDatastream.etMultiDatastream, PkValue.of(1L)));
+        cache.messageReceived(message);
+        assertNull(cache.getArity(pm, 1L));
+        assertEquals(3, cache.getArity(pm, 2L));
+    }
+}
@@ -25,12 +25,14 @@ import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.REQUEST_PARAM_FO
 import de.fraunhofer.iosb.ilt.frostserver.path.Version;
 import de.fraunhofer.iosb.ilt.frostserver.plugin.odata.metadata.CsdlDocument;
 import de.fraunhofer.iosb.ilt.frostserver.plugin.odata.metadata.MxGraphGenerator;
+import de.fraunhofer.iosb.ilt.frostserver.service.DocumentCache;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceRequest;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.SimpleJsonMapper;
 import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
 import java.io.IOException;
+import java.io.StringWriter;
 import org.slf4j.LoggerFactory;
 
 /**
@@ -40,6 +42,7 @@ import org.slf4j.LoggerFactory;
 public class MetaDataGenerator {
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(MetaDataGenerator.class.getName());
+    private static final String DOCUMENT_NAME = "metadata";
     private final CoreSettings settings;
 
     public MetaDataGenerator(CoreSettings settings) {
@@ -48,8 +51,8 @@ public class MetaDataGenerator {
 
     public ServiceResponse generateMetaData(ServiceRequest request, ServiceResponse response) {
         final Version version = request.getVersion();
+        final boolean admin = PrincipalExtended.getLocalPrincipal().isAdmin();
         try {
-            final CsdlDocument doc = new CsdlDocument().generateFrom(version, settings);
             String format = request.getParameter(REQUEST_PARAM_FORMAT, "");
             String accept = request.getParameter(HEADER_ACCEPT, "");
             int idxXml = accept.indexOf(CONTENT_TYPE_APPLICATION_XML);
@@ -60,22 +63,40 @@ public class MetaDataGenerator {
             if (idxJson == -1) {
                 idxJson = Integer.MAX_VALUE;
             }
+            final String variant;
+            final String contentType;
+            final DocumentCache.Generator generator;
             if ("drawio".equalsIgnoreCase(format)) {
-                response.setContentType(CONTENT_TYPE_APPLICATION_XML);
-                new MxGraphGenerator().generate(
-                        response.getWriter(),
-                        settings.getModelRegistry(),
-                        PrincipalExtended.getLocalPrincipal().isAdmin());
-                response.setCode(200);
+                variant = "drawio";
+                contentType = CONTENT_TYPE_APPLICATION_XML;
+                generator = () -> {
+                    final StringWriter writer = new StringWriter();
+                    new MxGraphGenerator().generate(writer, settings.getModelRegistry(), admin);
+                    return writer.toString();
+                };
             } else if (idxJson < idxXml || "json".equalsIgnoreCase(format)) {
-                response.setContentType(CONTENT_TYPE_APPLICATION_JSON);
-                SimpleJsonMapper.getSimpleObjectMapper().writeValue(response.getWriter(), doc);
-                response.setCode(200);
+                variant = "json";
+                contentType = CONTENT_TYPE_APPLICATION_JSON;
+                generator = () -> SimpleJsonMapper.getSimpleObjectMapper()
+                        .writeValueAsString(new CsdlDocument().generateFrom(version, settings));
             } else {
-                response.setContentType(CONTENT_TYPE_APPLICATION_XML);
-                doc.writeXml(version, response.getWriter());
-                response.setCode(200);
+                variant = "xml";
+                contentType = CONTENT_TYPE_APPLICATION_XML;
+                generator = () -> {
+                    final StringWriter writer = new StringWriter();
+                    new CsdlDocument().generateFrom(version, settings).writeXml(version, writer);
+                    return writer.toString();
+                };
             }
+            final DocumentCache.Key key = new DocumentCache.Key(
+                    DOCUMENT_NAME,
+                    version.urlPart,
+                    request.getQueryDefaults().getServiceRootUrl(),
+                    admin,
+                    variant,
+                    contentType);
+            final DocumentCache.Document document = settings.getDocumentCache().get(key, generator);
+            return DocumentCache.writeDocument(request, response, document);
         } catch (IOException ex) {
             LOGGER.error("Failed to generate metadata document", ex);
         }
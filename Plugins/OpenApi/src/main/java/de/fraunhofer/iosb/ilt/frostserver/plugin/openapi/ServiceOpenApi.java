@@ -20,15 +20,16 @@ package de.fraunhofer.iosb.ilt.frostserver.plugin.openapi;
 import static de.fraunhofer.iosb.ilt.frostserver.util.Constants.CONTENT_TYPE_APPLICATION_JSON;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import de.fraunhofer.iosb.ilt.frostserver.formatter.FormatWriterGeneric;
 import de.fraunhofer.iosb.ilt.frostserver.plugin.openapi.spec.GeneratorContext;
 import de.fraunhofer.iosb.ilt.frostserver.plugin.openapi.spec.OADoc;
 import de.fraunhofer.iosb.ilt.frostserver.plugin.openapi.spec.OpenApiGenerator;
+import de.fraunhofer.iosb.ilt.frostserver.service.DocumentCache;
 import de.fraunhofer.iosb.ilt.frostserver.service.Service;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceRequest;
 import de.fraunhofer.iosb.ilt.frostserver.service.ServiceResponse;
 import de.fraunhofer.iosb.ilt.frostserver.settings.CoreSettings;
 import de.fraunhofer.iosb.ilt.frostserver.util.SimpleJsonMapper;
+import de.fraunhofer.iosb.ilt.frostserver.util.user.PrincipalExtended;
 import java.io.IOException;
 import java.util.List;
 import org.slf4j.LoggerFactory;
@@ -52,6 +53,7 @@ public class ServiceOpenApi {
     public static final String REQUEST_TYPE_GET_OPENAPI_SPEC = "openApi";
 
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(ServiceOpenApi.class.getName());
+    private static final String DOCUMENT_NAME = "openApi";
 
     private final CoreSettings settings;
 
@@ -60,15 +62,21 @@ public class ServiceOpenApi {
     }
 
     public ServiceResponse executeRequest(final ServiceRequest request, ServiceResponse response) {
-        GeneratorContext context = new GeneratorContext(settings)
+        final GeneratorContext context = new GeneratorContext(settings)
                 .initFromRequest(request);
-        OADoc oaDoc = OpenApiGenerator.generateOpenApiDocument(context);
+        final DocumentCache.Key key = new DocumentCache.Key(
+                DOCUMENT_NAME,
+                context.getVersion().urlPart,
+                context.getServiceRootUrl(),
+                PrincipalExtended.getLocalPrincipal().isAdmin(),
+                context.getVariant(),
+                CONTENT_TYPE_APPLICATION_JSON);
         try {
-            final String jsonString = SimpleJsonMapper.getSimpleObjectMapper().writeValueAsString(oaDoc);
-            response.setCode(200);
-            response.setContentType(CONTENT_TYPE_APPLICATION_JSON);
-            response.getWriter().append(new FormatWriterGeneric(jsonString).getFormatted());
-            return response;
+            final DocumentCache.Document document = settings.getDocumentCache().get(key, () -> {
+                OADoc oaDoc = OpenApiGenerator.generateOpenApiDocument(context);
+                return SimpleJsonMapper.getSimpleObjectMapper().writeValueAsString(oaDoc);
+            });
+            return DocumentCache.writeDocument(request, response, document);
         } catch (JsonProcessingException ex) {
             LOGGER.error("Failed to encode OA Document.", ex);
             return Service.errorResponse(response, 500, "Failed to encode document");
@@ -66,6 +66,20 @@ public final class GeneratorContext {
         return this;
     }
 
+    /**
+     * A description of the options of this context, that identifies the
+     * document generated with it, for a given version and service root URL.
+     *
+     * @return A description of the options of this context.
+     */
+    public String getVariant() {
+        return PARAM_RECURSE + '=' + recurse
+                + ',' + PARAM_ADD_REF + '=' + addRef
+                + ',' + PARAM_ADD_PROPS + '=' + addEntityProperties
+                + ',' + PARAM_ADD_VALUE + '=' + addValue
+                + ',' + PARAM_ADD_EDITING + '=' + addEditing;
+    }
+
     public CoreSettings getSettings() {
         return settings;
     }